@@ -0,0 +1,263 @@
+package com.rtbhouse.model.natives;
+
+import java.nio.FloatBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.rtbhouse.model.natives.NeuralNetworkNativeOps.Trans;
+
+/**
+ * <p>
+ * Runs {@link NeuralNetworkNativeOps} calls on a dedicated, fixed-size pool of platform threads and returns
+ * {@link CompletableFuture}s. A virtual thread calling native code directly pins its carrier for the whole call, so a
+ * few concurrent large layers stall all other virtual threads; waiting for a future of this class parks the virtual
+ * thread instead and leaves its carrier free.
+ * </p>
+ * <p>
+ * At most {@code threads + maxPendingRequests} calls are running or queued at once. Beyond that, submitting threads
+ * block (park, for virtual threads) until a call completes, so a burst of requests cannot queue unbounded work.
+ * </p>
+ * <p>
+ * Heap buffers are copied by every native call into freshly allocated memory. Here they are staged instead through
+ * direct buffers reused by each pool thread, and results are copied back before the future completes. Keep weights
+ * in direct buffers (e.g. {@link FloatBufferPool#allocateAligned}) to avoid copying them on every call.
+ * </p>
+ * Buffers must not be modified until the returned future completes. Instances are thread-safe and must be
+ * {@link #close() closed} to stop the pool threads.
+ */
+public final class AsyncNeuralNetworkOps implements AutoCloseable {
+
+    private static final AtomicInteger POOL_COUNTER = new AtomicInteger();
+
+    private final int threads;
+    private final int maxPendingRequests;
+    private final ExecutorService executor;
+    private final Semaphore permits;
+    private final FloatBufferPool buffers = new FloatBufferPool();
+    private volatile boolean closed;
+
+    /**
+     * @param threads
+     *            number of platform threads running native calls, e.g. the number of cores given to inference
+     * @param maxPendingRequests
+     *            number of calls which may wait for a free thread; submitting threads block beyond that
+     */
+    public AsyncNeuralNetworkOps(int threads, int maxPendingRequests) {
+        if (threads < 1 || maxPendingRequests < 0) {
+            throw new IllegalArgumentException();
+        }
+
+        this.threads = threads;
+        this.maxPendingRequests = maxPendingRequests;
+        this.permits = new Semaphore(threads + maxPendingRequests);
+
+        int pool = POOL_COUNTER.incrementAndGet();
+        AtomicInteger threadCounter = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "nnno-async-" + pool + "-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Same as {@link #AsyncNeuralNetworkOps(int, int)} with a thread per available processor and
+     * {@code 16 * threads} pending requests.
+     */
+    public AsyncNeuralNetworkOps() {
+        this(Runtime.getRuntime().availableProcessors(), 16 * Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Asynchronous version of
+     * {@link NeuralNetworkNativeOps#linearForward(Trans, FloatBuffer, FloatBuffer, FloatBuffer, FloatBuffer, int,
+     * int)}, with the same arguments. Blocks while too many calls are pending.
+     *
+     * @return future completed with {@code output} once it is filled
+     */
+    public CompletableFuture<FloatBuffer> linearForwardAsync(Trans transposeWeights, FloatBuffer weights,
+            FloatBuffer biases, FloatBuffer input, FloatBuffer output, int inputSize, int outputSize) {
+
+        if (inputSize > input.limit() || outputSize > output.limit() || outputSize > biases.limit()
+                || inputSize * outputSize > weights.limit() || inputSize < 0 || outputSize < 0) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        return submit(output, () -> {
+            FloatBuffer directWeights = stageIn(weights, inputSize * outputSize);
+            FloatBuffer directBiases = stageIn(biases, outputSize);
+            FloatBuffer directInput = stageIn(input, inputSize);
+            FloatBuffer directOutput = stage(output, outputSize);
+            try {
+                NeuralNetworkNativeOps.linearForward(transposeWeights, directWeights, directBiases, directInput,
+                        directOutput, inputSize, outputSize);
+                stageOut(directOutput, output, outputSize);
+            } finally {
+                release(directWeights, weights);
+                release(directBiases, biases);
+                release(directInput, input);
+                release(directOutput, output);
+            }
+        });
+    }
+
+    /**
+     * Asynchronous version of
+     * {@link NeuralNetworkNativeOps#linearBatchForward(Trans, FloatBuffer, FloatBuffer, FloatBuffer, FloatBuffer, int,
+     * int, int)}, with the same arguments. Blocks while too many calls are pending.
+     *
+     * @return future completed with {@code output} once it is filled
+     */
+    public CompletableFuture<FloatBuffer> linearBatchForwardAsync(Trans transposeWeights, FloatBuffer weights,
+            FloatBuffer biases, FloatBuffer input, FloatBuffer output, int inputRowSize, int outputRowSize,
+            int batchSize) {
+
+        if (inputRowSize * batchSize > input.limit() || outputRowSize * batchSize > output.limit()
+                || outputRowSize > biases.limit() || inputRowSize * outputRowSize > weights.limit()
+                || outputRowSize < 0 || inputRowSize < 0 || batchSize < 0) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        return submit(output, () -> {
+            FloatBuffer directWeights = stageIn(weights, inputRowSize * outputRowSize);
+            FloatBuffer directBiases = stageIn(biases, outputRowSize);
+            FloatBuffer directInput = stageIn(input, inputRowSize * batchSize);
+            FloatBuffer directOutput = stage(output, outputRowSize * batchSize);
+            try {
+                NeuralNetworkNativeOps.linearBatchForward(transposeWeights, directWeights, directBiases, directInput,
+                        directOutput, inputRowSize, outputRowSize, batchSize);
+                stageOut(directOutput, output, outputRowSize * batchSize);
+            } finally {
+                release(directWeights, weights);
+                release(directBiases, biases);
+                release(directInput, input);
+                release(directOutput, output);
+            }
+        });
+    }
+
+    /**
+     * Asynchronous version of {@link NeuralNetworkNativeOps#gemm(FloatBuffer, FloatBuffer, FloatBuffer, int, int,
+     * int)}, with the same arguments. Blocks while too many calls are pending.
+     *
+     * @return future completed with {@code Y} once it is updated
+     */
+    public CompletableFuture<FloatBuffer> gemmAsync(FloatBuffer A, FloatBuffer B, FloatBuffer Y, int m, int n,
+            int k) {
+        if (m * k > A.limit() || k * n > B.limit() || m * n > Y.limit() || m < 0 || n < 0 || k < 0) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        return submit(Y, () -> {
+            FloatBuffer directA = stageIn(A, m * k);
+            FloatBuffer directB = stageIn(B, k * n);
+            FloatBuffer directY = stageIn(Y, m * n);
+            try {
+                NeuralNetworkNativeOps.gemm(directA, directB, directY, m, n, k);
+                stageOut(directY, Y, m * n);
+            } finally {
+                release(directA, A);
+                release(directB, B);
+                release(directY, Y);
+            }
+        });
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public int getMaxPendingRequests() {
+        return maxPendingRequests;
+    }
+
+    /**
+     * Returns the number of calls running or waiting for a thread.
+     */
+    public int getPendingRequests() {
+        return threads + maxPendingRequests - permits.availablePermits();
+    }
+
+    /**
+     * Stops the pool threads after running the calls submitted so far.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        executor.shutdown();
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private CompletableFuture<FloatBuffer> submit(FloatBuffer result, Runnable call) {
+        if (closed) {
+            throw new IllegalStateException("async ops closed");
+        }
+
+        CompletableFuture<FloatBuffer> future = new CompletableFuture<>();
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.completeExceptionally(e);
+            return future;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    call.run();
+                    future.complete(result);
+                } catch (Throwable e) {
+                    // also Errors, e.g. OutOfMemoryError while staging, or the caller would wait forever
+                    future.completeExceptionally(e);
+                } finally {
+                    permits.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // raced with close()
+            permits.release();
+            future.completeExceptionally(new IllegalStateException("async ops closed"));
+        }
+        return future;
+    }
+
+    private FloatBuffer stage(FloatBuffer buffer, int size) {
+        return buffer.isDirect() ? buffer : buffers.acquire(size);
+    }
+
+    private FloatBuffer stageIn(FloatBuffer buffer, int size) {
+        FloatBuffer staged = stage(buffer, size);
+        if (staged != buffer) {
+            FloatBuffer source = buffer.duplicate();
+            source.rewind();
+            source.limit(size);
+            staged.put(source);
+            staged.rewind();
+        }
+        return staged;
+    }
+
+    private static void stageOut(FloatBuffer staged, FloatBuffer buffer, int size) {
+        if (staged != buffer) {
+            FloatBuffer destination = buffer.duplicate();
+            destination.rewind();
+            staged.limit(size);
+            destination.put(staged);
+        }
+    }
+
+    private void release(FloatBuffer staged, FloatBuffer buffer) {
+        if (staged != buffer) {
+            buffers.release(staged);
+        }
+    }
+}
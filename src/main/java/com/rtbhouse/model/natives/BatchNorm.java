@@ -0,0 +1,182 @@
+package com.rtbhouse.model.natives;
+
+import java.nio.FloatBuffer;
+
+import com.rtbhouse.model.natives.NativeMlp.LayerSpec;
+import com.rtbhouse.model.natives.NeuralNetworkNativeOps.Trans;
+
+/**
+ * <p>
+ * Inference-mode batch normalization parameters, folded into the weights and biases of an adjacent linear layer so
+ * normalization costs nothing at runtime:
+ * </p>
+ *
+ * <pre>
+ * batchNorm(x) = gamma * (x - mean) / sqrt(variance + epsilon) + beta
+ * </pre>
+ *
+ * {@link #foldIntoOutput} handles normalization of the layer output (linear, batch norm, activation),
+ * {@link #foldIntoInput} normalization of the layer input (batch norm, linear). Folding is done once in double
+ * precision, each folded weight and bias being rounded to float only when stored, so folded layers match the
+ * unfolded computation up to float rounding.
+ */
+public final class BatchNorm {
+
+    private final double[] scales;
+    private final double[] shifts;
+
+    /**
+     * @param gamma
+     *            learned scale (ro)
+     * @param beta
+     *            learned shift (ro)
+     * @param mean
+     *            running mean (ro)
+     * @param variance
+     *            running variance (ro)
+     * @param epsilon
+     *            value added to the variance for numerical stability
+     */
+    public BatchNorm(FloatBuffer gamma, FloatBuffer beta, FloatBuffer mean, FloatBuffer variance, float epsilon) {
+        int size = gamma.limit();
+        if (beta.limit() != size || mean.limit() != size || variance.limit() != size) {
+            throw new IllegalArgumentException();
+        }
+
+        this.scales = new double[size];
+        this.shifts = new double[size];
+        for (int i = 0; i < size; i++) {
+            scales[i] = gamma.get(i) / Math.sqrt((double) variance.get(i) + epsilon);
+            shifts[i] = beta.get(i) - scales[i] * mean.get(i);
+        }
+    }
+
+    /**
+     * Number of normalized features.
+     */
+    public int getSize() {
+        return scales.length;
+    }
+
+    /**
+     * In-place folds this normalization, applied to the output of a linear layer, into its weights and biases:
+     *
+     * <pre>
+     * batchNorm(weights * input + biases) = weights' * input + biases'
+     * </pre>
+     *
+     * @param transposeWeights
+     *            layout of {@code weights}, as in {@link NeuralNetworkNativeOps#linearForward}
+     * @param weights
+     *            weights matrix with logical dimensions: {@code inputSize} x {@link #getSize()} if
+     *            {@code transposeWeights == TRANSPOSE}, reversed otherwise (rw)
+     * @param biases
+     *            biases vector with size {@link #getSize()} (rw)
+     * @param inputSize
+     *            layer input size
+     */
+    public void foldIntoOutput(Trans transposeWeights, FloatBuffer weights, FloatBuffer biases, int inputSize) {
+        int outputSize = scales.length;
+        checkShape(weights, biases, inputSize, outputSize);
+
+        for (int o = 0; o < outputSize; o++) {
+            for (int i = 0; i < inputSize; i++) {
+                int index = indexOf(transposeWeights, o, i, inputSize, outputSize);
+                weights.put(index, (float) (weights.get(index) * scales[o]));
+            }
+            biases.put(o, (float) (biases.get(o) * scales[o] + shifts[o]));
+        }
+    }
+
+    /**
+     * In-place folds this normalization, applied to the input of a linear layer, into its weights and biases:
+     *
+     * <pre>
+     * weights * batchNorm(input) + biases = weights' * input + biases'
+     * </pre>
+     *
+     * @param transposeWeights
+     *            layout of {@code weights}, as in {@link NeuralNetworkNativeOps#linearForward}
+     * @param weights
+     *            weights matrix with logical dimensions: {@link #getSize()} x {@code outputSize} if
+     *            {@code transposeWeights == TRANSPOSE}, reversed otherwise (rw)
+     * @param biases
+     *            biases vector with size {@code outputSize} (rw)
+     * @param outputSize
+     *            layer output size
+     */
+    public void foldIntoInput(Trans transposeWeights, FloatBuffer weights, FloatBuffer biases, int outputSize) {
+        int inputSize = scales.length;
+        checkShape(weights, biases, inputSize, outputSize);
+
+        for (int o = 0; o < outputSize; o++) {
+            double bias = biases.get(o);
+            for (int i = 0; i < inputSize; i++) {
+                int index = indexOf(transposeWeights, o, i, inputSize, outputSize);
+                bias += weights.get(index) * shifts[i];
+                weights.put(index, (float) (weights.get(index) * scales[i]));
+            }
+            biases.put(o, (float) bias);
+        }
+    }
+
+    /**
+     * Returns a copy of {@code layer} with this normalization folded into its output, before the activation. Layer
+     * buffers are left intact.
+     *
+     * @throws IllegalArgumentException
+     *             if the layer output size differs from {@link #getSize()}
+     */
+    public LayerSpec foldIntoOutput(LayerSpec layer) {
+        if (layer.getOutputSize() != scales.length) {
+            throw new IllegalArgumentException();
+        }
+
+        LayerSpec folded = copyOf(layer);
+        foldIntoOutput(folded.getTransposeWeights(), folded.getWeights(), folded.getBiases(),
+                folded.getInputSize());
+        return folded;
+    }
+
+    /**
+     * Returns a copy of {@code layer} with this normalization folded into its input. Layer buffers are left intact.
+     *
+     * @throws IllegalArgumentException
+     *             if the layer input size differs from {@link #getSize()}
+     */
+    public LayerSpec foldIntoInput(LayerSpec layer) {
+        if (layer.getInputSize() != scales.length) {
+            throw new IllegalArgumentException();
+        }
+
+        LayerSpec folded = copyOf(layer);
+        foldIntoInput(folded.getTransposeWeights(), folded.getWeights(), folded.getBiases(),
+                folded.getOutputSize());
+        return folded;
+    }
+
+    private static void checkShape(FloatBuffer weights, FloatBuffer biases, int inputSize, int outputSize) {
+        if (outputSize > biases.limit() || inputSize * outputSize > weights.limit() || inputSize < 0
+                || outputSize < 0) {
+            throw new IndexOutOfBoundsException();
+        }
+    }
+
+    private static int indexOf(Trans transposeWeights, int output, int input, int inputSize, int outputSize) {
+        return transposeWeights == Trans.TRANSPOSE ? input * outputSize + output : output * inputSize + input;
+    }
+
+    private static LayerSpec copyOf(LayerSpec layer) {
+        return new LayerSpec(layer.getTransposeWeights(), copyOf(layer.getWeights()), copyOf(layer.getBiases()),
+                layer.getActivation(), layer.getAlpha());
+    }
+
+    private static FloatBuffer copyOf(FloatBuffer buffer) {
+        FloatBuffer source = buffer.duplicate();
+        source.rewind();
+        FloatBuffer copy = FloatBufferPool.allocateAligned(source.limit());
+        copy.put(source);
+        copy.rewind();
+        return copy;
+    }
+}
@@ -0,0 +1,49 @@
+package com.rtbhouse.model.natives;
+
+import java.util.ServiceLoader;
+
+/**
+ * <p>
+ * Service provider interface of the BLAS implementation behind {@link NeuralNetworkNativeOps#gemv},
+ * {@link NeuralNetworkNativeOps#gemm}, {@link NeuralNetworkNativeOps#linearForward} and
+ * {@link NeuralNetworkNativeOps#linearBatchForward} (and their {@code Activation} variants). A native backend names
+ * the resource directory holding the {@link NativeVariant}s of the library linked against its BLAS; backends built
+ * with different providers are packaged side by side and one of them is loaded when {@link NeuralNetworkNativeOps}
+ * is initialized. {@link NeuralNetworkNativeOps#getBlasBackend()} tells which one.
+ * </p>
+ * <p>
+ * The backend is the one named by the {@value #BACKEND_PROPERTY} system property, e.g.
+ * {@code -Dcom.rtbhouse.model.natives.blas=mkl}, otherwise the first bundled backend registered with
+ * {@link ServiceLoader} under {@code META-INF/services/com.rtbhouse.model.natives.BlasBackend}, otherwise the first
+ * bundled {@link StandardBlasBackend}.
+ * </p>
+ * <p>
+ * Only the float weights overloads of the methods above, and {@link AsyncNeuralNetworkOps},
+ * {@link LinearForwardCoalescer} and {@link NativeMlp} which delegate to them, follow the backend. Everything else
+ * calls the loaded native library directly: the remaining {@link NeuralNetworkNativeOps} operations (half-precision
+ * weights, sparse input, activations, normalizations, embedding bags), {@link LinearLayer}, {@link PackedWeights},
+ * {@link FloatSegmentOps} and {@link ParallelLinearOps}.
+ * </p>
+ * The pure Java backend ({@link StandardBlasBackend#JAVA}) therefore still needs a native build: the library of the
+ * first bundled native backend is loaded with it, and the classes listed above keep using its BLAS. It is meant for
+ * comparing the native BLAS against {@link JavaNeuralNetworkOps}, not for running without native libraries.
+ */
+public interface BlasBackend {
+
+    /**
+     * Name of the system property forcing the backend to use.
+     */
+    String BACKEND_PROPERTY = "com.rtbhouse.model.natives.blas";
+
+    /**
+     * Name matched, case insensitively, against the {@value #BACKEND_PROPERTY} property.
+     */
+    String getName();
+
+    /**
+     * Resource directory with the native library variants of this backend, relative to
+     * {@code com/rtbhouse/model/natives/} and ending with {@code /} unless empty; {@code null} if the BLAS operations
+     * are computed in pure Java.
+     */
+    String getLibraryDirectory();
+}
@@ -0,0 +1,542 @@
+package com.rtbhouse.model.natives;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.FloatBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.rtbhouse.model.natives.NativeMlp.LayerSpec;
+import com.rtbhouse.model.natives.NeuralNetworkNativeOps.Trans;
+import com.rtbhouse.model.natives.OpMetrics.Op;
+
+/**
+ * <p>
+ * Per-shape choice between the native and the pure Java implementation of {@link NeuralNetworkNativeOps#gemv},
+ * {@link NeuralNetworkNativeOps#linearForward} and {@link NeuralNetworkNativeOps#linearBatchForward} (and of their
+ * {@code Activation} variants), measured on the machine at hand. It refines the single
+ * {@link NeuralNetworkNativeOps#setJavaCrossoverSize Java crossover size}, whose default comes from one desktop CPU:
+ * shapes present in the profile installed with {@link NeuralNetworkNativeOps#setDispatchProfile} are dispatched as
+ * measured, other single vector shapes still follow the crossover size and other batches run native code.
+ * </p>
+ * <p>
+ * {@link #calibrate} times both implementations on direct buffers for the shapes a model declares (see
+ * {@link #shapesOf}). {@link #store} writes the decisions to a properties file tagged with the {@link NativeVariant},
+ * the {@link BlasBackend} and the CPU model they were measured with, so later JVMs on the same hardware and backend
+ * {@link #load} it instead of measuring again, either with {@link #loadOrCalibrate} or through the
+ * {@value NeuralNetworkNativeOps#DISPATCH_PROFILE_PROPERTY} system property.
+ * </p>
+ * Instances are immutable and thread-safe.
+ */
+public final class DispatchProfile {
+
+    /**
+     * Largest input, output and batch size a profile can hold.
+     */
+    public static final int MAX_SIZE = (1 << 19) - 1;
+
+    /**
+     * Default time spent measuring each implementation of a shape, warm-up included.
+     */
+    public static final long DEFAULT_MEASUREMENT_MILLIS = 200;
+
+    private static final Logger LOGGER = Logger.getLogger(DispatchProfile.class.getName());
+
+    private static final String NATIVE_VARIANT_KEY = "nativeVariant";
+    private static final String BLAS_BACKEND_KEY = "blasBackend";
+    private static final String CPU_MODEL_KEY = "cpuModel";
+    private static final String UNKNOWN_CPU_MODEL = "unknown";
+    private static final String CPUINFO_PATH = "/proc/cpuinfo";
+    private static final int MEASUREMENT_ROUNDS = 5;
+    private static final int SIZE_BITS = 19;
+    private static final long EMPTY = -1;
+
+    /**
+     * Implementation an operation is dispatched to.
+     */
+    public enum Implementation {
+        NATIVE, JAVA
+    }
+
+    /**
+     * Operation and dimensions a profile decision applies to. Dimensions and {@code transposeWeights} follow the
+     * operation's own parameters, e.g. {@code inputRowSize}, {@code outputRowSize} and {@code batchSize} of
+     * {@link NeuralNetworkNativeOps#linearBatchForward}; {@link Op#GEMV} has {@code m} as input size, {@code n} as
+     * output size and no transposition.
+     */
+    public static final class Shape {
+        private final Op op;
+        private final Trans transposeWeights;
+        private final int inputSize;
+        private final int outputSize;
+        private final int batchSize;
+
+        private Shape(Op op, Trans transposeWeights, int inputSize, int outputSize, int batchSize) {
+            this.op = op;
+            this.transposeWeights = transposeWeights;
+            this.inputSize = inputSize;
+            this.outputSize = outputSize;
+            this.batchSize = batchSize;
+        }
+
+        /**
+         * @param op
+         *            {@link Op#GEMV}, {@link Op#LINEAR_FORWARD} or {@link Op#LINEAR_BATCH_FORWARD}
+         * @param transposeWeights
+         *            weights transposition, must be {@link Trans#NO_TRANSPOSE} for {@link Op#GEMV}
+         * @param inputSize
+         *            input (row) size, at most {@value #MAX_SIZE}
+         * @param outputSize
+         *            output (row) size, at most {@value #MAX_SIZE}
+         * @param batchSize
+         *            batch size, must be {@code 1} for the single vector operations
+         * @throws IllegalArgumentException
+         *             if the operation is not supported or the sizes are out of range
+         */
+        public static Shape of(Op op, Trans transposeWeights, int inputSize, int outputSize, int batchSize) {
+            if (opIndex(op) < 0 || op == Op.GEMV && transposeWeights != Trans.NO_TRANSPOSE
+                    || op != Op.LINEAR_BATCH_FORWARD && batchSize != 1) {
+                throw new IllegalArgumentException("unsupported shape: " + op + " " + transposeWeights
+                        + " batch " + batchSize);
+            }
+            if (!inRange(inputSize) || !inRange(outputSize) || !inRange(batchSize)) {
+                throw new IllegalArgumentException("sizes out of [0, " + MAX_SIZE + "]: " + inputSize + " x "
+                        + outputSize + " x " + batchSize);
+            }
+            return new Shape(op, transposeWeights, inputSize, outputSize, batchSize);
+        }
+
+        public Op getOp() {
+            return op;
+        }
+
+        public Trans getTransposeWeights() {
+            return transposeWeights;
+        }
+
+        public int getInputSize() {
+            return inputSize;
+        }
+
+        public int getOutputSize() {
+            return outputSize;
+        }
+
+        public int getBatchSize() {
+            return batchSize;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Shape)) {
+                return false;
+            }
+            Shape shape = (Shape) other;
+            return op == shape.op && transposeWeights == shape.transposeWeights && inputSize == shape.inputSize
+                    && outputSize == shape.outputSize && batchSize == shape.batchSize;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(op, transposeWeights, inputSize, outputSize, batchSize);
+        }
+
+        /**
+         * Returns the profile file key, e.g. {@code LINEAR_BATCH_FORWARD.TRANSPOSE.300.150.64}.
+         */
+        @Override
+        public String toString() {
+            return op + "." + transposeWeights + "." + inputSize + "." + outputSize + "." + batchSize;
+        }
+
+        static Shape parse(String key) {
+            String[] parts = key.split("\\.");
+            if (parts.length != 5) {
+                throw new IllegalArgumentException("invalid shape: " + key);
+            }
+            return of(Op.valueOf(parts[0]), Trans.valueOf(parts[1]), Integer.parseInt(parts[2]),
+                    Integer.parseInt(parts[3]), Integer.parseInt(parts[4]));
+        }
+    }
+
+    private final String nativeVariant;
+    private final String blasBackend;
+    private final String cpuModel;
+    private final Map<Shape, Implementation> implementations;
+
+    private final long[] keys;
+    private final byte[] values;
+    private final int mask;
+
+    DispatchProfile(String nativeVariant, String blasBackend, String cpuModel,
+            Map<Shape, Implementation> implementations) {
+        this.nativeVariant = nativeVariant;
+        this.blasBackend = blasBackend;
+        this.cpuModel = cpuModel;
+        this.implementations = Collections.unmodifiableMap(new LinkedHashMap<>(implementations));
+
+        int capacity = Integer.highestOneBit(Math.max(implementations.size(), 1) * 2) * 2;
+        this.keys = new long[capacity];
+        this.values = new byte[capacity];
+        this.mask = capacity - 1;
+        Arrays.fill(keys, EMPTY);
+        for (Map.Entry<Shape, Implementation> entry : implementations.entrySet()) {
+            Shape shape = entry.getKey();
+            long key = key(shape.op, shape.transposeWeights, shape.inputSize, shape.outputSize, shape.batchSize);
+            int slot = slotOf(key);
+            while (keys[slot] != EMPTY && keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = key;
+            values[slot] = (byte) entry.getValue().ordinal();
+        }
+    }
+
+    /**
+     * Returns the shapes {@code layers} are computed with: {@link Op#LINEAR_FORWARD} for batch size {@code 1} and
+     * {@link Op#LINEAR_BATCH_FORWARD}, with weights transposition flipped to its batch convention, for the others.
+     *
+     * @param layers
+     *            model layers, see {@link NativeMlp}
+     * @param batchSizes
+     *            batch sizes the model is run with
+     */
+    public static List<Shape> shapesOf(List<LayerSpec> layers, int... batchSizes) {
+        Set<Shape> shapes = new LinkedHashSet<>();
+        for (LayerSpec layer : layers) {
+            for (int batchSize : batchSizes) {
+                if (batchSize == 1) {
+                    shapes.add(Shape.of(Op.LINEAR_FORWARD, layer.getTransposeWeights(), layer.getInputSize(),
+                            layer.getOutputSize(), 1));
+                } else {
+                    Trans batchTranspose = layer.getTransposeWeights() == Trans.TRANSPOSE ? Trans.NO_TRANSPOSE
+                            : Trans.TRANSPOSE;
+                    shapes.add(Shape.of(Op.LINEAR_BATCH_FORWARD, batchTranspose, layer.getInputSize(),
+                            layer.getOutputSize(), batchSize));
+                }
+            }
+        }
+        return new ArrayList<>(shapes);
+    }
+
+    /**
+     * Same as {@link #calibrate(Collection, long)} with {@value #DEFAULT_MEASUREMENT_MILLIS} ms per implementation.
+     */
+    public static DispatchProfile calibrate(Collection<Shape> shapes) {
+        return calibrate(shapes, DEFAULT_MEASUREMENT_MILLIS);
+    }
+
+    /**
+     * Measures the native and the pure Java implementation of every shape in the calling thread and picks the faster
+     * one. Each implementation is warmed up for half of {@code measurementMillis}, then the best per-call time of
+     * {@value #MEASUREMENT_ROUNDS} rounds is taken, so that occasional interference does not skew the choice. Run it
+     * on an otherwise idle machine, e.g. before the service takes traffic.
+     *
+     * @param shapes
+     *            shapes to measure
+     * @param measurementMillis
+     *            time spent on each implementation of a shape
+     */
+    public static DispatchProfile calibrate(Collection<Shape> shapes, long measurementMillis) {
+        if (measurementMillis <= 0) {
+            throw new IllegalArgumentException();
+        }
+        long budgetNanos = measurementMillis * 1_000_000;
+        Map<Shape, Implementation> implementations = new LinkedHashMap<>();
+        for (Shape shape : shapes) {
+            Measurement measurement = new Measurement(shape);
+            long nativeNanos = measurement.measure(Implementation.NATIVE, budgetNanos);
+            long javaNanos = measurement.measure(Implementation.JAVA, budgetNanos);
+            implementations.put(shape, javaNanos < nativeNanos ? Implementation.JAVA : Implementation.NATIVE);
+        }
+        return new DispatchProfile(NeuralNetworkNativeOps.getNativeVariant().name(),
+                NeuralNetworkNativeOps.getBlasBackend().getName(), readCpuModel(), implementations);
+    }
+
+    /**
+     * Loads the profile stored at {@code path} if it is {@link #isCompatible() compatible} and covers all
+     * {@code shapes}; otherwise calibrates all {@code shapes} (see {@link #calibrate(Collection)}) and stores the new
+     * profile at {@code path}.
+     */
+    public static DispatchProfile loadOrCalibrate(Path path, Collection<Shape> shapes) throws IOException {
+        if (Files.exists(path)) {
+            DispatchProfile profile = load(path);
+            if (profile.isCompatible() && profile.implementations.keySet().containsAll(shapes)) {
+                return profile;
+            }
+        }
+        DispatchProfile profile = calibrate(shapes);
+        profile.store(path);
+        return profile;
+    }
+
+    /**
+     * Reads a profile written by {@link #store}.
+     *
+     * @throws IllegalArgumentException
+     *             if the file contains an invalid entry
+     */
+    public static DispatchProfile load(Path path) throws IOException {
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        }
+        String nativeVariant = properties.getProperty(NATIVE_VARIANT_KEY);
+        // profiles stored before BLAS backends were selectable were measured with OpenBLAS
+        String blasBackend = properties.getProperty(BLAS_BACKEND_KEY, StandardBlasBackend.OPENBLAS.getName());
+        String cpuModel = properties.getProperty(CPU_MODEL_KEY, UNKNOWN_CPU_MODEL);
+        if (nativeVariant == null) {
+            throw new IllegalArgumentException("no " + NATIVE_VARIANT_KEY + " in " + path);
+        }
+        Map<Shape, Implementation> implementations = new LinkedHashMap<>();
+        for (String name : new TreeSet<>(properties.stringPropertyNames())) {
+            if (!name.equals(NATIVE_VARIANT_KEY) && !name.equals(BLAS_BACKEND_KEY) && !name.equals(CPU_MODEL_KEY)) {
+                implementations.put(Shape.parse(name), Implementation.valueOf(properties.getProperty(name).trim()));
+            }
+        }
+        return new DispatchProfile(nativeVariant, blasBackend, cpuModel, implementations);
+    }
+
+    /**
+     * Writes the profile as a properties file, one {@code shape=implementation} line per shape.
+     */
+    public void store(Path path) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            writer.write("# neural-network-native-ops dispatch profile\n");
+            write(writer, NATIVE_VARIANT_KEY, nativeVariant);
+            write(writer, BLAS_BACKEND_KEY, blasBackend);
+            write(writer, CPU_MODEL_KEY, cpuModel);
+            for (Map.Entry<Shape, Implementation> entry : implementations.entrySet()) {
+                write(writer, entry.getKey().toString(), entry.getValue().name());
+            }
+        }
+    }
+
+    /**
+     * Returns whether the profile was measured with the native library variant, the BLAS backend and the CPU model
+     * of this JVM.
+     */
+    public boolean isCompatible() {
+        return nativeVariant.equals(NeuralNetworkNativeOps.getNativeVariant().name())
+                && blasBackend.equalsIgnoreCase(NeuralNetworkNativeOps.getBlasBackend().getName())
+                && cpuModel.equals(readCpuModel());
+    }
+
+    public String getNativeVariant() {
+        return nativeVariant;
+    }
+
+    /**
+     * Returns the {@link BlasBackend#getName() name} of the BLAS backend the profile was measured with.
+     */
+    public String getBlasBackend() {
+        return blasBackend;
+    }
+
+    public String getCpuModel() {
+        return cpuModel;
+    }
+
+    /**
+     * Returns the measured implementation of each shape, in calibration order or sorted by shape when loaded.
+     */
+    public Map<Shape, Implementation> getImplementations() {
+        return implementations;
+    }
+
+    /**
+     * Returns the implementation measured for the given shape, {@code null} if it is not in the profile. Does not
+     * allocate.
+     */
+    Implementation implementationFor(Op op, Trans transposeWeights, int inputSize, int outputSize, int batchSize) {
+        if (!inRange(inputSize) || !inRange(outputSize) || !inRange(batchSize) || opIndex(op) < 0) {
+            return null;
+        }
+        long key = key(op, transposeWeights, inputSize, outputSize, batchSize);
+        for (int slot = slotOf(key);; slot = (slot + 1) & mask) {
+            long candidate = keys[slot];
+            if (candidate == key) {
+                return Implementation.values()[values[slot]];
+            }
+            if (candidate == EMPTY) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Loads the profile named by the {@value NeuralNetworkNativeOps#DISPATCH_PROFILE_PROPERTY} system property, see
+     * {@link #loadIfUsable(String)}.
+     */
+    static DispatchProfile loadFromProperty() {
+        return loadIfUsable(System.getProperty(NeuralNetworkNativeOps.DISPATCH_PROFILE_PROPERTY));
+    }
+
+    /**
+     * Loads the profile at {@code path} if it is set, existing, readable, valid and {@link #isCompatible()
+     * compatible}; returns {@code null} otherwise, logging a warning for unreadable or invalid files. Never throws,
+     * since it runs while {@link NeuralNetworkNativeOps} is initialized and the profile is optional.
+     */
+    static DispatchProfile loadIfUsable(String path) {
+        try {
+            if (path == null || !Files.exists(Paths.get(path))) {
+                return null;
+            }
+            DispatchProfile profile = load(Paths.get(path));
+            return profile.isCompatible() ? profile : null;
+        } catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.WARNING, "ignoring dispatch profile " + path, e);
+            return null;
+        }
+    }
+
+    /**
+     * Returns the {@code model name} of the first processor in {@code /proc/cpuinfo}.
+     */
+    static String parseCpuModel(List<String> cpuinfo) {
+        for (String line : cpuinfo) {
+            int colon = line.indexOf(':');
+            if (colon > 0 && line.substring(0, colon).trim().equals("model name")) {
+                return line.substring(colon + 1).trim();
+            }
+        }
+        return UNKNOWN_CPU_MODEL;
+    }
+
+    private static String readCpuModel() {
+        try {
+            return parseCpuModel(Files.readAllLines(Paths.get(CPUINFO_PATH), StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            return UNKNOWN_CPU_MODEL;
+        }
+    }
+
+    private static void write(Writer writer, String key, String value) throws IOException {
+        writer.write(key + "=" + value.replace("\\", "\\\\") + "\n");
+    }
+
+    private static boolean inRange(int size) {
+        return size >= 0 && size <= MAX_SIZE;
+    }
+
+    private static int opIndex(Op op) {
+        switch (op) {
+            case GEMV:
+                return 0;
+            case LINEAR_FORWARD:
+                return 1;
+            case LINEAR_BATCH_FORWARD:
+                return 2;
+            default:
+                return -1;
+        }
+    }
+
+    private static long key(Op op, Trans transposeWeights, int inputSize, int outputSize, int batchSize) {
+        return (long) (transposeWeights.ordinal() << 2 | opIndex(op)) << 3 * SIZE_BITS
+                | (long) inputSize << 2 * SIZE_BITS | (long) outputSize << SIZE_BITS | batchSize;
+    }
+
+    private int slotOf(long key) {
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+    }
+
+    /**
+     * Direct buffers of one shape filled with random values, and the timing loop.
+     */
+    private static final class Measurement {
+        private final Shape shape;
+        private final FloatBuffer weights;
+        private final FloatBuffer biases;
+        private final FloatBuffer input;
+        private final FloatBuffer output;
+
+        Measurement(Shape shape) {
+            this.shape = shape;
+            Random random = new Random(shape.hashCode());
+            this.weights = randomBuffer(random, shape.inputSize * shape.outputSize);
+            this.biases = randomBuffer(random, shape.outputSize);
+            this.input = randomBuffer(random, shape.inputSize * shape.batchSize);
+            this.output = randomBuffer(random, shape.outputSize * shape.batchSize);
+        }
+
+        long measure(Implementation implementation, long budgetNanos) {
+            long warmupEnd = System.nanoTime() + budgetNanos / 2;
+            while (System.nanoTime() < warmupEnd) {
+                run(implementation);
+            }
+            long best = Long.MAX_VALUE;
+            long roundNanos = budgetNanos / 2 / MEASUREMENT_ROUNDS;
+            for (int round = 0; round < MEASUREMENT_ROUNDS; round++) {
+                long start = System.nanoTime();
+                long calls = 0;
+                long now;
+                do {
+                    run(implementation);
+                    calls++;
+                    now = System.nanoTime();
+                } while (now - start < roundNanos);
+                best = Math.min(best, (now - start) / calls);
+            }
+            return best;
+        }
+
+        private void run(Implementation implementation) {
+            boolean transpose = shape.transposeWeights == Trans.TRANSPOSE;
+            switch (shape.op) {
+                case GEMV:
+                    if (implementation == Implementation.JAVA) {
+                        JavaNeuralNetworkOps.gemv(weights, input, output, shape.inputSize, shape.outputSize);
+                    } else {
+                        NeuralNetworkNativeOps.nativeGemv(weights, input, output, shape.inputSize,
+                                shape.outputSize);
+                    }
+                    break;
+                case LINEAR_FORWARD:
+                    if (implementation == Implementation.JAVA) {
+                        JavaNeuralNetworkOps.linearForward(transpose, weights, biases, input, output,
+                                shape.inputSize, shape.outputSize);
+                    } else {
+                        NeuralNetworkNativeOps.nativeLinearForward(shape.transposeWeights.value(), weights, biases,
+                                input, output, shape.inputSize, shape.outputSize);
+                    }
+                    break;
+                default:
+                    if (implementation == Implementation.JAVA) {
+                        JavaNeuralNetworkOps.linearBatchForward(!transpose, weights, biases, input, output,
+                                shape.inputSize, shape.outputSize, shape.batchSize);
+                    } else {
+                        NeuralNetworkNativeOps.nativeLinearBatchForward(shape.transposeWeights.value(), weights,
+                                biases, input, output, shape.inputSize, shape.outputSize, shape.batchSize);
+                    }
+                    break;
+            }
+        }
+
+        private static FloatBuffer randomBuffer(Random random, int size) {
+            FloatBuffer buffer = FloatBufferPool.allocateAligned(size);
+            for (int i = 0; i < size; i++) {
+                buffer.put(i, random.nextFloat() - 0.5f);
+            }
+            return buffer;
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package com.rtbhouse.model.natives;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * Pool of direct, native-ordered float buffers aligned to {@value #ALIGNMENT} bytes (cache line size, enough for
+ * aligned AVX/AVX-512 loads in BLAS kernels).
+ * </p>
+ * <p>
+ * Buffers are grouped in power-of-two size classes and recycled through thread-local free lists, so request-scoped
+ * vectors can be reused without GC pressure and without contention between threads. Every buffer obtained with
+ * {@link #acquire(int)} should be given back with {@link #release(FloatBuffer)}, typically in a {@code finally}
+ * block. A buffer released by another thread than the acquiring one lands on the releasing thread's free list.
+ * </p>
+ * When leak tracking is on, allocation sites of all outstanding buffers are recorded, which is useful in tests but
+ * too costly for production.
+ */
+public final class FloatBufferPool {
+
+    /** Alignment of all buffers in bytes. */
+    public static final int ALIGNMENT = 64;
+
+    private static final int MIN_SIZE_CLASS = 4;   // 16 floats == 64 bytes
+    private static final int MAX_SIZE_CLASS = 24;  // 16M floats == 64 MiB
+    private static final int DEFAULT_MAX_BUFFERS_PER_SIZE_CLASS = 16;
+
+    private final int maxBuffersPerSizeClass;
+    private final boolean trackLeaks;
+    private final ThreadLocal<ArrayDeque<FloatBuffer>[]> freeLists =
+            ThreadLocal.withInitial(FloatBufferPool::newFreeLists);
+    private final AtomicLong outstandingCount = new AtomicLong();
+    private final Map<FloatBuffer, Throwable> allocationSites = Collections.synchronizedMap(new IdentityHashMap<>());
+
+    /**
+     * @param maxBuffersPerSizeClass
+     *            maximal number of free buffers kept per thread in each size class; surplus is left to GC
+     * @param trackLeaks
+     *            whether allocation sites of outstanding buffers should be recorded
+     */
+    public FloatBufferPool(int maxBuffersPerSizeClass, boolean trackLeaks) {
+        if (maxBuffersPerSizeClass < 0) {
+            throw new IllegalArgumentException();
+        }
+
+        this.maxBuffersPerSizeClass = maxBuffersPerSizeClass;
+        this.trackLeaks = trackLeaks;
+    }
+
+    /**
+     * Creates a pool without leak tracking.
+     */
+    public FloatBufferPool() {
+        this(DEFAULT_MAX_BUFFERS_PER_SIZE_CLASS, false);
+    }
+
+    /**
+     * Returns an aligned direct buffer with position {@code 0} and limit {@code size}. Its capacity may be larger
+     * and its contents are undefined.
+     *
+     * @param size
+     *            number of floats needed
+     */
+    public FloatBuffer acquire(int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException();
+        }
+
+        int sizeClass = sizeClassOf(size);
+        FloatBuffer buffer = null;
+        if (sizeClass <= MAX_SIZE_CLASS) {
+            ArrayDeque<FloatBuffer> freeList = freeLists.get()[sizeClass];
+            buffer = freeList.pollFirst();
+            if (buffer == null) {
+                buffer = allocateAligned(1 << sizeClass);
+            }
+        } else {
+            buffer = allocateAligned(size);
+        }
+
+        buffer.clear();
+        buffer.limit(size);
+        outstandingCount.incrementAndGet();
+        if (trackLeaks) {
+            allocationSites.put(buffer, new Throwable("FloatBuffer of size " + size + " acquired here"));
+        }
+        return buffer;
+    }
+
+    /**
+     * Gives the buffer back to the pool. It must not be used afterwards.
+     *
+     * @param buffer
+     *            the very instance returned by {@link #acquire(int)}
+     * @throws IllegalStateException
+     *             if the buffer is already free in this thread's pool, or, when leak tracking is on, if it is not
+     *             outstanding at all, e.g. released twice by different threads
+     */
+    public void release(FloatBuffer buffer) {
+        int capacity = buffer.capacity();
+        int sizeClass = Integer.numberOfTrailingZeros(capacity);
+        ArrayDeque<FloatBuffer> freeList = null;
+        if (capacity == 1 << sizeClass && sizeClass >= MIN_SIZE_CLASS && sizeClass <= MAX_SIZE_CLASS) {
+            freeList = freeLists.get()[sizeClass];
+            // at most maxBuffersPerSizeClass identity comparisons; a buffer listed twice would be handed out twice
+            for (FloatBuffer free : freeList) {
+                if (free == buffer) {
+                    throw new IllegalStateException("FloatBuffer already released");
+                }
+            }
+        }
+        if (trackLeaks && allocationSites.remove(buffer) == null) {
+            throw new IllegalStateException("FloatBuffer not acquired from this pool or already released");
+        }
+        outstandingCount.decrementAndGet();
+
+        if (freeList != null && freeList.size() < maxBuffersPerSizeClass) {
+            freeList.addFirst(buffer);
+        }
+    }
+
+    /**
+     * Returns the number of acquired and not yet released buffers.
+     */
+    public long getOutstandingCount() {
+        return outstandingCount.get();
+    }
+
+    /**
+     * Returns allocation sites of outstanding buffers; always empty when leak tracking is off.
+     */
+    public List<Throwable> getOutstandingAllocationSites() {
+        synchronized (allocationSites) {
+            return new ArrayList<>(allocationSites.values());
+        }
+    }
+
+    /**
+     * Allocates a new, not pooled, direct float buffer aligned to {@value #ALIGNMENT} bytes, e.g. for long-lived
+     * weights.
+     *
+     * @param size
+     *            capacity of the buffer in floats
+     */
+    public static FloatBuffer allocateAligned(int size) {
+        int bytes = size * Float.BYTES;
+        ByteBuffer raw = ByteBuffer.allocateDirect(bytes + ALIGNMENT - 1);
+        int offset = NeuralNetworkNativeOps.nativeAlignmentOffset(raw, ALIGNMENT);
+        raw.position(offset);
+        raw.limit(offset + bytes);
+        return raw.slice().order(ByteOrder.nativeOrder()).asFloatBuffer();
+    }
+
+    private static int sizeClassOf(int size) {
+        return Math.max(MIN_SIZE_CLASS, 32 - Integer.numberOfLeadingZeros(Math.max(size, 1) - 1));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ArrayDeque<FloatBuffer>[] newFreeLists() {
+        ArrayDeque<FloatBuffer>[] freeLists = (ArrayDeque<FloatBuffer>[]) new ArrayDeque<?>[MAX_SIZE_CLASS + 1];
+        for (int i = 0; i < freeLists.length; i++) {
+            freeLists[i] = new ArrayDeque<>();
+        }
+        return freeLists;
+    }
+}
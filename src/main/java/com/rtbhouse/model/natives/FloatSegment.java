@@ -0,0 +1,93 @@
+package com.rtbhouse.model.natives;
+
+import java.nio.FloatBuffer;
+
+/**
+ * <p>
+ * Contiguous region of native memory holding {@link #size()} floats, identified by its raw address. Operations in
+ * {@link FloatSegmentOps} pass the address straight to native code, skipping the per-call direct buffer address
+ * lookup (and heap buffer fallback) done for {@link FloatBuffer} arguments.
+ * </p>
+ * <p>
+ * A segment is resolved once from a direct buffer (or allocated aligned) and may be sliced any number of times
+ * without touching native code again, e.g. to carve all layer inputs and outputs of a model out of one arena.
+ * </p>
+ * Memory is owned by the underlying direct buffer, which each segment references. Native code cannot keep that
+ * buffer alive, so a segment (or any segment sharing its memory) must stay strongly reachable, e.g. stored in a
+ * field, for as long as operations on it are in progress.
+ */
+public final class FloatSegment {
+
+    private final FloatBuffer buffer;
+    private final long address;
+    private final int size;
+
+    private FloatSegment(FloatBuffer buffer, long address, int size) {
+        this.buffer = buffer;
+        this.address = address;
+        this.size = size;
+    }
+
+    /**
+     * Returns a segment spanning {@code [0, limit)} of a direct buffer. Buffer position is ignored, as in all
+     * native operations.
+     *
+     * @param buffer
+     *            direct float buffer in native byte order
+     * @throws IllegalArgumentException
+     *             if the buffer is not direct
+     */
+    public static FloatSegment of(FloatBuffer buffer) {
+        if (!buffer.isDirect()) {
+            throw new IllegalArgumentException();
+        }
+
+        FloatBuffer view = buffer.duplicate();
+        view.rewind();
+        return new FloatSegment(view, NeuralNetworkNativeOps.nativeAddressOf(view), view.limit());
+    }
+
+    /**
+     * Allocates a new segment of {@code size} floats aligned to {@value FloatBufferPool#ALIGNMENT} bytes.
+     *
+     * @param size
+     *            number of floats
+     */
+    public static FloatSegment allocate(int size) {
+        return of(FloatBufferPool.allocateAligned(size));
+    }
+
+    /**
+     * Returns a segment sharing {@code size} floats of this one, starting at {@code offset}. No native call is made.
+     *
+     * @param offset
+     *            index of the first float of the slice
+     * @param size
+     *            number of floats in the slice
+     */
+    public FloatSegment slice(int offset, int size) {
+        if (offset < 0 || size < 0 || offset + size > this.size || offset + size < 0) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        FloatBuffer view = buffer.duplicate();
+        view.limit(offset + size);
+        view.position(offset);
+        return new FloatSegment(view.slice(), address + (long) offset * Float.BYTES, size);
+    }
+
+    /**
+     * Returns a buffer view of the segment, for reading and writing its contents from Java.
+     */
+    public FloatBuffer asFloatBuffer() {
+        return buffer.duplicate();
+    }
+
+    public int size() {
+        return size;
+    }
+
+    long address() {
+        return address;
+    }
+}
@@ -0,0 +1,241 @@
+package com.rtbhouse.model.natives;
+
+import java.nio.FloatBuffer;
+
+import com.rtbhouse.model.natives.NeuralNetworkNativeOps.Trans;
+
+/**
+ * <p>
+ * {@link NeuralNetworkNativeOps} operations working on {@link FloatSegment}s. Segment addresses are resolved in
+ * advance, so each call is a plain JNI call with primitive arguments only, which matters for small layers where call
+ * overhead dominates.
+ * </p>
+ * Unlike {@link NeuralNetworkNativeOps}, operations here always run native code, regardless of the
+ * {@link NeuralNetworkNativeOps#setJavaCrossoverSize Java crossover size}. Logical dimensions and bounds checking are
+ * the same as in the corresponding {@link FloatBuffer} operations, with the segment size acting as buffer limit.
+ */
+public final class FloatSegmentOps {
+
+    private FloatSegmentOps() {
+    }
+
+    /**
+     * Same as {@link NeuralNetworkNativeOps#ReLU(FloatBuffer, int)}.
+     *
+     * @param inOut
+     *            input/output vector (read write)
+     * @param endExclusive
+     *            index immediately past the last index to process
+     */
+    public static void ReLU(FloatSegment inOut, int endExclusive) {
+        if (endExclusive > inOut.size() || endExclusive < 0) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        NeuralNetworkNativeOps.nativeReLU(inOut.address(), endExclusive);
+    }
+
+    /**
+     * Same as {@link NeuralNetworkNativeOps#ReLU(FloatBuffer)}.
+     *
+     * @param inOut
+     *            input/output vector (read write)
+     */
+    public static void ReLU(FloatSegment inOut) {
+        NeuralNetworkNativeOps.nativeReLU(inOut.address(), inOut.size());
+    }
+
+    /**
+     * Same as {@link NeuralNetworkNativeOps#ELU(FloatBuffer, int, float)}.
+     *
+     * @param inOut
+     *            input/output vector (read write)
+     * @param endExclusive
+     *            index immediately past the last index to process
+     * @param alpha
+     *            varies the convergence value of the exponential function below zero
+     */
+    public static void ELU(FloatSegment inOut, int endExclusive, float alpha) {
+        if (endExclusive > inOut.size() || endExclusive < 0) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        NeuralNetworkNativeOps.nativeELU(inOut.address(), endExclusive, alpha);
+    }
+
+    /**
+     * Same as {@link NeuralNetworkNativeOps#ELU(FloatBuffer, float)}.
+     *
+     * @param inOut
+     *            input/output vector (read write)
+     * @param alpha
+     *            varies the convergence value of the exponential function below zero
+     */
+    public static void ELU(FloatSegment inOut, float alpha) {
+        NeuralNetworkNativeOps.nativeELU(inOut.address(), inOut.size(), alpha);
+    }
+
+    /**
+     * Same as {@link NeuralNetworkNativeOps#gemv(FloatBuffer, FloatBuffer, FloatBuffer, int, int)}.
+     *
+     * @param A
+     *            input matrix with logical dimensions: {@code n} x {@code m} (ro)
+     * @param x
+     *            input vector (ro)
+     * @param y
+     *            input/output vector (rw)
+     * @param m
+     *            index immediately past the last index to process in {@code x} and number of logical columns in
+     *            {@code A}
+     * @param n
+     *            index immediately past the last index to process in {@code y} and number of logical rows in {@code A}
+     */
+    public static void gemv(FloatSegment A, FloatSegment x, FloatSegment y, int m, int n) {
+        if (m > x.size() || n > y.size() || m * n > A.size() || m < 0 || n < 0) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        NeuralNetworkNativeOps.nativeGemv(A.address(), x.address(), y.address(), m, n);
+    }
+
+    /**
+     * Same as {@link NeuralNetworkNativeOps#gemv(FloatBuffer, FloatBuffer, FloatBuffer)}.
+     *
+     * @param A
+     *            input matrix with logical dimensions: {@code y.size()} x {@code x.size()} (ro)
+     * @param x
+     *            input vector (ro)
+     * @param y
+     *            input/output vector (rw)
+     */
+    public static void gemv(FloatSegment A, FloatSegment x, FloatSegment y) {
+        if (x.size() * y.size() != A.size()) {
+            throw new IllegalArgumentException();
+        }
+
+        NeuralNetworkNativeOps.nativeGemv(A.address(), x.address(), y.address(), x.size(), y.size());
+    }
+
+    /**
+     * Same as {@link NeuralNetworkNativeOps#gemm(FloatBuffer, FloatBuffer, FloatBuffer, int, int, int)}.
+     *
+     * @param A
+     *            input matrix with logical dimensions: {@code m} x {@code k} (ro)
+     * @param B
+     *            input matrix with logical dimensions: {@code k} x {@code n} (ro)
+     * @param Y
+     *            input/output matrix with logical dimensions: {@code m} x {@code n} (rw)
+     * @param m
+     *            number of logical rows in {@code A} and {@code Y}
+     * @param n
+     *            number of logical columns in {@code B} and {@code Y}
+     * @param k
+     *            number of logical columns in {@code A} and logical rows in {@code B}
+     */
+    public static void gemm(FloatSegment A, FloatSegment B, FloatSegment Y, int m, int n, int k) {
+        if (m * k > A.size() || k * n > B.size() || m * n > Y.size() || k < 0 || m < 0 || n < 0) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        NeuralNetworkNativeOps.nativeGemm(A.address(), B.address(), Y.address(), m, n, k);
+    }
+
+    /**
+     * Same as {@link NeuralNetworkNativeOps#linearForward(Trans, FloatBuffer, FloatBuffer, FloatBuffer, FloatBuffer,
+     * int, int)}.
+     *
+     * @param transposeWeights
+     *            whether {@code weights} should be transposed before multiplication
+     * @param weights
+     *            weights matrix with logical dimensions: {@code inputSize} x {@code outputSize} if
+     *            {@code transposeWeights == TRANSPOSE}, reversed otherwise (ro)
+     * @param biases
+     *            biases vector (ro)
+     * @param input
+     *            input vector (ro)
+     * @param output
+     *            output vector (write only)
+     * @param inputSize
+     *            index immediately past the last index to process in {@code input} and number of logical rows in
+     *            {@code weights} if {@code transposeWeights == TRANSPOSE}, columns otherwise.
+     * @param outputSize
+     *            index immediately past the last index to process in {@code output} and {@code biases}; also number of
+     *            logical columns in {@code weights} if {@code transposeWeights == TRANSPOSE}, rows otherwise.
+     */
+    public static void linearForward(Trans transposeWeights, FloatSegment weights, FloatSegment biases,
+            FloatSegment input, FloatSegment output, int inputSize, int outputSize) {
+
+        if (inputSize > input.size() || outputSize > output.size() || outputSize > biases.size()
+                || outputSize * inputSize > weights.size() || inputSize < 0 || outputSize < 0) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        NeuralNetworkNativeOps.nativeLinearForward(transposeWeights.value(), weights.address(), biases.address(),
+                input.address(), output.address(), inputSize, outputSize);
+    }
+
+    /**
+     * Same as {@link NeuralNetworkNativeOps#linearForward(Trans, FloatBuffer, FloatBuffer, FloatBuffer,
+     * FloatBuffer)}.
+     *
+     * @param transposeWeights
+     *            whether {@code weights} should be transposed before multiplication
+     * @param weights
+     *            weights matrix with logical dimensions: {@code input.size()} x {@code output.size()} if
+     *            {@code transposeWeights == TRANSPOSE}, reversed otherwise (ro)
+     * @param biases
+     *            bias vector with size {@code output.size()} (ro)
+     * @param input
+     *            input vector (ro)
+     * @param output
+     *            output vector (write only)
+     */
+    public static void linearForward(Trans transposeWeights, FloatSegment weights, FloatSegment biases,
+            FloatSegment input, FloatSegment output) {
+
+        if (input.size() * output.size() != weights.size() || output.size() != biases.size()) {
+            throw new IllegalArgumentException();
+        }
+
+        NeuralNetworkNativeOps.nativeLinearForward(transposeWeights.value(), weights.address(), biases.address(),
+                input.address(), output.address(), input.size(), output.size());
+    }
+
+    /**
+     * Same as {@link NeuralNetworkNativeOps#linearBatchForward(Trans, FloatBuffer, FloatBuffer, FloatBuffer,
+     * FloatBuffer, int, int, int)}.
+     *
+     * @param transposeWeights
+     *            whether {@code weights} should be transposed before multiplication
+     * @param weights
+     *            weights matrix with logical dimensions: {@code outputRowSize} x {@code inputRowSize} if
+     *            {@code transposeWeights == TRANSPOSE}, reversed otherwise (ro)
+     * @param biases
+     *            bias vector with size {@code outputRowSize} (ro)
+     * @param input
+     *            input matrix with size {@code batchSize} x {@code inputRowSize}; values from one row should
+     *            occupy consecutive memory cells (ro)
+     * @param output
+     *            output matrix with size {@code batchSize} x {@code outputRowSize} (write only)
+     * @param inputRowSize
+     *            number of logical columns in {@code input} and logical columns in {@code weights} if
+     *            {@code transposeWeights == TRANSPOSE}, rows otherwise
+     * @param outputRowSize
+     *            number of logical columns in {@code output} and logical rows in {@code weights} if
+     *            {@code transposeWeights == TRANSPOSE}, columns otherwise
+     * @param batchSize
+     *            number of logical rows in {@code input} and {@code output} to process
+     */
+    public static void linearBatchForward(Trans transposeWeights, FloatSegment weights, FloatSegment biases,
+            FloatSegment input, FloatSegment output, int inputRowSize, int outputRowSize, int batchSize) {
+
+        if (inputRowSize * batchSize > input.size() || outputRowSize * batchSize > output.size()
+                || outputRowSize > biases.size() || inputRowSize * outputRowSize > weights.size()
+                || outputRowSize < 0 || inputRowSize < 0 || batchSize < 0) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        NeuralNetworkNativeOps.nativeLinearBatchForward(transposeWeights.value(), weights.address(),
+                biases.address(), input.address(), output.address(), inputRowSize, outputRowSize, batchSize);
+    }
+}
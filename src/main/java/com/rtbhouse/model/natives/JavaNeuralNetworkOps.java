@@ -0,0 +1,433 @@
+package com.rtbhouse.model.natives;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+
+import com.rtbhouse.model.natives.NeuralNetworkNativeOps.Activation;
+import com.rtbhouse.model.natives.NeuralNetworkNativeOps.HalfFloat;
+import com.rtbhouse.model.natives.NeuralNetworkNativeOps.Pooling;
+
+/**
+ * Pure Java counterparts of the native operations, used by {@link NeuralNetworkNativeOps} for shapes too small to
+ * repay the JNI call (see {@link NeuralNetworkNativeOps#setJavaCrossoverSize}).
+ *
+ * Inner loops are kept simple and branch-free where possible, so C2 can vectorize them (superword) when operating
+ * on arrays. Heap buffers are processed through their backing arrays, direct ones with absolute get/put. Arguments
+ * are expected to be validated by the caller.
+ */
+final class JavaNeuralNetworkOps {
+
+    private JavaNeuralNetworkOps() {
+    }
+
+    static void ReLU(float[] inOut, int endExclusive) {
+        for (int i = 0; i < endExclusive; i++) {
+            inOut[i] = inOut[i] < 0 ? 0 : inOut[i];
+        }
+    }
+
+    static void ReLU(FloatBuffer inOut, int endExclusive) {
+        if (inOut.hasArray()) {
+            ReLU(inOut.array(), endExclusive);
+            return;
+        }
+        for (int i = 0; i < endExclusive; i++) {
+            if (inOut.get(i) < 0) {
+                inOut.put(i, 0);
+            }
+        }
+    }
+
+    static void ELU(float[] inOut, int endExclusive, float alpha) {
+        for (int i = 0; i < endExclusive; i++) {
+            if (inOut[i] < 0) {
+                inOut[i] = ((float) Math.exp(inOut[i]) - 1) * alpha;
+            }
+        }
+    }
+
+    static void ELU(FloatBuffer inOut, int endExclusive, float alpha) {
+        if (inOut.hasArray()) {
+            ELU(inOut.array(), endExclusive, alpha);
+            return;
+        }
+        for (int i = 0; i < endExclusive; i++) {
+            float x = inOut.get(i);
+            if (x < 0) {
+                inOut.put(i, ((float) Math.exp(x) - 1) * alpha);
+            }
+        }
+    }
+
+    static void sigmoid(FloatBuffer inOut, int endExclusive) {
+        for (int i = 0; i < endExclusive; i++) {
+            inOut.put(i, (float) (1 / (1 + Math.exp(-inOut.get(i)))));
+        }
+    }
+
+    static void tanh(FloatBuffer inOut, int endExclusive) {
+        for (int i = 0; i < endExclusive; i++) {
+            inOut.put(i, (float) Math.tanh(inOut.get(i)));
+        }
+    }
+
+    static void softmax(FloatBuffer inOut, int offset, int size) {
+        float max = max(inOut, offset, size);
+        double sum = 0;
+        for (int i = offset; i < offset + size; i++) {
+            float exp = (float) Math.exp(inOut.get(i) - max);
+            inOut.put(i, exp);
+            sum += exp;
+        }
+        float scale = (float) (1 / sum);
+        for (int i = offset; i < offset + size; i++) {
+            inOut.put(i, inOut.get(i) * scale);
+        }
+    }
+
+    static void logSoftmax(FloatBuffer inOut, int offset, int size) {
+        float max = max(inOut, offset, size);
+        double sum = 0;
+        for (int i = offset; i < offset + size; i++) {
+            sum += Math.exp(inOut.get(i) - max);
+        }
+        float logSum = max + (float) Math.log(sum);
+        for (int i = offset; i < offset + size; i++) {
+            inOut.put(i, inOut.get(i) - logSum);
+        }
+    }
+
+    static void layerNorm(FloatBuffer inOut, FloatBuffer gamma, FloatBuffer beta, float epsilon, int offset,
+            int size) {
+
+        double sum = 0;
+        for (int i = offset; i < offset + size; i++) {
+            sum += inOut.get(i);
+        }
+        double mean = sum / size;
+        double squares = 0;
+        for (int i = offset; i < offset + size; i++) {
+            squares += (inOut.get(i) - mean) * (inOut.get(i) - mean);
+        }
+        double invStd = 1 / Math.sqrt(squares / size + epsilon);
+        for (int i = 0; i < size; i++) {
+            inOut.put(offset + i, (float) ((inOut.get(offset + i) - mean) * invStd * gamma.get(i) + beta.get(i)));
+        }
+    }
+
+    private static float max(FloatBuffer buffer, int offset, int size) {
+        float max = Float.NEGATIVE_INFINITY;
+        for (int i = offset; i < offset + size; i++) {
+            max = Math.max(max, buffer.get(i));
+        }
+        return max;
+    }
+
+    static void activate(Activation activation, FloatBuffer inOut, int endExclusive, float alpha) {
+        switch (activation) {
+            case RELU:
+                ReLU(inOut, endExclusive);
+                break;
+            case ELU:
+                ELU(inOut, endExclusive, alpha);
+                break;
+            case SIGMOID:
+                sigmoid(inOut, endExclusive);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * y = A * x + y, where A is a row-major {@code n} x {@code m} matrix
+     */
+    static void gemv(float[] A, float[] x, float[] y, int m, int n) {
+        for (int r = 0, offset = 0; r < n; r++, offset += m) {
+            float sum = 0;
+            for (int c = 0; c < m; c++) {
+                sum += A[offset + c] * x[c];
+            }
+            y[r] += sum;
+        }
+    }
+
+    static void gemv(FloatBuffer A, FloatBuffer x, FloatBuffer y, int m, int n) {
+        if (A.hasArray() && x.hasArray() && y.hasArray()) {
+            gemv(A.array(), x.array(), y.array(), m, n);
+            return;
+        }
+        for (int r = 0, offset = 0; r < n; r++, offset += m) {
+            float sum = 0;
+            for (int c = 0; c < m; c++) {
+                sum += A.get(offset + c) * x.get(c);
+            }
+            y.put(r, y.get(r) + sum);
+        }
+    }
+
+    /**
+     * y = transpose(A) * x + y, where A is a row-major {@code m} x {@code n} matrix
+     */
+    static void gemvTransposed(float[] A, float[] x, float[] y, int m, int n) {
+        for (int r = 0, offset = 0; r < m; r++, offset += n) {
+            float xr = x[r];
+            for (int c = 0; c < n; c++) {
+                y[c] += A[offset + c] * xr;
+            }
+        }
+    }
+
+    static void gemvTransposed(FloatBuffer A, FloatBuffer x, FloatBuffer y, int m, int n) {
+        if (A.hasArray() && x.hasArray() && y.hasArray()) {
+            gemvTransposed(A.array(), x.array(), y.array(), m, n);
+            return;
+        }
+        for (int r = 0, offset = 0; r < m; r++, offset += n) {
+            float xr = x.get(r);
+            for (int c = 0; c < n; c++) {
+                y.put(c, y.get(c) + A.get(offset + c) * xr);
+            }
+        }
+    }
+
+    /**
+     * Y = A * B + Y, where A is a row-major {@code m} x {@code k} and B a row-major {@code k} x {@code n} matrix
+     */
+    static void gemm(float[] A, float[] B, float[] Y, int m, int n, int k) {
+        for (int r = 0; r < m; r++) {
+            int yOffset = r * n;
+            for (int p = 0; p < k; p++) {
+                float a = A[r * k + p];
+                int bOffset = p * n;
+                for (int c = 0; c < n; c++) {
+                    Y[yOffset + c] += a * B[bOffset + c];
+                }
+            }
+        }
+    }
+
+    static void gemm(FloatBuffer A, FloatBuffer B, FloatBuffer Y, int m, int n, int k) {
+        if (A.hasArray() && B.hasArray() && Y.hasArray()) {
+            gemm(A.array(), B.array(), Y.array(), m, n, k);
+            return;
+        }
+        for (int r = 0; r < m; r++) {
+            int yOffset = r * n;
+            for (int p = 0; p < k; p++) {
+                float a = A.get(r * k + p);
+                int bOffset = p * n;
+                for (int c = 0; c < n; c++) {
+                    Y.put(yOffset + c, Y.get(yOffset + c) + a * B.get(bOffset + c));
+                }
+            }
+        }
+    }
+
+    static void linearForward(boolean transposeWeights, float[] weights, float[] biases, float[] input,
+            float[] output, int inputSize, int outputSize) {
+
+        System.arraycopy(biases, 0, output, 0, outputSize);
+        if (transposeWeights) {
+            gemvTransposed(weights, input, output, inputSize, outputSize);
+        } else {
+            gemv(weights, input, output, inputSize, outputSize);
+        }
+    }
+
+    static void linearForward(boolean transposeWeights, FloatBuffer weights, FloatBuffer biases, FloatBuffer input,
+            FloatBuffer output, int inputSize, int outputSize) {
+
+        for (int i = 0; i < outputSize; i++) {
+            output.put(i, biases.get(i));
+        }
+        if (transposeWeights) {
+            gemvTransposed(weights, input, output, inputSize, outputSize);
+        } else {
+            gemv(weights, input, output, inputSize, outputSize);
+        }
+    }
+
+    /**
+     * output = input * weights + biases row by row, for {@code batchSize} consecutive rows of {@code input} and
+     * {@code output}; weights layout follows {@link #linearForward}
+     */
+    static void linearBatchForward(boolean transposeWeights, float[] weights, float[] biases, float[] input,
+            float[] output, int inputSize, int outputSize, int batchSize) {
+
+        for (int b = 0, in = 0, out = 0; b < batchSize; b++, in += inputSize, out += outputSize) {
+            System.arraycopy(biases, 0, output, out, outputSize);
+            if (transposeWeights) {
+                for (int r = 0, offset = 0; r < inputSize; r++, offset += outputSize) {
+                    float xr = input[in + r];
+                    for (int c = 0; c < outputSize; c++) {
+                        output[out + c] += weights[offset + c] * xr;
+                    }
+                }
+            } else {
+                for (int r = 0, offset = 0; r < outputSize; r++, offset += inputSize) {
+                    float sum = 0;
+                    for (int c = 0; c < inputSize; c++) {
+                        sum += weights[offset + c] * input[in + c];
+                    }
+                    output[out + r] += sum;
+                }
+            }
+        }
+    }
+
+    static void linearBatchForward(boolean transposeWeights, FloatBuffer weights, FloatBuffer biases,
+            FloatBuffer input, FloatBuffer output, int inputSize, int outputSize, int batchSize) {
+
+        if (weights.hasArray() && biases.hasArray() && input.hasArray() && output.hasArray()) {
+            linearBatchForward(transposeWeights, weights.array(), biases.array(), input.array(), output.array(),
+                    inputSize, outputSize, batchSize);
+            return;
+        }
+        for (int b = 0, in = 0, out = 0; b < batchSize; b++, in += inputSize, out += outputSize) {
+            for (int i = 0; i < outputSize; i++) {
+                output.put(out + i, biases.get(i));
+            }
+            if (transposeWeights) {
+                for (int r = 0, offset = 0; r < inputSize; r++, offset += outputSize) {
+                    float xr = input.get(in + r);
+                    for (int c = 0; c < outputSize; c++) {
+                        output.put(out + c, output.get(out + c) + weights.get(offset + c) * xr);
+                    }
+                }
+            } else {
+                for (int r = 0, offset = 0; r < outputSize; r++, offset += inputSize) {
+                    float sum = 0;
+                    for (int c = 0; c < inputSize; c++) {
+                        sum += weights.get(offset + c) * input.get(in + c);
+                    }
+                    output.put(out + r, output.get(out + r) + sum);
+                }
+            }
+        }
+    }
+
+    /**
+     * output = weights * input + biases, where input is given as {@code nonZeros} index-value pairs
+     */
+    static void linearForwardSparse(boolean transposeWeights, FloatBuffer weights, FloatBuffer biases,
+            IntBuffer inputIndices, FloatBuffer inputValues, int nonZeros, FloatBuffer output, int inputSize,
+            int outputSize) {
+
+        for (int i = 0; i < outputSize; i++) {
+            output.put(i, biases.get(i));
+        }
+        for (int k = 0; k < nonZeros; k++) {
+            int index = inputIndices.get(k);
+            float value = inputValues.get(k);
+            if (transposeWeights) {
+                for (int c = 0, offset = index * outputSize; c < outputSize; c++) {
+                    output.put(c, output.get(c) + weights.get(offset + c) * value);
+                }
+            } else {
+                for (int r = 0, offset = index; r < outputSize; r++, offset += inputSize) {
+                    output.put(r, output.get(r) + weights.get(offset) * value);
+                }
+            }
+        }
+    }
+
+    /**
+     * output[j] = pooling(perSampleWeights[i] * table[indices[i]] for i in [offsets[j], offsets[j + 1])), written from
+     * {@code outputOffset}; {@code perSampleWeights} may be {@code null}
+     */
+    static void embeddingBag(Pooling pooling, FloatBuffer table, IntBuffer indices, IntBuffer offsets,
+            FloatBuffer perSampleWeights, FloatBuffer output, int outputOffset, int embeddingSize, int numBags) {
+
+        for (int j = 0, out = outputOffset; j < numBags; j++, out += embeddingSize) {
+            int begin = offsets.get(j);
+            int end = offsets.get(j + 1);
+            for (int e = 0; e < embeddingSize; e++) {
+                output.put(out + e, 0);
+            }
+            for (int i = begin; i < end; i++) {
+                float weight = perSampleWeights == null ? 1 : perSampleWeights.get(i);
+                int row = indices.get(i) * embeddingSize;
+                for (int e = 0; e < embeddingSize; e++) {
+                    float value = weight * table.get(row + e);
+                    if (pooling != Pooling.MAX) {
+                        output.put(out + e, output.get(out + e) + value);
+                    } else if (i == begin || value > output.get(out + e)) {
+                        output.put(out + e, value);
+                    }
+                }
+            }
+            if (pooling == Pooling.MEAN && end > begin) {
+                float scale = 1f / (end - begin);
+                for (int e = 0; e < embeddingSize; e++) {
+                    output.put(out + e, output.get(out + e) * scale);
+                }
+            }
+        }
+    }
+
+    /**
+     * output = dequantize(weights) * input + biases, where weights are int8 values stored row by row (see
+     * {@link QuantizedWeights}); {@code zeroPoints} may be {@code null}
+     */
+    static void linearForwardQuantized(ByteBuffer weights, FloatBuffer scales, IntBuffer zeroPoints,
+            FloatBuffer biases, FloatBuffer input, FloatBuffer output, int inputSize, int outputSize) {
+
+        float inputSum = 0;
+        if (zeroPoints != null) {
+            for (int c = 0; c < inputSize; c++) {
+                inputSum += input.get(c);
+            }
+        }
+        for (int r = 0, offset = 0; r < outputSize; r++, offset += inputSize) {
+            float sum = 0;
+            for (int c = 0; c < inputSize; c++) {
+                sum += weights.get(offset + c) * input.get(c);
+            }
+            if (zeroPoints != null) {
+                sum -= zeroPoints.get(r) * inputSum;
+            }
+            output.put(r, biases.get(r) + scales.get(r) * sum);
+        }
+    }
+
+    /**
+     * y = A * x + y, where A is a row-major {@code n} x {@code m} matrix of 16-bit floats
+     */
+    static void gemvHalf(HalfFloat format, ShortBuffer A, FloatBuffer x, FloatBuffer y, int m, int n) {
+        for (int r = 0, offset = 0; r < n; r++, offset += m) {
+            float sum = 0;
+            for (int c = 0; c < m; c++) {
+                sum += format.toFloat(A.get(offset + c)) * x.get(c);
+            }
+            y.put(r, y.get(r) + sum);
+        }
+    }
+
+    /**
+     * y = transpose(A) * x + y, where A is a row-major {@code m} x {@code n} matrix of 16-bit floats
+     */
+    static void gemvHalfTransposed(HalfFloat format, ShortBuffer A, FloatBuffer x, FloatBuffer y, int m, int n) {
+        for (int r = 0, offset = 0; r < m; r++, offset += n) {
+            float xr = x.get(r);
+            for (int c = 0; c < n; c++) {
+                y.put(c, y.get(c) + format.toFloat(A.get(offset + c)) * xr);
+            }
+        }
+    }
+
+    static void linearForwardHalf(boolean transposeWeights, HalfFloat format, ShortBuffer weights,
+            FloatBuffer biases, FloatBuffer input, FloatBuffer output, int inputSize, int outputSize) {
+
+        for (int i = 0; i < outputSize; i++) {
+            output.put(i, biases.get(i));
+        }
+        if (transposeWeights) {
+            gemvHalfTransposed(format, weights, input, output, inputSize, outputSize);
+        } else {
+            gemvHalf(format, weights, input, output, inputSize, outputSize);
+        }
+    }
+}
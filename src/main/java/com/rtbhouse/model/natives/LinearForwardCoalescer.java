@@ -0,0 +1,289 @@
+package com.rtbhouse.model.natives;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.rtbhouse.model.natives.NeuralNetworkNativeOps.Trans;
+
+/**
+ * <p>
+ * Coalesces concurrent single-vector {@link NeuralNetworkNativeOps#linearForward} calls on the same layer into one
+ * {@link NeuralNetworkNativeOps#linearBatchForward} call, which is far more efficient per row (sgemm instead of
+ * sgemv).
+ * </p>
+ * <p>
+ * Requests are gathered by a dedicated worker thread until either {@code maxBatchSize} rows are collected or
+ * {@code maxDelayMicros} microseconds passed since the first request of the batch was submitted, so a batch is never
+ * held open longer than {@code maxDelayMicros} waiting for more requests. This is not a latency bound: under load a
+ * request also waits for all batches queued ahead of it (up to {@code maxPendingRequests} requests) and for the
+ * computation of its own batch. Inputs and outputs are copied between request buffers and the worker's direct batch
+ * buffers.
+ * </p>
+ * Each instance is bound to one weights matrix; keep one per layer, next to the weights. Instances are thread-safe
+ * and must be {@link #close() closed} to stop the worker thread.
+ */
+public final class LinearForwardCoalescer implements AutoCloseable {
+
+    private static final AtomicInteger THREAD_COUNTER = new AtomicInteger();
+
+    private final Trans batchTransposeWeights;
+    private final FloatBuffer weights;
+    private final FloatBuffer biases;
+    private final int inputSize;
+    private final int outputSize;
+    private final int maxBatchSize;
+    private final long maxDelayNanos;
+
+    private final BlockingQueue<Request> queue;
+    private final List<Request> batch;
+    private final FloatBuffer batchInput;
+    private final FloatBuffer batchOutput;
+    private final Thread worker;
+    private volatile boolean closed;
+
+    private final AtomicLong executedBatches = new AtomicLong();
+    private final AtomicLong processedRows = new AtomicLong();
+
+    private static final class Request {
+        private final FloatBuffer input;
+        private final FloatBuffer output;
+        private final long enqueueNanos;
+        private final CompletableFuture<FloatBuffer> future = new CompletableFuture<>();
+
+        private Request(FloatBuffer input, FloatBuffer output) {
+            this.input = input;
+            this.output = output;
+            this.enqueueNanos = System.nanoTime();
+        }
+    }
+
+    /**
+     * @param transposeWeights
+     *            whether {@code weights} should be transposed before multiplication; follows the
+     *            {@link NeuralNetworkNativeOps#linearForward} convention
+     * @param weights
+     *            weights matrix with logical dimensions: {@code inputSize} x {@code outputSize} if
+     *            {@code transposeWeights == TRANSPOSE}, reversed otherwise (ro)
+     * @param biases
+     *            biases vector with size {@code outputSize} (ro)
+     * @param inputSize
+     *            size of every input vector
+     * @param outputSize
+     *            size of every output vector
+     * @param maxBatchSize
+     *            maximal number of requests computed together
+     * @param maxDelayMicros
+     *            maximal time the first request of a batch waits for others to join
+     * @param maxPendingRequests
+     *            capacity of the request queue; submitting threads block when it is full
+     */
+    public LinearForwardCoalescer(Trans transposeWeights, FloatBuffer weights, FloatBuffer biases, int inputSize,
+            int outputSize, int maxBatchSize, long maxDelayMicros, int maxPendingRequests) {
+
+        if (inputSize * outputSize > weights.limit() || outputSize > biases.limit() || inputSize < 0
+                || outputSize < 0) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (maxBatchSize < 1 || maxDelayMicros < 0 || maxPendingRequests < 1) {
+            throw new IllegalArgumentException();
+        }
+
+        // linearBatchForward multiplies input rows by weights, i.e. uses the opposite convention
+        this.batchTransposeWeights = transposeWeights == Trans.TRANSPOSE ? Trans.NO_TRANSPOSE : Trans.TRANSPOSE;
+        this.weights = weights;
+        this.biases = biases;
+        this.inputSize = inputSize;
+        this.outputSize = outputSize;
+        this.maxBatchSize = maxBatchSize;
+        this.maxDelayNanos = TimeUnit.MICROSECONDS.toNanos(maxDelayMicros);
+
+        this.queue = new ArrayBlockingQueue<>(maxPendingRequests);
+        this.batch = new ArrayList<>(maxBatchSize);
+        this.batchInput = FloatBufferPool.allocateAligned(maxBatchSize * inputSize);
+        this.batchOutput = FloatBufferPool.allocateAligned(maxBatchSize * outputSize);
+
+        this.worker = new Thread(this::run, "nnno-linear-forward-coalescer-" + THREAD_COUNTER.incrementAndGet());
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * Same as {@link #LinearForwardCoalescer(Trans, FloatBuffer, FloatBuffer, int, int, int, long, int)} with queue
+     * capacity of {@code 16 * maxBatchSize}.
+     */
+    public LinearForwardCoalescer(Trans transposeWeights, FloatBuffer weights, FloatBuffer biases, int inputSize,
+            int outputSize, int maxBatchSize, long maxDelayMicros) {
+        this(transposeWeights, weights, biases, inputSize, outputSize, maxBatchSize, maxDelayMicros,
+                16 * maxBatchSize);
+    }
+
+    /**
+     * Schedules {@code output = weights * input + biases}. Blocks if the request queue is full.
+     *
+     * @param input
+     *            input vector with at least {@code inputSize} elements (ro until completion)
+     * @param output
+     *            output vector with at least {@code outputSize} elements (write only)
+     * @return future completed with {@code output} once it is filled
+     */
+    public CompletableFuture<FloatBuffer> submit(FloatBuffer input, FloatBuffer output) {
+        if (inputSize > input.limit() || outputSize > output.limit()) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (closed) {
+            throw new IllegalStateException("coalescer closed");
+        }
+
+        Request request = new Request(input, output);
+        try {
+            queue.put(request);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            request.future.completeExceptionally(e);
+        }
+        if (closed && queue.remove(request)) {
+            // raced with close(), the worker may be gone already
+            request.future.completeExceptionally(new IllegalStateException("coalescer closed"));
+        }
+        return request.future;
+    }
+
+    /**
+     * Computes {@code output = weights * input + biases} as part of a coalesced batch, waiting for the result.
+     *
+     * @param input
+     *            input vector with at least {@code inputSize} elements (ro)
+     * @param output
+     *            output vector with at least {@code outputSize} elements (write only)
+     * @throws CompletionException
+     *             if the computation failed
+     */
+    public void linearForward(FloatBuffer input, FloatBuffer output) {
+        submit(input, output).join();
+    }
+
+    /**
+     * Returns the number of {@link NeuralNetworkNativeOps#linearBatchForward} calls made so far.
+     */
+    public long getExecutedBatches() {
+        return executedBatches.get();
+    }
+
+    /**
+     * Returns the number of requests computed so far.
+     */
+    public long getProcessedRows() {
+        return processedRows.get();
+    }
+
+    /**
+     * Stops the worker thread. Requests not started yet are completed exceptionally.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        worker.interrupt();
+        try {
+            worker.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        Request request;
+        while ((request = queue.poll()) != null) {
+            request.future.completeExceptionally(new IllegalStateException("coalescer closed"));
+        }
+    }
+
+    private void run() {
+        try {
+            while (!closed) {
+                gatherBatch();
+                executeBatch();
+            }
+        } catch (InterruptedException e) {
+            // closing
+        } catch (Throwable e) {
+            // the worker is gone, fail fast instead of leaving later requests queued forever
+            closed = true;
+            failQueued(e);
+            throw e;
+        } finally {
+            for (Request request : batch) {
+                request.future.completeExceptionally(new IllegalStateException("coalescer closed"));
+            }
+        }
+    }
+
+    private void failQueued(Throwable cause) {
+        Request request;
+        while ((request = queue.poll()) != null) {
+            request.future.completeExceptionally(new IllegalStateException("coalescer closed", cause));
+        }
+    }
+
+    private void gatherBatch() throws InterruptedException {
+        Request first = queue.take();
+        batch.add(first);
+
+        long deadline = first.enqueueNanos + maxDelayNanos;
+        while (batch.size() < maxBatchSize) {
+            Request next = queue.poll();
+            if (next == null) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0 || (next = queue.poll(remaining, TimeUnit.NANOSECONDS)) == null) {
+                    break;
+                }
+            }
+            batch.add(next);
+        }
+    }
+
+    private void executeBatch() {
+        int batchSize = batch.size();
+        try {
+            for (int row = 0; row < batchSize; row++) {
+                FloatBuffer input = batch.get(row).input.duplicate();
+                input.rewind();
+                input.limit(inputSize);
+                batchInput.position(row * inputSize);
+                batchInput.put(input);
+            }
+            batchInput.clear();
+
+            NeuralNetworkNativeOps.linearBatchForward(batchTransposeWeights, weights, biases, batchInput, batchOutput,
+                    inputSize, outputSize, batchSize);
+
+            for (int row = 0; row < batchSize; row++) {
+                Request request = batch.get(row);
+                batchOutput.limit((row + 1) * outputSize);
+                batchOutput.position(row * outputSize);
+                FloatBuffer output = request.output.duplicate();
+                output.rewind();
+                output.put(batchOutput);
+                request.future.complete(request.output);
+            }
+            batchOutput.clear();
+
+            executedBatches.incrementAndGet();
+            processedRows.addAndGet(batchSize);
+        } catch (Throwable e) {
+            // also Errors, e.g. OutOfMemoryError: fail the batch and keep the worker serving later ones
+            batchInput.clear();
+            batchOutput.clear();
+            for (Request request : batch) {
+                request.future.completeExceptionally(e);
+            }
+        } finally {
+            batch.clear();
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package com.rtbhouse.model.natives;
+
+import java.nio.FloatBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.rtbhouse.model.natives.NativeMlp.LayerSpec;
+import com.rtbhouse.model.natives.NeuralNetworkNativeOps.Activation;
+import com.rtbhouse.model.natives.NeuralNetworkNativeOps.Trans;
+import com.rtbhouse.model.natives.OpMetrics.Op;
+
+/**
+ * <p>
+ * Linear layer fused with its activation (see {@link NeuralNetworkNativeOps#linearForwardActivation}) whose weights
+ * and biases are validated and copied to aligned native memory once, at construction time. A forward call then
+ * passes only the layer pointer and the input and output buffers through JNI, and checks only their limits against
+ * the precomputed sizes.
+ * </p>
+ * <p>
+ * Like {@link FloatSegmentOps}, forward calls always run native code, regardless of the
+ * {@link NeuralNetworkNativeOps#setJavaCrossoverSize Java crossover size}. Results are bit-identical to
+ * {@link NeuralNetworkNativeOps#linearForwardActivation} and
+ * {@link NeuralNetworkNativeOps#linearBatchForwardActivation} at native side.
+ * </p>
+ * Native memory is not managed by the garbage collector and must be released with {@link #close()}. Forward calls
+ * are thread-safe and throw {@link IllegalStateException} once {@link #close()} is called on any thread, but must
+ * not overlap with it.
+ */
+public final class LinearLayer implements AutoCloseable {
+
+    private final Trans transposeWeights;
+    private final Activation activation;
+    private final float alpha;
+    private final int inputSize;
+    private final int outputSize;
+
+    private final AtomicLong layer;
+
+    /**
+     * @param transposeWeights
+     *            whether {@code weights} should be transposed before multiplication; follows the
+     *            {@link NeuralNetworkNativeOps#linearForward} convention in both single and batch mode
+     * @param activation
+     *            activation function applied to the layer output
+     * @param alpha
+     *            {@link Activation#ELU} alpha parameter; ignored by other activations
+     * @param weights
+     *            weights matrix with logical dimensions: {@code inputSize} x {@code outputSize} if
+     *            {@code transposeWeights == TRANSPOSE}, reversed otherwise (ro)
+     * @param biases
+     *            biases vector with at least {@code outputSize} elements (ro)
+     * @param inputSize
+     *            layer input size
+     * @param outputSize
+     *            layer output size
+     * @throws OutOfMemoryError
+     *             if native memory cannot be allocated
+     */
+    public LinearLayer(Trans transposeWeights, Activation activation, float alpha, FloatBuffer weights,
+            FloatBuffer biases, int inputSize, int outputSize) {
+
+        if (outputSize > biases.limit() || inputSize * outputSize > weights.limit() || inputSize < 0
+                || outputSize < 0) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        this.transposeWeights = transposeWeights;
+        this.activation = activation;
+        this.alpha = alpha;
+        this.inputSize = inputSize;
+        this.outputSize = outputSize;
+        long handle = NeuralNetworkNativeOps.nativeLinearLayerCreate(transposeWeights.value(), activation.value(),
+                alpha, weights, biases, inputSize, outputSize);
+        if (handle == 0) {
+            throw new OutOfMemoryError("cannot allocate native memory for a " + inputSize + " x " + outputSize
+                    + " linear layer");
+        }
+        this.layer = new AtomicLong(handle);
+    }
+
+    /**
+     * Same as {@link LinearLayer#LinearLayer(Trans, Activation, float, FloatBuffer, FloatBuffer, int, int)} without
+     * activation.
+     */
+    public LinearLayer(Trans transposeWeights, FloatBuffer weights, FloatBuffer biases, int inputSize,
+            int outputSize) {
+        this(transposeWeights, Activation.IDENTITY, 0, weights, biases, inputSize, outputSize);
+    }
+
+    /**
+     * Creates a layer from a {@link NativeMlp} layer specification.
+     */
+    public LinearLayer(LayerSpec spec) {
+        this(spec.getTransposeWeights(), spec.getActivation(), spec.getAlpha(), spec.getWeights(), spec.getBiases(),
+                spec.getInputSize(), spec.getOutputSize());
+    }
+
+    /**
+     * Computes the layer output for a single input vector:
+     *
+     * <pre>
+     * output = activation(weights * input + biases)
+     * </pre>
+     *
+     * Output contents are discarded and overwritten. Input is read-only.
+     *
+     * @param input
+     *            input vector with at least {@link #getInputSize()} elements (ro)
+     * @param output
+     *            output vector with at least {@link #getOutputSize()} elements (write only)
+     */
+    public void forward(FloatBuffer input, FloatBuffer output) {
+        if (inputSize > input.limit() || outputSize > output.limit()) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        long start = OpMetrics.start();
+        NeuralNetworkNativeOps.nativeLinearLayerForward(handle(), input, output);
+        OpMetrics.record(Op.LINEAR_LAYER_FORWARD, start, inputSize, outputSize, 1);
+    }
+
+    /**
+     * Same as {@link #forward(FloatBuffer, FloatBuffer)} for {@link FloatSegment}s, passing only primitives through
+     * JNI.
+     *
+     * @param input
+     *            input vector with at least {@link #getInputSize()} elements (ro)
+     * @param output
+     *            output vector with at least {@link #getOutputSize()} elements (write only)
+     */
+    public void forward(FloatSegment input, FloatSegment output) {
+        if (inputSize > input.size() || outputSize > output.size()) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        long start = OpMetrics.start();
+        NeuralNetworkNativeOps.nativeLinearLayerForward(handle(), input.address(), output.address());
+        OpMetrics.record(Op.LINEAR_LAYER_FORWARD, start, inputSize, outputSize, 1);
+    }
+
+    /**
+     * Computes the layer output for a batch of input vectors:
+     *
+     * <pre>
+     * output = activation(input * transpose(weights) + biases)
+     * </pre>
+     *
+     * Output contents are discarded and overwritten. Input is read-only.
+     *
+     * @param input
+     *            input matrix with size {@code batchSize} x {@link #getInputSize()}; values from one row should
+     *            occupy consecutive memory cells (ro)
+     * @param output
+     *            output matrix with size {@code batchSize} x {@link #getOutputSize()} (write only)
+     * @param batchSize
+     *            number of logical rows in {@code input} and {@code output} to process
+     */
+    public void forwardBatch(FloatBuffer input, FloatBuffer output, int batchSize) {
+        if (inputSize * batchSize > input.limit() || outputSize * batchSize > output.limit() || batchSize < 0) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        long start = OpMetrics.start();
+        NeuralNetworkNativeOps.nativeLinearLayerBatchForward(handle(), input, output, batchSize);
+        OpMetrics.record(Op.LINEAR_LAYER_BATCH_FORWARD, start, inputSize, outputSize, batchSize);
+    }
+
+    /**
+     * Same as {@link #forwardBatch(FloatBuffer, FloatBuffer, int)} for {@link FloatSegment}s, passing only primitives
+     * through JNI.
+     *
+     * @param input
+     *            input matrix with size {@code batchSize} x {@link #getInputSize()} (ro)
+     * @param output
+     *            output matrix with size {@code batchSize} x {@link #getOutputSize()} (write only)
+     * @param batchSize
+     *            number of logical rows in {@code input} and {@code output} to process
+     */
+    public void forwardBatch(FloatSegment input, FloatSegment output, int batchSize) {
+        if (inputSize * batchSize > input.size() || outputSize * batchSize > output.size() || batchSize < 0) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        long start = OpMetrics.start();
+        NeuralNetworkNativeOps.nativeLinearLayerBatchForward(handle(), input.address(), output.address(), batchSize);
+        OpMetrics.record(Op.LINEAR_LAYER_BATCH_FORWARD, start, inputSize, outputSize, batchSize);
+    }
+
+    /**
+     * Releases native memory of the layer. Further forward calls throw {@link IllegalStateException}; closing again
+     * has no effect.
+     */
+    @Override
+    public void close() {
+        // cleared before freeing, so forward calls started afterwards on any thread see the layer closed
+        long handle = layer.getAndSet(0);
+        if (handle != 0) {
+            NeuralNetworkNativeOps.nativeLinearLayerFree(handle);
+        }
+    }
+
+    public boolean isClosed() {
+        return layer.get() == 0;
+    }
+
+    public Trans getTransposeWeights() {
+        return transposeWeights;
+    }
+
+    public Activation getActivation() {
+        return activation;
+    }
+
+    public float getAlpha() {
+        return alpha;
+    }
+
+    public int getInputSize() {
+        return inputSize;
+    }
+
+    public int getOutputSize() {
+        return outputSize;
+    }
+
+    private long handle() {
+        long handle = layer.get();
+        if (handle == 0) {
+            throw new IllegalStateException("linear layer is closed");
+        }
+        return handle;
+    }
+}
@@ -0,0 +1,236 @@
+package com.rtbhouse.model.natives;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.rtbhouse.model.natives.NativeMlp.LayerSpec;
+import com.rtbhouse.model.natives.NeuralNetworkNativeOps.Activation;
+import com.rtbhouse.model.natives.NeuralNetworkNativeOps.Trans;
+
+/**
+ * <p>
+ * Binary file format for model weights, memory-mapped read-only when loaded. Mapped weights are used by native
+ * operations in place, so loading takes no copying and all processes mapping the same file share one copy of the
+ * weights in the page cache.
+ * </p>
+ * Layout, all values little-endian:
+ *
+ * <pre>
+ * offset  size
+ *      0     8  magic "NNNOMODL"
+ *      8     4  format version (1)
+ *     12     4  number of layers N
+ *     16  N*32  layer records:
+ *                 int   transposeWeights (0 - TRANSPOSE, 1 - NO_TRANSPOSE)
+ *                 int   activation (0 - IDENTITY, 1 - RELU, 2 - ELU, 3 - SIGMOID)
+ *                 float ELU alpha
+ *                 int   inputSize
+ *                 int   outputSize
+ *                 int   reserved (0)
+ *                 long  data offset: inputSize * outputSize weights followed, at the next 64-byte boundary, by
+ *                       outputSize biases
+ * </pre>
+ *
+ * Data offsets are multiples of {@value FloatBufferPool#ALIGNMENT}, so mapped buffers are as aligned as ones from
+ * {@link FloatBufferPool#allocateAligned}. Weights keep the layout given by their {@link Trans} flag.
+ */
+public final class ModelFile {
+
+    private static final byte[] MAGIC = { 'N', 'N', 'N', 'O', 'M', 'O', 'D', 'L' };
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int LAYER_RECORD_SIZE = 32;
+    private static final int ALIGNMENT = FloatBufferPool.ALIGNMENT;
+
+    private static final Trans[] TRANS_CODES = { Trans.TRANSPOSE, Trans.NO_TRANSPOSE };
+    private static final Activation[] ACTIVATION_CODES = {
+            Activation.IDENTITY, Activation.RELU, Activation.ELU, Activation.SIGMOID };
+
+    private ModelFile() {
+    }
+
+    /**
+     * Writes layers to a new file, replacing an existing one.
+     *
+     * @param path
+     *            file to write
+     * @param layers
+     *            consecutive layers of the model; heap and direct buffers are accepted
+     */
+    public static void write(Path path, List<LayerSpec> layers) throws IOException {
+        ByteBuffer header = ByteBuffer
+                .allocate(align(HEADER_SIZE + layers.size() * LAYER_RECORD_SIZE))
+                .order(ByteOrder.LITTLE_ENDIAN);
+        header.put(MAGIC).putInt(VERSION).putInt(layers.size());
+
+        long offset = header.capacity();
+        for (LayerSpec layer : layers) {
+            if (!isMappable(layer.getInputSize(), layer.getOutputSize())) {
+                throw new IllegalArgumentException("layer too large for a model file");
+            }
+            header.putInt(indexOf(TRANS_CODES, layer.getTransposeWeights()))
+                    .putInt(indexOf(ACTIVATION_CODES, layer.getActivation()))
+                    .putFloat(layer.getAlpha())
+                    .putInt(layer.getInputSize())
+                    .putInt(layer.getOutputSize())
+                    .putInt(0)
+                    .putLong(offset);
+            offset += layerDataSize(layer.getInputSize(), layer.getOutputSize());
+        }
+        header.clear();
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            writeFully(channel, header);
+            for (LayerSpec layer : layers) {
+                int inputSize = layer.getInputSize();
+                int outputSize = layer.getOutputSize();
+                ByteBuffer data = ByteBuffer
+                        .allocate((int) layerDataSize(inputSize, outputSize))
+                        .order(ByteOrder.LITTLE_ENDIAN);
+                putFloats(data, 0, layer.getWeights(), inputSize * outputSize);
+                putFloats(data, (int) biasesOffset(inputSize, outputSize), layer.getBiases(), outputSize);
+                writeFully(channel, data);
+            }
+        }
+    }
+
+    /**
+     * Maps a model file read-only. Returned layers reference the mapped memory directly: they can be passed to
+     * {@link NativeMlp} or their buffers to {@link NeuralNetworkNativeOps#linearForward} and
+     * {@link NeuralNetworkNativeOps#linearBatchForward} without copying. The mapping stays valid until the buffers
+     * are garbage collected, even when the file is deleted.
+     *
+     * @param path
+     *            file written by {@link #write}
+     * @return unmodifiable list of layers
+     * @throws IOException
+     *             if the file cannot be read or is not a valid model file
+     */
+    public static List<LayerSpec> map(Path path) throws IOException {
+        if (ByteOrder.nativeOrder() != ByteOrder.LITTLE_ENDIAN) {
+            throw new UnsupportedOperationException("model files can be mapped only on little-endian platforms");
+        }
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            ByteBuffer header = readFully(channel, 0, HEADER_SIZE);
+            byte[] magic = new byte[MAGIC.length];
+            header.get(magic);
+            for (int i = 0; i < MAGIC.length; i++) {
+                if (magic[i] != MAGIC[i]) {
+                    throw new IOException("not a model file: " + path);
+                }
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException("unsupported model file version " + version + ": " + path);
+            }
+            int numLayers = header.getInt();
+            if (numLayers < 0 || numLayers > Integer.MAX_VALUE / LAYER_RECORD_SIZE
+                    || HEADER_SIZE + (long) numLayers * LAYER_RECORD_SIZE > fileSize) {
+                throw new IOException("corrupted model file: " + path);
+            }
+
+            ByteBuffer records = readFully(channel, HEADER_SIZE, numLayers * LAYER_RECORD_SIZE);
+            List<LayerSpec> layers = new ArrayList<>(numLayers);
+            for (int i = 0; i < numLayers; i++) {
+                int transCode = records.getInt();
+                int activationCode = records.getInt();
+                float alpha = records.getFloat();
+                int inputSize = records.getInt();
+                int outputSize = records.getInt();
+                records.getInt();
+                long offset = records.getLong();
+
+                if (transCode < 0 || transCode >= TRANS_CODES.length || activationCode < 0
+                        || activationCode >= ACTIVATION_CODES.length || inputSize < 0 || outputSize <= 0
+                        || !isMappable(inputSize, outputSize) || offset % ALIGNMENT != 0 || offset < 0
+                        || offset > fileSize - layerDataSize(inputSize, outputSize)) {
+                    throw new IOException("corrupted model file: " + path);
+                }
+
+                ByteBuffer data = channel
+                        .map(FileChannel.MapMode.READ_ONLY, offset, layerDataSize(inputSize, outputSize))
+                        .order(ByteOrder.LITTLE_ENDIAN);
+                FloatBuffer weights = floats(data, 0, inputSize * outputSize);
+                FloatBuffer biases = floats(data, (int) biasesOffset(inputSize, outputSize), outputSize);
+                layers.add(new LayerSpec(TRANS_CODES[transCode], weights, biases, ACTIVATION_CODES[activationCode],
+                        alpha));
+            }
+            return Collections.unmodifiableList(layers);
+        }
+    }
+
+    /**
+     * Tells whether a layer fits in a single mapping ({@link FileChannel#map} and buffer indices are limited to
+     * {@code int}), i.e. whether its data size and offsets can be computed without overflow.
+     */
+    private static boolean isMappable(int inputSize, int outputSize) {
+        return (long) inputSize * outputSize <= Integer.MAX_VALUE / Float.BYTES
+                && layerDataSize(inputSize, outputSize) <= Integer.MAX_VALUE;
+    }
+
+    private static long layerDataSize(int inputSize, int outputSize) {
+        return biasesOffset(inputSize, outputSize) + align((long) outputSize * Float.BYTES);
+    }
+
+    private static long biasesOffset(int inputSize, int outputSize) {
+        return align((long) inputSize * outputSize * Float.BYTES);
+    }
+
+    private static int align(int size) {
+        return (int) align((long) size);
+    }
+
+    private static long align(long size) {
+        return (size + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+    }
+
+    private static <T> int indexOf(T[] codes, T value) {
+        for (int i = 0; i < codes.length; i++) {
+            if (codes[i] == value) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException(String.valueOf(value));
+    }
+
+    private static void putFloats(ByteBuffer target, int offset, FloatBuffer source, int size) {
+        for (int i = 0; i < size; i++) {
+            target.putFloat(offset + i * Float.BYTES, source.get(i));
+        }
+    }
+
+    private static FloatBuffer floats(ByteBuffer data, int offset, int size) {
+        ByteBuffer view = data.duplicate();
+        view.position(offset);
+        view.limit(offset + size * Float.BYTES);
+        return view.slice().order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, long position, int size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("unexpected end of model file");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+}
@@ -0,0 +1,309 @@
+package com.rtbhouse.model.natives;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.List;
+
+import com.rtbhouse.model.natives.NeuralNetworkNativeOps.Activation;
+import com.rtbhouse.model.natives.NeuralNetworkNativeOps.Trans;
+import com.rtbhouse.model.natives.OpMetrics.Op;
+
+/**
+ * <p>
+ * Multilayer perceptron evaluated at native side with a single JNI call per forward pass. Each layer is a fused
+ * linear transformation with activation; results are bit-identical to chaining
+ * {@link NeuralNetworkNativeOps#linearForwardActivation}, or
+ * {@link NeuralNetworkNativeOps#linearBatchForwardActivation} in batch mode, and so
+ * {@link NeuralNetworkNativeOps#linearForward} and the matching activation.
+ * </p>
+ * <p>
+ * To keep that guarantee, the network follows the dispatch of these ops: when any layer would run in pure Java
+ * (below the {@link NeuralNetworkNativeOps#setJavaCrossoverSize Java crossover size}, by a
+ * {@link NeuralNetworkNativeOps#setDispatchProfile dispatch profile} or with the pure Java {@link BlasBackend}),
+ * the pass chains these ops layer by layer instead of making a single JNI call.
+ * </p>
+ * Intermediate outputs are kept in two preallocated direct scratch buffers used alternately (ping-pong), hence
+ * instances are <b>not</b> thread-safe. Weights and biases held in heap buffers are copied to direct memory once,
+ * at construction time; direct ones are referenced and must not be modified afterwards.
+ */
+public final class NativeMlp {
+
+    private static final int LAYER_INFO_SIZE = 4;
+
+    /**
+     * Specification of a single layer: {@code output = activation(weights * input + biases)}.
+     */
+    public static final class LayerSpec {
+        private final Trans transposeWeights;
+        private final FloatBuffer weights;
+        private final FloatBuffer biases;
+        private final Activation activation;
+        private final float alpha;
+        private final int inputSize;
+        private final int outputSize;
+
+        /**
+         * @param transposeWeights
+         *            whether {@code weights} should be transposed before multiplication; follows the
+         *            {@link NeuralNetworkNativeOps#linearForward} convention in both single and batch mode
+         * @param weights
+         *            weights matrix with logical dimensions: {@code inputSize} x {@code outputSize} if
+         *            {@code transposeWeights == TRANSPOSE}, reversed otherwise (ro)
+         * @param biases
+         *            biases vector, its limit defines the layer output size (ro)
+         * @param activation
+         *            activation function applied to the layer output
+         * @param alpha
+         *            {@link Activation#ELU} alpha parameter; ignored by other activations
+         */
+        public LayerSpec(Trans transposeWeights, FloatBuffer weights, FloatBuffer biases, Activation activation,
+                float alpha) {
+
+            if (biases.limit() == 0 || weights.limit() % biases.limit() != 0) {
+                throw new IllegalArgumentException();
+            }
+
+            this.transposeWeights = transposeWeights;
+            this.weights = weights;
+            this.biases = biases;
+            this.activation = activation;
+            this.alpha = alpha;
+            this.outputSize = biases.limit();
+            this.inputSize = weights.limit() / outputSize;
+        }
+
+        /**
+         * Same as {@link LayerSpec#LayerSpec(Trans, FloatBuffer, FloatBuffer, Activation, float)} for activations
+         * without parameters.
+         */
+        public LayerSpec(Trans transposeWeights, FloatBuffer weights, FloatBuffer biases, Activation activation) {
+            this(transposeWeights, weights, biases, activation, 0);
+        }
+
+        public Trans getTransposeWeights() {
+            return transposeWeights;
+        }
+
+        public FloatBuffer getWeights() {
+            return weights;
+        }
+
+        public FloatBuffer getBiases() {
+            return biases;
+        }
+
+        public Activation getActivation() {
+            return activation;
+        }
+
+        public float getAlpha() {
+            return alpha;
+        }
+
+        public int getInputSize() {
+            return inputSize;
+        }
+
+        public int getOutputSize() {
+            return outputSize;
+        }
+    }
+
+    private final int numLayers;
+    private final int inputSize;
+    private final int outputSize;
+    private final int maxBatchSize;
+
+    private final LayerSpec[] directLayerSpecs;
+    private final IntBuffer layers;
+    private final FloatBuffer alphas;
+    private final LongBuffer params;
+    private final FloatBuffer[] weightsAndBiases;
+
+    private final FloatBuffer scratch0;
+    private final FloatBuffer scratch1;
+
+    /**
+     * Creates a network able to process batches of at most {@code maxBatchSize} rows.
+     *
+     * @param layerSpecs
+     *            consecutive layers; output size of each layer must match input size of the next one
+     * @param maxBatchSize
+     *            maximal {@code batchSize} accepted by {@link NativeMlp#forwardBatch}
+     */
+    public NativeMlp(List<LayerSpec> layerSpecs, int maxBatchSize) {
+        if (layerSpecs.isEmpty() || maxBatchSize < 1) {
+            throw new IllegalArgumentException();
+        }
+
+        this.numLayers = layerSpecs.size();
+        this.inputSize = layerSpecs.get(0).inputSize;
+        this.outputSize = layerSpecs.get(numLayers - 1).outputSize;
+        this.maxBatchSize = maxBatchSize;
+
+        this.layers = allocateDirect(numLayers * LAYER_INFO_SIZE * Integer.BYTES).asIntBuffer();
+        this.alphas = allocateDirect(numLayers * Float.BYTES).asFloatBuffer();
+        this.params = allocateDirect(2 * numLayers * Long.BYTES).asLongBuffer();
+        this.weightsAndBiases = new FloatBuffer[2 * numLayers];
+        this.directLayerSpecs = new LayerSpec[numLayers];
+
+        int maxHiddenSize = 0;
+        for (int i = 0; i < numLayers; i++) {
+            LayerSpec spec = layerSpecs.get(i);
+            if (i > 0 && layerSpecs.get(i - 1).outputSize != spec.inputSize) {
+                throw new IllegalArgumentException();
+            }
+            if (i < numLayers - 1) {
+                maxHiddenSize = Math.max(maxHiddenSize, spec.outputSize);
+            }
+
+            layers.put(spec.transposeWeights.value())
+                    .put(spec.activation.value())
+                    .put(spec.inputSize)
+                    .put(spec.outputSize);
+            alphas.put(spec.alpha);
+
+            weightsAndBiases[2 * i] = toDirect(spec.weights);
+            weightsAndBiases[2 * i + 1] = toDirect(spec.biases);
+            NeuralNetworkNativeOps.nativeMlpBindLayer(params, i, weightsAndBiases[2 * i], weightsAndBiases[2 * i + 1]);
+            directLayerSpecs[i] = new LayerSpec(spec.transposeWeights, weightsAndBiases[2 * i],
+                    weightsAndBiases[2 * i + 1], spec.activation, spec.alpha);
+        }
+
+        this.scratch0 = FloatBufferPool.allocateAligned(maxHiddenSize * maxBatchSize);
+        this.scratch1 = FloatBufferPool.allocateAligned(maxHiddenSize * maxBatchSize);
+    }
+
+    /**
+     * Creates a network for single vector processing only.
+     *
+     * @param layerSpecs
+     *            consecutive layers; output size of each layer must match input size of the next one
+     */
+    public NativeMlp(List<LayerSpec> layerSpecs) {
+        this(layerSpecs, 1);
+    }
+
+    /**
+     * Runs the whole network on a single input vector.
+     *
+     * Output contents are discarded and overwritten. Input is read-only.
+     *
+     * @param input
+     *            input vector with at least {@link NativeMlp#getInputSize()} elements (ro)
+     * @param output
+     *            output vector with at least {@link NativeMlp#getOutputSize()} elements (write only)
+     */
+    public void forward(FloatBuffer input, FloatBuffer output) {
+        if (inputSize > input.limit() || outputSize > output.limit()) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        if (isJavaDispatched(false, 1)) {
+            forwardChained(false, input, output, 1);
+        } else {
+            NeuralNetworkNativeOps.nativeMlpForward(numLayers, layers, alphas, params, input, output, scratch0,
+                    scratch1);
+        }
+    }
+
+    /**
+     * Runs the whole network on a batch of input vectors, layer by layer with
+     * {@link NeuralNetworkNativeOps#linearBatchForwardActivation}.
+     *
+     * Output contents are discarded and overwritten. Input is read-only.
+     *
+     * @param input
+     *            input matrix with size {@code batchSize} x {@link NativeMlp#getInputSize()}; values from one row
+     *            should occupy consecutive memory cells (ro)
+     * @param output
+     *            output matrix with size {@code batchSize} x {@link NativeMlp#getOutputSize()} (write only)
+     * @param batchSize
+     *            number of logical rows in {@code input} and {@code output} to process, at most
+     *            {@link NativeMlp#getMaxBatchSize()}
+     */
+    public void forwardBatch(FloatBuffer input, FloatBuffer output, int batchSize) {
+        if (batchSize > maxBatchSize || inputSize * batchSize > input.limit()
+                || outputSize * batchSize > output.limit() || batchSize < 0) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        if (isJavaDispatched(true, batchSize)) {
+            forwardChained(true, input, output, batchSize);
+        } else {
+            NeuralNetworkNativeOps.nativeMlpBatchForward(numLayers, layers, alphas, params, input, output,
+                    scratch0, scratch1, batchSize);
+        }
+    }
+
+    public int getInputSize() {
+        return inputSize;
+    }
+
+    public int getOutputSize() {
+        return outputSize;
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    private boolean isJavaDispatched(boolean batch, int batchSize) {
+        for (LayerSpec layer : directLayerSpecs) {
+            boolean javaDispatched = batch
+                    ? NeuralNetworkNativeOps.isJavaDispatched(Op.LINEAR_BATCH_FORWARD, batchTrans(layer),
+                            layer.inputSize, layer.outputSize, batchSize)
+                    : NeuralNetworkNativeOps.isJavaDispatched(Op.LINEAR_FORWARD, layer.transposeWeights,
+                            layer.inputSize, layer.outputSize, 1);
+            if (javaDispatched) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void forwardChained(boolean batch, FloatBuffer input, FloatBuffer output, int batchSize) {
+        FloatBuffer layerInput = input;
+        for (int i = 0; i < numLayers; i++) {
+            LayerSpec layer = directLayerSpecs[i];
+            FloatBuffer layerOutput = i == numLayers - 1 ? output : i % 2 == 0 ? scratch0 : scratch1;
+            if (batch) {
+                NeuralNetworkNativeOps.linearBatchForwardActivation(batchTrans(layer), layer.activation,
+                        layer.alpha, layer.weights, layer.biases, layerInput, layerOutput, layer.inputSize,
+                        layer.outputSize, batchSize);
+            } else {
+                NeuralNetworkNativeOps.linearForwardActivation(layer.transposeWeights, layer.activation,
+                        layer.alpha, layer.weights, layer.biases, layerInput, layerOutput, layer.inputSize,
+                        layer.outputSize);
+            }
+            layerInput = layerOutput;
+        }
+    }
+
+    /**
+     * Returns the flag of {@link NeuralNetworkNativeOps#linearBatchForwardActivation}, whose convention is reversed.
+     */
+    private static Trans batchTrans(LayerSpec layer) {
+        return layer.transposeWeights == Trans.TRANSPOSE ? Trans.NO_TRANSPOSE : Trans.TRANSPOSE;
+    }
+
+    private static FloatBuffer toDirect(FloatBuffer buffer) {
+        if (buffer.isDirect()) {
+            return buffer;
+        }
+
+        FloatBuffer source = buffer.duplicate();
+        source.rewind();
+        FloatBuffer copy = FloatBufferPool.allocateAligned(source.limit());
+        copy.put(source);
+        copy.rewind();
+        return copy;
+    }
+
+    private static ByteBuffer allocateDirect(int capacity) {
+        return ByteBuffer.allocateDirect(capacity).order(ByteOrder.nativeOrder());
+    }
+}
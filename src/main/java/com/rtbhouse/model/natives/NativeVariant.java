@@ -0,0 +1,174 @@
+package com.rtbhouse.model.natives;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import com.github.fommil.jni.JniLoader;
+
+/**
+ * <p>
+ * Builds of the native library bundled in the jar, each compiled for a different x86-64 instruction set level. The
+ * best variant supported by the CPU, according to the flags in {@code /proc/cpuinfo}, is loaded when
+ * {@link NeuralNetworkNativeOps} is initialized; {@link NeuralNetworkNativeOps#getNativeVariant()} tells which one.
+ * </p>
+ * <p>
+ * Variants are compiled with exactly the instruction set extensions listed as their required flags (and the older
+ * ones these imply, e.g. SSE4.1 for SSE4.2) and without {@code -march}, which would also enable extensions not checked
+ * here (e.g. BMI2 or MOVBE for Haswell) and could crash CPUs or VMs masking them.
+ * </p>
+ * The choice can be forced with the {@value #VARIANT_PROPERTY} system property set to a variant name, e.g.
+ * {@code -Dcom.rtbhouse.model.natives.variant=sse4}. Each {@link BlasBackend} bundles its own set of variants.
+ */
+public enum NativeVariant {
+    /**
+     * Skylake-SP and newer: AVX-512 F/BW/DQ/VL on top of {@link #AVX2}.
+     */
+    AVX512("avx512/", "avx512f", "avx512bw", "avx512dq", "avx512vl", "avx2", "avx", "fma", "f16c", "sse4_2"),
+
+    /**
+     * Haswell and newer: AVX2, FMA and F16C.
+     */
+    AVX2("avx2/", "avx2", "avx", "fma", "f16c", "sse4_2"),
+
+    /**
+     * Nehalem and newer: SSE4.2.
+     */
+    SSE4("sse4/", "sse4_2"),
+
+    /**
+     * Single library at the package root with no CPU requirements checked, as produced by a local build with custom
+     * flags; used when none of the above is bundled.
+     */
+    DEFAULT("");
+
+    /**
+     * Name of the system property forcing the variant to load.
+     */
+    public static final String VARIANT_PROPERTY = "com.rtbhouse.model.natives.variant";
+
+    private static final String LIBRARY_DIRECTORY = "com/rtbhouse/model/natives/";
+    private static final String LIBRARY_NAME = "libjniNeuralNetworkNativeOps.so";
+    private static final String CPUINFO_PATH = "/proc/cpuinfo";
+
+    private final String directory;
+    private final List<String> requiredFlags;
+
+    NativeVariant(String directory, String... requiredFlags) {
+        this.directory = directory;
+        this.requiredFlags = Collections.unmodifiableList(Arrays.asList(requiredFlags));
+    }
+
+    /**
+     * CPU flags, as named in {@code /proc/cpuinfo}, required to run this variant.
+     */
+    public List<String> getRequiredFlags() {
+        return requiredFlags;
+    }
+
+    /**
+     * Returns whether a CPU with the given {@code /proc/cpuinfo} flags can run this variant.
+     */
+    public boolean isSupportedBy(Set<String> cpuFlags) {
+        return cpuFlags.containsAll(requiredFlags);
+    }
+
+    String libraryPath() {
+        return libraryPath("");
+    }
+
+    /**
+     * @param backendDirectory
+     *            {@link BlasBackend#getLibraryDirectory() library directory} of the BLAS backend
+     */
+    String libraryPath(String backendDirectory) {
+        return LIBRARY_DIRECTORY + backendDirectory + directory + LIBRARY_NAME;
+    }
+
+    boolean isBundled() {
+        return isBundled("");
+    }
+
+    boolean isBundled(String backendDirectory) {
+        return NativeVariant.class.getClassLoader().getResource(libraryPath(backendDirectory)) != null;
+    }
+
+    /**
+     * Loads the forced or the best supported variant bundled for the BLAS backend in {@code backendDirectory}.
+     *
+     * @throws UnsatisfiedLinkError
+     *             if no bundled variant can run on this CPU
+     */
+    static NativeVariant load(String backendDirectory) {
+        NativeVariant variant = select(System.getProperty(VARIANT_PROPERTY), readCpuFlags(), backendDirectory);
+        JniLoader.load(variant.libraryPath(backendDirectory));
+        return variant;
+    }
+
+    static NativeVariant select(String forced, Set<String> cpuFlags) {
+        return select(forced, cpuFlags, "");
+    }
+
+    /**
+     * @param forced
+     *            value of the {@value #VARIANT_PROPERTY} property, may be {@code null}
+     * @param cpuFlags
+     *            flags of the CPU, {@code null} if unknown; then the least demanding bundled variant is chosen
+     * @param backendDirectory
+     *            {@link BlasBackend#getLibraryDirectory() library directory} of the BLAS backend
+     */
+    static NativeVariant select(String forced, Set<String> cpuFlags, String backendDirectory) {
+        if (forced != null) {
+            return valueOf(forced.trim().toUpperCase(Locale.ROOT));
+        }
+        if (cpuFlags == null) {
+            return SSE4.isBundled(backendDirectory) ? SSE4 : DEFAULT;
+        }
+        for (NativeVariant variant : values()) {
+            if (variant.isSupportedBy(cpuFlags) && variant.isBundled(backendDirectory)) {
+                return variant;
+            }
+        }
+        throw new UnsatisfiedLinkError("no bundled native library variant supports this CPU, bundled: "
+                + bundled(backendDirectory) + "; set -D" + VARIANT_PROPERTY + " to force one");
+    }
+
+    /**
+     * Parses the flags of the first processor listed in {@code /proc/cpuinfo}.
+     */
+    static Set<String> parseCpuFlags(List<String> cpuinfo) {
+        for (String line : cpuinfo) {
+            int colon = line.indexOf(':');
+            if (colon > 0 && line.substring(0, colon).trim().equals("flags")) {
+                return new HashSet<>(Arrays.asList(line.substring(colon + 1).trim().split("\\s+")));
+            }
+        }
+        return null;
+    }
+
+    private static Set<String> readCpuFlags() {
+        try {
+            return parseCpuFlags(Files.readAllLines(Paths.get(CPUINFO_PATH), StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static List<NativeVariant> bundled(String backendDirectory) {
+        List<NativeVariant> bundled = new ArrayList<>();
+        for (NativeVariant variant : values()) {
+            if (variant.isBundled(backendDirectory)) {
+                bundled.add(variant);
+            }
+        }
+        return bundled;
+    }
+}
@@ -1,15 +1,21 @@
 package com.rtbhouse.model.natives;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.ShortBuffer;
 
 import org.bytedeco.javacpp.annotation.Cast;
 import org.bytedeco.javacpp.annotation.Const;
 import org.bytedeco.javacpp.annotation.MemberGetter;
 import org.bytedeco.javacpp.annotation.Name;
 import org.bytedeco.javacpp.annotation.Platform;
+import org.bytedeco.javacpp.annotation.Raw;
 import org.bytedeco.javacpp.annotation.ValueGetter;
 
-import com.github.fommil.jni.JniLoader;
+import com.rtbhouse.model.natives.OpMetrics.Op;
 
 /**
  * <p>
@@ -17,77 +23,1837 @@ import com.github.fommil.jni.JniLoader;
  * with BLAS behind the scenes.
  * </p>
  * Supports only single precision floating point numbers. Both heap and direct float buffers are supported but
- * an order of magnitude performance boost is achieved when using direct buffers.
+ * an order of magnitude performance boost is achieved when using direct buffers. Heap buffers are copied on every
+ * call; plain {@code float[]} overloads avoid the copy by pinning arrays with JNI critical access.
+ * <p>
+ * Shapes with less elements than the {@link #setJavaCrossoverSize Java crossover size} are processed in pure Java,
+ * where the JNI call overhead would outweigh the native speedup.
+ * </p>
  *
  * @author Piotr Chromiec
  */
 @Platform(include = "NeuralNetworkNativeOps.h", compiler = "fastfpu")
 public final class NeuralNetworkNativeOps {
 
-    static {
-        JniLoader.load("com/rtbhouse/model/natives/libjniNeuralNetworkNativeOps.so");
+    private static final BlasBackend BLAS_BACKEND = StandardBlasBackend.select();
+
+    private static final boolean JAVA_BLAS = BLAS_BACKEND.getLibraryDirectory() == null;
+
+    private static final NativeVariant NATIVE_VARIANT =
+            NativeVariant.load(StandardBlasBackend.libraryDirectoryOf(BLAS_BACKEND));
+
+    private static native @MemberGetter @Const int TRANSPOSE();
+
+    private static native @ValueGetter @Const int NO_TRANSPOSE();
+
+    public enum Trans {
+        TRANSPOSE(TRANSPOSE()), NO_TRANSPOSE(NO_TRANSPOSE());
+
+        private int value;
+
+        Trans(int value) {
+            this.value = value;
+        }
+
+        int value() {
+            return value;
+        }
+    }
+
+    private static native @MemberGetter @Const int ACTIVATION_IDENTITY();
+
+    private static native @MemberGetter @Const int ACTIVATION_RELU();
+
+    private static native @MemberGetter @Const int ACTIVATION_ELU();
+
+    private static native @MemberGetter @Const int ACTIVATION_SIGMOID();
+
+    /**
+     * Activation function applied by the fused operations, e.g.
+     * {@link NeuralNetworkNativeOps#linearForwardActivation}.
+     */
+    public enum Activation {
+        IDENTITY(ACTIVATION_IDENTITY()), RELU(ACTIVATION_RELU()), ELU(ACTIVATION_ELU()),
+        SIGMOID(ACTIVATION_SIGMOID());
+
+        private int value;
+
+        Activation(int value) {
+            this.value = value;
+        }
+
+        int value() {
+            return value;
+        }
+    }
+
+    private static native @MemberGetter @Const int HALF_FLOAT_FP16();
+
+    private static native @MemberGetter @Const int HALF_FLOAT_BF16();
+
+    /**
+     * 16-bit floating point format of weights stored in a {@link ShortBuffer}, e.g. for
+     * {@link NeuralNetworkNativeOps#linearForward(Trans, HalfFloat, ShortBuffer, FloatBuffer, FloatBuffer,
+     * FloatBuffer, int, int)}. Weights are widened to float32 inside the native kernels.
+     */
+    public enum HalfFloat {
+        /**
+         * IEEE 754 binary16: 5 exponent bits, 10 mantissa bits; relative rounding error of {@code 2^-11} for
+         * magnitudes within {@code [6.1e-5, 65504]}, larger ones become infinite.
+         */
+        FP16(HALF_FLOAT_FP16()) {
+            @Override
+            public float toFloat(short half) {
+                int sign = (half & 0x8000) << 16;
+                int exponent = (half >>> 10) & 0x1f;
+                int mantissa = half & 0x3ff;
+                if (exponent == 0x1f) {
+                    return Float.intBitsToFloat(sign | 0x7f800000 | (mantissa << 13));
+                }
+                if (exponent == 0) {
+                    float subnormal = mantissa * 0x1p-24f;
+                    return sign == 0 ? subnormal : -subnormal;
+                }
+                return Float.intBitsToFloat(sign | ((exponent + 112) << 23) | (mantissa << 13));
+            }
+
+            @Override
+            public short fromFloat(float value) {
+                int bits = Float.floatToRawIntBits(value);
+                int sign = (bits >>> 16) & 0x8000;
+                int abs = bits & 0x7fffffff;
+                if (abs > 0x7f800000) {
+                    return (short) (sign | 0x7e00);
+                }
+                if (abs >= 0x47800000) {
+                    return (short) (sign | 0x7c00);
+                }
+                if (abs < 0x38800000) {
+                    return (short) (sign | (int) Math.rint(Float.intBitsToFloat(abs) * 0x1p24f));
+                }
+                abs -= 112 << 23;
+                return (short) (sign | ((abs + 0xfff + ((abs >>> 13) & 1)) >>> 13));
+            }
+        },
+
+        /**
+         * bfloat16: float32 with the mantissa truncated to 7 bits; same range as float32, relative error of
+         * {@code 2^-8}.
+         */
+        BF16(HALF_FLOAT_BF16()) {
+            @Override
+            public float toFloat(short half) {
+                return Float.intBitsToFloat((half & 0xffff) << 16);
+            }
+
+            @Override
+            public short fromFloat(float value) {
+                int bits = Float.floatToRawIntBits(value);
+                if ((bits & 0x7fffffff) > 0x7f800000) {
+                    return (short) ((bits >>> 16) | 0x40);
+                }
+                return (short) ((bits + 0x7fff + ((bits >>> 16) & 1)) >>> 16);
+            }
+        };
+
+        private int value;
+
+        HalfFloat(int value) {
+            this.value = value;
+        }
+
+        int value() {
+            return value;
+        }
+
+        /**
+         * Widens a 16-bit value in this format to float32, exactly.
+         */
+        public abstract float toFloat(short half);
+
+        /**
+         * Narrows a float32 to this format, rounding to nearest even.
+         */
+        public abstract short fromFloat(float value);
+
+        /**
+         * Converts {@code [0, limit)} of {@code values} to a new direct, native-ordered buffer in this format, e.g.
+         * when loading weights.
+         *
+         * @param values
+         *            float32 values (ro)
+         */
+        public ShortBuffer encode(FloatBuffer values) {
+            ShortBuffer encoded = ByteBuffer.allocateDirect(values.limit() * Short.BYTES)
+                    .order(ByteOrder.nativeOrder())
+                    .asShortBuffer();
+            for (int i = 0; i < values.limit(); i++) {
+                encoded.put(i, fromFloat(values.get(i)));
+            }
+            return encoded;
+        }
+    }
+
+    private static native @MemberGetter @Const int POOLING_SUM();
+
+    private static native @MemberGetter @Const int POOLING_MEAN();
+
+    private static native @MemberGetter @Const int POOLING_MAX();
+
+    /**
+     * Reduction of the embeddings in a bag, see {@link NeuralNetworkNativeOps#embeddingBag}.
+     */
+    public enum Pooling {
+        SUM(POOLING_SUM()), MEAN(POOLING_MEAN()), MAX(POOLING_MAX());
+
+        private int value;
+
+        Pooling(int value) {
+            this.value = value;
+        }
+
+        int value() {
+            return value;
+        }
+    }
+
+    /**
+     * Precision of the exponential function in
+     * {@link NeuralNetworkNativeOps#ELU(FloatBuffer, int, float, ExpPrecision)}.
+     */
+    public enum ExpPrecision {
+        /**
+         * exp of the C math library, within a couple of ulps.
+         */
+        EXACT,
+
+        /**
+         * Polynomial approximation with relative error below {@code 1e-5}, i.e. ELU absolute error below
+         * {@code 1e-5 * alpha}. Vectorized with AVX2 when the native library is built for it.
+         */
+        FAST
+    }
+
+    /**
+     * Returns the variant of the native library loaded for this CPU, see {@link NativeVariant}.
+     */
+    public static NativeVariant getNativeVariant() {
+        return NATIVE_VARIANT;
+    }
+
+    /**
+     * Returns the BLAS backend selected at startup, see {@link BlasBackend}.
+     */
+    public static BlasBackend getBlasBackend() {
+        return BLAS_BACKEND;
+    }
+
+    /**
+     * Name of the system property with the initial {@link #setJavaCrossoverSize Java crossover size}.
+     */
+    public static final String JAVA_CROSSOVER_SIZE_PROPERTY = "com.rtbhouse.model.natives.javaCrossoverSize";
+
+    private static final int DEFAULT_JAVA_CROSSOVER_SIZE = 200;
+
+    private static volatile int javaCrossoverSize =
+            Integer.getInteger(JAVA_CROSSOVER_SIZE_PROPERTY, DEFAULT_JAVA_CROSSOVER_SIZE);
+
+    /**
+     * Name of the system property with the path of the initial {@link #setDispatchProfile dispatch profile}. The
+     * file is ignored if it does not exist or was measured on other hardware (see {@link DispatchProfile}), and with
+     * a logged warning if it cannot be read or is malformed.
+     */
+    public static final String DISPATCH_PROFILE_PROPERTY = "com.rtbhouse.model.natives.dispatchProfile";
+
+    private static volatile DispatchProfile dispatchProfile = DispatchProfile.loadFromProperty();
+
+    private NeuralNetworkNativeOps() {
+    }
+
+    /**
+     * Sets the size below which {@link #gemv}, {@link #linearForward}, {@link #linearForwardActivation},
+     * {@link #linearForwardSparse}, {@link #embeddingBag}, {@link #ReLU}, {@link #ELU}, {@link #sigmoid},
+     * {@link #tanh}, {@link #softmax}, {@link #logSoftmax} and {@link #layerNorm} are computed in pure Java instead of
+     * crossing JNI. Size means the number of matrix elements ({@code inputSize * outputSize}) for the linear
+     * operations, the number of touched weights ({@code nonZeros * outputSize}) for the sparse one, the number of
+     * looked up table elements for the embedding bag and the number of processed elements for the activations.
+     * Benchmarks show the native gemv losing to pure Java below about 200 matrix elements, which is the default.
+     * {@code 0} disables the pure Java path. Shapes in the {@link #setDispatchProfile dispatch profile} take
+     * precedence.
+     *
+     * @param size
+     *            crossover size, non-negative
+     */
+    public static void setJavaCrossoverSize(int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException();
+        }
+        javaCrossoverSize = size;
+    }
+
+    /**
+     * Returns the current {@link #setJavaCrossoverSize Java crossover size}.
+     */
+    public static int getJavaCrossoverSize() {
+        return javaCrossoverSize;
+    }
+
+    private static boolean isBelowJavaCrossover(int size) {
+        return size < javaCrossoverSize;
+    }
+
+    /**
+     * Installs per-shape native or pure Java dispatch decisions for {@link #gemv}, {@link #linearForward},
+     * {@link #linearForwardActivation}, {@link #linearBatchForward} and {@link #linearBatchForwardActivation},
+     * measured with {@link DispatchProfile#calibrate}. Shapes missing from the profile fall back to the
+     * {@link #setJavaCrossoverSize Java crossover size}, batches to native code. The activation variants follow the
+     * decisions of their plain counterparts. Ignored with the pure Java {@link BlasBackend}, which runs all of them
+     * in Java.
+     *
+     * @param profile
+     *            profile to use, {@code null} to dispatch by the crossover size only
+     */
+    public static void setDispatchProfile(DispatchProfile profile) {
+        dispatchProfile = profile;
+    }
+
+    /**
+     * Returns the current {@link #setDispatchProfile dispatch profile}, {@code null} if none.
+     */
+    public static DispatchProfile getDispatchProfile() {
+        return dispatchProfile;
+    }
+
+    static boolean isJavaDispatched(Op op, Trans transposeWeights, int inputSize, int outputSize,
+            int batchSize) {
+        if (JAVA_BLAS) {
+            return true;
+        }
+        DispatchProfile profile = dispatchProfile;
+        if (profile != null) {
+            DispatchProfile.Implementation implementation =
+                    profile.implementationFor(op, transposeWeights, inputSize, outputSize, batchSize);
+            if (implementation != null) {
+                return implementation == DispatchProfile.Implementation.JAVA;
+            }
+        }
+        return op != Op.LINEAR_BATCH_FORWARD && isBelowJavaCrossover(inputSize * outputSize);
+    }
+
+    /**
+     * Name of the system property with the initial {@link #setBlasConcurrencyLimit BLAS concurrency limit}.
+     */
+    public static final String BLAS_CONCURRENCY_LIMIT_PROPERTY = "com.rtbhouse.model.natives.blasConcurrencyLimit";
+
+    private static volatile int blasConcurrencyLimit;
+
+    static {
+        setBlasConcurrencyLimit(Integer.getInteger(BLAS_CONCURRENCY_LIMIT_PROPERTY,
+                Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * <p>
+     * Sets the number of concurrent sgemv and sgemm calls handed to OpenBLAS. OpenBLAS serves each such call with
+     * one of its preallocated memory regions, about {@code 2 * NUM_THREADS} of them, and aborts the process when
+     * they run out ("you tried to allocate too many memory regions"). Calls beyond the limit are computed by library
+     * kernels instead, which take their workspaces from a native scratch pool striped by CPU, so any number of
+     * platform or virtual threads may call the operations concurrently.
+     * </p>
+     * The default is the number of available processors: single-threaded OpenBLAS gains nothing from more concurrent
+     * calls than cores. Small sgemv calls, whose workspace OpenBLAS keeps on the stack, are never limited.
+     * {@link Integer#MAX_VALUE} hands all calls to OpenBLAS, {@code 0} none. Ignored with MKL, which has no such
+     * regions.
+     *
+     * @param limit
+     *            number of concurrent calls, non-negative
+     */
+    public static void setBlasConcurrencyLimit(int limit) {
+        if (limit < 0) {
+            throw new IllegalArgumentException();
+        }
+        nativeSetBlasConcurrencyLimit(limit);
+        blasConcurrencyLimit = limit;
+    }
+
+    /**
+     * Returns the current {@link #setBlasConcurrencyLimit BLAS concurrency limit}.
+     */
+    public static int getBlasConcurrencyLimit() {
+        return blasConcurrencyLimit;
+    }
+
+    /**
+     * Returns the number of sgemv and sgemm calls computed by library kernels since the library was loaded, because
+     * the {@link #setBlasConcurrencyLimit BLAS concurrency limit} was reached.
+     */
+    public static long getBlasOverflowCount() {
+        return nativeBlasOverflowCount();
+    }
+
+    /**
+     * Frees native scratch memory cached for reuse by the library kernels, e.g. after a load spike. Memory in use is
+     * not affected.
+     */
+    public static void trimScratchMemory() {
+        nativeScratchTrim();
+    }
+
+    private static native @Name("setBlasConcurrencyLimit") void nativeSetBlasConcurrencyLimit(int limit);
+
+    private static native @Name("blasOverflowCount") long nativeBlasOverflowCount();
+
+    private static native @Name("scratchTrim") void nativeScratchTrim();
+
+    /**
+     * In-place applies the rectified linear unit (ReLU) function to the first {@code endExclusive} input elements:
+     *
+     * <pre>
+     * ReLU(x) = max(0, x)
+     * </pre>
+     *
+     * @param inOut
+     *            input/output vector (read write)
+     * @param endExclusive
+     *            index immediately past the last index to process
+     */
+    public static void ReLU(FloatBuffer inOut, int endExclusive) {
+        if (endExclusive > inOut.limit() || endExclusive < 0) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        if (isBelowJavaCrossover(endExclusive)) {
+            JavaNeuralNetworkOps.ReLU(inOut, endExclusive);
+        } else {
+            nativeReLU(inOut, endExclusive);
+        }
+    }
+
+    /**
+     * Applies the {@link NeuralNetworkNativeOps#ReLU} for whole input vector in-place.
+     *
+     * @param inOut
+     *            input/output vector (read write)
+     */
+    public static void ReLU(FloatBuffer inOut) {
+        if (isBelowJavaCrossover(inOut.limit())) {
+            JavaNeuralNetworkOps.ReLU(inOut, inOut.limit());
+        } else {
+            nativeReLU(inOut, inOut.limit());
+        }
+    }
+
+    private static native @Name("ReLU") void nativeReLU(FloatBuffer inOut, int endExclusive);
+
+    /**
+     * In-place applies the exponential linear unit (ELU) function to the first {@code endExclusive} input vector
+     * elements:
+     *
+     * <pre>
+     * ELU(x) = max(0, x) + min(0, alpha * (exp(x) - 1))
+     * </pre>
+     *
+     * @param inOut
+     *            input/output vector (read write)
+     * @param endExclusive
+     *            index immediately past the last index to process
+     * @param alpha
+     *            varies the convergence value of the exponential function below zero
+     */
+    public static void ELU(FloatBuffer inOut, int endExclusive, float alpha) {
+        if (endExclusive > inOut.limit() || endExclusive < 0) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        if (isBelowJavaCrossover(endExclusive)) {
+            JavaNeuralNetworkOps.ELU(inOut, endExclusive, alpha);
+        } else {
+            nativeELU(inOut, endExclusive, alpha);
+        }
+    }
+
+    /**
+     * Applies the {@link NeuralNetworkNativeOps#ELU} for whole input vector in-place.
+     *
+     * @param inOut
+     *            input/output vector (read write)
+     * @param alpha
+     *            varies the convergence value of the exponential function below zero
+     */
+    public static void ELU(FloatBuffer inOut, float alpha) {
+        if (isBelowJavaCrossover(inOut.limit())) {
+            JavaNeuralNetworkOps.ELU(inOut, inOut.limit(), alpha);
+        } else {
+            nativeELU(inOut, inOut.limit(), alpha);
+        }
+    }
+
+    private static native @Name("ELU") void nativeELU(FloatBuffer inOut, int endExclusive, float alpha);
+
+    /**
+     * Same as {@link NeuralNetworkNativeOps#ELU(FloatBuffer, int, float)} with selectable precision of the exponential
+     * function. Shapes below the {@link #setJavaCrossoverSize Java crossover size} are always computed exactly.
+     *
+     * @param inOut
+     *            input/output vector (read write)
+     * @param endExclusive
+     *            index immediately past the last index to process
+     * @param alpha
+     *            varies the convergence value of the exponential function below zero
+     * @param precision
+     *            precision of exp
+     */
+    public static void ELU(FloatBuffer inOut, int endExclusive, float alpha, ExpPrecision precision) {
+        if (endExclusive > inOut.limit() || endExclusive < 0) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        if (isBelowJavaCrossover(endExclusive)) {
+            JavaNeuralNetworkOps.ELU(inOut, endExclusive, alpha);
+        } else if (precision == ExpPrecision.FAST) {
+            nativeFastELU(inOut, endExclusive, alpha);
+        } else {
+            nativeELU(inOut, endExclusive, alpha);
+        }
+    }
+
+    /**
+     * In-place applies the {@link NeuralNetworkNativeOps#ELU} to a whole matrix, e.g. the output of
+     * {@link NeuralNetworkNativeOps#linearBatchForward}.
+     *
+     * @param inOut
+     *            input/output matrix with size {@code batchSize} x {@code rowSize} (read write)
+     * @param rowSize
+     *            number of logical columns in {@code inOut}
+     * @param batchSize
+     *            number of logical rows in {@code inOut} to process
+     * @param alpha
+     *            varies the convergence value of the exponential function below zero
+     * @param precision
+     *            precision of exp
+     */
+    public static void ELUBatch(FloatBuffer inOut, int rowSize, int batchSize, float alpha,
+            ExpPrecision precision) {
+
+        if (rowSize * batchSize > inOut.limit() || rowSize < 0 || batchSize < 0) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        if (precision == ExpPrecision.FAST) {
+            nativeFastELU(inOut, rowSize * batchSize, alpha);
+        } else {
+            nativeELU(inOut, rowSize * batchSize, alpha);
+        }
+    }
+
+    private static native @Name("fastELU") void nativeFastELU(FloatBuffer inOut, int endExclusive, float alpha);
+
+    /**
+     * In-place applies the logistic sigmoid function to the first {@code endExclusive} input vector elements:
+     *
+     * <pre>
+     * sigmoid(x) = 1 / (1 + exp(-x))
+     * </pre>
+     *
+     * Elements are independent, so a {@code batchSize} x {@code rowSize} matrix is processed with
+     * {@code endExclusive = batchSize * rowSize}.
+     *
+     * @param inOut
+     *            input/output vector (read write)
+     * @param endExclusive
+     *            index immediately past the last index to process
+     */
+    public static void sigmoid(FloatBuffer inOut, int endExclusive) {
+        if (endExclusive > inOut.limit() || endExclusive < 0) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        if (isBelowJavaCrossover(endExclusive)) {
+            JavaNeuralNetworkOps.sigmoid(inOut, endExclusive);
+        } else {
+            nativeSigmoid(inOut, endExclusive);
+        }
+    }
+
+    /**
+     * Applies the {@link NeuralNetworkNativeOps#sigmoid} for whole input vector in-place.
+     *
+     * @param inOut
+     *            input/output vector (read write)
+     */
+    public static void sigmoid(FloatBuffer inOut) {
+        sigmoid(inOut, inOut.limit());
+    }
+
+    private static native @Name("sigmoid") void nativeSigmoid(FloatBuffer inOut, int endExclusive);
+
+    /**
+     * In-place applies the hyperbolic tangent function to the first {@code endExclusive} input vector elements:
+     *
+     * <pre>
+     * tanh(x) = (exp(x) - exp(-x)) / (exp(x) + exp(-x))
+     * </pre>
+     *
+     * Elements are independent, so a {@code batchSize} x {@code rowSize} matrix is processed with
+     * {@code endExclusive = batchSize * rowSize}.
+     *
+     * @param inOut
+     *            input/output vector (read write)
+     * @param endExclusive
+     *            index immediately past the last index to process
+     */
+    public static void tanh(FloatBuffer inOut, int endExclusive) {
+        if (endExclusive > inOut.limit() || endExclusive < 0) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        if (isBelowJavaCrossover(endExclusive)) {
+            JavaNeuralNetworkOps.tanh(inOut, endExclusive);
+        } else {
+            nativeTanh(inOut, endExclusive);
+        }
+    }
+
+    /**
+     * Applies the {@link NeuralNetworkNativeOps#tanh} for whole input vector in-place.
+     *
+     * @param inOut
+     *            input/output vector (read write)
+     */
+    public static void tanh(FloatBuffer inOut) {
+        tanh(inOut, inOut.limit());
+    }
+
+    private static native @Name("tanhActivation") void nativeTanh(FloatBuffer inOut, int endExclusive);
+
+    /**
+     * In-place applies the softmax function to the first {@code size} input vector elements:
+     *
+     * <pre>
+     * softmax(x)[i] = exp(x[i] - max(x)) / sum(exp(x[j] - max(x)))
+     * </pre>
+     *
+     * Subtracting the maximum keeps {@code exp} from overflowing without changing the result.
+     *
+     * @param inOut
+     *            input/output vector (read write)
+     * @param size
+     *            number of elements to normalize
+     */
+    public static void softmax(FloatBuffer inOut, int size) {
+        if (size > inOut.limit() || size < 0) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        if (isBelowJavaCrossover(size)) {
+            JavaNeuralNetworkOps.softmax(inOut, 0, size);
+        } else {
+            nativeSoftmax(inOut, size, 1);
+        }
+    }
+
+    /**
+     * Applies the {@link NeuralNetworkNativeOps#softmax} for whole input vector in-place.
+     *
+     * @param inOut
+     *            input/output vector (read write)
+     */
+    public static void softmax(FloatBuffer inOut) {
+        softmax(inOut, inOut.limit());
+    }
+
+    /**
+     * In-place applies the {@link NeuralNetworkNativeOps#softmax} to every row of a matrix, e.g. the output of
+     * {@link NeuralNetworkNativeOps#linearBatchForward}.
+     *
+     * @param inOut
+     *            input/output matrix with size {@code batchSize} x {@code rowSize} (read write)
+     * @param rowSize
+     *            number of logical columns in {@code inOut}
+     * @param batchSize
+     *            number of logical rows in {@code inOut} to process
+     */
+    public static void softmaxBatch(FloatBuffer inOut, int rowSize, int batchSize) {
+        if (rowSize * batchSize > inOut.limit() || rowSize < 0 || batchSize < 0) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        nativeSoftmax(inOut, rowSize, batchSize);
+    }
+
+    private static native @Name("softmax") void nativeSoftmax(FloatBuffer inOut, int rowSize, int batchSize);
+
+    /**
+     * In-place applies the logarithm of the softmax function to the first {@code size} input vector elements:
+     *
+     * <pre>
+     * logSoftmax(x)[i] = x[i] - max(x) - log(sum(exp(x[j] - max(x))))
+     * </pre>
+     *
+     * Computed directly rather than as {@code log(softmax(x))}, so it stays finite where softmax underflows to zero.
+     *
+     * @param inOut
+     *            input/output vector (read write)
+     * @param size
+     *            number of elements to normalize
+     */
+    public static void logSoftmax(FloatBuffer inOut, int size) {
+        if (size > inOut.limit() || size < 0) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        if (isBelowJavaCrossover(size)) {
+            JavaNeuralNetworkOps.logSoftmax(inOut, 0, size);
+        } else {
+            nativeLogSoftmax(inOut, size, 1);
+        }
+    }
+
+    /**
+     * Applies the {@link NeuralNetworkNativeOps#logSoftmax} for whole input vector in-place.
+     *
+     * @param inOut
+     *            input/output vector (read write)
+     */
+    public static void logSoftmax(FloatBuffer inOut) {
+        logSoftmax(inOut, inOut.limit());
+    }
+
+    /**
+     * In-place applies the {@link NeuralNetworkNativeOps#logSoftmax} to every row of a matrix, e.g. the output of
+     * {@link NeuralNetworkNativeOps#linearBatchForward}.
+     *
+     * @param inOut
+     *            input/output matrix with size {@code batchSize} x {@code rowSize} (read write)
+     * @param rowSize
+     *            number of logical columns in {@code inOut}
+     * @param batchSize
+     *            number of logical rows in {@code inOut} to process
+     */
+    public static void logSoftmaxBatch(FloatBuffer inOut, int rowSize, int batchSize) {
+        if (rowSize * batchSize > inOut.limit() || rowSize < 0 || batchSize < 0) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        nativeLogSoftmax(inOut, rowSize, batchSize);
+    }
+
+    private static native @Name("logSoftmax") void nativeLogSoftmax(FloatBuffer inOut, int rowSize, int batchSize);
+
+    /**
+     * In-place applies layer normalization to the first {@code size} input vector elements:
+     *
+     * <pre>
+     * layerNorm(x)[i] = gamma[i] * (x[i] - mean(x)) / sqrt(variance(x) + epsilon) + beta[i]
+     * </pre>
+     *
+     * Batch normalization, having fixed statistics at inference time, is better folded into the adjacent linear
+     * layer with {@link BatchNorm}.
+     *
+     * @param inOut
+     *            input/output vector (read write)
+     * @param gamma
+     *            learned scale (ro)
+     * @param beta
+     *            learned shift (ro)
+     * @param epsilon
+     *            value added to the variance for numerical stability
+     * @param size
+     *            number of elements to normalize; also size of {@code gamma} and {@code beta}
+     */
+    public static void layerNorm(FloatBuffer inOut, FloatBuffer gamma, FloatBuffer beta, float epsilon, int size) {
+        if (size > inOut.limit() || size > gamma.limit() || size > beta.limit() || size < 0) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        if (isBelowJavaCrossover(size)) {
+            JavaNeuralNetworkOps.layerNorm(inOut, gamma, beta, epsilon, 0, size);
+        } else {
+            nativeLayerNorm(inOut, gamma, beta, epsilon, size, 1);
+        }
+    }
+
+    /**
+     * In-place applies the {@link NeuralNetworkNativeOps#layerNorm} to every row of a matrix, e.g. the output of
+     * {@link NeuralNetworkNativeOps#linearBatchForward}.
+     *
+     * @param inOut
+     *            input/output matrix with size {@code batchSize} x {@code rowSize} (read write)
+     * @param gamma
+     *            learned scale with size {@code rowSize} (ro)
+     * @param beta
+     *            learned shift with size {@code rowSize} (ro)
+     * @param epsilon
+     *            value added to the variance for numerical stability
+     * @param rowSize
+     *            number of logical columns in {@code inOut}
+     * @param batchSize
+     *            number of logical rows in {@code inOut} to process
+     */
+    public static void layerNormBatch(FloatBuffer inOut, FloatBuffer gamma, FloatBuffer beta, float epsilon,
+            int rowSize, int batchSize) {
+
+        if (rowSize * batchSize > inOut.limit() || rowSize > gamma.limit() || rowSize > beta.limit() || rowSize < 0
+                || batchSize < 0) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        nativeLayerNorm(inOut, gamma, beta, epsilon, rowSize, batchSize);
+    }
+
+    private static native @Name("layerNorm") void nativeLayerNorm(FloatBuffer inOut, FloatBuffer gamma,
+            FloatBuffer beta, float epsilon, int rowSize, int batchSize);
+
+    /**
+     * Applies a float matrix-vector multiplication with accumulation (gemv):
+     *
+     * <pre>
+     * y = A * x + y
+     * </pre>
+     *
+     * Destination memory is read and overwritten. Other buffers are read-only.
+     *
+     * @param A
+     *            input matrix with logical dimensions: {@code n} x {@code m} (ro)
+     * @param x
+     *            input vector (ro)
+     * @param y
+     *            input/output vector (rw)
+     * @param m
+     *            index immediately past the last index to process in {@code x} and number of logical columns in
+     *            {@code A}
+     * @param n
+     *            index immediately past the last index to process in {@code y} and number of logical rows in {@code A}
+     * @see <a
+     *      href=
+     *      "http://www.netlib.org/lapack/explore-html/d6/d30/group__single__blas__level2_gafc92361b74c6d41c7e5afa0aa5d13ec9"
+     *      >sgemv @ netlib lapack docs</a>
+     */
+    public static void gemv(FloatBuffer A, FloatBuffer x, FloatBuffer y, int m, int n) {
+        if (m > x.limit() || n > y.limit() || m * n > A.limit() || m < 0 || n < 0) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        long start = OpMetrics.start();
+        if (isJavaDispatched(Op.GEMV, Trans.NO_TRANSPOSE, m, n, 1)) {
+            JavaNeuralNetworkOps.gemv(A, x, y, m, n);
+        } else {
+            nativeGemv(A, x, y, m, n);
+        }
+        OpMetrics.record(Op.GEMV, start, m, n, 1);
+    }
+
+    /**
+     * Applies the {@link NeuralNetworkNativeOps#gemv} to the whole incoming data in-place.
+     * 
+     * @param A
+     *            input matrix with logical dimensions: {@code y.limit()} x {@code x.limit()} (ro)
+     * @param x
+     *            input vector (ro)
+     * @param y
+     *            input/output vector (rw)
+     */
+    public static void gemv(FloatBuffer A, FloatBuffer x, FloatBuffer y) {
+        if (x.limit() * y.limit() != A.limit()) {
+            throw new IllegalArgumentException();
+        }
+
+        long start = OpMetrics.start();
+        if (isJavaDispatched(Op.GEMV, Trans.NO_TRANSPOSE, x.limit(), y.limit(), 1)) {
+            JavaNeuralNetworkOps.gemv(A, x, y, x.limit(), y.limit());
+        } else {
+            nativeGemv(A, x, y, x.limit(), y.limit());
+        }
+        OpMetrics.record(Op.GEMV, start, x.limit(), y.limit(), 1);
+    }
+
+    static native @Name("gemv") void nativeGemv(FloatBuffer A, FloatBuffer x, FloatBuffer y, int xSize,
+            int ySize);
+
+    /**
+     * Applies a float matrix-matrix multiplication with accumulation (gemm):
+     * 
+     * <pre>
+     * Y = A * B + Y
+     * </pre>
+     *
+     * Destination memory is read and overwritten. Other buffers are read-only.
+     * 
+     * @param A
+     *            input matrix with logical dimensions: {@code m} x {@code k} (ro)
+     * @param B
+     *            input matrix with logical dimensions: {@code k} x {@code n} (ro)
+     * @param Y
+     *            input/output matrix with logical dimensions: {@code m} x {@code n} (rw)
+     * @param m
+     *            number of logical rows in {@code A} and {@code Y}
+     * @param n
+     *            number of logical columns in {@code B} and {@code Y}
+     * @param k
+     *            number of logical columns in {@code A} and logical rows in {@code B}
+     * @see <a href=
+     *      "http://www.netlib.org/lapack/explore-html/db/dc9/group__single__blas__level3.html#gafe51bacb54592ff5de056acabd83c260"
+     *      >sgemm @ netlib lapack docs</a>
+     */
+    public static void gemm(FloatBuffer A, FloatBuffer B, FloatBuffer Y, int m, int n, int k) {
+        if (m * k > A.limit() || k * n > B.limit() || m * n > Y.limit() || k < 0 || m < 0 || n < 0) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        long start = OpMetrics.start();
+        if (JAVA_BLAS) {
+            JavaNeuralNetworkOps.gemm(A, B, Y, m, n, k);
+        } else {
+            nativeGemm(A, B, Y, m, n, k);
+        }
+        OpMetrics.record(Op.GEMM, start, k, n, m);
+    }
+
+    private static native @Name("gemm") void nativeGemm(FloatBuffer A, FloatBuffer B, FloatBuffer Y, int m, int n, int k);
+
+    /**
+     * Applies a linear transformation to the incoming data:
+     *
+     * <pre>
+     * output = weights * input + biases
+     * </pre>
+     * 
+     * Output contents are discarded and overwritten. Other buffers are read-only.
+     * 
+     * @param transposeWeights
+     *            whether {@code weights} should be transposed before multiplication
+     * @param weights
+     *            weights matrix with logical dimensions: {@code inputSize} x {@code outputSize} if
+     *            {@code transposeWeights == TRANSPOSE}, reversed otherwise (ro)
+     * @param biases
+     *            biases vector (ro)
+     * @param input
+     *            input vector (ro)
+     * @param output
+     *            output vector (write only)
+     * @param inputSize
+     *            index immediately past the last index to process in {@code input} and number of logical rows in
+     *            {@code weights} if {@code transposeWeights == TRANSPOSE}, columns otherwise.
+     * @param outputSize
+     *            index immediately past the last index to process in {@code output} and {@code biases}; also number of
+     *            logical columns in {@code weights} if {@code transposeWeights == TRANSPOSE}, rows otherwise.
+     */
+    public static void linearForward(Trans transposeWeights, FloatBuffer weights, FloatBuffer biases,
+            FloatBuffer input, FloatBuffer output, int inputSize, int outputSize) {
+
+        if (inputSize > input.limit() || outputSize > output.limit() || outputSize > biases.limit()
+                || outputSize * inputSize > weights.limit() || inputSize < 0 || outputSize < 0) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        long start = OpMetrics.start();
+        if (isJavaDispatched(Op.LINEAR_FORWARD, transposeWeights, inputSize, outputSize, 1)) {
+            JavaNeuralNetworkOps.linearForward(transposeWeights == Trans.TRANSPOSE,
+                    weights, biases, input, output, inputSize, outputSize);
+        } else {
+            nativeLinearForward(transposeWeights.value(), weights, biases, input, output, inputSize, outputSize);
+        }
+        OpMetrics.record(Op.LINEAR_FORWARD, start, inputSize, outputSize, 1);
+    }
+
+    /**
+     * Applies the {@link NeuralNetworkNativeOps#linearForward} to the whole incoming data in-place.
+     * 
+     * @param transposeWeights
+     *            whether {@code weights} should be transposed before multiplication
+     * @param weights
+     *            weights matrix with logical dimensions: {@code input.limit()} x {@code output.limit()} if
+     *            {@code transposeWeights == TRANSPOSE}, reversed otherwise (ro)
+     * @param biases
+     *            bias vector with size {@code output.limit()} (ro)
+     * @param input
+     *            input vector (ro)
+     * @param output
+     *            output vector (write only)
+     */
+    public static void linearForward(Trans transposeWeights, FloatBuffer weights, FloatBuffer biases,
+            FloatBuffer input, FloatBuffer output) {
+
+        if (input.limit() * output.limit() != weights.limit() || output.limit() != biases.limit()) {
+            throw new IllegalArgumentException();
+        }
+
+        long start = OpMetrics.start();
+        if (isJavaDispatched(Op.LINEAR_FORWARD, transposeWeights, input.limit(), output.limit(), 1)) {
+            JavaNeuralNetworkOps.linearForward(transposeWeights == Trans.TRANSPOSE,
+                    weights, biases, input, output, input.limit(), output.limit());
+        } else {
+            nativeLinearForward(transposeWeights.value(), weights, biases, input, output, input.limit(),
+                    output.limit());
+        }
+        OpMetrics.record(Op.LINEAR_FORWARD, start, input.limit(), output.limit(), 1);
+    }
+
+    static native @Name("linearForward") void nativeLinearForward(
+            @Cast("NNNOTranspose") int transposeWeights, FloatBuffer weights, FloatBuffer biases, FloatBuffer input,
+            FloatBuffer output, int inputSize, int outputSize);
+
+    /**
+     * Applies a linear transformation to the incoming data:
+     *
+     * <pre>
+     * output = weights * input + biases
+     * </pre>
+     *
+     * Output contents are discarded and overwritten. Other buffers are read-only.
+     *
+     * @param transposeWeights
+     *            whether {@code weights} should be transposed before multiplication
+     * @param weights
+     *            weights matrix with logical dimensions: {@code outputRowSize} x {@code inputRowSize} if
+     *            {@code transposeWeights == TRANSPOSE}, reversed otherwise (ro)
+     * @param biases
+     *            bias vector with size {@code outputRowSize} (ro)
+     * @param input
+     *            input matrix with size {@code batchSize} x {@code inputRowSize}; values from one row should
+     *            occupy consecutive memory cells (ro)
+     * @param output
+     *            output matrix with size {@code batchSize} x {@code outputRowSize} (write only)
+     * @param inputRowSize
+     *            number of logical columns in {@code input} and logical columns in {@code weights} if
+     *            {@code transposeWeights == TRANSPOSE}, rows otherwise
+     * @param outputRowSize
+     *            number of logical columns in {@code output} and logical rows in {@code weights} if
+     *            {@code transposeWeights == TRANSPOSE}, columns otherwise
+     * @param batchSize
+     *            number of logical rows in {@code input} and {@code output} to process
+     */
+    public static void linearBatchForward(Trans transposeWeights, FloatBuffer weights, FloatBuffer biases,
+            FloatBuffer input, FloatBuffer output, int inputRowSize, int outputRowSize, int batchSize) {
+
+        if (inputRowSize * batchSize > input.limit() || outputRowSize * batchSize > output.limit()
+                || outputRowSize > biases.limit() || inputRowSize * outputRowSize > weights.limit()
+                || outputRowSize < 0 || inputRowSize < 0 || batchSize < 0) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        long start = OpMetrics.start();
+        if (isJavaDispatched(Op.LINEAR_BATCH_FORWARD, transposeWeights, inputRowSize, outputRowSize, batchSize)) {
+            JavaNeuralNetworkOps.linearBatchForward(transposeWeights == Trans.NO_TRANSPOSE,
+                    weights, biases, input, output, inputRowSize, outputRowSize, batchSize);
+        } else {
+            nativeLinearBatchForward(transposeWeights.value(),
+                    weights, biases, input, output, inputRowSize, outputRowSize, batchSize);
+        }
+        OpMetrics.record(Op.LINEAR_BATCH_FORWARD, start, inputRowSize, outputRowSize, batchSize);
+    }
+
+    static native @Name("linearBatchForward") void nativeLinearBatchForward(
+            @Cast("NNNOTranspose") int transposeWeights, FloatBuffer weights, FloatBuffer biases, FloatBuffer input,
+            FloatBuffer output, int inputRowSize, int outputRowSize, int batchSize);
+
+    static native @Name("linearBatchForwardTile") void nativeLinearBatchForwardTile(
+            @Cast("NNNOTranspose") int transposeWeights, FloatBuffer weights, FloatBuffer biases, FloatBuffer input,
+            FloatBuffer output, int inputRowSize, int outputRowSize, int rowBegin, int rowEnd, int columnBegin,
+            int columnEnd);
+
+    /**
+     * Applies a linear transformation followed by an activation function to the incoming data in a single native
+     * call:
+     *
+     * <pre>
+     * output = activation(weights * input + biases)
+     * </pre>
+     *
+     * Gives the same results as {@link NeuralNetworkNativeOps#linearForward} followed by the matching activation,
+     * but crosses JNI once and applies the activation while the output is still in cache.
+     *
+     * Output contents are discarded and overwritten. Other buffers are read-only.
+     *
+     * @param transposeWeights
+     *            whether {@code weights} should be transposed before multiplication
+     * @param activation
+     *            activation function applied to the output
+     * @param alpha
+     *            {@link Activation#ELU} alpha parameter; ignored by other activations
+     * @param weights
+     *            weights matrix with logical dimensions: {@code inputSize} x {@code outputSize} if
+     *            {@code transposeWeights == TRANSPOSE}, reversed otherwise (ro)
+     * @param biases
+     *            biases vector (ro)
+     * @param input
+     *            input vector (ro)
+     * @param output
+     *            output vector (write only)
+     * @param inputSize
+     *            index immediately past the last index to process in {@code input} and number of logical rows in
+     *            {@code weights} if {@code transposeWeights == TRANSPOSE}, columns otherwise.
+     * @param outputSize
+     *            index immediately past the last index to process in {@code output} and {@code biases}; also number of
+     *            logical columns in {@code weights} if {@code transposeWeights == TRANSPOSE}, rows otherwise.
+     */
+    public static void linearForwardActivation(Trans transposeWeights, Activation activation, float alpha,
+            FloatBuffer weights, FloatBuffer biases, FloatBuffer input, FloatBuffer output, int inputSize,
+            int outputSize) {
+
+        if (inputSize > input.limit() || outputSize > output.limit() || outputSize > biases.limit()
+                || outputSize * inputSize > weights.limit() || inputSize < 0 || outputSize < 0) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        long start = OpMetrics.start();
+        if (isJavaDispatched(Op.LINEAR_FORWARD, transposeWeights, inputSize, outputSize, 1)) {
+            JavaNeuralNetworkOps.linearForward(transposeWeights == Trans.TRANSPOSE,
+                    weights, biases, input, output, inputSize, outputSize);
+            JavaNeuralNetworkOps.activate(activation, output, outputSize, alpha);
+        } else {
+            nativeLinearForwardActivation(transposeWeights.value(), activation.value(), alpha,
+                    weights, biases, input, output, inputSize, outputSize);
+        }
+        OpMetrics.record(Op.LINEAR_FORWARD_ACTIVATION, start, inputSize, outputSize, 1);
+    }
+
+    /**
+     * Applies the {@link NeuralNetworkNativeOps#linearForwardActivation} to the whole incoming data.
+     *
+     * @param transposeWeights
+     *            whether {@code weights} should be transposed before multiplication
+     * @param activation
+     *            activation function applied to the output
+     * @param alpha
+     *            {@link Activation#ELU} alpha parameter; ignored by other activations
+     * @param weights
+     *            weights matrix with logical dimensions: {@code input.limit()} x {@code output.limit()} if
+     *            {@code transposeWeights == TRANSPOSE}, reversed otherwise (ro)
+     * @param biases
+     *            bias vector with size {@code output.limit()} (ro)
+     * @param input
+     *            input vector (ro)
+     * @param output
+     *            output vector (write only)
+     */
+    public static void linearForwardActivation(Trans transposeWeights, Activation activation, float alpha,
+            FloatBuffer weights, FloatBuffer biases, FloatBuffer input, FloatBuffer output) {
+
+        if (input.limit() * output.limit() != weights.limit() || output.limit() != biases.limit()) {
+            throw new IllegalArgumentException();
+        }
+
+        long start = OpMetrics.start();
+        if (isJavaDispatched(Op.LINEAR_FORWARD, transposeWeights, input.limit(), output.limit(), 1)) {
+            JavaNeuralNetworkOps.linearForward(transposeWeights == Trans.TRANSPOSE,
+                    weights, biases, input, output, input.limit(), output.limit());
+            JavaNeuralNetworkOps.activate(activation, output, output.limit(), alpha);
+        } else {
+            nativeLinearForwardActivation(transposeWeights.value(), activation.value(), alpha,
+                    weights, biases, input, output, input.limit(), output.limit());
+        }
+        OpMetrics.record(Op.LINEAR_FORWARD_ACTIVATION, start, input.limit(), output.limit(), 1);
+    }
+
+    private static native @Name("linearForwardActivation") void nativeLinearForwardActivation(
+            @Cast("NNNOTranspose") int transposeWeights, @Cast("NNNOActivation") int activation, float alpha,
+            FloatBuffer weights, FloatBuffer biases, FloatBuffer input, FloatBuffer output, int inputSize,
+            int outputSize);
+
+    /**
+     * Applies a linear transformation followed by an activation function to the incoming batch in a single native
+     * call:
+     *
+     * <pre>
+     * output = activation(input * weights + biases)
+     * </pre>
+     *
+     * Gives the same results as {@link NeuralNetworkNativeOps#linearBatchForward} followed by the matching
+     * activation over the whole output.
+     *
+     * Output contents are discarded and overwritten. Other buffers are read-only.
+     *
+     * @param transposeWeights
+     *            whether {@code weights} should be transposed before multiplication
+     * @param activation
+     *            activation function applied to the output
+     * @param alpha
+     *            {@link Activation#ELU} alpha parameter; ignored by other activations
+     * @param weights
+     *            weights matrix with logical dimensions: {@code outputRowSize} x {@code inputRowSize} if
+     *            {@code transposeWeights == TRANSPOSE}, reversed otherwise (ro)
+     * @param biases
+     *            bias vector with size {@code outputRowSize} (ro)
+     * @param input
+     *            input matrix with size {@code batchSize} x {@code inputRowSize}; values from one row should
+     *            occupy consecutive memory cells (ro)
+     * @param output
+     *            output matrix with size {@code batchSize} x {@code outputRowSize} (write only)
+     * @param inputRowSize
+     *            number of logical columns in {@code input} and logical columns in {@code weights} if
+     *            {@code transposeWeights == TRANSPOSE}, rows otherwise
+     * @param outputRowSize
+     *            number of logical columns in {@code output} and logical rows in {@code weights} if
+     *            {@code transposeWeights == TRANSPOSE}, columns otherwise
+     * @param batchSize
+     *            number of logical rows in {@code input} and {@code output} to process
+     */
+    public static void linearBatchForwardActivation(Trans transposeWeights, Activation activation, float alpha,
+            FloatBuffer weights, FloatBuffer biases, FloatBuffer input, FloatBuffer output, int inputRowSize,
+            int outputRowSize, int batchSize) {
+
+        if (inputRowSize * batchSize > input.limit() || outputRowSize * batchSize > output.limit()
+                || outputRowSize > biases.limit() || inputRowSize * outputRowSize > weights.limit()
+                || outputRowSize < 0 || inputRowSize < 0 || batchSize < 0) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        long start = OpMetrics.start();
+        if (isJavaDispatched(Op.LINEAR_BATCH_FORWARD, transposeWeights, inputRowSize, outputRowSize, batchSize)) {
+            JavaNeuralNetworkOps.linearBatchForward(transposeWeights == Trans.NO_TRANSPOSE,
+                    weights, biases, input, output, inputRowSize, outputRowSize, batchSize);
+            JavaNeuralNetworkOps.activate(activation, output, outputRowSize * batchSize, alpha);
+        } else {
+            nativeLinearBatchForwardActivation(transposeWeights.value(), activation.value(), alpha,
+                    weights, biases, input, output, inputRowSize, outputRowSize, batchSize);
+        }
+        OpMetrics.record(Op.LINEAR_BATCH_FORWARD_ACTIVATION, start, inputRowSize, outputRowSize, batchSize);
+    }
+
+    private static native @Name("linearBatchForwardActivation") void nativeLinearBatchForwardActivation(
+            @Cast("NNNOTranspose") int transposeWeights, @Cast("NNNOActivation") int activation, float alpha,
+            FloatBuffer weights, FloatBuffer biases, FloatBuffer input, FloatBuffer output, int inputRowSize,
+            int outputRowSize, int batchSize);
+
+    /**
+     * Applies a linear transformation to a sparse input vector given as index-value pairs:
+     *
+     * <pre>
+     * output = weights * input + biases
+     * </pre>
+     *
+     * Only the weights touched by non-zero inputs are read (a row of {@code weights} per non-zero if
+     * {@code transposeWeights == TRANSPOSE}, a column otherwise), so the cost scales with {@code nonZeros} rather than
+     * {@code inputSize}. Repeated indices are summed up.
+     *
+     * Output contents are discarded and overwritten. Other buffers are read-only.
+     *
+     * @param transposeWeights
+     *            whether {@code weights} should be transposed before multiplication
+     * @param weights
+     *            weights matrix with logical dimensions: {@code inputSize} x {@code outputSize} if
+     *            {@code transposeWeights == TRANSPOSE}, reversed otherwise (ro)
+     * @param biases
+     *            biases vector (ro)
+     * @param inputIndices
+     *            indices of non-zero input elements, each in {@code [0, inputSize)} (ro)
+     * @param inputValues
+     *            values of non-zero input elements (ro)
+     * @param nonZeros
+     *            number of index-value pairs to process
+     * @param output
+     *            output vector (write only)
+     * @param inputSize
+     *            dense input size: number of logical rows in {@code weights} if {@code transposeWeights == TRANSPOSE},
+     *            columns otherwise
+     * @param outputSize
+     *            index immediately past the last index to process in {@code output} and {@code biases}; also number of
+     *            logical columns in {@code weights} if {@code transposeWeights == TRANSPOSE}, rows otherwise.
+     */
+    public static void linearForwardSparse(Trans transposeWeights, FloatBuffer weights, FloatBuffer biases,
+            IntBuffer inputIndices, FloatBuffer inputValues, int nonZeros, FloatBuffer output, int inputSize,
+            int outputSize) {
+
+        if (nonZeros > inputIndices.limit() || nonZeros > inputValues.limit() || outputSize > output.limit()
+                || outputSize > biases.limit() || outputSize * inputSize > weights.limit() || nonZeros < 0
+                || inputSize < 0 || outputSize < 0) {
+            throw new IndexOutOfBoundsException();
+        }
+        checkSparseIndices(inputIndices, 0, nonZeros, inputSize);
+
+        if (isBelowJavaCrossover(nonZeros * outputSize)) {
+            JavaNeuralNetworkOps.linearForwardSparse(transposeWeights == Trans.TRANSPOSE, weights, biases,
+                    inputIndices, inputValues, nonZeros, output, inputSize, outputSize);
+        } else {
+            nativeLinearForwardSparse(transposeWeights.value(), weights, biases, inputIndices, inputValues, nonZeros,
+                    output, inputSize, outputSize);
+        }
+    }
+
+    private static native @Name("linearForwardSparse") void nativeLinearForwardSparse(
+            @Cast("NNNOTranspose") int transposeWeights, FloatBuffer weights, FloatBuffer biases,
+            IntBuffer inputIndices, FloatBuffer inputValues, int nonZeros, FloatBuffer output, int inputSize,
+            int outputSize);
+
+    /**
+     * Applies a linear transformation to a batch of sparse input rows in the compressed sparse row (CSR) format:
+     *
+     * <pre>
+     * output = input * weights + biases
+     * </pre>
+     *
+     * Non-zeros of the {@code b}-th input row are {@code inputIndices[i]} and {@code inputValues[i]} for {@code i} in
+     * {@code [rowOffsets[b], rowOffsets[b + 1])}. As in
+     * {@link NeuralNetworkNativeOps#linearForwardSparse(Trans, FloatBuffer, FloatBuffer, IntBuffer, FloatBuffer, int,
+     * FloatBuffer, int, int)} only the weights touched by non-zero inputs are read.
+     *
+     * Output contents are discarded and overwritten. Other buffers are read-only.
+     *
+     * @param transposeWeights
+     *            whether {@code weights} should be transposed before multiplication
+     * @param weights
+     *            weights matrix with logical dimensions: {@code outputRowSize} x {@code inputRowSize} if
+     *            {@code transposeWeights == TRANSPOSE}, reversed otherwise (ro)
+     * @param biases
+     *            bias vector with size {@code outputRowSize} (ro)
+     * @param rowOffsets
+     *            {@code batchSize + 1} non-decreasing offsets of input rows in {@code inputIndices} and
+     *            {@code inputValues} (ro)
+     * @param inputIndices
+     *            column indices of non-zero input elements, each in {@code [0, inputRowSize)} (ro)
+     * @param inputValues
+     *            values of non-zero input elements (ro)
+     * @param output
+     *            output matrix with size {@code batchSize} x {@code outputRowSize} (write only)
+     * @param inputRowSize
+     *            dense input row size: number of logical columns in {@code weights} if
+     *            {@code transposeWeights == TRANSPOSE}, rows otherwise
+     * @param outputRowSize
+     *            number of logical columns in {@code output} and logical rows in {@code weights} if
+     *            {@code transposeWeights == TRANSPOSE}, columns otherwise
+     * @param batchSize
+     *            number of logical rows in {@code input} and {@code output} to process
+     */
+    public static void linearBatchForwardSparse(Trans transposeWeights, FloatBuffer weights, FloatBuffer biases,
+            IntBuffer rowOffsets, IntBuffer inputIndices, FloatBuffer inputValues, FloatBuffer output,
+            int inputRowSize, int outputRowSize, int batchSize) {
+
+        if (batchSize + 1 > rowOffsets.limit() || outputRowSize * batchSize > output.limit()
+                || outputRowSize > biases.limit() || inputRowSize * outputRowSize > weights.limit()
+                || outputRowSize < 0 || inputRowSize < 0 || batchSize < 0) {
+            throw new IndexOutOfBoundsException();
+        }
+        for (int b = 0; b < batchSize; b++) {
+            int begin = rowOffsets.get(b);
+            int end = rowOffsets.get(b + 1);
+            if (begin < 0 || end < begin || end > inputIndices.limit() || end > inputValues.limit()) {
+                throw new IndexOutOfBoundsException();
+            }
+            checkSparseIndices(inputIndices, begin, end, inputRowSize);
+        }
+
+        nativeLinearBatchForwardSparse(transposeWeights.value(), weights, biases, rowOffsets, inputIndices,
+                inputValues, output, inputRowSize, outputRowSize, batchSize);
+    }
+
+    private static native @Name("linearBatchForwardSparse") void nativeLinearBatchForwardSparse(
+            @Cast("NNNOTranspose") int transposeWeights, FloatBuffer weights, FloatBuffer biases,
+            IntBuffer rowOffsets, IntBuffer inputIndices, FloatBuffer inputValues, FloatBuffer output,
+            int inputRowSize, int outputRowSize, int batchSize);
+
+    private static void checkSparseIndices(IntBuffer indices, int begin, int end, int size) {
+        for (int i = begin; i < end; i++) {
+            int index = indices.get(i);
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("sparse index " + index + " out of [0, " + size + ")");
+            }
+        }
+    }
+
+    /**
+     * Looks up bags of rows in an embeddings table and pools every bag into a single vector:
+     *
+     * <pre>
+     * output[j] = pooling(perSampleWeights[i] * table[indices[i]] for i in [offsets[j], offsets[j + 1]))
+     * </pre>
+     *
+     * Pooled vectors of consecutive bags are written one after another starting at {@code outputOffset}, so they can
+     * land directly in the input buffer of the next layer, e.g. after its dense features. {@link Pooling#SUM SUM} and
+     * {@link Pooling#MEAN MEAN} add up the weighted rows, the latter divides the sum by the bag size;
+     * {@link Pooling#MAX MAX} takes the element-wise maximum of the weighted rows. An empty bag gives a zero vector.
+     *
+     * Only {@code [outputOffset, outputOffset + numBags * embeddingSize)} of the output is overwritten. Other buffers
+     * are read-only.
+     *
+     * @param pooling
+     *            reduction of the rows in a bag
+     * @param table
+     *            embeddings table with {@code embeddingSize} columns, one row per embedding (ro)
+     * @param indices
+     *            table rows to look up, each in {@code [0, table.limit() / embeddingSize)} (ro)
+     * @param offsets
+     *            {@code numBags + 1} non-decreasing offsets of bags in {@code indices} (ro)
+     * @param perSampleWeights
+     *            weights of the looked up rows, parallel to {@code indices}; {@code null} means all ones (ro)
+     * @param output
+     *            output vector (write only)
+     * @param outputOffset
+     *            index in {@code output} of the first pooled element
+     * @param embeddingSize
+     *            number of columns in {@code table}, positive
+     * @param numBags
+     *            number of bags to pool
+     */
+    public static void embeddingBag(Pooling pooling, FloatBuffer table, IntBuffer indices, IntBuffer offsets,
+            FloatBuffer perSampleWeights, FloatBuffer output, int outputOffset, int embeddingSize, int numBags) {
+
+        if (numBags + 1 > offsets.limit() || outputOffset + numBags * embeddingSize > output.limit()
+                || embeddingSize <= 0 || numBags < 0 || outputOffset < 0) {
+            throw new IndexOutOfBoundsException();
+        }
+        checkBags(table, indices, offsets, perSampleWeights, embeddingSize, numBags);
+
+        if (isBelowJavaCrossover((offsets.get(numBags) - offsets.get(0)) * embeddingSize)) {
+            JavaNeuralNetworkOps.embeddingBag(pooling, table, indices, offsets, perSampleWeights, output,
+                    outputOffset, embeddingSize, numBags);
+        } else {
+            nativeEmbeddingBag(pooling.value(), table, indices, offsets, perSampleWeights, output, outputOffset, 0,
+                    embeddingSize, numBags, 1);
+        }
+    }
+
+    /**
+     * Same as
+     * {@link NeuralNetworkNativeOps#embeddingBag(Pooling, FloatBuffer, IntBuffer, IntBuffer, FloatBuffer, FloatBuffer,
+     * int, int, int)} with all weights equal to one, writing from the beginning of {@code output}.
+     */
+    public static void embeddingBag(Pooling pooling, FloatBuffer table, IntBuffer indices, IntBuffer offsets,
+            FloatBuffer output, int embeddingSize, int numBags) {
+
+        embeddingBag(pooling, table, indices, offsets, null, output, 0, embeddingSize, numBags);
+    }
+
+    /**
+     * Batch version of
+     * {@link NeuralNetworkNativeOps#embeddingBag(Pooling, FloatBuffer, IntBuffer, IntBuffer, FloatBuffer, FloatBuffer,
+     * int, int, int)}: every one of {@code batchSize} output rows gets {@code bagsPerRow} pooled vectors. The
+     * {@code j}-th bag of the {@code b}-th row is {@code [offsets[b * bagsPerRow + j], offsets[b * bagsPerRow + j + 1])}
+     * in {@code indices} and lands at {@code b * outputRowSize + outputOffset + j * embeddingSize} in {@code output},
+     * so {@code output} can be the input matrix of a following
+     * {@link NeuralNetworkNativeOps#linearBatchForward(Trans, FloatBuffer, FloatBuffer, FloatBuffer, FloatBuffer, int,
+     * int, int) linearBatchForward}.
+     *
+     * Only the pooled ranges of the output rows are overwritten. Other buffers are read-only.
+     *
+     * @param pooling
+     *            reduction of the rows in a bag
+     * @param table
+     *            embeddings table with {@code embeddingSize} columns, one row per embedding (ro)
+     * @param indices
+     *            table rows to look up, each in {@code [0, table.limit() / embeddingSize)} (ro)
+     * @param offsets
+     *            {@code batchSize * bagsPerRow + 1} non-decreasing offsets of bags in {@code indices} (ro)
+     * @param perSampleWeights
+     *            weights of the looked up rows, parallel to {@code indices}; {@code null} means all ones (ro)
+     * @param output
+     *            output matrix with size {@code batchSize} x {@code outputRowSize} (write only)
+     * @param outputOffset
+     *            index in an output row of the first pooled element
+     * @param outputRowSize
+     *            number of logical columns in {@code output}, at least
+     *            {@code outputOffset + bagsPerRow * embeddingSize}
+     * @param embeddingSize
+     *            number of columns in {@code table}, positive
+     * @param bagsPerRow
+     *            number of bags pooled into every output row
+     * @param batchSize
+     *            number of logical rows in {@code output} to process
+     */
+    public static void embeddingBagBatch(Pooling pooling, FloatBuffer table, IntBuffer indices, IntBuffer offsets,
+            FloatBuffer perSampleWeights, FloatBuffer output, int outputOffset, int outputRowSize, int embeddingSize,
+            int bagsPerRow, int batchSize) {
+
+        if (bagsPerRow * batchSize + 1 > offsets.limit() || outputOffset + bagsPerRow * embeddingSize > outputRowSize
+                || outputRowSize * batchSize > output.limit() || embeddingSize <= 0 || bagsPerRow < 0
+                || batchSize < 0 || outputOffset < 0) {
+            throw new IndexOutOfBoundsException();
+        }
+        checkBags(table, indices, offsets, perSampleWeights, embeddingSize, bagsPerRow * batchSize);
+
+        nativeEmbeddingBag(pooling.value(), table, indices, offsets, perSampleWeights, output, outputOffset,
+                outputRowSize, embeddingSize, bagsPerRow, batchSize);
+    }
+
+    private static native @Name("embeddingBag") void nativeEmbeddingBag(@Cast("NNNOPooling") int pooling,
+            FloatBuffer table, IntBuffer indices, IntBuffer offsets, FloatBuffer perSampleWeights, FloatBuffer output,
+            int outputOffset, int outputRowSize, int embeddingSize, int bagsPerRow, int batchSize);
+
+    private static void checkBags(FloatBuffer table, IntBuffer indices, IntBuffer offsets,
+            FloatBuffer perSampleWeights, int embeddingSize, int numBags) {
+
+        for (int j = 0; j < numBags; j++) {
+            int begin = offsets.get(j);
+            int end = offsets.get(j + 1);
+            if (begin < 0 || end < begin || end > indices.limit()
+                    || (perSampleWeights != null && end > perSampleWeights.limit())) {
+                throw new IndexOutOfBoundsException();
+            }
+        }
+        if (numBags > 0) {
+            checkSparseIndices(indices, offsets.get(0), offsets.get(numBags), table.limit() / embeddingSize);
+        }
+    }
+
+    /**
+     * Applies a linear transformation with int8 quantized weights to the incoming data:
+     *
+     * <pre>
+     * output = dequantize(weights) * input + biases
+     * </pre>
+     *
+     * Weights are widened on the fly, so only a quarter of the float32 weights memory is read. See
+     * {@link QuantizedWeights} for the accuracy bounds.
+     *
+     * Output contents are discarded and overwritten. Other buffers are read-only.
+     *
+     * @param weights
+     *            quantized weights matrix (ro)
+     * @param biases
+     *            biases vector with at least {@code weights.getOutputSize()} elements (ro)
+     * @param input
+     *            input vector with at least {@code weights.getInputSize()} elements (ro)
+     * @param output
+     *            output vector with at least {@code weights.getOutputSize()} elements (write only)
+     */
+    public static void linearForward(QuantizedWeights weights, FloatBuffer biases, FloatBuffer input,
+            FloatBuffer output) {
+
+        int inputSize = weights.getInputSize();
+        int outputSize = weights.getOutputSize();
+        if (inputSize > input.limit() || outputSize > output.limit() || outputSize > biases.limit()) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        long start = OpMetrics.start();
+        if (isBelowJavaCrossover(inputSize * outputSize)) {
+            JavaNeuralNetworkOps.linearForwardQuantized(weights.values(), weights.scales(), weights.zeroPoints(),
+                    biases, input, output, inputSize, outputSize);
+        } else {
+            nativeLinearForwardQuantized(weights.values(), weights.scales(), weights.zeroPoints(), biases, input,
+                    output, inputSize, outputSize);
+        }
+        OpMetrics.record(Op.LINEAR_FORWARD_QUANTIZED, start, inputSize, outputSize, 1);
+    }
+
+    private static native @Name("linearForwardQuantized") void nativeLinearForwardQuantized(
+            @Cast("const signed char*") ByteBuffer weights, FloatBuffer scales, IntBuffer zeroPoints,
+            FloatBuffer biases, FloatBuffer input, FloatBuffer output, int inputSize, int outputSize);
+
+    /**
+     * Batch version of {@link NeuralNetworkNativeOps#linearForward(QuantizedWeights, FloatBuffer, FloatBuffer,
+     * FloatBuffer)}:
+     *
+     * <pre>
+     * output = input * transpose(dequantize(weights)) + biases
+     * </pre>
+     *
+     * Weights are read in blocks of rows reused by all the batch rows, so they are streamed from memory once per
+     * call.
+     *
+     * Output contents are discarded and overwritten. Other buffers are read-only.
+     *
+     * @param weights
+     *            quantized weights matrix (ro)
+     * @param biases
+     *            biases vector with at least {@code weights.getOutputSize()} elements (ro)
+     * @param input
+     *            input matrix with size {@code batchSize} x {@code weights.getInputSize()}; values from one row
+     *            should occupy consecutive memory cells (ro)
+     * @param output
+     *            output matrix with size {@code batchSize} x {@code weights.getOutputSize()} (write only)
+     * @param batchSize
+     *            number of logical rows in {@code input} and {@code output} to process
+     */
+    public static void linearBatchForward(QuantizedWeights weights, FloatBuffer biases, FloatBuffer input,
+            FloatBuffer output, int batchSize) {
+
+        int inputRowSize = weights.getInputSize();
+        int outputRowSize = weights.getOutputSize();
+        if (inputRowSize * batchSize > input.limit() || outputRowSize * batchSize > output.limit()
+                || outputRowSize > biases.limit() || batchSize < 0) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        long start = OpMetrics.start();
+        nativeLinearBatchForwardQuantized(weights.values(), weights.scales(), weights.zeroPoints(), biases, input,
+                output, inputRowSize, outputRowSize, batchSize);
+        OpMetrics.record(Op.LINEAR_BATCH_FORWARD_QUANTIZED, start, inputRowSize, outputRowSize, batchSize);
     }
 
-    private static native @MemberGetter @Const int TRANSPOSE();
+    private static native @Name("linearBatchForwardQuantized") void nativeLinearBatchForwardQuantized(
+            @Cast("const signed char*") ByteBuffer weights, FloatBuffer scales, IntBuffer zeroPoints,
+            FloatBuffer biases, FloatBuffer input, FloatBuffer output, int inputRowSize, int outputRowSize,
+            int batchSize);
 
-    private static native @ValueGetter @Const int NO_TRANSPOSE();
+    /**
+     * Applies a linear transformation with pre-packed weights to the incoming data:
+     *
+     * <pre>
+     * output = weights * input + biases
+     * </pre>
+     *
+     * Same result as {@link NeuralNetworkNativeOps#linearForward(Trans, FloatBuffer, FloatBuffer, FloatBuffer,
+     * FloatBuffer, int, int)} with the weights {@link PackedWeights} were created from. Always runs natively, the
+     * packed layout is not readable from Java.
+     *
+     * Output contents are discarded and overwritten. Other buffers are read-only.
+     *
+     * @param weights
+     *            packed weights matrix (ro)
+     * @param biases
+     *            biases vector with at least {@code weights.getOutputSize()} elements (ro)
+     * @param input
+     *            input vector with at least {@code weights.getInputSize()} elements (ro)
+     * @param output
+     *            output vector with at least {@code weights.getOutputSize()} elements (write only)
+     */
+    public static void linearForward(PackedWeights weights, FloatBuffer biases, FloatBuffer input,
+            FloatBuffer output) {
 
-    public enum Trans {
-        TRANSPOSE(TRANSPOSE()), NO_TRANSPOSE(NO_TRANSPOSE());
+        int inputSize = weights.getInputSize();
+        int outputSize = weights.getOutputSize();
+        if (inputSize > input.limit() || outputSize > output.limit() || outputSize > biases.limit()) {
+            throw new IndexOutOfBoundsException();
+        }
 
-        private int value;
+        long start = OpMetrics.start();
+        nativeLinearBatchForwardPacked(weights.packed(), biases, input, output, inputSize, outputSize, 1);
+        OpMetrics.record(Op.LINEAR_FORWARD_PACKED, start, inputSize, outputSize, 1);
+    }
 
-        Trans(int value) {
-            this.value = value;
+    /**
+     * Batch version of {@link NeuralNetworkNativeOps#linearForward(PackedWeights, FloatBuffer, FloatBuffer,
+     * FloatBuffer)}:
+     *
+     * <pre>
+     * output = input * transpose(weights) + biases
+     * </pre>
+     *
+     * Skips the weights packing sgemm does on every call, which dominates small and medium batches. For large batches
+     * it is amortized anyway and the plain
+     * {@link NeuralNetworkNativeOps#linearBatchForward(Trans, FloatBuffer, FloatBuffer, FloatBuffer, FloatBuffer, int,
+     * int, int)} is as fast.
+     *
+     * Output contents are discarded and overwritten. Other buffers are read-only.
+     *
+     * @param weights
+     *            packed weights matrix (ro)
+     * @param biases
+     *            biases vector with at least {@code weights.getOutputSize()} elements (ro)
+     * @param input
+     *            input matrix with size {@code batchSize} x {@code weights.getInputSize()}; values from one row
+     *            should occupy consecutive memory cells (ro)
+     * @param output
+     *            output matrix with size {@code batchSize} x {@code weights.getOutputSize()} (write only)
+     * @param batchSize
+     *            number of logical rows in {@code input} and {@code output} to process
+     */
+    public static void linearBatchForward(PackedWeights weights, FloatBuffer biases, FloatBuffer input,
+            FloatBuffer output, int batchSize) {
+
+        int inputRowSize = weights.getInputSize();
+        int outputRowSize = weights.getOutputSize();
+        if (inputRowSize * batchSize > input.limit() || outputRowSize * batchSize > output.limit()
+                || outputRowSize > biases.limit() || batchSize < 0) {
+            throw new IndexOutOfBoundsException();
         }
 
-        private int value() {
-            return value;
+        long start = OpMetrics.start();
+        nativeLinearBatchForwardPacked(weights.packed(), biases, input, output, inputRowSize, outputRowSize,
+                batchSize);
+        OpMetrics.record(Op.LINEAR_BATCH_FORWARD_PACKED, start, inputRowSize, outputRowSize, batchSize);
+    }
+
+    private static native @Name("linearBatchForwardPacked") void nativeLinearBatchForwardPacked(FloatBuffer packed,
+            FloatBuffer biases, FloatBuffer input, FloatBuffer output, int inputRowSize, int outputRowSize,
+            int batchSize);
+
+    static native @Name("packedWeightsSize") long nativePackedWeightsSize(int inputSize, int outputSize);
+
+    static native @Name("packWeights") void nativePackWeights(@Cast("NNNOTranspose") int transposeWeights,
+            FloatBuffer weights, FloatBuffer packed, int inputSize, int outputSize);
+
+    /**
+     * Same as {@link NeuralNetworkNativeOps#gemv(FloatBuffer, FloatBuffer, FloatBuffer, int, int)} for a matrix
+     * stored in a 16-bit floating point format, widened to float32 on the fly. Reads half of the float32 matrix
+     * memory.
+     *
+     * @param format
+     *            format of {@code A} values
+     * @param A
+     *            input matrix with logical dimensions: {@code n} x {@code m} (ro)
+     * @param x
+     *            input vector (ro)
+     * @param y
+     *            input/output vector (rw)
+     * @param m
+     *            index immediately past the last index to process in {@code x} and number of logical columns in
+     *            {@code A}
+     * @param n
+     *            index immediately past the last index to process in {@code y} and number of logical rows in {@code A}
+     */
+    public static void gemv(HalfFloat format, ShortBuffer A, FloatBuffer x, FloatBuffer y, int m, int n) {
+        if (m > x.limit() || n > y.limit() || m * n > A.limit() || m < 0 || n < 0) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        long start = OpMetrics.start();
+        if (isBelowJavaCrossover(m * n)) {
+            JavaNeuralNetworkOps.gemvHalf(format, A, x, y, m, n);
+        } else {
+            nativeGemvHalf(format.value(), A, x, y, m, n);
         }
+        OpMetrics.record(Op.GEMV_HALF, start, m, n, 1);
     }
 
-    private NeuralNetworkNativeOps() {
+    private static native @Name("gemvHalf") void nativeGemvHalf(@Cast("NNNOHalfFloat") int format,
+            @Cast("const unsigned short*") ShortBuffer A, FloatBuffer x, FloatBuffer y, int xSize, int ySize);
+
+    /**
+     * Same as {@link NeuralNetworkNativeOps#linearForward(Trans, FloatBuffer, FloatBuffer, FloatBuffer, FloatBuffer,
+     * int, int)} for weights stored in a 16-bit floating point format, widened to float32 on the fly. Reads half of
+     * the float32 weights memory.
+     *
+     * @param transposeWeights
+     *            whether {@code weights} should be transposed before multiplication
+     * @param format
+     *            format of {@code weights} values
+     * @param weights
+     *            weights matrix with logical dimensions: {@code inputSize} x {@code outputSize} if
+     *            {@code transposeWeights == TRANSPOSE}, reversed otherwise (ro)
+     * @param biases
+     *            biases vector (ro)
+     * @param input
+     *            input vector (ro)
+     * @param output
+     *            output vector (write only)
+     * @param inputSize
+     *            index immediately past the last index to process in {@code input} and number of logical rows in
+     *            {@code weights} if {@code transposeWeights == TRANSPOSE}, columns otherwise.
+     * @param outputSize
+     *            index immediately past the last index to process in {@code output} and {@code biases}; also number of
+     *            logical columns in {@code weights} if {@code transposeWeights == TRANSPOSE}, rows otherwise.
+     */
+    public static void linearForward(Trans transposeWeights, HalfFloat format, ShortBuffer weights,
+            FloatBuffer biases, FloatBuffer input, FloatBuffer output, int inputSize, int outputSize) {
+
+        if (inputSize > input.limit() || outputSize > output.limit() || outputSize > biases.limit()
+                || outputSize * inputSize > weights.limit() || inputSize < 0 || outputSize < 0) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        long start = OpMetrics.start();
+        if (isBelowJavaCrossover(inputSize * outputSize)) {
+            JavaNeuralNetworkOps.linearForwardHalf(transposeWeights == Trans.TRANSPOSE, format,
+                    weights, biases, input, output, inputSize, outputSize);
+        } else {
+            nativeLinearForwardHalf(transposeWeights.value(), format.value(), weights, biases, input, output,
+                    inputSize, outputSize);
+        }
+        OpMetrics.record(Op.LINEAR_FORWARD_HALF, start, inputSize, outputSize, 1);
     }
 
+    private static native @Name("linearForwardHalf") void nativeLinearForwardHalf(
+            @Cast("NNNOTranspose") int transposeWeights, @Cast("NNNOHalfFloat") int format,
+            @Cast("const unsigned short*") ShortBuffer weights, FloatBuffer biases, FloatBuffer input,
+            FloatBuffer output, int inputSize, int outputSize);
+
     /**
-     * In-place applies the rectified linear unit (ReLU) function to the first {@code endExclusive} input elements:
+     * Same as {@link NeuralNetworkNativeOps#linearBatchForward(Trans, FloatBuffer, FloatBuffer, FloatBuffer,
+     * FloatBuffer, int, int, int)} for weights stored in a 16-bit floating point format. Weights are widened to
+     * float32 block by block into a temporary buffer, each block multiplied with sgemm.
      *
-     * <pre>
-     * ReLU(x) = max(0, x)
-     * </pre>
+     * @param transposeWeights
+     *            whether {@code weights} should be transposed before multiplication
+     * @param format
+     *            format of {@code weights} values
+     * @param weights
+     *            weights matrix with logical dimensions: {@code outputRowSize} x {@code inputRowSize} if
+     *            {@code transposeWeights == TRANSPOSE}, reversed otherwise (ro)
+     * @param biases
+     *            bias vector with size {@code outputRowSize} (ro)
+     * @param input
+     *            input matrix with size {@code batchSize} x {@code inputRowSize}; values from one row should
+     *            occupy consecutive memory cells (ro)
+     * @param output
+     *            output matrix with size {@code batchSize} x {@code outputRowSize} (write only)
+     * @param inputRowSize
+     *            number of logical columns in {@code input} and logical columns in {@code weights} if
+     *            {@code transposeWeights == TRANSPOSE}, rows otherwise
+     * @param outputRowSize
+     *            number of logical columns in {@code output} and logical rows in {@code weights} if
+     *            {@code transposeWeights == TRANSPOSE}, columns otherwise
+     * @param batchSize
+     *            number of logical rows in {@code input} and {@code output} to process
+     */
+    public static void linearBatchForward(Trans transposeWeights, HalfFloat format, ShortBuffer weights,
+            FloatBuffer biases, FloatBuffer input, FloatBuffer output, int inputRowSize, int outputRowSize,
+            int batchSize) {
+
+        if (inputRowSize * batchSize > input.limit() || outputRowSize * batchSize > output.limit()
+                || outputRowSize > biases.limit() || inputRowSize * outputRowSize > weights.limit()
+                || outputRowSize < 0 || inputRowSize < 0 || batchSize < 0) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        long start = OpMetrics.start();
+        nativeLinearBatchForwardHalf(transposeWeights.value(), format.value(),
+                weights, biases, input, output, inputRowSize, outputRowSize, batchSize);
+        OpMetrics.record(Op.LINEAR_BATCH_FORWARD_HALF, start, inputRowSize, outputRowSize, batchSize);
+    }
+
+    private static native @Name("linearBatchForwardHalf") void nativeLinearBatchForwardHalf(
+            @Cast("NNNOTranspose") int transposeWeights, @Cast("NNNOHalfFloat") int format,
+            @Cast("const unsigned short*") ShortBuffer weights, FloatBuffer biases, FloatBuffer input,
+            FloatBuffer output, int inputRowSize, int outputRowSize, int batchSize);
+
+    static native @Name("mlpBindLayer") void nativeMlpBindLayer(@Cast("const float**") LongBuffer params, int index,
+            FloatBuffer weights, FloatBuffer biases);
+
+    static native @Name("mlpForward") void nativeMlpForward(int numLayers, IntBuffer layers, FloatBuffer alphas,
+            @Cast("const float**") LongBuffer params, FloatBuffer input, FloatBuffer output, FloatBuffer scratch0,
+            FloatBuffer scratch1);
+
+    static native @Name("mlpBatchForward") void nativeMlpBatchForward(int numLayers, IntBuffer layers,
+            FloatBuffer alphas, @Cast("const float**") LongBuffer params, FloatBuffer input, FloatBuffer output,
+            FloatBuffer scratch0, FloatBuffer scratch1, int batchSize);
+
+    static native @Name("alignmentOffset") int nativeAlignmentOffset(ByteBuffer buffer, int alignment);
+
+    static native @Name("alignmentOffset") int nativeAlignmentOffset(FloatBuffer buffer, int alignment);
+
+    /**
+     * Same as {@link NeuralNetworkNativeOps#ReLU(FloatBuffer, int)} for a {@code float[]}. The array is accessed
+     * in-place by the native code (JNI critical access), without copying.
      *
      * @param inOut
      *            input/output vector (read write)
      * @param endExclusive
      *            index immediately past the last index to process
      */
-    public static void ReLU(FloatBuffer inOut, int endExclusive) {
-        if (endExclusive > inOut.limit() || endExclusive < 0) {
+    public static void ReLU(float[] inOut, int endExclusive) {
+        if (endExclusive > inOut.length || endExclusive < 0) {
             throw new IndexOutOfBoundsException();
         }
 
-        nativeReLU(inOut, endExclusive);
+        if (isBelowJavaCrossover(endExclusive)) {
+            JavaNeuralNetworkOps.ReLU(inOut, endExclusive);
+        } else {
+            nativeReLU(inOut, endExclusive);
+        }
     }
 
     /**
-     * Applies the {@link NeuralNetworkNativeOps#ReLU} for whole input vector in-place.
+     * Applies the {@link NeuralNetworkNativeOps#ReLU(float[], int)} for whole input array in-place.
      *
      * @param inOut
      *            input/output vector (read write)
      */
-    public static void ReLU(FloatBuffer inOut) {
-        nativeReLU(inOut, inOut.limit());
+    public static void ReLU(float[] inOut) {
+        if (isBelowJavaCrossover(inOut.length)) {
+            JavaNeuralNetworkOps.ReLU(inOut, inOut.length);
+        } else {
+            nativeReLU(inOut, inOut.length);
+        }
     }
 
-    private static native @Name("ReLU") void nativeReLU(FloatBuffer inOut, int endExclusive);
+    private static native @Raw(withEnv = true) @Name("ReLUCritical") void nativeReLU(@Raw float[] inOut,
+            int endExclusive);
 
     /**
-     * In-place applies the exponential linear unit (ELU) function to the first {@code endExclusive} input vector
-     * elements:
-     *
-     * <pre>
-     * ELU(x) = max(0, x) + min(0, alpha * (exp(x) - 1))
-     * </pre>
+     * Same as {@link NeuralNetworkNativeOps#ELU(FloatBuffer, int, float)} for a {@code float[]}. The array is
+     * accessed in-place by the native code (JNI critical access), without copying.
      *
      * @param inOut
      *            input/output vector (read write)
@@ -96,36 +1862,40 @@ public final class NeuralNetworkNativeOps {
      * @param alpha
      *            varies the convergence value of the exponential function below zero
      */
-    public static void ELU(FloatBuffer inOut, int endExclusive, float alpha) {
-        if (endExclusive > inOut.limit() || endExclusive < 0) {
+    public static void ELU(float[] inOut, int endExclusive, float alpha) {
+        if (endExclusive > inOut.length || endExclusive < 0) {
             throw new IndexOutOfBoundsException();
         }
 
-        nativeELU(inOut, endExclusive, alpha);
+        if (isBelowJavaCrossover(endExclusive)) {
+            JavaNeuralNetworkOps.ELU(inOut, endExclusive, alpha);
+        } else {
+            nativeELU(inOut, endExclusive, alpha);
+        }
     }
 
     /**
-     * Applies the {@link NeuralNetworkNativeOps#ELU} for whole input vector in-place.
+     * Applies the {@link NeuralNetworkNativeOps#ELU(float[], int, float)} for whole input array in-place.
      *
      * @param inOut
      *            input/output vector (read write)
      * @param alpha
      *            varies the convergence value of the exponential function below zero
      */
-    public static void ELU(FloatBuffer inOut, float alpha) {
-        nativeELU(inOut, inOut.limit(), alpha);
+    public static void ELU(float[] inOut, float alpha) {
+        if (isBelowJavaCrossover(inOut.length)) {
+            JavaNeuralNetworkOps.ELU(inOut, inOut.length, alpha);
+        } else {
+            nativeELU(inOut, inOut.length, alpha);
+        }
     }
 
-    private static native @Name("ELU") void nativeELU(FloatBuffer inOut, int endExclusive, float alpha);
+    private static native @Raw(withEnv = true) @Name("ELUCritical") void nativeELU(@Raw float[] inOut,
+            int endExclusive, float alpha);
 
     /**
-     * Applies a float matrix-vector multiplication with accumulation (gemv):
-     *
-     * <pre>
-     * y = A * x + y
-     * </pre>
-     *
-     * Destination memory is read and overwritten. Other buffers are read-only.
+     * Same as {@link NeuralNetworkNativeOps#gemv(FloatBuffer, FloatBuffer, FloatBuffer, int, int)} for
+     * {@code float[]}s. Arrays are accessed in-place by the native code (JNI critical access), without copying.
      *
      * @param A
      *            input matrix with logical dimensions: {@code n} x {@code m} (ro)
@@ -138,49 +1908,53 @@ public final class NeuralNetworkNativeOps {
      *            {@code A}
      * @param n
      *            index immediately past the last index to process in {@code y} and number of logical rows in {@code A}
-     * @see <a
-     *      href=
-     *      "http://www.netlib.org/lapack/explore-html/d6/d30/group__single__blas__level2_gafc92361b74c6d41c7e5afa0aa5d13ec9"
-     *      >sgemv @ netlib lapack docs</a>
      */
-    public static void gemv(FloatBuffer A, FloatBuffer x, FloatBuffer y, int m, int n) {
-        if (m > x.limit() || n > y.limit() || m * n > A.limit() || m < 0 || n < 0) {
+    public static void gemv(float[] A, float[] x, float[] y, int m, int n) {
+        if (m > x.length || n > y.length || m * n > A.length || m < 0 || n < 0) {
             throw new IndexOutOfBoundsException();
         }
 
-        nativeGemv(A, x, y, m, n);
+        long start = OpMetrics.start();
+        if (isJavaDispatched(Op.GEMV, Trans.NO_TRANSPOSE, m, n, 1)) {
+            JavaNeuralNetworkOps.gemv(A, x, y, m, n);
+        } else {
+            nativeGemv(A, x, y, m, n);
+        }
+        OpMetrics.record(Op.GEMV, start, m, n, 1);
     }
 
     /**
-     * Applies the {@link NeuralNetworkNativeOps#gemv} to the whole incoming data in-place.
-     * 
+     * Applies the {@link NeuralNetworkNativeOps#gemv(float[], float[], float[], int, int)} to the whole incoming
+     * data in-place.
+     *
      * @param A
-     *            input matrix with logical dimensions: {@code y.limit()} x {@code x.limit()} (ro)
+     *            input matrix with logical dimensions: {@code y.length} x {@code x.length} (ro)
      * @param x
      *            input vector (ro)
      * @param y
      *            input/output vector (rw)
      */
-    public static void gemv(FloatBuffer A, FloatBuffer x, FloatBuffer y) {
-        if (x.limit() * y.limit() != A.limit()) {
+    public static void gemv(float[] A, float[] x, float[] y) {
+        if (x.length * y.length != A.length) {
             throw new IllegalArgumentException();
         }
 
-        nativeGemv(A, x, y, x.limit(), y.limit());
+        long start = OpMetrics.start();
+        if (isJavaDispatched(Op.GEMV, Trans.NO_TRANSPOSE, x.length, y.length, 1)) {
+            JavaNeuralNetworkOps.gemv(A, x, y, x.length, y.length);
+        } else {
+            nativeGemv(A, x, y, x.length, y.length);
+        }
+        OpMetrics.record(Op.GEMV, start, x.length, y.length, 1);
     }
 
-    private static native @Name("gemv") void nativeGemv(FloatBuffer A, FloatBuffer x, FloatBuffer y, int xSize,
-            int ySize);
+    private static native @Raw(withEnv = true) @Name("gemvCritical") void nativeGemv(@Raw float[] A,
+            @Raw float[] x, @Raw float[] y, int xSize, int ySize);
 
     /**
-     * Applies a float matrix-matrix multiplication with accumulation (gemm):
-     * 
-     * <pre>
-     * Y = A * B + Y
-     * </pre>
+     * Same as {@link NeuralNetworkNativeOps#gemm(FloatBuffer, FloatBuffer, FloatBuffer, int, int, int)} for
+     * {@code float[]}s. Arrays are accessed in-place by the native code (JNI critical access), without copying.
      *
-     * Destination memory is read and overwritten. Other buffers are read-only.
-     * 
      * @param A
      *            input matrix with logical dimensions: {@code m} x {@code k} (ro)
      * @param B
@@ -193,29 +1967,29 @@ public final class NeuralNetworkNativeOps {
      *            number of logical columns in {@code B} and {@code Y}
      * @param k
      *            number of logical columns in {@code A} and logical rows in {@code B}
-     * @see <a href=
-     *      "http://www.netlib.org/lapack/explore-html/db/dc9/group__single__blas__level3.html#gafe51bacb54592ff5de056acabd83c260"
-     *      >sgemm @ netlib lapack docs</a>
      */
-    public static void gemm(FloatBuffer A, FloatBuffer B, FloatBuffer Y, int m, int n, int k) {
-        if (m * k > A.limit() || k * n > B.limit() || m * n > Y.limit() || k < 0 || m < 0 || n < 0) {
+    public static void gemm(float[] A, float[] B, float[] Y, int m, int n, int k) {
+        if (m * k > A.length || k * n > B.length || m * n > Y.length || k < 0 || m < 0 || n < 0) {
             throw new IndexOutOfBoundsException();
         }
 
-        nativeGemm(A, B, Y, m, n, k);
+        long start = OpMetrics.start();
+        if (JAVA_BLAS) {
+            JavaNeuralNetworkOps.gemm(A, B, Y, m, n, k);
+        } else {
+            nativeGemm(A, B, Y, m, n, k);
+        }
+        OpMetrics.record(Op.GEMM, start, k, n, m);
     }
 
-    private static native @Name("gemm") void nativeGemm(FloatBuffer A, FloatBuffer B, FloatBuffer Y, int m, int n, int k);
+    private static native @Raw(withEnv = true) @Name("gemmCritical") void nativeGemm(@Raw float[] A,
+            @Raw float[] B, @Raw float[] Y, int m, int n, int k);
 
     /**
-     * Applies a linear transformation to the incoming data:
+     * Same as {@link NeuralNetworkNativeOps#linearForward(Trans, FloatBuffer, FloatBuffer, FloatBuffer, FloatBuffer,
+     * int, int)} for {@code float[]}s. Arrays are accessed in-place by the native code (JNI critical access), without
+     * copying.
      *
-     * <pre>
-     * output = weights * input + biases
-     * </pre>
-     * 
-     * Output contents are discarded and overwritten. Other buffers are read-only.
-     * 
      * @param transposeWeights
      *            whether {@code weights} should be transposed before multiplication
      * @param weights
@@ -234,54 +2008,67 @@ public final class NeuralNetworkNativeOps {
      *            index immediately past the last index to process in {@code output} and {@code biases}; also number of
      *            logical columns in {@code weights} if {@code transposeWeights == TRANSPOSE}, rows otherwise.
      */
-    public static void linearForward(Trans transposeWeights, FloatBuffer weights, FloatBuffer biases,
-            FloatBuffer input, FloatBuffer output, int inputSize, int outputSize) {
+    public static void linearForward(Trans transposeWeights, float[] weights, float[] biases, float[] input,
+            float[] output, int inputSize, int outputSize) {
 
-        if (inputSize > input.limit() || outputSize > output.limit() || outputSize > biases.limit()
-                || outputSize * inputSize > weights.limit() || inputSize < 0 || outputSize < 0) {
+        if (inputSize > input.length || outputSize > output.length || outputSize > biases.length
+                || outputSize * inputSize > weights.length || inputSize < 0 || outputSize < 0) {
             throw new IndexOutOfBoundsException();
         }
 
-        nativeLinearForward(transposeWeights.value(), weights, biases, input, output, inputSize, outputSize);
+        long start = OpMetrics.start();
+        if (isJavaDispatched(Op.LINEAR_FORWARD, transposeWeights, inputSize, outputSize, 1)) {
+            JavaNeuralNetworkOps.linearForward(transposeWeights == Trans.TRANSPOSE,
+                    weights, biases, input, output, inputSize, outputSize);
+        } else {
+            nativeLinearForward(transposeWeights.value(), weights, biases, input, output, inputSize, outputSize);
+        }
+        OpMetrics.record(Op.LINEAR_FORWARD, start, inputSize, outputSize, 1);
     }
 
     /**
-     * Applies the {@link NeuralNetworkNativeOps#linearForward} to the whole incoming data in-place.
-     * 
+     * Applies the {@link NeuralNetworkNativeOps#linearForward(Trans, float[], float[], float[], float[], int, int)}
+     * to the whole incoming data.
+     *
      * @param transposeWeights
      *            whether {@code weights} should be transposed before multiplication
      * @param weights
-     *            weights matrix with logical dimensions: {@code input.limit()} x {@code output.limit()} if
+     *            weights matrix with logical dimensions: {@code input.length} x {@code output.length} if
      *            {@code transposeWeights == TRANSPOSE}, reversed otherwise (ro)
      * @param biases
-     *            bias vector with size {@code output.limit()} (ro)
+     *            bias vector with size {@code output.length} (ro)
      * @param input
      *            input vector (ro)
      * @param output
      *            output vector (write only)
      */
-    public static void linearForward(Trans transposeWeights, FloatBuffer weights, FloatBuffer biases,
-            FloatBuffer input, FloatBuffer output) {
+    public static void linearForward(Trans transposeWeights, float[] weights, float[] biases, float[] input,
+            float[] output) {
 
-        if (input.limit() * output.limit() != weights.limit() || output.limit() != biases.limit()) {
+        if (input.length * output.length != weights.length || output.length != biases.length) {
             throw new IllegalArgumentException();
         }
 
-        nativeLinearForward(transposeWeights.value(), weights, biases, input, output, input.limit(), output.limit());
+        long start = OpMetrics.start();
+        if (isJavaDispatched(Op.LINEAR_FORWARD, transposeWeights, input.length, output.length, 1)) {
+            JavaNeuralNetworkOps.linearForward(transposeWeights == Trans.TRANSPOSE,
+                    weights, biases, input, output, input.length, output.length);
+        } else {
+            nativeLinearForward(transposeWeights.value(), weights, biases, input, output, input.length,
+                    output.length);
+        }
+        OpMetrics.record(Op.LINEAR_FORWARD, start, input.length, output.length, 1);
     }
 
-    private static native @Name("linearForward") void nativeLinearForward(
-            @Cast("NNNOTranspose") int transposeWeights, FloatBuffer weights, FloatBuffer biases, FloatBuffer input,
-            FloatBuffer output, int inputSize, int outputSize);
+    private static native @Raw(withEnv = true) @Name("linearForwardCritical") void nativeLinearForward(
+            @Cast("NNNOTranspose") int transposeWeights, @Raw float[] weights, @Raw float[] biases,
+            @Raw float[] input, @Raw float[] output, int inputSize, int outputSize);
 
     /**
-     * Applies a linear transformation to the incoming data:
-     *
-     * <pre>
-     * output = weights * input + biases
-     * </pre>
-     *
-     * Output contents are discarded and overwritten. Other buffers are read-only.
+     * Same as {@link NeuralNetworkNativeOps#linearBatchForward(Trans, FloatBuffer, FloatBuffer, FloatBuffer,
+     * FloatBuffer, int, int, int)} for {@code float[]}s. Arrays are accessed in-place by the native code (JNI
+     * critical access), without copying. Garbage collection may be delayed until the call returns, so very large
+     * batches are better served by direct buffers.
      *
      * @param transposeWeights
      *            whether {@code weights} should be transposed before multiplication
@@ -304,20 +2091,67 @@ public final class NeuralNetworkNativeOps {
      * @param batchSize
      *            number of logical rows in {@code input} and {@code output} to process
      */
-    public static void linearBatchForward(Trans transposeWeights, FloatBuffer weights, FloatBuffer biases,
-            FloatBuffer input, FloatBuffer output, int inputRowSize, int outputRowSize, int batchSize) {
+    public static void linearBatchForward(Trans transposeWeights, float[] weights, float[] biases, float[] input,
+            float[] output, int inputRowSize, int outputRowSize, int batchSize) {
 
-        if (inputRowSize * batchSize > input.limit() || outputRowSize * batchSize > output.limit()
-                || outputRowSize > biases.limit() || inputRowSize * outputRowSize > weights.limit()
+        if (inputRowSize * batchSize > input.length || outputRowSize * batchSize > output.length
+                || outputRowSize > biases.length || inputRowSize * outputRowSize > weights.length
                 || outputRowSize < 0 || inputRowSize < 0 || batchSize < 0) {
             throw new IndexOutOfBoundsException();
         }
 
-        nativeLinearBatchForward(transposeWeights.value(),
-                weights, biases, input, output, inputRowSize, outputRowSize, batchSize);
+        long start = OpMetrics.start();
+        if (isJavaDispatched(Op.LINEAR_BATCH_FORWARD, transposeWeights, inputRowSize, outputRowSize, batchSize)) {
+            JavaNeuralNetworkOps.linearBatchForward(transposeWeights == Trans.NO_TRANSPOSE,
+                    weights, biases, input, output, inputRowSize, outputRowSize, batchSize);
+        } else {
+            nativeLinearBatchForward(transposeWeights.value(),
+                    weights, biases, input, output, inputRowSize, outputRowSize, batchSize);
+        }
+        OpMetrics.record(Op.LINEAR_BATCH_FORWARD, start, inputRowSize, outputRowSize, batchSize);
     }
 
-    private static native @Name("linearBatchForward") void nativeLinearBatchForward(
-            @Cast("NNNOTranspose") int transposeWeights, FloatBuffer weights, FloatBuffer biases, FloatBuffer input,
-            FloatBuffer output, int inputRowSize, int outputRowSize, int batchSize);
+    private static native @Raw(withEnv = true) @Name("linearBatchForwardCritical") void nativeLinearBatchForward(
+            @Cast("NNNOTranspose") int transposeWeights, @Raw float[] weights, @Raw float[] biases,
+            @Raw float[] input, @Raw float[] output, int inputRowSize, int outputRowSize, int batchSize);
+
+    static native @Name("addressOf") long nativeAddressOf(FloatBuffer buffer);
+
+    static native @Name("ReLU") void nativeReLU(@Cast("float*") long inOut, int endExclusive);
+
+    static native @Name("ELU") void nativeELU(@Cast("float*") long inOut, int endExclusive, float alpha);
+
+    static native @Name("gemv") void nativeGemv(@Cast("const float*") long A, @Cast("const float*") long x,
+            @Cast("float*") long y, int xSize, int ySize);
+
+    static native @Name("gemm") void nativeGemm(@Cast("const float*") long A, @Cast("const float*") long B,
+            @Cast("float*") long Y, int m, int n, int k);
+
+    static native @Name("linearForward") void nativeLinearForward(@Cast("NNNOTranspose") int transposeWeights,
+            @Cast("const float*") long weights, @Cast("const float*") long biases, @Cast("const float*") long input,
+            @Cast("float*") long output, int inputSize, int outputSize);
+
+    static native @Name("linearBatchForward") void nativeLinearBatchForward(
+            @Cast("NNNOTranspose") int transposeWeights, @Cast("const float*") long weights,
+            @Cast("const float*") long biases, @Cast("const float*") long input, @Cast("float*") long output,
+            int inputRowSize, int outputRowSize, int batchSize);
+
+    static native @Name("linearLayerCreate") long nativeLinearLayerCreate(@Cast("NNNOTranspose") int transposeWeights,
+            @Cast("NNNOActivation") int activation, float alpha, FloatBuffer weights, FloatBuffer biases,
+            int inputSize, int outputSize);
+
+    static native @Name("linearLayerFree") void nativeLinearLayerFree(@Cast("NNNOLinearLayer*") long layer);
+
+    static native @Name("linearLayerForward") void nativeLinearLayerForward(@Cast("const NNNOLinearLayer*") long layer,
+            FloatBuffer input, FloatBuffer output);
+
+    static native @Name("linearLayerForward") void nativeLinearLayerForward(@Cast("const NNNOLinearLayer*") long layer,
+            @Cast("const float*") long input, @Cast("float*") long output);
+
+    static native @Name("linearLayerBatchForward") void nativeLinearLayerBatchForward(
+            @Cast("const NNNOLinearLayer*") long layer, FloatBuffer input, FloatBuffer output, int batchSize);
+
+    static native @Name("linearLayerBatchForward") void nativeLinearLayerBatchForward(
+            @Cast("const NNNOLinearLayer*") long layer, @Cast("const float*") long input, @Cast("float*") long output,
+            int batchSize);
 }
@@ -0,0 +1,365 @@
+package com.rtbhouse.model.natives;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * <p>
+ * Opt-in instrumentation of the matrix operations of {@link NeuralNetworkNativeOps}, {@link LinearLayer} and
+ * {@link ParallelLinearOps}: call counts, achieved GFLOP/s and latency histograms per operation and per shape bucket.
+ * A shape bucket groups calls whose input size, output size and batch size round up to the same powers of two.
+ * </p>
+ * <p>
+ * Disabled by default, when an instrumented call costs one volatile read. Enabled with {@link #setEnabled(boolean)},
+ * the {@value #METRICS_PROPERTY} system property or over JMX, it adds two {@link System#nanoTime()} calls and a few
+ * uncontended {@link LongAdder} increments per call; counters are striped, so concurrent callers do not contend.
+ * Calls that throw are not recorded.
+ * </p>
+ * Results are available through {@link #snapshot()} or, after {@link #registerMBean()}, as the
+ * {@value #OBJECT_NAME} MXBean.
+ */
+public final class OpMetrics {
+
+    /**
+     * Name of the system property enabling metrics at startup when set to {@code true}.
+     */
+    public static final String METRICS_PROPERTY = "com.rtbhouse.model.natives.metrics";
+
+    /**
+     * JMX name of the {@link OpMetricsMXBean}.
+     */
+    public static final String OBJECT_NAME = "com.rtbhouse.model.natives:type=OpMetrics";
+
+    /**
+     * Number of latency histogram buckets; bucket {@code i} counts calls taking {@code [2^i, 2^(i+1))} nanoseconds,
+     * the last one also all longer calls.
+     */
+    public static final int LATENCY_BUCKETS = 40;
+
+    /**
+     * Sizes are bucketed up to {@code 2^(SIZE_BUCKETS - 1)}, larger ones fall into the last bucket.
+     */
+    static final int SIZE_BUCKETS = 25;
+
+    /**
+     * Instrumented operations. For all of them {@code flops = 2 * inputSize * outputSize * batchSize}.
+     */
+    public enum Op {
+        GEMV, GEMM, LINEAR_FORWARD, LINEAR_BATCH_FORWARD, LINEAR_FORWARD_ACTIVATION, LINEAR_BATCH_FORWARD_ACTIVATION,
+        LINEAR_FORWARD_QUANTIZED, LINEAR_BATCH_FORWARD_QUANTIZED, LINEAR_FORWARD_PACKED, LINEAR_BATCH_FORWARD_PACKED,
+        GEMV_HALF, LINEAR_FORWARD_HALF, LINEAR_BATCH_FORWARD_HALF, LINEAR_LAYER_FORWARD, LINEAR_LAYER_BATCH_FORWARD,
+        PARALLEL_LINEAR_BATCH_FORWARD
+    }
+
+    /**
+     * Statistics of one operation and shape bucket at the time of {@link OpMetrics#snapshot()}.
+     */
+    public static final class OpStats {
+        private final Op op;
+        private final int maxInputSize;
+        private final int maxOutputSize;
+        private final int maxBatchSize;
+        private final long calls;
+        private final long totalNanos;
+        private final long flops;
+        private final long[] latencyHistogram;
+
+        OpStats(Op op, int maxInputSize, int maxOutputSize, int maxBatchSize, long calls, long totalNanos,
+                long flops, long[] latencyHistogram) {
+            this.op = op;
+            this.maxInputSize = maxInputSize;
+            this.maxOutputSize = maxOutputSize;
+            this.maxBatchSize = maxBatchSize;
+            this.calls = calls;
+            this.totalNanos = totalNanos;
+            this.flops = flops;
+            this.latencyHistogram = latencyHistogram;
+        }
+
+        public Op getOp() {
+            return op;
+        }
+
+        /**
+         * Upper bound (a power of two) of the input size of calls in this bucket.
+         */
+        public int getMaxInputSize() {
+            return maxInputSize;
+        }
+
+        /**
+         * Upper bound (a power of two) of the output size of calls in this bucket.
+         */
+        public int getMaxOutputSize() {
+            return maxOutputSize;
+        }
+
+        /**
+         * Upper bound (a power of two) of the batch size of calls in this bucket; 1 for single vector operations.
+         */
+        public int getMaxBatchSize() {
+            return maxBatchSize;
+        }
+
+        public long getCalls() {
+            return calls;
+        }
+
+        public long getTotalNanos() {
+            return totalNanos;
+        }
+
+        public long getFlops() {
+            return flops;
+        }
+
+        /**
+         * Achieved GFLOP/s over all calls, i.e. floating point operations per nanosecond.
+         */
+        public double getGflops() {
+            return totalNanos == 0 ? 0 : (double) flops / totalNanos;
+        }
+
+        public double getMeanNanos() {
+            return calls == 0 ? 0 : (double) totalNanos / calls;
+        }
+
+        /**
+         * Upper bound of the median latency, with the histogram resolution (a power of two).
+         */
+        public long getMedianNanos() {
+            return getLatencyNanos(0.5);
+        }
+
+        /**
+         * Upper bound of the 99th percentile latency, with the histogram resolution (a power of two).
+         */
+        public long getP99Nanos() {
+            return getLatencyNanos(0.99);
+        }
+
+        /**
+         * Returns a copy of the latency histogram, see {@link OpMetrics#LATENCY_BUCKETS}.
+         */
+        public long[] getLatencyHistogram() {
+            return latencyHistogram.clone();
+        }
+
+        /**
+         * Returns the upper bound of the histogram bucket holding the {@code quantile} of latencies.
+         *
+         * @param quantile
+         *            value within {@code [0, 1]}
+         */
+        public long getLatencyNanos(double quantile) {
+            if (quantile < 0 || quantile > 1) {
+                throw new IllegalArgumentException();
+            }
+
+            long histogramCalls = 0;
+            for (long count : latencyHistogram) {
+                histogramCalls += count;
+            }
+            long rank = (long) Math.ceil(quantile * histogramCalls);
+            long seen = 0;
+            for (int i = 0; i < latencyHistogram.length; i++) {
+                seen += latencyHistogram[i];
+                if (seen >= rank && seen > 0) {
+                    return 1L << (i + 1);
+                }
+            }
+            return 0;
+        }
+
+        @Override
+        public String toString() {
+            return op + "[in<=" + maxInputSize + ", out<=" + maxOutputSize + ", batch<=" + maxBatchSize + "]: calls="
+                    + calls + ", gflops=" + String.format(Locale.ROOT, "%.2f", getGflops()) + ", p50<="
+                    + getMedianNanos() + "ns, p99<=" + getP99Nanos() + "ns";
+        }
+    }
+
+    private static final class ShapeCounters {
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+        private final LongAdder flops = new LongAdder();
+        private final LongAdder[] latencies = new LongAdder[LATENCY_BUCKETS];
+
+        ShapeCounters() {
+            for (int i = 0; i < LATENCY_BUCKETS; i++) {
+                latencies[i] = new LongAdder();
+            }
+        }
+
+        void add(long callNanos, long callFlops) {
+            calls.increment();
+            nanos.add(callNanos);
+            flops.add(callFlops);
+            latencies[latencyBucketOf(callNanos)].increment();
+        }
+    }
+
+    private static final class MBean implements OpMetricsMXBean {
+        @Override
+        public boolean isEnabled() {
+            return OpMetrics.isEnabled();
+        }
+
+        @Override
+        public void setEnabled(boolean enabled) {
+            OpMetrics.setEnabled(enabled);
+        }
+
+        @Override
+        public List<OpStats> getStats() {
+            return snapshot();
+        }
+
+        @Override
+        public void reset() {
+            OpMetrics.reset();
+        }
+    }
+
+    private static final int SHAPES_PER_OP = SIZE_BUCKETS * SIZE_BUCKETS * SIZE_BUCKETS;
+
+    private static volatile boolean enabled = Boolean.getBoolean(METRICS_PROPERTY);
+
+    /**
+     * Counters per op, then per shape bucket; both levels are created lazily on the first recorded call.
+     */
+    private static volatile AtomicReferenceArray<AtomicReferenceArray<ShapeCounters>> counters =
+            new AtomicReferenceArray<>(Op.values().length);
+
+    private OpMetrics() {
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Turns recording on or off. Collected statistics are kept, see {@link #reset()}.
+     */
+    public static void setEnabled(boolean enabled) {
+        OpMetrics.enabled = enabled;
+    }
+
+    /**
+     * Discards all collected statistics. Calls in progress may still be recorded in the old counters and lost.
+     */
+    public static void reset() {
+        counters = new AtomicReferenceArray<>(Op.values().length);
+    }
+
+    /**
+     * Returns statistics of all operations and shape buckets called since start or the last {@link #reset()}, ordered
+     * by operation, then input, output and batch size. Counters are read one by one while calls may be in progress,
+     * so the values of a single entry may be slightly inconsistent.
+     */
+    public static List<OpStats> snapshot() {
+        AtomicReferenceArray<AtomicReferenceArray<ShapeCounters>> current = counters;
+        List<OpStats> snapshot = new ArrayList<>();
+        for (Op op : Op.values()) {
+            AtomicReferenceArray<ShapeCounters> shapes = current.get(op.ordinal());
+            if (shapes == null) {
+                continue;
+            }
+            for (int shape = 0; shape < SHAPES_PER_OP; shape++) {
+                ShapeCounters shapeCounters = shapes.get(shape);
+                if (shapeCounters == null) {
+                    continue;
+                }
+                long[] latencyHistogram = new long[LATENCY_BUCKETS];
+                for (int i = 0; i < LATENCY_BUCKETS; i++) {
+                    latencyHistogram[i] = shapeCounters.latencies[i].sum();
+                }
+                snapshot.add(new OpStats(op, 1 << (shape / (SIZE_BUCKETS * SIZE_BUCKETS)),
+                        1 << (shape / SIZE_BUCKETS % SIZE_BUCKETS), 1 << (shape % SIZE_BUCKETS),
+                        shapeCounters.calls.sum(), shapeCounters.nanos.sum(), shapeCounters.flops.sum(),
+                        latencyHistogram));
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Registers the {@link OpMetricsMXBean} in the platform MBean server as {@value #OBJECT_NAME}, unless already
+     * registered.
+     *
+     * @throws IllegalStateException
+     *             if registration fails
+     */
+    public static synchronized void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(new MBean(), name);
+            }
+        } catch (JMException e) {
+            throw new IllegalStateException("cannot register " + OBJECT_NAME, e);
+        }
+    }
+
+    /**
+     * Returns the start timestamp of an instrumented call, or {@code 0} when metrics are disabled.
+     */
+    static long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Records a call started at {@code start} (see {@link #start()}); does nothing if {@code start == 0}.
+     */
+    static void record(Op op, long start, int inputSize, int outputSize, int batchSize) {
+        if (start == 0) {
+            return;
+        }
+
+        long nanos = System.nanoTime() - start;
+        int shape = (sizeBucketOf(inputSize) * SIZE_BUCKETS + sizeBucketOf(outputSize)) * SIZE_BUCKETS
+                + sizeBucketOf(batchSize);
+        shapeCounters(op, shape).add(nanos, 2L * inputSize * outputSize * batchSize);
+    }
+
+    /**
+     * Returns {@code ceil(log2(size))}, capped to the last size bucket.
+     */
+    static int sizeBucketOf(int size) {
+        int bucket = size <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(size - 1);
+        return Math.min(bucket, SIZE_BUCKETS - 1);
+    }
+
+    /**
+     * Returns {@code floor(log2(nanos))}, capped to the last latency bucket.
+     */
+    static int latencyBucketOf(long nanos) {
+        int bucket = 63 - Long.numberOfLeadingZeros(Math.max(nanos, 1));
+        return Math.min(bucket, LATENCY_BUCKETS - 1);
+    }
+
+    private static ShapeCounters shapeCounters(Op op, int shape) {
+        AtomicReferenceArray<AtomicReferenceArray<ShapeCounters>> current = counters;
+        AtomicReferenceArray<ShapeCounters> shapes = current.get(op.ordinal());
+        if (shapes == null) {
+            current.compareAndSet(op.ordinal(), null, new AtomicReferenceArray<>(SHAPES_PER_OP));
+            shapes = current.get(op.ordinal());
+        }
+
+        ShapeCounters shapeCounters = shapes.get(shape);
+        if (shapeCounters == null) {
+            shapes.compareAndSet(shape, null, new ShapeCounters());
+            shapeCounters = shapes.get(shape);
+        }
+        return shapeCounters;
+    }
+}
@@ -0,0 +1,25 @@
+package com.rtbhouse.model.natives;
+
+import java.util.List;
+
+import com.rtbhouse.model.natives.OpMetrics.OpStats;
+
+/**
+ * JMX view of {@link OpMetrics}, registered with {@link OpMetrics#registerMBean()}.
+ */
+public interface OpMetricsMXBean {
+
+    boolean isEnabled();
+
+    void setEnabled(boolean enabled);
+
+    /**
+     * Same as {@link OpMetrics#snapshot()}.
+     */
+    List<OpStats> getStats();
+
+    /**
+     * Same as {@link OpMetrics#reset()}.
+     */
+    void reset();
+}
@@ -0,0 +1,73 @@
+package com.rtbhouse.model.natives;
+
+import java.nio.FloatBuffer;
+
+import com.rtbhouse.model.natives.NeuralNetworkNativeOps.Trans;
+
+/**
+ * <p>
+ * Weights matrix of a linear layer packed once into the layout consumed by the matrix multiplication kernel, so
+ * {@link NeuralNetworkNativeOps#linearForward} and {@link NeuralNetworkNativeOps#linearBatchForward} do not repack it
+ * on every call. Packing pays off for small and medium batches, where sgemm spends a large part of the call copying
+ * the weights into its internal blocked format.
+ * </p>
+ * <p>
+ * With MKL the weights are packed by {@code cblas_sgemm_pack} and multiplied by {@code cblas_sgemm_compute}. With
+ * other BLAS implementations the library owns the layout: panels of 16 output columns, each holding the weights of
+ * consecutive inputs one after another, multiplied by a register-blocked kernel.
+ * </p>
+ * The packed layout is opaque; it lives in aligned direct memory released by the garbage collector. Source weights
+ * are not referenced after packing.
+ */
+public final class PackedWeights {
+
+    private final FloatBuffer packed;
+    private final int inputSize;
+    private final int outputSize;
+
+    private PackedWeights(FloatBuffer packed, int inputSize, int outputSize) {
+        this.packed = packed;
+        this.inputSize = inputSize;
+        this.outputSize = outputSize;
+    }
+
+    /**
+     * Packs a copy of the weights.
+     *
+     * @param transposeWeights
+     *            layout of {@code weights}; follows the {@link NeuralNetworkNativeOps#linearForward} convention
+     * @param weights
+     *            weights matrix with logical dimensions: {@code inputSize} x {@code outputSize} if
+     *            {@code transposeWeights == TRANSPOSE}, reversed otherwise (ro)
+     * @param inputSize
+     *            layer input size
+     * @param outputSize
+     *            layer output size
+     */
+    public static PackedWeights pack(Trans transposeWeights, FloatBuffer weights, int inputSize, int outputSize) {
+        if (inputSize * outputSize > weights.limit() || inputSize < 0 || outputSize < 0) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        long size = NeuralNetworkNativeOps.nativePackedWeightsSize(inputSize, outputSize);
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("packed weights too large: " + size + " floats");
+        }
+
+        FloatBuffer packed = FloatBufferPool.allocateAligned(Math.max(1, (int) size));
+        NeuralNetworkNativeOps.nativePackWeights(transposeWeights.value(), weights, packed, inputSize, outputSize);
+        return new PackedWeights(packed, inputSize, outputSize);
+    }
+
+    public int getInputSize() {
+        return inputSize;
+    }
+
+    public int getOutputSize() {
+        return outputSize;
+    }
+
+    FloatBuffer packed() {
+        return packed;
+    }
+}
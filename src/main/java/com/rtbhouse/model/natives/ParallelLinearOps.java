@@ -0,0 +1,150 @@
+package com.rtbhouse.model.natives;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+import com.rtbhouse.model.natives.NeuralNetworkNativeOps.Trans;
+import com.rtbhouse.model.natives.OpMetrics.Op;
+
+/**
+ * <p>
+ * Runs a single large {@link NeuralNetworkNativeOps#linearBatchForward} on many cores. The library is meant to be
+ * used with single-threaded BLAS (see README), so one call uses one core; here the output is split into tiles which
+ * are computed concurrently on a caller-supplied executor, each with a single-threaded sgemm.
+ * </p>
+ * <p>
+ * Tiles span consecutive batch rows sized so that a tile's input and output rows fit in {@code tileBytes} (L2 cache
+ * by default). Batches too small to give every thread a row tile are additionally split along the output dimension,
+ * in slices of at least {@value #MIN_TILE_COLUMNS} columns. The calling thread computes one tile itself and blocks
+ * until the others are done.
+ * </p>
+ * Only direct buffers are accepted: heap buffers are copied as a whole on every native call, so concurrent tiles
+ * would overwrite each other's results. Instances are thread-safe.
+ */
+public final class ParallelLinearOps {
+
+    /**
+     * Default upper bound of input and output bytes per tile.
+     */
+    public static final int DEFAULT_TILE_BYTES = 256 * 1024;
+
+    /**
+     * Output dimension is not split below this number of columns, narrower sgemm calls lose efficiency.
+     */
+    public static final int MIN_TILE_COLUMNS = 64;
+
+    private final Executor executor;
+    private final int parallelism;
+    private final int tileBytes;
+
+    /**
+     * @param executor
+     *            executor running the tiles, e.g. a {@link ForkJoinPool} or a fixed thread pool
+     * @param parallelism
+     *            number of threads of {@code executor} expected to work on a single call
+     * @param tileBytes
+     *            upper bound of input and output bytes per tile
+     */
+    public ParallelLinearOps(Executor executor, int parallelism, int tileBytes) {
+        if (parallelism < 1 || tileBytes < 1) {
+            throw new IllegalArgumentException();
+        }
+
+        this.executor = executor;
+        this.parallelism = parallelism;
+        this.tileBytes = tileBytes;
+    }
+
+    /**
+     * Same as {@link #ParallelLinearOps(Executor, int, int)} using all threads of {@code pool} and
+     * {@link #DEFAULT_TILE_BYTES}.
+     */
+    public ParallelLinearOps(ForkJoinPool pool) {
+        this(pool, pool.getParallelism(), DEFAULT_TILE_BYTES);
+    }
+
+    /**
+     * Parallel version of
+     * {@link NeuralNetworkNativeOps#linearBatchForward(Trans, FloatBuffer, FloatBuffer, FloatBuffer, FloatBuffer, int,
+     * int, int)}, with the same arguments and results.
+     *
+     * @throws IllegalArgumentException
+     *             if {@code input} or {@code output} is not a direct buffer
+     */
+    public void linearBatchForward(Trans transposeWeights, FloatBuffer weights, FloatBuffer biases,
+            FloatBuffer input, FloatBuffer output, int inputRowSize, int outputRowSize, int batchSize) {
+
+        if (inputRowSize * batchSize > input.limit() || outputRowSize * batchSize > output.limit()
+                || outputRowSize > biases.limit() || inputRowSize * outputRowSize > weights.limit()
+                || outputRowSize < 0 || inputRowSize < 0 || batchSize < 0) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (!input.isDirect() || !output.isDirect() || !weights.isDirect() || !biases.isDirect()) {
+            throw new IllegalArgumentException("parallel linearBatchForward requires direct buffers");
+        }
+        if (batchSize == 0 || outputRowSize == 0) {
+            return;
+        }
+
+        long start = OpMetrics.start();
+        int rowBytes = Float.BYTES * (inputRowSize + outputRowSize);
+        int rowsPerTile = Math.max(1, Math.min(tileBytes / rowBytes, ceilDiv(batchSize, parallelism)));
+        int rowTiles = ceilDiv(batchSize, rowsPerTile);
+        int columnTiles = Math.max(1, Math.min(ceilDiv(parallelism, rowTiles), outputRowSize / MIN_TILE_COLUMNS));
+        int columnsPerTile = ceilDiv(outputRowSize, columnTiles);
+
+        List<CompletableFuture<Void>> tiles = new ArrayList<>(rowTiles * columnTiles);
+        Runnable callerTile = null;
+        for (int rowBegin = 0; rowBegin < batchSize; rowBegin += rowsPerTile) {
+            for (int columnBegin = 0; columnBegin < outputRowSize; columnBegin += columnsPerTile) {
+                int rowEnd = Math.min(rowBegin + rowsPerTile, batchSize);
+                int columnEnd = Math.min(columnBegin + columnsPerTile, outputRowSize);
+                int tileRowBegin = rowBegin;
+                int tileColumnBegin = columnBegin;
+                Runnable tile = () -> NeuralNetworkNativeOps.nativeLinearBatchForwardTile(transposeWeights.value(),
+                        weights, biases, input, output, inputRowSize, outputRowSize, tileRowBegin, rowEnd,
+                        tileColumnBegin, columnEnd);
+                if (callerTile == null) {
+                    callerTile = tile;
+                } else {
+                    tiles.add(CompletableFuture.runAsync(tile, executor));
+                }
+            }
+        }
+
+        try {
+            callerTile.run();
+        } finally {
+            join(tiles);
+        }
+        OpMetrics.record(Op.PARALLEL_LINEAR_BATCH_FORWARD, start, inputRowSize, outputRowSize, batchSize);
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public int getTileBytes() {
+        return tileBytes;
+    }
+
+    private static void join(List<CompletableFuture<Void>> tiles) {
+        try {
+            CompletableFuture.allOf(tiles.toArray(new CompletableFuture<?>[0])).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private static int ceilDiv(int dividend, int divisor) {
+        return (dividend + divisor - 1) / divisor;
+    }
+}
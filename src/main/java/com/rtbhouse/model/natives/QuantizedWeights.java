@@ -0,0 +1,181 @@
+package com.rtbhouse.model.natives;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+import com.rtbhouse.model.natives.NeuralNetworkNativeOps.Trans;
+
+/**
+ * <p>
+ * Weights matrix of a linear layer quantized to signed 8-bit integers with a float scale (and optionally an integer
+ * zero point) per output row:
+ * </p>
+ *
+ * <pre>
+ * weight[r][c] ~ scale[r] * (value[r][c] - zeroPoint[r])
+ * </pre>
+ * <p>
+ * Takes a quarter of the float32 memory, which pays off when {@link NeuralNetworkNativeOps#linearForward} is memory
+ * bandwidth bound, i.e. for large layers. Values are kept in direct memory, one output row after another, whatever
+ * the layout of the source matrix was.
+ * </p>
+ * Quantization error of a single weight is at most {@code scale[r] / 2}, hence every output element differs from
+ * the float32 result by at most {@code scale[r] / 2 * sum(|input|)} (plus float rounding).
+ */
+public final class QuantizedWeights {
+
+    private static final int MIN_VALUE = Byte.MIN_VALUE;
+    private static final int MAX_VALUE = Byte.MAX_VALUE;
+
+    private final ByteBuffer values;
+    private final FloatBuffer scales;
+    private final IntBuffer zeroPoints;
+    private final int inputSize;
+    private final int outputSize;
+
+    private QuantizedWeights(ByteBuffer values, FloatBuffer scales, IntBuffer zeroPoints, int inputSize,
+            int outputSize) {
+        this.values = values;
+        this.scales = scales;
+        this.zeroPoints = zeroPoints;
+        this.inputSize = inputSize;
+        this.outputSize = outputSize;
+    }
+
+    /**
+     * Quantizes weights symmetrically: {@code scale[r] = max(|weight[r][*]|) / 127}, no zero points.
+     *
+     * @param transposeWeights
+     *            layout of {@code weights}; follows the {@link NeuralNetworkNativeOps#linearForward} convention
+     * @param weights
+     *            weights matrix with logical dimensions: {@code inputSize} x {@code outputSize} if
+     *            {@code transposeWeights == TRANSPOSE}, reversed otherwise (ro)
+     * @param inputSize
+     *            layer input size
+     * @param outputSize
+     *            layer output size
+     */
+    public static QuantizedWeights quantize(Trans transposeWeights, FloatBuffer weights, int inputSize,
+            int outputSize) {
+        return quantize(transposeWeights, weights, inputSize, outputSize, false);
+    }
+
+    /**
+     * Quantizes weights either symmetrically (see {@link #quantize(Trans, FloatBuffer, int, int)}) or, with zero
+     * points, over the {@code [min(0, weight[r][*]), max(0, weight[r][*])]} range, which doubles the precision of
+     * rows with mostly positive or mostly negative weights.
+     *
+     * @param transposeWeights
+     *            layout of {@code weights}; follows the {@link NeuralNetworkNativeOps#linearForward} convention
+     * @param weights
+     *            weights matrix with logical dimensions: {@code inputSize} x {@code outputSize} if
+     *            {@code transposeWeights == TRANSPOSE}, reversed otherwise (ro)
+     * @param inputSize
+     *            layer input size
+     * @param outputSize
+     *            layer output size
+     * @param withZeroPoints
+     *            whether asymmetric quantization with per row zero points should be used
+     */
+    public static QuantizedWeights quantize(Trans transposeWeights, FloatBuffer weights, int inputSize,
+            int outputSize, boolean withZeroPoints) {
+
+        if (inputSize * outputSize > weights.limit() || inputSize < 0 || outputSize < 0) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        ByteBuffer values = ByteBuffer.allocateDirect(Math.max(1, inputSize * outputSize));
+        FloatBuffer scales = FloatBufferPool.allocateAligned(Math.max(1, outputSize));
+        IntBuffer zeroPoints = withZeroPoints
+                ? ByteBuffer.allocateDirect(Math.max(1, outputSize) * Integer.BYTES).order(ByteOrder.nativeOrder())
+                        .asIntBuffer()
+                : null;
+
+        float[] row = new float[inputSize];
+        for (int r = 0; r < outputSize; r++) {
+            for (int c = 0; c < inputSize; c++) {
+                row[c] = transposeWeights == Trans.TRANSPOSE
+                        ? weights.get(c * outputSize + r)
+                        : weights.get(r * inputSize + c);
+            }
+
+            float min = 0;
+            float max = 0;
+            for (float weight : row) {
+                min = Math.min(min, weight);
+                max = Math.max(max, weight);
+            }
+
+            float scale;
+            int zeroPoint = 0;
+            if (withZeroPoints) {
+                scale = (max - min) / (MAX_VALUE - MIN_VALUE);
+                if (scale > 0) {
+                    zeroPoint = clamp(Math.round(MIN_VALUE - min / scale));
+                }
+                zeroPoints.put(r, zeroPoint);
+            } else {
+                scale = Math.max(max, -min) / MAX_VALUE;
+            }
+            if (scale == 0) {
+                scale = 1;
+            }
+            scales.put(r, scale);
+
+            for (int c = 0; c < inputSize; c++) {
+                values.put(r * inputSize + c, (byte) clamp(Math.round(row[c] / scale) + zeroPoint));
+            }
+        }
+
+        return new QuantizedWeights(values, scales, zeroPoints, inputSize, outputSize);
+    }
+
+    /**
+     * Returns the dequantized weight from row {@code r} (output index) and column {@code c} (input index).
+     */
+    public float get(int r, int c) {
+        if (r < 0 || c < 0 || r >= outputSize || c >= inputSize) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        int zeroPoint = zeroPoints == null ? 0 : zeroPoints.get(r);
+        return scales.get(r) * (values.get(r * inputSize + c) - zeroPoint);
+    }
+
+    /**
+     * Returns the upper bound of the quantization error of weights in row {@code r}.
+     */
+    public float getMaxWeightError(int r) {
+        return scales.get(r) / 2;
+    }
+
+    public boolean hasZeroPoints() {
+        return zeroPoints != null;
+    }
+
+    public int getInputSize() {
+        return inputSize;
+    }
+
+    public int getOutputSize() {
+        return outputSize;
+    }
+
+    ByteBuffer values() {
+        return values;
+    }
+
+    FloatBuffer scales() {
+        return scales;
+    }
+
+    IntBuffer zeroPoints() {
+        return zeroPoints;
+    }
+
+    private static int clamp(int value) {
+        return Math.max(MIN_VALUE, Math.min(MAX_VALUE, value));
+    }
+}
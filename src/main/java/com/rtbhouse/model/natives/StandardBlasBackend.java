@@ -0,0 +1,126 @@
+package com.rtbhouse.model.natives;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.ServiceLoader;
+
+/**
+ * Backends built by this project, see the {@code mkl} and {@code blis} Maven profiles. Preferred in declaration order
+ * when bundled.
+ */
+public enum StandardBlasBackend implements BlasBackend {
+    /**
+     * OpenBLAS, the libraries at the package root.
+     */
+    OPENBLAS("openblas", ""),
+
+    /**
+     * Intel MKL, sequential.
+     */
+    MKL("mkl", "mkl/"),
+
+    /**
+     * BLIS with its CBLAS compatibility layer.
+     */
+    BLIS("blis", "blis/"),
+
+    /**
+     * {@link JavaNeuralNetworkOps} for the operations listed in {@link BlasBackend}; the native library of the first
+     * bundled backend is still loaded for all others.
+     */
+    JAVA("java", null);
+
+    private final String name;
+    private final String libraryDirectory;
+
+    StandardBlasBackend(String name, String libraryDirectory) {
+        this.name = name;
+        this.libraryDirectory = libraryDirectory;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String getLibraryDirectory() {
+        return libraryDirectory;
+    }
+
+    /**
+     * Selects the backend as described in {@link BlasBackend}.
+     */
+    static BlasBackend select() {
+        List<BlasBackend> discovered = new ArrayList<>();
+        for (BlasBackend backend : ServiceLoader.load(BlasBackend.class, BlasBackend.class.getClassLoader())) {
+            discovered.add(backend);
+        }
+        return select(System.getProperty(BACKEND_PROPERTY), discovered);
+    }
+
+    /**
+     * @param forced
+     *            value of the {@value BlasBackend#BACKEND_PROPERTY} property, may be {@code null}
+     * @param discovered
+     *            backends registered with {@link ServiceLoader}
+     * @throws IllegalArgumentException
+     *             if no backend is named {@code forced}
+     */
+    static BlasBackend select(String forced, List<BlasBackend> discovered) {
+        List<BlasBackend> candidates = new ArrayList<>(discovered);
+        candidates.addAll(Arrays.asList(values()));
+        if (forced != null) {
+            for (BlasBackend backend : candidates) {
+                if (backend.getName().equalsIgnoreCase(forced.trim())) {
+                    return backend;
+                }
+            }
+            throw new IllegalArgumentException("unknown BLAS backend " + forced + ", known: " + names(candidates));
+        }
+        for (BlasBackend backend : candidates) {
+            if (isBundled(backend)) {
+                return backend;
+            }
+        }
+        return OPENBLAS;
+    }
+
+    /**
+     * Returns the directory of the native library to load for {@code backend}: its own or, for a pure Java backend,
+     * the one of the first bundled native {@link StandardBlasBackend}.
+     */
+    static String libraryDirectoryOf(BlasBackend backend) {
+        if (backend.getLibraryDirectory() != null) {
+            return backend.getLibraryDirectory();
+        }
+        for (StandardBlasBackend standard : values()) {
+            if (standard.libraryDirectory != null && isBundled(standard)) {
+                return standard.libraryDirectory;
+            }
+        }
+        return OPENBLAS.libraryDirectory;
+    }
+
+    private static boolean isBundled(BlasBackend backend) {
+        if (backend.getLibraryDirectory() == null) {
+            return false;
+        }
+        for (NativeVariant variant : NativeVariant.values()) {
+            if (variant.isBundled(backend.getLibraryDirectory())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static List<String> names(List<BlasBackend> backends) {
+        List<String> names = new ArrayList<>();
+        for (BlasBackend backend : backends) {
+            names.add(backend.getName().toLowerCase(Locale.ROOT));
+        }
+        return names;
+    }
+}
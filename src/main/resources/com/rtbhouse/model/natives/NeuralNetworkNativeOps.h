@@ -7,18 +7,83 @@
 #endif
 
 #include <math.h>
+#include <stdlib.h>
+#include <limits.h>
+#include <sched.h>
+#include <jni.h>
+
+#include <atomic>
+
+#if defined(__F16C__) || defined(__AVX2__)
+#include <immintrin.h>
+#endif
 
 enum NNNOTranspose {
     TRANSPOSE = 0,
     NO_TRANSPOSE = 1
 };
 
+enum NNNOActivation {
+    ACTIVATION_IDENTITY = 0,
+    ACTIVATION_RELU = 1,
+    ACTIVATION_ELU = 2,
+    ACTIVATION_SIGMOID = 3
+};
+
+enum NNNOHalfFloat {
+    HALF_FLOAT_FP16 = 0,
+    HALF_FLOAT_BF16 = 1
+};
+
+enum NNNOPooling {
+    POOLING_SUM = 0,
+    POOLING_MEAN = 1,
+    POOLING_MAX = 2
+};
+
+/**
+ * Pins a Java float array with JNI critical access for the lifetime of the object, so native code works on the
+ * array memory directly instead of on a copy. No JNI calls may be made and the calling thread must not block while
+ * any array is pinned. Read-only arrays should be released with JNI_ABORT, read-write ones with 0.
+ */
+struct NNNOCriticalArray {
+    JNIEnv *env;
+    jfloatArray array;
+    jint releaseMode;
+    float *data;
+
+    NNNOCriticalArray(JNIEnv *env, jfloatArray array, jint releaseMode) : env(env), array(array),
+            releaseMode(releaseMode) {
+        data = array == NULL ? NULL : (float*) env->GetPrimitiveArrayCritical(array, NULL);
+    }
+
+    ~NNNOCriticalArray() {
+        if (data != NULL) {
+            env->ReleasePrimitiveArrayCritical(array, data, releaseMode);
+        }
+    }
+};
+
 static const float ALPHA = 1.0;
 static const float BETA = 1.0;
 static const float ONE = 1.0;
 static const int X_INC = 1;
 static const int Y_INC = 1;
 
+/**
+ * Returns the number of bytes to skip from `buffer` to reach an address aligned to `alignment` bytes.
+ */
+inline int alignmentOffset(const void *buffer, const int alignment) {
+    return (int) ((alignment - ((size_t) buffer) % alignment) % alignment);
+}
+
+/**
+ * Returns the address of `buffer` as an integer, so it can be resolved once and passed back to native code as is.
+ */
+inline long long addressOf(const float *buffer) {
+    return (long long) buffer;
+}
+
 /**
  * In-place applies the rectified linear unit (ReLU) function to the first `endExclusive` input vector elements:
  *
@@ -33,17 +98,453 @@ inline void ReLU(float *inOut, const int endExclusive) {
     }
 }
 
+/**
+ * Returns whether `x` is NaN by its bits, since the library is built with -ffast-math (JavaCPP `fastfpu`), under
+ * which `x != x` may be folded to false.
+ */
+inline bool isNaN(const float x) {
+    unsigned int bits;
+    memcpy(&bits, &x, sizeof(float));
+    return (bits & 0x7fffffff) > 0x7f800000;
+}
+
 /**
  * In-place applies the exponential linear unit (ELU) function to the first `endExclusive` input vector elements:
  *
  *   ELU(x) = max(0, x) + min(0, alpha * (exp(x) - 1))
+ *
+ * Computed branch-free as max(0, x) + alpha * (exp(min(0, x)) - 1), so the loop (including expf) vectorizes. That
+ * form maps NaN to 0, so NaN inputs are selected back (a blend, still vectorized) and pass through as in Java.
  */
 inline void ELU(float *inOut, const int endExclusive, const float alpha) {
     int i;
     for(i=0; i < endExclusive; i++) {
-        if (inOut[i] < 0) {
-            inOut[i] = (expf(inOut[i]) - 1) * alpha;
+        const float x = inOut[i];
+        const float elu = (x > 0 ? x : 0) + alpha * (expf(x < 0 ? x : 0) - 1);
+        inOut[i] = isNaN(x) ? x : elu;
+    }
+}
+
+static const float EXP_MIN_ARG = -87.0f;
+static const float EXP_MAX_ARG = 88.0f;
+static const float LOG2E = 1.44269504f;
+static const float LN2_HI = 0.693359375f;
+static const float LN2_LO = -2.12194440e-4f;
+
+/**
+ * Approximates exp(x) as 2^n * p(r), where x = n * ln(2) + r, |r| <= ln(2) / 2 and p is the degree 5 Taylor
+ * polynomial of exp. Max relative error is below 1e-5 for x in [-87, 88]; arguments outside are clamped.
+ */
+inline float fastExp(float x) {
+    x = x < EXP_MIN_ARG ? EXP_MIN_ARG : x;
+    x = x > EXP_MAX_ARG ? EXP_MAX_ARG : x;
+    const float n = floorf(x * LOG2E + 0.5f);
+    const float r = x - n * LN2_HI - n * LN2_LO;
+    const float p = 1 + r * (1 + r * (1.0f / 2 + r * (1.0f / 6 + r * (1.0f / 24 + r * (1.0f / 120)))));
+    const int bits = ((int) n + 127) << 23;
+    float scale;
+    memcpy(&scale, &bits, sizeof(float));
+    return p * scale;
+}
+
+#ifdef __AVX2__
+/**
+ * `fastExp` of 8 floats at once.
+ */
+inline __m256 fastExp8(__m256 x) {
+    x = _mm256_max_ps(x, _mm256_set1_ps(EXP_MIN_ARG));
+    x = _mm256_min_ps(x, _mm256_set1_ps(EXP_MAX_ARG));
+    const __m256 n = _mm256_round_ps(_mm256_mul_ps(x, _mm256_set1_ps(LOG2E)),
+        _MM_FROUND_TO_NEAREST_INT | _MM_FROUND_NO_EXC);
+    __m256 r = _mm256_sub_ps(x, _mm256_mul_ps(n, _mm256_set1_ps(LN2_HI)));
+    r = _mm256_sub_ps(r, _mm256_mul_ps(n, _mm256_set1_ps(LN2_LO)));
+    __m256 p = _mm256_set1_ps(1.0f / 120);
+    p = _mm256_add_ps(_mm256_mul_ps(p, r), _mm256_set1_ps(1.0f / 24));
+    p = _mm256_add_ps(_mm256_mul_ps(p, r), _mm256_set1_ps(1.0f / 6));
+    p = _mm256_add_ps(_mm256_mul_ps(p, r), _mm256_set1_ps(1.0f / 2));
+    p = _mm256_add_ps(_mm256_mul_ps(p, r), _mm256_set1_ps(1));
+    p = _mm256_add_ps(_mm256_mul_ps(p, r), _mm256_set1_ps(1));
+    const __m256i scale = _mm256_slli_epi32(_mm256_add_epi32(_mm256_cvtps_epi32(n), _mm256_set1_epi32(127)), 23);
+    return _mm256_mul_ps(p, _mm256_castsi256_ps(scale));
+}
+#endif
+
+/**
+ * `ELU` with exp approximated by `fastExp`: absolute error below 1e-5 * alpha, NaN passes through. With AVX2 8
+ * elements are processed at a time, the scalar tail loop is vectorized by the compiler.
+ */
+inline void fastELU(float *inOut, const int endExclusive, const float alpha) {
+    int i = 0;
+#ifdef __AVX2__
+    const __m256 zero = _mm256_setzero_ps();
+    const __m256 one = _mm256_set1_ps(1);
+    const __m256 alphas = _mm256_set1_ps(alpha);
+    for(; i + 8 <= endExclusive; i += 8) {
+        const __m256 x = _mm256_loadu_ps(inOut + i);
+        const __m256 negative = _mm256_mul_ps(alphas, _mm256_sub_ps(fastExp8(_mm256_min_ps(x, zero)), one));
+        const __m256 elu = _mm256_add_ps(_mm256_max_ps(x, zero), negative);
+        const __m256i abs = _mm256_and_si256(_mm256_castps_si256(x), _mm256_set1_epi32(0x7fffffff));
+        const __m256i nan = _mm256_cmpgt_epi32(abs, _mm256_set1_epi32(0x7f800000));
+        _mm256_storeu_ps(inOut + i, _mm256_blendv_ps(elu, x, _mm256_castsi256_ps(nan)));
+    }
+#endif
+    for(; i < endExclusive; i++) {
+        const float x = inOut[i];
+        const float elu = (x > 0 ? x : 0) + alpha * (fastExp(x < 0 ? x : 0) - 1);
+        inOut[i] = isNaN(x) ? x : elu;
+    }
+}
+
+/**
+ * In-place applies the logistic sigmoid function to the first `endExclusive` input vector elements:
+ *
+ *   sigmoid(x) = 1 / (1 + exp(-x))
+ */
+inline void sigmoid(float *inOut, const int endExclusive) {
+    int i;
+    for(i=0; i < endExclusive; i++) {
+        inOut[i] = 1 / (1 + expf(-inOut[i]));
+    }
+}
+
+/**
+ * In-place applies the hyperbolic tangent function to the first `endExclusive` input vector elements.
+ */
+inline void tanhActivation(float *inOut, const int endExclusive) {
+    int i;
+    for(i=0; i < endExclusive; i++) {
+        inOut[i] = tanhf(inOut[i]);
+    }
+}
+
+/**
+ * Returns the maximum of `size` elements of `input`, 0 if empty. Does not use -inf as the initial value, which
+ * fast-math builds are allowed to mishandle.
+ */
+inline float maxOf(const float *input, const int size) {
+    float max = size > 0 ? input[0] : 0;
+    for(int i=1; i < size; i++) {
+        max = input[i] > max ? input[i] : max;
+    }
+    return max;
+}
+
+/**
+ * In-place applies the softmax function to every row of a `batchSize` x `rowSize` matrix, subtracting the row
+ * maximum before exponentiation for numerical stability:
+ *
+ *   softmax(x)[i] = exp(x[i] - max(x)) / sum(exp(x[j] - max(x)))
+ */
+inline void softmax(float *inOut, const int rowSize, const int batchSize) {
+    for(int b=0; b < batchSize; b++) {
+        float *row = inOut + (size_t) b * rowSize;
+        const float max = maxOf(row, rowSize);
+        float sum = 0;
+        for(int i=0; i < rowSize; i++) {
+            row[i] = expf(row[i] - max);
+            sum += row[i];
+        }
+        const float scale = 1 / sum;
+        for(int i=0; i < rowSize; i++) {
+            row[i] *= scale;
+        }
+    }
+}
+
+/**
+ * In-place applies the logarithm of the softmax function to every row of a `batchSize` x `rowSize` matrix:
+ *
+ *   logSoftmax(x)[i] = x[i] - max(x) - log(sum(exp(x[j] - max(x))))
+ */
+inline void logSoftmax(float *inOut, const int rowSize, const int batchSize) {
+    for(int b=0; b < batchSize; b++) {
+        float *row = inOut + (size_t) b * rowSize;
+        const float max = maxOf(row, rowSize);
+        float sum = 0;
+        for(int i=0; i < rowSize; i++) {
+            sum += expf(row[i] - max);
+        }
+        const float logSum = max + logf(sum);
+        for(int i=0; i < rowSize; i++) {
+            row[i] -= logSum;
+        }
+    }
+}
+
+/**
+ * In-place applies layer normalization to every row of a `batchSize` x `rowSize` matrix:
+ *
+ *   layerNorm(x)[i] = gamma[i] * (x[i] - mean(x)) / sqrt(variance(x) + epsilon) + beta[i]
+ *
+ * The variance is computed from the centered values (two passes) and the normalization is a single fused pass.
+ */
+inline void layerNorm(float *inOut, const float *gamma, const float *beta, const float epsilon, const int rowSize,
+        const int batchSize) {
+    for(int b=0; b < batchSize; b++) {
+        float *row = inOut + (size_t) b * rowSize;
+        float sum = 0;
+        for(int i=0; i < rowSize; i++) {
+            sum += row[i];
+        }
+        const float mean = sum / rowSize;
+        float squares = 0;
+        for(int i=0; i < rowSize; i++) {
+            squares += (row[i] - mean) * (row[i] - mean);
+        }
+        const float invStd = 1 / sqrtf(squares / rowSize + epsilon);
+        for(int i=0; i < rowSize; i++) {
+            row[i] = (row[i] - mean) * invStd * gamma[i] + beta[i];
+        }
+    }
+}
+
+/**
+ * In-place applies the given activation function to the first `endExclusive` input vector elements.
+ * `alpha` is used only by ELU.
+ */
+inline void activate(const NNNOActivation activation, float *inOut, const int endExclusive, const float alpha) {
+    switch (activation) {
+        case ACTIVATION_RELU:
+            ReLU(inOut, endExclusive);
+            break;
+        case ACTIVATION_ELU:
+            ELU(inOut, endExclusive, alpha);
+            break;
+        case ACTIVATION_SIGMOID:
+            sigmoid(inOut, endExclusive);
+            break;
+        default:
+            break;
+    }
+}
+
+/**
+ * Number of stripes of the scratch memory pool. A thread takes and returns blocks through the stripe of the CPU it
+ * runs on, so concurrent callers rarely contend for a stripe and virtual threads share the stripes of their carriers.
+ * The pool has no limit on the number of calling threads.
+ */
+static const int SCRATCH_STRIPES = 64;
+
+/**
+ * Number of released blocks cached per stripe for reuse; the smallest blocks are freed beyond that.
+ */
+static const int SCRATCH_BLOCKS_PER_STRIPE = 4;
+
+static const int SCRATCH_ALIGNMENT = 64;
+
+/**
+ * Smallest scratch block. Requests are rounded up to a power of two, so blocks are reused by calls of close shapes.
+ */
+static const size_t SCRATCH_MIN_BYTES = 4096;
+
+struct NNNOScratchBlock {
+    void *memory;
+    size_t bytes;
+};
+
+struct alignas(64) NNNOScratchStripe {
+    std::atomic<bool> locked;
+    NNNOScratchBlock blocks[SCRATCH_BLOCKS_PER_STRIPE];
+};
+
+static NNNOScratchStripe scratchStripes[SCRATCH_STRIPES];
+
+/**
+ * Returns the scratch pool stripe of the CPU the calling thread runs on. The thread may migrate right after, which
+ * only costs locality.
+ */
+inline NNNOScratchStripe *scratchStripe() {
+    const int cpu = sched_getcpu();
+    return &scratchStripes[(cpu > 0 ? cpu : 0) % SCRATCH_STRIPES];
+}
+
+/**
+ * Takes a block of at least `bytes` bytes aligned to `SCRATCH_ALIGNMENT` from the stripe of the current CPU, or
+ * allocates a new one if the stripe has none large enough or is busy. The block memory is NULL if allocation failed.
+ * Blocks must be given back with `scratchRelease`.
+ */
+inline NNNOScratchBlock scratchAcquire(const size_t bytes) {
+    NNNOScratchBlock block = { NULL, 0 };
+    NNNOScratchStripe *stripe = scratchStripe();
+    if (!stripe->locked.exchange(true, std::memory_order_acquire)) {
+        for(int i=0; i < SCRATCH_BLOCKS_PER_STRIPE; i++) {
+            if (stripe->blocks[i].memory != NULL && stripe->blocks[i].bytes >= bytes) {
+                block = stripe->blocks[i];
+                stripe->blocks[i].memory = NULL;
+                stripe->blocks[i].bytes = 0;
+                break;
+            }
         }
+        stripe->locked.store(false, std::memory_order_release);
+    }
+    if (block.memory == NULL) {
+        size_t rounded = SCRATCH_MIN_BYTES;
+        while (rounded < bytes) {
+            rounded *= 2;
+        }
+        if (posix_memalign(&block.memory, SCRATCH_ALIGNMENT, rounded) == 0) {
+            block.bytes = rounded;
+        } else {
+            block.memory = NULL;
+        }
+    }
+    return block;
+}
+
+/**
+ * Gives a block taken with `scratchAcquire` back to the stripe of the current CPU, in place of the smallest cached
+ * block if the stripe is full. The block is freed instead if it is the smallest or the stripe is busy.
+ */
+inline void scratchRelease(NNNOScratchBlock block) {
+    if (block.memory == NULL) {
+        return;
+    }
+    NNNOScratchStripe *stripe = scratchStripe();
+    if (!stripe->locked.exchange(true, std::memory_order_acquire)) {
+        int smallest = 0;
+        for(int i=1; i < SCRATCH_BLOCKS_PER_STRIPE; i++) {
+            if (stripe->blocks[i].bytes < stripe->blocks[smallest].bytes) {
+                smallest = i;
+            }
+        }
+        if (stripe->blocks[smallest].bytes < block.bytes) {
+            NNNOScratchBlock evicted = stripe->blocks[smallest];
+            stripe->blocks[smallest] = block;
+            block = evicted;
+        }
+        stripe->locked.store(false, std::memory_order_release);
+    }
+    free(block.memory);
+}
+
+/**
+ * Frees all blocks cached by the scratch pool. Blocks in use are cached or freed when released.
+ */
+inline void scratchTrim() {
+    for(int s=0; s < SCRATCH_STRIPES; s++) {
+        NNNOScratchStripe *stripe = &scratchStripes[s];
+        while (stripe->locked.exchange(true, std::memory_order_acquire)) {
+        }
+        for(int i=0; i < SCRATCH_BLOCKS_PER_STRIPE; i++) {
+            free(stripe->blocks[i].memory);
+            stripe->blocks[i].memory = NULL;
+            stripe->blocks[i].bytes = 0;
+        }
+        stripe->locked.store(false, std::memory_order_release);
+    }
+}
+
+/**
+ * Number of floats of an sgemv workspace OpenBLAS keeps on the stack (its default MAX_STACK_ALLOC of 2048 bytes).
+ * Larger sgemv calls, and all sgemm calls, take one of its preallocated memory regions instead, of which there are
+ * only about 2 * NUM_THREADS; running out of them aborts the process.
+ */
+static const int BLAS_STACK_FLOATS = 512;
+
+static std::atomic<int> blasConcurrencyLimit(INT_MAX);
+static std::atomic<int> blasCallers(0);
+static std::atomic<long long> blasOverflows(0);
+
+/**
+ * Sets the number of concurrent BLAS calls that may take an OpenBLAS memory region; calls beyond it are computed by
+ * library kernels. `0` sends all of them to library kernels.
+ */
+inline void setBlasConcurrencyLimit(const int limit) {
+    blasConcurrencyLimit.store(limit, std::memory_order_relaxed);
+}
+
+/**
+ * Returns the number of BLAS calls computed by library kernels because of `blasConcurrencyLimit`.
+ */
+inline long long blasOverflowCount() {
+    return blasOverflows.load(std::memory_order_relaxed);
+}
+
+/**
+ * Registers a BLAS call that needs a memory region and returns true, or returns false without registering if
+ * `blasConcurrencyLimit` calls are already in progress. Registered calls must end with `blasExit`. MKL has no such
+ * regions, so with MKL this always returns true.
+ */
+inline bool blasEnter() {
+#ifdef USE_MKL
+    return true;
+#else
+    if (blasCallers.fetch_add(1, std::memory_order_acquire) < blasConcurrencyLimit.load(std::memory_order_relaxed)) {
+        return true;
+    }
+    blasCallers.fetch_sub(1, std::memory_order_relaxed);
+    blasOverflows.fetch_add(1, std::memory_order_relaxed);
+    return false;
+#endif
+}
+
+inline void blasExit() {
+#ifndef USE_MKL
+    blasCallers.fetch_sub(1, std::memory_order_release);
+#endif
+}
+
+/**
+ * Library counterpart of sgemv, needing no workspace, for a row-major (rows x columns) `A` with leading dimension
+ * `lda`:
+ *
+ *   y = A(T) * x + y
+ */
+inline void librarySgemv(const bool transA, const int rows, const int columns, const float *A, const int lda,
+        const float *x, float *y) {
+    for(int r=0; r < rows; r++) {
+        const float *row = A + (size_t) r * lda;
+        if (transA) {
+            const float xr = x[r];
+            for(int c=0; c < columns; c++) {
+                y[c] += row[c] * xr;
+            }
+        } else {
+            float sum = 0;
+            for(int c=0; c < columns; c++) {
+                sum += row[c] * x[c];
+            }
+            y[r] += sum;
+        }
+    }
+}
+
+inline void librarySgemm(const bool transB, const int m, const int n, const int k, const float *A, const int lda,
+        const float *B, const int ldb, float *C, const int ldc);
+
+/**
+ * Row-major sgemv with accumulation (see `librarySgemv`). Calls needing an OpenBLAS memory region are computed by
+ * `librarySgemv` past the BLAS concurrency limit.
+ */
+inline void blasGemv(const bool transA, const int rows, const int columns, const float *A, const int lda,
+        const float *x, float *y) {
+    if (rows + columns + 32 <= BLAS_STACK_FLOATS) {
+        cblas_sgemv( CblasRowMajor, transA ? CblasTrans : CblasNoTrans,
+            rows, columns, ALPHA, A, lda, x, X_INC, BETA, y, Y_INC);
+    } else if (blasEnter()) {
+        cblas_sgemv( CblasRowMajor, transA ? CblasTrans : CblasNoTrans,
+            rows, columns, ALPHA, A, lda, x, X_INC, BETA, y, Y_INC);
+        blasExit();
+    } else {
+        librarySgemv(transA, rows, columns, A, lda, x, y);
+    }
+}
+
+/**
+ * Row-major sgemm with accumulation, for (m x k) `A` and (k x n) `B` or (n x k) if `transB`:
+ *
+ *   C = A * B(T) + C
+ *
+ * Past the BLAS concurrency limit it is computed by `librarySgemm`, with its workspace from the scratch pool.
+ */
+inline void blasGemm(const bool transB, const int m, const int n, const int k, const float *A, const int lda,
+        const float *B, const int ldb, float *C, const int ldc) {
+    if (blasEnter()) {
+        cblas_sgemm( CblasRowMajor, CblasNoTrans, transB ? CblasTrans : CblasNoTrans, m, n, k, ONE,
+            A, lda, B, ldb, ONE, C, ldc);
+        blasExit();
+    } else {
+        librarySgemm(transB, m, n, k, A, lda, B, ldb, C, ldc);
     }
 }
 
@@ -61,7 +562,7 @@ inline void ELU(float *inOut, const int endExclusive, const float alpha) {
  * @see http://www.netlib.org/lapack/explore-html/d6/d30/group__single__blas__level2_gafc92361b74c6d41c7e5afa0aa5d13ec9
  */
 inline void gemv(const float *A, const float *x, float *y, const int m, const int n) {
-    cblas_sgemv( CblasRowMajor, CblasNoTrans, n, m, ALPHA, A, m, x, X_INC, BETA, y, Y_INC);
+    blasGemv(false, n, m, A, m, x, y);
 }
 
 
@@ -77,7 +578,7 @@ inline void gemv(const float *A, const float *x, float *y, const int m, const in
  * @see http://www.netlib.org/lapack/explore-html/db/dc9/group__single__blas__level3_gafe51bacb54592ff5de056acabd83c260
  */
 inline void gemm(const float *A, const float *B, float *Y, const int m, const int n, const int k) {
-    cblas_sgemm( CblasRowMajor, CblasNoTrans, CblasNoTrans, m, n, k, ONE, A, k, B, n, ONE, Y, n);
+    blasGemm(false, m, n, k, A, k, B, n, Y, n);
 }
 
 /**
@@ -92,12 +593,9 @@ inline void linearForward(const NNNOTranspose transposeWeights, const float *wei
 
     memcpy(output, biases, outputSize * sizeof(float));
     if (transposeWeights == TRANSPOSE) {
-        cblas_sgemv( CblasRowMajor, CblasTrans,
-            inputSize, outputSize, ALPHA, weights, outputSize, input, X_INC, BETA, output, Y_INC);
+        blasGemv(true, inputSize, outputSize, weights, outputSize, input, output);
     } else {
-
-        cblas_sgemv( CblasRowMajor, CblasNoTrans,
-            outputSize, inputSize, ALPHA, weights, inputSize, input, X_INC, BETA, output, Y_INC);
+        blasGemv(false, outputSize, inputSize, weights, inputSize, input, output);
     }
 }
 
@@ -116,10 +614,817 @@ inline void linearBatchForward(const NNNOTranspose transposeWeights, const float
         tmp += outputRowSize;
     }
     if (transposeWeights == TRANSPOSE) {
-        cblas_sgemm( CblasRowMajor, CblasNoTrans, CblasTrans, batchSize, outputRowSize, inputRowSize, ONE,
-            input, inputRowSize, weights, inputRowSize, ONE, output, outputRowSize);
+        blasGemm(true, batchSize, outputRowSize, inputRowSize,
+            input, inputRowSize, weights, inputRowSize, output, outputRowSize);
+    } else {
+        blasGemm(false, batchSize, outputRowSize, inputRowSize,
+            input, inputRowSize, weights, outputRowSize, output, outputRowSize);
+    }
+}
+
+/**
+ * Computes the tile `[rowBegin, rowEnd)` x `[columnBegin, columnEnd)` of the `linearBatchForward` output, so disjoint
+ * tiles of one call can be computed concurrently:
+ *
+ *   output[rows, columns] = input[rows, :] * weights(T)[:, columns] + biases[columns]
+ */
+inline void linearBatchForwardTile(const NNNOTranspose transposeWeights, const float *weights, const float *biases,
+        const float *input, float *output, const int inputRowSize, const int outputRowSize, const int rowBegin,
+        const int rowEnd, const int columnBegin, const int columnEnd) {
+    const int rows = rowEnd - rowBegin;
+    const int columns = columnEnd - columnBegin;
+    const float *in = input + (size_t) rowBegin * inputRowSize;
+    float *out = output + (size_t) rowBegin * outputRowSize + columnBegin;
+    for(int r=0; r < rows; r++) {
+        memcpy(out + (size_t) r * outputRowSize, biases + columnBegin, columns * sizeof(float));
+    }
+    if (transposeWeights == TRANSPOSE) {
+        blasGemm(true, rows, columns, inputRowSize,
+            in, inputRowSize, weights + (size_t) columnBegin * inputRowSize, inputRowSize, out, outputRowSize);
     } else {
-        cblas_sgemm( CblasRowMajor, CblasNoTrans, CblasNoTrans, batchSize, outputRowSize, inputRowSize, ONE,
-            input, inputRowSize, weights, outputRowSize, ONE, output, outputRowSize);
+        blasGemm(false, rows, columns, inputRowSize,
+            in, inputRowSize, weights + columnBegin, outputRowSize, out, outputRowSize);
+    }
+}
+
+/**
+ * Forward operation for a single linear neural-network layer fused with its activation function:
+ *
+ *   output = activation(weights(T) * input + biases)
+ *
+ * The activation is applied right after sgemv, while the output is still hot in cache.
+ */
+inline void linearForwardActivation(const NNNOTranspose transposeWeights, const NNNOActivation activation,
+        const float alpha, const float *weights, const float *biases, const float *input, float *output,
+        const int inputSize, const int outputSize) {
+
+    linearForward(transposeWeights, weights, biases, input, output, inputSize, outputSize);
+    activate(activation, output, outputSize, alpha);
+}
+
+/**
+ * Forward operation for a single linear neural-network layer fused with its activation function. Each input row
+ * must occupy consecutive memory cells:
+ *
+ *   output = activation(input * weights(T) + biases)
+ */
+inline void linearBatchForwardActivation(const NNNOTranspose transposeWeights, const NNNOActivation activation,
+        const float alpha, const float *weights, const float *biases, const float *input, float *output,
+        const int inputRowSize, const int outputRowSize, const int batchSize) {
+
+    linearBatchForward(transposeWeights, weights, biases, input, output, inputRowSize, outputRowSize, batchSize);
+    activate(activation, output, outputRowSize * batchSize, alpha);
+}
+
+/**
+ * Accumulates `nonZeros` sparse input elements, given as index-value pairs, into `output`:
+ *
+ *   output += weights(T) * input
+ *
+ * With `transposeWeights == TRANSPOSE` (weights: inputSize x outputSize) every non-zero adds a contiguous weights
+ * row, otherwise (weights: outputSize x inputSize) a strided weights column.
+ */
+inline void sparseAccumulate(const NNNOTranspose transposeWeights, const float *weights, const int *inputIndices,
+        const float *inputValues, const int nonZeros, float *output, const int inputSize, const int outputSize) {
+    for(int k=0; k < nonZeros; k++) {
+        if (transposeWeights == TRANSPOSE) {
+            cblas_saxpy(outputSize, inputValues[k], weights + (size_t) inputIndices[k] * outputSize, X_INC,
+                output, Y_INC);
+        } else {
+            cblas_saxpy(outputSize, inputValues[k], weights + inputIndices[k], inputSize, output, Y_INC);
+        }
+    }
+}
+
+/**
+ * Forward operation for a single linear neural-network layer with a sparse input vector of `nonZeros` index-value
+ * pairs (see `linearForward`):
+ *
+ *   output = weights(T) * input + biases
+ */
+inline void linearForwardSparse(const NNNOTranspose transposeWeights, const float *weights, const float *biases,
+        const int *inputIndices, const float *inputValues, const int nonZeros, float *output, const int inputSize,
+        const int outputSize) {
+
+    memcpy(output, biases, outputSize * sizeof(float));
+    sparseAccumulate(transposeWeights, weights, inputIndices, inputValues, nonZeros, output, inputSize, outputSize);
+}
+
+/**
+ * Forward operation for a single linear neural-network layer with a batch of sparse input rows in the CSR format:
+ * non-zeros of the b-th row are at `[rowOffsets[b], rowOffsets[b + 1])` in `inputIndices` and `inputValues`.
+ * Follows the `linearBatchForward` convention:
+ *
+ *   output = input * weights(T) + biases
+ */
+inline void linearBatchForwardSparse(const NNNOTranspose transposeWeights, const float *weights,
+        const float *biases, const int *rowOffsets, const int *inputIndices, const float *inputValues, float *output,
+        const int inputRowSize, const int outputRowSize, const int batchSize) {
+
+    // linearBatchForward multiplies input rows by weights, i.e. uses the opposite convention
+    const NNNOTranspose rowTranspose = transposeWeights == TRANSPOSE ? NO_TRANSPOSE : TRANSPOSE;
+    for(int b=0; b < batchSize; b++) {
+        float *out = output + (size_t) b * outputRowSize;
+        memcpy(out, biases, outputRowSize * sizeof(float));
+        sparseAccumulate(rowTranspose, weights, inputIndices + rowOffsets[b], inputValues + rowOffsets[b],
+            rowOffsets[b + 1] - rowOffsets[b], out, inputRowSize, outputRowSize);
+    }
+}
+
+/**
+ * Pools the `[begin, end)` rows of `table` selected by `indices`, each scaled by its per-sample weight (or 1 if
+ * `perSampleWeights` is NULL), into `output` of size `embeddingSize`. An empty bag gives zeros.
+ */
+inline void poolBag(const NNNOPooling pooling, const float *table, const int *indices, const float *perSampleWeights,
+        const int begin, const int end, float *output, const int embeddingSize) {
+
+    memset(output, 0, embeddingSize * sizeof(float));
+    for(int i=begin; i < end; i++) {
+        const float weight = perSampleWeights == NULL ? 1.0f : perSampleWeights[i];
+        const float *row = table + (size_t) indices[i] * embeddingSize;
+        if (pooling != POOLING_MAX) {
+            cblas_saxpy(embeddingSize, weight, row, X_INC, output, Y_INC);
+        } else if (i == begin) {
+            for(int e=0; e < embeddingSize; e++) {
+                output[e] = weight * row[e];
+            }
+        } else {
+            for(int e=0; e < embeddingSize; e++) {
+                const float value = weight * row[e];
+                output[e] = value > output[e] ? value : output[e];
+            }
+        }
+    }
+    if (pooling == POOLING_MEAN && end > begin) {
+        cblas_sscal(embeddingSize, 1.0f / (end - begin), output, X_INC);
+    }
+}
+
+/**
+ * Embedding bag lookup for a batch of `batchSize` rows with `bagsPerRow` bags each. The j-th bag of the b-th row is
+ * `[offsets[b * bagsPerRow + j], offsets[b * bagsPerRow + j + 1])` in `indices` and its pooled vector is written at
+ * `b * outputRowSize + outputOffset + j * embeddingSize` in `output`:
+ *
+ *   output[b, j] = pooling(perSampleWeights[i] * table[indices[i]])
+ */
+inline void embeddingBag(const NNNOPooling pooling, const float *table, const int *indices, const int *offsets,
+        const float *perSampleWeights, float *output, const int outputOffset, const int outputRowSize,
+        const int embeddingSize, const int bagsPerRow, const int batchSize) {
+
+    for(int b=0; b < batchSize; b++) {
+        float *out = output + (size_t) b * outputRowSize + outputOffset;
+        for(int j=0; j < bagsPerRow; j++) {
+            const int bag = b * bagsPerRow + j;
+            poolBag(pooling, table, indices, perSampleWeights, offsets[bag], offsets[bag + 1],
+                out + (size_t) j * embeddingSize, embeddingSize);
+        }
+    }
+}
+
+/**
+ * Number of output columns per panel of packed weights: two AVX (one AVX-512) registers of accumulators per row.
+ */
+static const int PACK_WIDTH = 16;
+
+/**
+ * Number of batch rows multiplied at once by a panel of packed weights.
+ */
+static const int PACK_ROWS = 4;
+
+/**
+ * Returns the number of floats needed by `packWeights` for a (outputSize x inputSize) weights matrix.
+ *
+ * With MKL this is the size of its opaque packed format, otherwise of the library-owned layout: `outputSize` rounded
+ * up to `PACK_WIDTH`-column panels, each panel holding `inputSize` rows of `PACK_WIDTH` consecutive weights.
+ */
+inline long long packedWeightsSize(const int inputSize, const int outputSize) {
+#ifdef USE_MKL
+    const size_t bytes = cblas_sgemm_pack_get_size(CblasBMatrix, 1, outputSize, inputSize);
+    return (long long) ((bytes + sizeof(float) - 1) / sizeof(float));
+#else
+    const long long panels = (outputSize + PACK_WIDTH - 1) / PACK_WIDTH;
+    return panels * PACK_WIDTH * inputSize;
+#endif
+}
+
+/**
+ * Packs weights once, in the layout read by `linearBatchForwardPacked`, so that layout conversion is not repeated on
+ * every call. `transposeWeights` follows the `linearForward` convention. Padding columns of the last panel are zeroed.
+ */
+inline void packWeights(const NNNOTranspose transposeWeights, const float *weights, float *packed,
+        const int inputSize, const int outputSize) {
+#ifdef USE_MKL
+    // the B matrix of input * weights(T): packed for any number of rows, hence m = 1
+    if (transposeWeights == TRANSPOSE) {
+        cblas_sgemm_pack(CblasRowMajor, CblasBMatrix, CblasNoTrans, 1, outputSize, inputSize, ONE,
+            weights, outputSize, packed);
+    } else {
+        cblas_sgemm_pack(CblasRowMajor, CblasBMatrix, CblasTrans, 1, outputSize, inputSize, ONE,
+            weights, inputSize, packed);
+    }
+#else
+    for(int panelBegin=0; panelBegin < outputSize; panelBegin += PACK_WIDTH) {
+        float *panel = packed + (size_t) panelBegin * inputSize;
+        for(int c=0; c < inputSize; c++) {
+            for(int j=0; j < PACK_WIDTH; j++) {
+                const int r = panelBegin + j;
+                panel[(size_t) c * PACK_WIDTH + j] = r >= outputSize ? 0
+                    : transposeWeights == TRANSPOSE ? weights[(size_t) c * outputSize + r]
+                    : weights[(size_t) r * inputSize + c];
+            }
+        }
+    }
+#endif
+}
+
+/**
+ * Multiplies up to `PACK_ROWS` rows of `input` (with leading dimension `lda`) by one panel of `k` packed rows,
+ * accumulating in registers:
+ *
+ *   sums[rows, :] = input[rows, 0:k] * panel
+ *
+ * The loop over all `PACK_ROWS` rows has constant bounds, so the compiler unrolls and vectorizes it fully.
+ */
+inline void packedPanelSums(const float *panel, const float *input, const int lda, const int k, const int rows,
+        float sums[PACK_ROWS][PACK_WIDTH]) {
+    if (rows == PACK_ROWS) {
+        for(int c=0; c < k; c++) {
+            const float *weightsRow = panel + (size_t) c * PACK_WIDTH;
+            for(int r=0; r < PACK_ROWS; r++) {
+                const float value = input[(size_t) r * lda + c];
+                for(int j=0; j < PACK_WIDTH; j++) {
+                    sums[r][j] += value * weightsRow[j];
+                }
+            }
+        }
+    } else {
+        for(int c=0; c < k; c++) {
+            const float *weightsRow = panel + (size_t) c * PACK_WIDTH;
+            for(int r=0; r < rows; r++) {
+                const float value = input[(size_t) r * lda + c];
+                for(int j=0; j < PACK_WIDTH; j++) {
+                    sums[r][j] += value * weightsRow[j];
+                }
+            }
+        }
+    }
+}
+
+/**
+ * Multiplies up to `PACK_ROWS` input rows by one panel of packed weights (see `packedPanelSums`):
+ *
+ *   output[rows, panel columns] = input[rows, :] * panel + biases[panel columns]
+ */
+inline void packedPanelForward(const float *panel, const float *biases, const float *input, float *output,
+        const int inputRowSize, const int outputRowSize, const int rows, const int columns) {
+
+    float sums[PACK_ROWS][PACK_WIDTH] = {};
+    packedPanelSums(panel, input, inputRowSize, inputRowSize, rows, sums);
+    for(int r=0; r < rows; r++) {
+        for(int j=0; j < columns; j++) {
+            output[(size_t) r * outputRowSize + j] = biases[j] + sums[r][j];
+        }
+    }
+}
+
+/**
+ * Forward operation for a single linear neural-network layer with weights prepared by `packWeights`. Each input row
+ * must occupy consecutive memory cells:
+ *
+ *   output = input * weights(T) + biases
+ *
+ * With MKL this is `cblas_sgemm_compute`. Otherwise each panel, small enough to stay in L2 cache, is multiplied by
+ * all batch rows before moving to the next one, so the weights are read from memory once per call and neither
+ * matrix is copied.
+ */
+inline void linearBatchForwardPacked(const float *packed, const float *biases, const float *input, float *output,
+        const int inputRowSize, const int outputRowSize, const int batchSize) {
+#ifdef USE_MKL
+    float *tmp = output;
+    for(int i=0; i < batchSize; i++) {
+        memcpy(tmp, biases, outputRowSize * sizeof(float));
+        tmp += outputRowSize;
+    }
+    cblas_sgemm_compute(CblasRowMajor, CblasNoTrans, CblasPacked, batchSize, outputRowSize, inputRowSize,
+        input, inputRowSize, packed, outputRowSize, ONE, output, outputRowSize);
+#else
+    for(int panelBegin=0; panelBegin < outputRowSize; panelBegin += PACK_WIDTH) {
+        const float *panel = packed + (size_t) panelBegin * inputRowSize;
+        const int columns = outputRowSize - panelBegin < PACK_WIDTH ? outputRowSize - panelBegin : PACK_WIDTH;
+        for(int rowBegin=0; rowBegin < batchSize; rowBegin += PACK_ROWS) {
+            const int rows = batchSize - rowBegin < PACK_ROWS ? batchSize - rowBegin : PACK_ROWS;
+            packedPanelForward(panel, biases + panelBegin, input + (size_t) rowBegin * inputRowSize,
+                output + (size_t) rowBegin * outputRowSize + panelBegin, inputRowSize, outputRowSize, rows, columns);
+        }
+    }
+#endif
+}
+
+/**
+ * Library counterpart of sgemm (see `blasGemm`):
+ *
+ *   C = A * B(T) + C
+ *
+ * Each `PACK_WIDTH`-column panel of B(T) is packed, zero-padded, into a scratch pool block and multiplied by
+ * `PACK_ROWS` rows of A at a time, as in `linearBatchForwardPacked`. Falls back to plain loops if no scratch memory
+ * can be allocated.
+ */
+inline void librarySgemm(const bool transB, const int m, const int n, const int k, const float *A, const int lda,
+        const float *B, const int ldb, float *C, const int ldc) {
+    NNNOScratchBlock scratch = scratchAcquire((size_t) PACK_WIDTH * (k > 0 ? k : 1) * sizeof(float));
+    float *panel = (float*) scratch.memory;
+    if (panel == NULL) {
+        for(int i=0; i < m; i++) {
+            for(int p=0; p < k; p++) {
+                const float a = A[(size_t) i * lda + p];
+                for(int j=0; j < n; j++) {
+                    C[(size_t) i * ldc + j] += a * (transB ? B[(size_t) j * ldb + p] : B[(size_t) p * ldb + j]);
+                }
+            }
+        }
+        return;
+    }
+
+    for(int panelBegin=0; panelBegin < n; panelBegin += PACK_WIDTH) {
+        const int columns = n - panelBegin < PACK_WIDTH ? n - panelBegin : PACK_WIDTH;
+        for(int p=0; p < k; p++) {
+            for(int j=0; j < PACK_WIDTH; j++) {
+                panel[(size_t) p * PACK_WIDTH + j] = j >= columns ? 0
+                    : transB ? B[(size_t) (panelBegin + j) * ldb + p] : B[(size_t) p * ldb + panelBegin + j];
+            }
+        }
+        for(int rowBegin=0; rowBegin < m; rowBegin += PACK_ROWS) {
+            const int rows = m - rowBegin < PACK_ROWS ? m - rowBegin : PACK_ROWS;
+            float sums[PACK_ROWS][PACK_WIDTH] = {};
+            packedPanelSums(panel, A + (size_t) rowBegin * lda, lda, k, rows, sums);
+            for(int r=0; r < rows; r++) {
+                float *out = C + (size_t) (rowBegin + r) * ldc + panelBegin;
+                for(int j=0; j < columns; j++) {
+                    out[j] += sums[r][j];
+                }
+            }
+        }
+    }
+    scratchRelease(scratch);
+}
+
+/**
+ * Number of bytes of int8 weights processed per block by `linearBatchForwardQuantized`, small enough for the block to
+ * stay in L2 cache while all batch rows are multiplied by it.
+ */
+static const int QUANTIZED_BLOCK_BYTES = 128 * 1024;
+
+/**
+ * Returns `sum(input)`, needed to apply zero points once per output instead of once per weight.
+ */
+inline float sumOf(const float *input, const int size) {
+    float sum = 0;
+    for(int c=0; c < size; c++) {
+        sum += input[c];
+    }
+    return sum;
+}
+
+/**
+ * Returns `output[r] = biases[r] + scales[r] * (weights[r] - zeroPoints[r]) . input` for a single row of int8
+ * weights. Weights are widened to float in the loop, which the compiler vectorizes.
+ */
+inline float quantizedRowForward(const signed char *weightsRow, const float scale, const int zeroPoint,
+        const float bias, const float *input, const float inputSum, const int inputSize) {
+    float sum = 0;
+    for(int c=0; c < inputSize; c++) {
+        sum += weightsRow[c] * input[c];
+    }
+    return bias + scale * (sum - zeroPoint * inputSum);
+}
+
+/**
+ * Forward operation for a single linear neural-network layer with int8 weights quantized per output row:
+ *
+ *   output = dequantize(weights) * input + biases
+ *   dequantize(weights)[r][c] = scales[r] * (weights[r][c] - zeroPoints[r])
+ *
+ * `weights` is row-major (outputSize x inputSize); `zeroPoints` may be NULL for symmetric quantization.
+ */
+inline void linearForwardQuantized(const signed char *weights, const float *scales, const int *zeroPoints,
+        const float *biases, const float *input, float *output, const int inputSize, const int outputSize) {
+
+    const float inputSum = zeroPoints == NULL ? 0 : sumOf(input, inputSize);
+    for(int r=0; r < outputSize; r++) {
+        output[r] = quantizedRowForward(weights + (size_t) r * inputSize, scales[r],
+            zeroPoints == NULL ? 0 : zeroPoints[r], biases[r], input, inputSum, inputSize);
+    }
+}
+
+/**
+ * Batch version of `linearForwardQuantized`. Each input row must occupy consecutive memory cells:
+ *
+ *   output = input * transpose(dequantize(weights)) + biases
+ *
+ * Weights are processed in blocks of rows which stay in cache while being multiplied by every input row, so the
+ * weights are read from memory once per call rather than once per input row.
+ */
+inline void linearBatchForwardQuantized(const signed char *weights, const float *scales, const int *zeroPoints,
+        const float *biases, const float *input, float *output, const int inputRowSize, const int outputRowSize,
+        const int batchSize) {
+
+    const int blockRows = inputRowSize == 0 ? outputRowSize
+        : (QUANTIZED_BLOCK_BYTES / inputRowSize > 0 ? QUANTIZED_BLOCK_BYTES / inputRowSize : 1);
+    for(int blockStart=0; blockStart < outputRowSize; blockStart += blockRows) {
+        const int blockEnd = blockStart + blockRows < outputRowSize ? blockStart + blockRows : outputRowSize;
+        for(int b=0; b < batchSize; b++) {
+            const float *in = input + (size_t) b * inputRowSize;
+            float *out = output + (size_t) b * outputRowSize;
+            const float inputSum = zeroPoints == NULL ? 0 : sumOf(in, inputRowSize);
+            for(int r=blockStart; r < blockEnd; r++) {
+                out[r] = quantizedRowForward(weights + (size_t) r * inputRowSize, scales[r],
+                    zeroPoints == NULL ? 0 : zeroPoints[r], biases[r], in, inputSum, inputRowSize);
+            }
+        }
+    }
+}
+
+/**
+ * Number of floats widened at once by the 16-bit weights kernels, so that a chunk of a weights row stays in L1 cache.
+ */
+static const int HALF_CHUNK_SIZE = 1024;
+
+/**
+ * Number of floats widened at once by `linearBatchForwardHalf` before handing them to sgemm.
+ */
+static const int HALF_BLOCK_SIZE = 64 * 1024;
+
+/**
+ * Widens an IEEE 754 binary16 value to float, for builds without F16C.
+ */
+inline float fp16ToFloat(const unsigned short half) {
+    const unsigned int sign = (unsigned int) (half & 0x8000) << 16;
+    const unsigned int exponent = (half >> 10) & 0x1f;
+    const unsigned int mantissa = half & 0x3ff;
+    union { unsigned int bits; float value; } result;
+    if (exponent == 0x1f) {
+        result.bits = sign | 0x7f800000 | (mantissa << 13);
+    } else if (exponent == 0) {
+        result.value = mantissa * (1.0f / (1 << 24));
+        result.bits |= sign;
+    } else {
+        result.bits = sign | ((exponent + 112) << 23) | (mantissa << 13);
+    }
+    return result.value;
+}
+
+/**
+ * Widens `size` 16-bit floats to float32. With F16C fp16 values are converted 8 at a time (vcvtph2ps); bf16 values
+ * are just shifted, which the compiler vectorizes.
+ */
+inline void widenHalf(const NNNOHalfFloat format, const unsigned short *src, float *dst, const int size) {
+    int i = 0;
+    if (format == HALF_FLOAT_BF16) {
+        unsigned int *dstBits = (unsigned int*) dst;
+        for(; i < size; i++) {
+            dstBits[i] = (unsigned int) src[i] << 16;
+        }
+        return;
+    }
+#ifdef __F16C__
+    for(; i + 8 <= size; i += 8) {
+        _mm256_storeu_ps(dst + i, _mm256_cvtph_ps(_mm_loadu_si128((const __m128i*) (src + i))));
+    }
+#endif
+    for(; i < size; i++) {
+        dst[i] = fp16ToFloat(src[i]);
+    }
+}
+
+/**
+ * Applies a matrix-vector multiplication with accumulation for a matrix of 16-bit floats (see `gemv`):
+ *
+ *   y = A * x + y
+ *
+ * Rows are widened chunk by chunk into a stack buffer and multiplied right away.
+ */
+inline void gemvHalf(const NNNOHalfFloat format, const unsigned short *A, const float *x, float *y, const int m,
+        const int n) {
+    float chunk[HALF_CHUNK_SIZE];
+    for(int r=0; r < n; r++) {
+        const unsigned short *row = A + (size_t) r * m;
+        float sum = 0;
+        for(int c0=0; c0 < m; c0 += HALF_CHUNK_SIZE) {
+            const int size = m - c0 < HALF_CHUNK_SIZE ? m - c0 : HALF_CHUNK_SIZE;
+            widenHalf(format, row + c0, chunk, size);
+            for(int c=0; c < size; c++) {
+                sum += chunk[c] * x[c0 + c];
+            }
+        }
+        y[r] += sum;
+    }
+}
+
+/**
+ * Transposed version of `gemvHalf`, with `A` being m x n:
+ *
+ *   y = transpose(A) * x + y
+ */
+inline void gemvHalfTransposed(const NNNOHalfFloat format, const unsigned short *A, const float *x, float *y,
+        const int m, const int n) {
+    float chunk[HALF_CHUNK_SIZE];
+    for(int r=0; r < m; r++) {
+        const unsigned short *row = A + (size_t) r * n;
+        const float xr = x[r];
+        for(int c0=0; c0 < n; c0 += HALF_CHUNK_SIZE) {
+            const int size = n - c0 < HALF_CHUNK_SIZE ? n - c0 : HALF_CHUNK_SIZE;
+            widenHalf(format, row + c0, chunk, size);
+            for(int c=0; c < size; c++) {
+                y[c0 + c] += chunk[c] * xr;
+            }
+        }
+    }
+}
+
+/**
+ * Forward operation for a single linear neural-network layer with 16-bit float weights (see `linearForward`):
+ *
+ *   output = weights(T) * input + biases
+ */
+inline void linearForwardHalf(const NNNOTranspose transposeWeights, const NNNOHalfFloat format,
+        const unsigned short *weights, const float *biases, const float *input, float *output, const int inputSize,
+        const int outputSize) {
+
+    memcpy(output, biases, outputSize * sizeof(float));
+    if (transposeWeights == TRANSPOSE) {
+        gemvHalfTransposed(format, weights, input, output, inputSize, outputSize);
+    } else {
+        gemvHalf(format, weights, input, output, inputSize, outputSize);
+    }
+}
+
+/**
+ * `linearBatchForwardHalf` accumulation for when no scratch memory can be allocated: widens every weights row in
+ * chunks of `HALF_CHUNK_SIZE` floats on the stack and accumulates each chunk with its own sgemm. Much slower, but it
+ * never leaves `output` holding only the biases.
+ */
+inline void linearBatchForwardHalfChunked(const NNNOTranspose transposeWeights, const NNNOHalfFloat format,
+        const unsigned short *weights, const float *input, float *output, const int inputRowSize,
+        const int outputRowSize, const int batchSize, const int rows, const int rowSize) {
+    float chunk[HALF_CHUNK_SIZE];
+    for(int r=0; r < rows; r++) {
+        for(int c0=0; c0 < rowSize; c0 += HALF_CHUNK_SIZE) {
+            const int size = rowSize - c0 < HALF_CHUNK_SIZE ? rowSize - c0 : HALF_CHUNK_SIZE;
+            widenHalf(format, weights + (size_t) r * rowSize + c0, chunk, size);
+            if (transposeWeights == TRANSPOSE) {
+                blasGemm(true, batchSize, 1, size,
+                    input + c0, inputRowSize, chunk, size, output + r, outputRowSize);
+            } else {
+                blasGemm(false, batchSize, size, 1,
+                    input + r, inputRowSize, chunk, size, output + c0, outputRowSize);
+            }
+        }
+    }
+}
+
+/**
+ * Batch forward operation for a single linear neural-network layer with 16-bit float weights (see
+ * `linearBatchForward`):
+ *
+ *   output = input * weights(T) + biases
+ *
+ * Blocks of whole weights rows are widened into a scratch pool block and multiplied with sgemm: a block of rows is a
+ * block of output columns if `transposeWeights == TRANSPOSE`, a block of the inner dimension otherwise. Single rows
+ * longer than the block are widened one at a time. If no scratch block can be allocated, falls back to
+ * `linearBatchForwardHalfChunked`.
+ */
+inline void linearBatchForwardHalf(const NNNOTranspose transposeWeights, const NNNOHalfFloat format,
+        const unsigned short *weights, const float *biases, const float *input, float *output,
+        const int inputRowSize, const int outputRowSize, const int batchSize) {
+
+    float *tmp = output;
+    for(int i=0; i < batchSize; i++) {
+        memcpy(tmp, biases, outputRowSize * sizeof(float));
+        tmp += outputRowSize;
+    }
+
+    const int rows = transposeWeights == TRANSPOSE ? outputRowSize : inputRowSize;
+    const int rowSize = transposeWeights == TRANSPOSE ? inputRowSize : outputRowSize;
+    if (rows == 0 || rowSize == 0 || batchSize == 0) {
+        return;
+    }
+    const int blockRows = HALF_BLOCK_SIZE / rowSize > 0 ? HALF_BLOCK_SIZE / rowSize : 1;
+    NNNOScratchBlock scratch = scratchAcquire((size_t) blockRows * rowSize * sizeof(float));
+    float *block = (float*) scratch.memory;
+    if (block == NULL) {
+        linearBatchForwardHalfChunked(transposeWeights, format, weights, input, output, inputRowSize, outputRowSize,
+            batchSize, rows, rowSize);
+        return;
+    }
+
+    for(int r0=0; r0 < rows; r0 += blockRows) {
+        const int size = rows - r0 < blockRows ? rows - r0 : blockRows;
+        widenHalf(format, weights + (size_t) r0 * rowSize, block, size * rowSize);
+        if (transposeWeights == TRANSPOSE) {
+            blasGemm(true, batchSize, size, inputRowSize,
+                input, inputRowSize, block, inputRowSize, output + r0, outputRowSize);
+        } else {
+            blasGemm(false, batchSize, outputRowSize, size,
+                input + r0, inputRowSize, block, outputRowSize, output, outputRowSize);
+        }
+    }
+    scratchRelease(scratch);
+}
+
+/**
+ * Stores pointers to weights and biases of the `index`-th layer in the network descriptor used by `mlpForward`
+ * and `mlpBatchForward`.
+ */
+inline void mlpBindLayer(const float **params, const int index, const float *weights, const float *biases) {
+    params[2 * index] = weights;
+    params[2 * index + 1] = biases;
+}
+
+/**
+ * Forward operation for a stack of `numLayers` fused linear layers (see `linearForwardActivation`):
+ *
+ *   layers  - numLayers x { transposeWeights, activation, inputSize, outputSize }
+ *   alphas  - numLayers x ELU alpha
+ *   params  - numLayers x { weights, biases }, filled by `mlpBindLayer`
+ *
+ * Intermediate outputs are written alternately into `scratch0` and `scratch1`; the last layer writes to `output`.
+ */
+inline void mlpForward(const int numLayers, const int *layers, const float *alphas, const float **params,
+        const float *input, float *output, float *scratch0, float *scratch1) {
+
+    const float *in = input;
+    for(int i=0; i < numLayers; i++) {
+        const int *layer = layers + 4 * i;
+        float *out = i == numLayers - 1 ? output : (i % 2 == 0 ? scratch0 : scratch1);
+        linearForwardActivation((NNNOTranspose) layer[0], (NNNOActivation) layer[1], alphas[i],
+            params[2 * i], params[2 * i + 1], in, out, layer[2], layer[3]);
+        in = out;
+    }
+}
+
+/**
+ * Batch version of `mlpForward` (see `linearBatchForwardActivation`). Layer transpose flags follow the
+ * `linearForward` convention, so they are flipped before calling `linearBatchForwardActivation`.
+ */
+inline void mlpBatchForward(const int numLayers, const int *layers, const float *alphas, const float **params,
+        const float *input, float *output, float *scratch0, float *scratch1, const int batchSize) {
+
+    const float *in = input;
+    for(int i=0; i < numLayers; i++) {
+        const int *layer = layers + 4 * i;
+        float *out = i == numLayers - 1 ? output : (i % 2 == 0 ? scratch0 : scratch1);
+        linearBatchForwardActivation(layer[0] == TRANSPOSE ? NO_TRANSPOSE : TRANSPOSE, (NNNOActivation) layer[1],
+            alphas[i], params[2 * i], params[2 * i + 1], in, out, layer[2], layer[3], batchSize);
+        in = out;
+    }
+}
+
+/**
+ * Linear layer fused with its activation (see `linearForwardActivation`), resident in native memory. Weights and
+ * biases are private copies aligned to `LAYER_ALIGNMENT` bytes, so the layer does not depend on any Java buffer.
+ */
+struct NNNOLinearLayer {
+    NNNOTranspose transposeWeights;
+    NNNOActivation activation;
+    float alpha;
+    int inputSize;
+    int outputSize;
+    float *weights;
+    float *biases;
+};
+
+static const int LAYER_ALIGNMENT = 64;
+
+/**
+ * Returns a copy of `size` floats in memory aligned to `LAYER_ALIGNMENT` bytes, or NULL if allocation failed.
+ */
+inline float *alignedCopyOf(const float *source, const int size) {
+    void *copy = NULL;
+    if (posix_memalign(&copy, LAYER_ALIGNMENT, (size > 0 ? size : 1) * sizeof(float)) != 0) {
+        return NULL;
+    }
+    memcpy(copy, source, size * sizeof(float));
+    return (float*) copy;
+}
+
+/**
+ * Frees a layer created by `linearLayerCreate`; NULL is ignored.
+ */
+inline void linearLayerFree(NNNOLinearLayer *layer) {
+    if (layer != NULL) {
+        free(layer->weights);
+        free(layer->biases);
+        free(layer);
+    }
+}
+
+/**
+ * Creates a layer with copies of `weights` (`transposeWeights` follows the `linearForward` convention) and `biases`.
+ * Returns the layer address as an integer, to be passed back to native code as is, or 0 if allocation failed.
+ */
+inline long long linearLayerCreate(const NNNOTranspose transposeWeights, const NNNOActivation activation,
+        const float alpha, const float *weights, const float *biases, const int inputSize, const int outputSize) {
+
+    NNNOLinearLayer *layer = (NNNOLinearLayer*) calloc(1, sizeof(NNNOLinearLayer));
+    if (layer == NULL) {
+        return 0;
+    }
+    layer->transposeWeights = transposeWeights;
+    layer->activation = activation;
+    layer->alpha = alpha;
+    layer->inputSize = inputSize;
+    layer->outputSize = outputSize;
+    layer->weights = alignedCopyOf(weights, inputSize * outputSize);
+    layer->biases = alignedCopyOf(biases, outputSize);
+    if (layer->weights == NULL || layer->biases == NULL) {
+        linearLayerFree(layer);
+        return 0;
+    }
+    return (long long) layer;
+}
+
+/**
+ * Forward operation of a native-resident layer for a single input vector:
+ *
+ *   output = activation(weights(T) * input + biases)
+ */
+inline void linearLayerForward(const NNNOLinearLayer *layer, const float *input, float *output) {
+    linearForwardActivation(layer->transposeWeights, layer->activation, layer->alpha, layer->weights, layer->biases,
+        input, output, layer->inputSize, layer->outputSize);
+}
+
+/**
+ * Batch version of `linearLayerForward`. The transpose flag is flipped as in `mlpBatchForward`.
+ */
+inline void linearLayerBatchForward(const NNNOLinearLayer *layer, const float *input, float *output,
+        const int batchSize) {
+    linearBatchForwardActivation(layer->transposeWeights == TRANSPOSE ? NO_TRANSPOSE : TRANSPOSE, layer->activation,
+        layer->alpha, layer->weights, layer->biases, input, output, layer->inputSize, layer->outputSize, batchSize);
+}
+
+/**
+ * `float[]` counterparts of the operations above. Arrays are pinned with JNI critical access (see
+ * `NNNOCriticalArray`) instead of being copied. If pinning fails, nothing is computed and the pending Java exception
+ * (OutOfMemoryError) is thrown after return.
+ */
+inline void ReLUCritical(JNIEnv *env, jclass cls, jfloatArray inOut, const int endExclusive) {
+    NNNOCriticalArray inOutArray(env, inOut, 0);
+    if (inOutArray.data != NULL) {
+        ReLU(inOutArray.data, endExclusive);
+    }
+}
+
+inline void ELUCritical(JNIEnv *env, jclass cls, jfloatArray inOut, const int endExclusive, const float alpha) {
+    NNNOCriticalArray inOutArray(env, inOut, 0);
+    if (inOutArray.data != NULL) {
+        ELU(inOutArray.data, endExclusive, alpha);
+    }
+}
+
+inline void gemvCritical(JNIEnv *env, jclass cls, jfloatArray A, jfloatArray x, jfloatArray y, const int m,
+        const int n) {
+    NNNOCriticalArray AArray(env, A, JNI_ABORT);
+    NNNOCriticalArray xArray(env, x, JNI_ABORT);
+    NNNOCriticalArray yArray(env, y, 0);
+    if (AArray.data != NULL && xArray.data != NULL && yArray.data != NULL) {
+        gemv(AArray.data, xArray.data, yArray.data, m, n);
+    }
+}
+
+inline void gemmCritical(JNIEnv *env, jclass cls, jfloatArray A, jfloatArray B, jfloatArray Y, const int m,
+        const int n, const int k) {
+    NNNOCriticalArray AArray(env, A, JNI_ABORT);
+    NNNOCriticalArray BArray(env, B, JNI_ABORT);
+    NNNOCriticalArray YArray(env, Y, 0);
+    if (AArray.data != NULL && BArray.data != NULL && YArray.data != NULL) {
+        gemm(AArray.data, BArray.data, YArray.data, m, n, k);
+    }
+}
+
+inline void linearForwardCritical(JNIEnv *env, jclass cls, const NNNOTranspose transposeWeights,
+        jfloatArray weights, jfloatArray biases, jfloatArray input, jfloatArray output, const int inputSize,
+        const int outputSize) {
+    NNNOCriticalArray weightsArray(env, weights, JNI_ABORT);
+    NNNOCriticalArray biasesArray(env, biases, JNI_ABORT);
+    NNNOCriticalArray inputArray(env, input, JNI_ABORT);
+    NNNOCriticalArray outputArray(env, output, 0);
+    if (weightsArray.data != NULL && biasesArray.data != NULL && inputArray.data != NULL
+            && outputArray.data != NULL) {
+        linearForward(transposeWeights, weightsArray.data, biasesArray.data, inputArray.data, outputArray.data,
+            inputSize, outputSize);
+    }
+}
+
+inline void linearBatchForwardCritical(JNIEnv *env, jclass cls, const NNNOTranspose transposeWeights,
+        jfloatArray weights, jfloatArray biases, jfloatArray input, jfloatArray output, const int inputRowSize,
+        const int outputRowSize, const int batchSize) {
+    NNNOCriticalArray weightsArray(env, weights, JNI_ABORT);
+    NNNOCriticalArray biasesArray(env, biases, JNI_ABORT);
+    NNNOCriticalArray inputArray(env, input, JNI_ABORT);
+    NNNOCriticalArray outputArray(env, output, 0);
+    if (weightsArray.data != NULL && biasesArray.data != NULL && inputArray.data != NULL
+            && outputArray.data != NULL) {
+        linearBatchForward(transposeWeights, weightsArray.data, biasesArray.data, inputArray.data,
+            outputArray.data, inputRowSize, outputRowSize, batchSize);
     }
 }
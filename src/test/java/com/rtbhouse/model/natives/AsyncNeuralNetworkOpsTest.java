@@ -0,0 +1,144 @@
+package com.rtbhouse.model.natives;
+
+import static com.rtbhouse.model.natives.NeuralNetworkNativeOps.Trans.NO_TRANSPOSE;
+import static com.rtbhouse.model.natives.NeuralNetworkNativeOps.Trans.TRANSPOSE;
+import static com.rtbhouse.model.natives.NeuralNetworkNativeOpsTest.randomAlignedFB;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.Test;
+
+import com.rtbhouse.model.natives.NeuralNetworkNativeOps.Trans;
+
+public class AsyncNeuralNetworkOpsTest {
+    private static final float MAX_ERROR = 1e-5f;
+    private static final int INPUT_SIZE = 30;
+    private static final int OUTPUT_SIZE = 20;
+    private static final int BATCH_SIZE = 7;
+    private static final int NUM_REQUESTS = 64;
+
+    private final Random random = new Random(42);
+    private final FloatBuffer weights = randomAlignedFB(random, INPUT_SIZE * OUTPUT_SIZE);
+    private final FloatBuffer biases = randomAlignedFB(random, OUTPUT_SIZE);
+
+    @Test
+    public void shouldComputeAsLinearForward() {
+        for (Trans trans : Trans.values()) {
+            // given
+            FloatBuffer input = randomAlignedFB(random, INPUT_SIZE);
+            FloatBuffer expected = FloatBufferPool.allocateAligned(OUTPUT_SIZE);
+            NeuralNetworkNativeOps.linearForward(trans, weights, biases, input, expected, INPUT_SIZE, OUTPUT_SIZE);
+            FloatBuffer directOutput = FloatBufferPool.allocateAligned(OUTPUT_SIZE);
+            FloatBuffer heapOutput = FloatBuffer.allocate(OUTPUT_SIZE);
+
+            try (AsyncNeuralNetworkOps ops = new AsyncNeuralNetworkOps(2, 4)) {
+                // when
+                FloatBuffer direct = ops.linearForwardAsync(trans, weights, biases, input, directOutput, INPUT_SIZE,
+                        OUTPUT_SIZE).join();
+                FloatBuffer heap = ops.linearForwardAsync(trans, toHeap(weights), toHeap(biases), toHeap(input),
+                        heapOutput, INPUT_SIZE, OUTPUT_SIZE).join();
+
+                // then
+                assertSame(directOutput, direct);
+                assertSame(heapOutput, heap);
+                assertArrayEquals(toArray(expected), toArray(directOutput), MAX_ERROR);
+                assertArrayEquals(toArray(expected), toArray(heapOutput), MAX_ERROR);
+            }
+        }
+    }
+
+    @Test
+    public void shouldComputeAsLinearBatchForward() {
+        for (Trans trans : Trans.values()) {
+            // given
+            FloatBuffer input = randomAlignedFB(random, INPUT_SIZE * BATCH_SIZE);
+            FloatBuffer expected = FloatBufferPool.allocateAligned(OUTPUT_SIZE * BATCH_SIZE);
+            NeuralNetworkNativeOps.linearBatchForward(trans, weights, biases, input, expected, INPUT_SIZE,
+                    OUTPUT_SIZE, BATCH_SIZE);
+            FloatBuffer heapOutput = FloatBuffer.allocate(OUTPUT_SIZE * BATCH_SIZE);
+
+            try (AsyncNeuralNetworkOps ops = new AsyncNeuralNetworkOps(2, 4)) {
+                // when
+                ops.linearBatchForwardAsync(trans, weights, biases, toHeap(input), heapOutput, INPUT_SIZE,
+                        OUTPUT_SIZE, BATCH_SIZE).join();
+
+                // then
+                assertArrayEquals(toArray(expected), toArray(heapOutput), MAX_ERROR);
+            }
+        }
+    }
+
+    @Test
+    public void shouldComputeAsGemm() {
+        // given
+        FloatBuffer a = randomAlignedFB(random, BATCH_SIZE * INPUT_SIZE);
+        FloatBuffer expected = randomAlignedFB(random, BATCH_SIZE * OUTPUT_SIZE);
+        FloatBuffer y = toHeap(expected);
+        NeuralNetworkNativeOps.gemm(a, weights, expected, BATCH_SIZE, OUTPUT_SIZE, INPUT_SIZE);
+
+        try (AsyncNeuralNetworkOps ops = new AsyncNeuralNetworkOps(1, 0)) {
+            // when
+            ops.gemmAsync(toHeap(a), weights, y, BATCH_SIZE, OUTPUT_SIZE, INPUT_SIZE).join();
+
+            // then
+            assertArrayEquals(toArray(expected), toArray(y), MAX_ERROR);
+        }
+    }
+
+    @Test
+    public void shouldBoundPendingRequests() {
+        // given
+        List<CompletableFuture<FloatBuffer>> futures = new ArrayList<>();
+        int maxPending = 0;
+
+        try (AsyncNeuralNetworkOps ops = new AsyncNeuralNetworkOps(2, 3)) {
+            // when
+            for (int i = 0; i < NUM_REQUESTS; i++) {
+                futures.add(ops.linearBatchForwardAsync(NO_TRANSPOSE, weights, biases,
+                        randomAlignedFB(random, INPUT_SIZE * BATCH_SIZE),
+                        FloatBufferPool.allocateAligned(OUTPUT_SIZE * BATCH_SIZE), INPUT_SIZE, OUTPUT_SIZE,
+                        BATCH_SIZE));
+                maxPending = Math.max(maxPending, ops.getPendingRequests());
+            }
+            futures.forEach(CompletableFuture::join);
+
+            // then
+            assertTrue(maxPending <= 5);
+            assertEquals(0, ops.getPendingRequests());
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void shouldSubmitAfterCloseThrow() {
+        AsyncNeuralNetworkOps ops = new AsyncNeuralNetworkOps(1, 1);
+        ops.close();
+        ops.linearForwardAsync(TRANSPOSE, weights, biases, randomAlignedFB(random, INPUT_SIZE),
+                FloatBuffer.allocate(OUTPUT_SIZE), INPUT_SIZE, OUTPUT_SIZE);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void shouldSubmitOverflowThrow() {
+        try (AsyncNeuralNetworkOps ops = new AsyncNeuralNetworkOps(1, 1)) {
+            ops.linearForwardAsync(TRANSPOSE, weights, biases, randomAlignedFB(random, INPUT_SIZE - 1),
+                    FloatBuffer.allocate(OUTPUT_SIZE), INPUT_SIZE, OUTPUT_SIZE);
+        }
+    }
+
+    private static FloatBuffer toHeap(FloatBuffer buffer) {
+        return FloatBuffer.wrap(toArray(buffer));
+    }
+
+    private static float[] toArray(FloatBuffer buffer) {
+        float[] array = new float[buffer.limit()];
+        buffer.duplicate().get(array);
+        return array;
+    }
+}
@@ -0,0 +1,165 @@
+package com.rtbhouse.model.natives;
+
+import static com.rtbhouse.model.natives.NeuralNetworkNativeOps.Activation.IDENTITY;
+import static com.rtbhouse.model.natives.NeuralNetworkNativeOps.Trans.NO_TRANSPOSE;
+import static com.rtbhouse.model.natives.NeuralNetworkNativeOps.Trans.TRANSPOSE;
+import static com.rtbhouse.model.natives.NeuralNetworkNativeOps.linearForward;
+import static com.rtbhouse.model.natives.NeuralNetworkNativeOpsTest.randomAlignedFB;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.nio.FloatBuffer;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.rtbhouse.model.natives.NativeMlp.LayerSpec;
+import com.rtbhouse.model.natives.NeuralNetworkNativeOps.Trans;
+
+public class BatchNormTest {
+    private static final float MAX_ERROR = 1e-4f;
+    private static final float EPSILON = 1e-5f;
+    private static final int INPUT_SIZE = 30;
+    private static final int OUTPUT_SIZE = 20;
+
+    private final Random random = new Random(42);
+
+    @Test
+    public void shouldFoldIntoOutput() {
+        shouldFoldIntoOutput(NO_TRANSPOSE);
+        shouldFoldIntoOutput(TRANSPOSE);
+    }
+
+    @Test
+    public void shouldFoldIntoInput() {
+        shouldFoldIntoInput(NO_TRANSPOSE);
+        shouldFoldIntoInput(TRANSPOSE);
+    }
+
+    @Test
+    public void shouldFoldLayerSpecIntoCopy() {
+        // given
+        FloatBuffer weights = randomAlignedFB(random, INPUT_SIZE * OUTPUT_SIZE);
+        FloatBuffer biases = randomAlignedFB(random, OUTPUT_SIZE);
+        LayerSpec layer = new LayerSpec(NO_TRANSPOSE, weights, biases, IDENTITY);
+        float[] weightsBefore = toArray(weights);
+        BatchNorm batchNorm = randomBatchNorm(OUTPUT_SIZE);
+
+        // when
+        LayerSpec folded = batchNorm.foldIntoOutput(layer);
+
+        // then
+        assertArrayEquals(weightsBefore, toArray(layer.getWeights()), 0);
+        assertEquals(INPUT_SIZE, folded.getInputSize());
+        assertEquals(OUTPUT_SIZE, folded.getOutputSize());
+        batchNorm.foldIntoOutput(NO_TRANSPOSE, weights, biases, INPUT_SIZE);
+        assertArrayEquals(toArray(weights), toArray(folded.getWeights()), 0);
+        assertArrayEquals(toArray(biases), toArray(folded.getBiases()), 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldMismatchedParametersThrow() {
+        new BatchNorm(randomAlignedFB(random, 3), randomAlignedFB(random, 3), randomAlignedFB(random, 2),
+                randomAlignedFB(random, 3), EPSILON);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void shouldFoldIntoTooSmallLayerThrow() {
+        randomBatchNorm(OUTPUT_SIZE + 1).foldIntoOutput(NO_TRANSPOSE, randomAlignedFB(random, INPUT_SIZE * OUTPUT_SIZE),
+                randomAlignedFB(random, OUTPUT_SIZE), INPUT_SIZE);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void shouldFoldIntoTooShortBiasesThrow() {
+        randomBatchNorm(OUTPUT_SIZE).foldIntoOutput(TRANSPOSE, randomAlignedFB(random, INPUT_SIZE * OUTPUT_SIZE),
+                randomAlignedFB(random, OUTPUT_SIZE - 1), INPUT_SIZE);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldFoldIntoOutputOfMismatchedLayerSpecThrow() {
+        LayerSpec layer = new LayerSpec(TRANSPOSE, randomAlignedFB(random, INPUT_SIZE * OUTPUT_SIZE),
+                randomAlignedFB(random, OUTPUT_SIZE), IDENTITY);
+        randomBatchNorm(OUTPUT_SIZE / 2).foldIntoOutput(layer);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldFoldIntoInputOfMismatchedLayerSpecThrow() {
+        LayerSpec layer = new LayerSpec(TRANSPOSE, randomAlignedFB(random, INPUT_SIZE * OUTPUT_SIZE),
+                randomAlignedFB(random, OUTPUT_SIZE), IDENTITY);
+        randomBatchNorm(OUTPUT_SIZE).foldIntoInput(layer);
+    }
+
+    private void shouldFoldIntoOutput(Trans transposeWeights) {
+        // given
+        FloatBuffer gamma = randomAlignedFB(random, OUTPUT_SIZE);
+        FloatBuffer beta = randomAlignedFB(random, OUTPUT_SIZE);
+        FloatBuffer mean = randomAlignedFB(random, OUTPUT_SIZE);
+        FloatBuffer variance = positive(OUTPUT_SIZE);
+        FloatBuffer weights = randomAlignedFB(random, INPUT_SIZE * OUTPUT_SIZE);
+        FloatBuffer biases = randomAlignedFB(random, OUTPUT_SIZE);
+        FloatBuffer input = randomAlignedFB(random, INPUT_SIZE);
+        FloatBuffer expected = FloatBuffer.allocate(OUTPUT_SIZE);
+        FloatBuffer output = FloatBuffer.allocate(OUTPUT_SIZE);
+        linearForward(transposeWeights, weights, biases, input, expected, INPUT_SIZE, OUTPUT_SIZE);
+        batchNorm(expected, gamma, beta, mean, variance);
+
+        // when
+        new BatchNorm(gamma, beta, mean, variance, EPSILON).foldIntoOutput(transposeWeights, weights, biases,
+                INPUT_SIZE);
+        linearForward(transposeWeights, weights, biases, input, output, INPUT_SIZE, OUTPUT_SIZE);
+
+        // then
+        assertArrayEquals(expected.array(), output.array(), MAX_ERROR);
+    }
+
+    private void shouldFoldIntoInput(Trans transposeWeights) {
+        // given
+        FloatBuffer gamma = randomAlignedFB(random, INPUT_SIZE);
+        FloatBuffer beta = randomAlignedFB(random, INPUT_SIZE);
+        FloatBuffer mean = randomAlignedFB(random, INPUT_SIZE);
+        FloatBuffer variance = positive(INPUT_SIZE);
+        FloatBuffer weights = randomAlignedFB(random, INPUT_SIZE * OUTPUT_SIZE);
+        FloatBuffer biases = randomAlignedFB(random, OUTPUT_SIZE);
+        FloatBuffer input = randomAlignedFB(random, INPUT_SIZE);
+        FloatBuffer normalized = FloatBuffer.wrap(toArray(input));
+        FloatBuffer expected = FloatBuffer.allocate(OUTPUT_SIZE);
+        FloatBuffer output = FloatBuffer.allocate(OUTPUT_SIZE);
+        batchNorm(normalized, gamma, beta, mean, variance);
+        linearForward(transposeWeights, weights, biases, normalized, expected, INPUT_SIZE, OUTPUT_SIZE);
+
+        // when
+        new BatchNorm(gamma, beta, mean, variance, EPSILON).foldIntoInput(transposeWeights, weights, biases,
+                OUTPUT_SIZE);
+        linearForward(transposeWeights, weights, biases, input, output, INPUT_SIZE, OUTPUT_SIZE);
+
+        // then
+        assertArrayEquals(expected.array(), output.array(), MAX_ERROR);
+    }
+
+    private static void batchNorm(FloatBuffer inOut, FloatBuffer gamma, FloatBuffer beta, FloatBuffer mean,
+            FloatBuffer variance) {
+        for (int i = 0; i < inOut.limit(); i++) {
+            inOut.put(i, (float) (gamma.get(i) * (inOut.get(i) - mean.get(i)) / Math.sqrt(variance.get(i) + EPSILON)
+                    + beta.get(i)));
+        }
+    }
+
+    private BatchNorm randomBatchNorm(int size) {
+        return new BatchNorm(randomAlignedFB(random, size), randomAlignedFB(random, size),
+                randomAlignedFB(random, size), positive(size), EPSILON);
+    }
+
+    private static float[] toArray(FloatBuffer buffer) {
+        float[] array = new float[buffer.limit()];
+        buffer.duplicate().get(array);
+        return array;
+    }
+
+    private FloatBuffer positive(int size) {
+        FloatBuffer buffer = FloatBufferPool.allocateAligned(size);
+        for (int i = 0; i < size; i++) {
+            buffer.put(i, 0.1f + random.nextFloat());
+        }
+        return buffer;
+    }
+}
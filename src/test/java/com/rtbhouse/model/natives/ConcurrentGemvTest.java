@@ -2,14 +2,28 @@ package com.rtbhouse.model.natives;
 
 import static com.rtbhouse.model.natives.NeuralNetworkNativeOps.gemv;
 import static com.rtbhouse.model.natives.NeuralNetworkNativeOpsTest.matrixFB;
+import static com.rtbhouse.model.natives.NeuralNetworkNativeOpsTest.randomAlignedFB;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
 
+import java.lang.reflect.Method;
 import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.junit.After;
 import org.junit.Test;
 
+import com.rtbhouse.model.natives.NeuralNetworkNativeOps.Trans;
+
 /**
- * This test checks that OpenBLAS is compiled with {@code NUM_THREADS} defined large enough to handle {@code numThreads}
- * concurrent matrix-vector multiplications.
+ * This test checks that {@code numThreads} concurrent matrix-vector multiplications, and thousands of platform or
+ * virtual threads, do not exhaust OpenBLAS memory regions, regardless of the {@code NUM_THREADS} it is compiled with
+ * (see {@link NeuralNetworkNativeOps#setBlasConcurrencyLimit}).
  */
 public class ConcurrentGemvTest {
     private static int numThreads = 200;
@@ -17,12 +31,30 @@ public class ConcurrentGemvTest {
     private static int dim1 = 500;
     private static int dim2 = 300;
 
+    private static final int STRESS_PLATFORM_THREADS = 2000;
+    private static final int STRESS_VIRTUAL_THREADS = 10000;
+    private static final int STRESS_ITERATIONS = 10;
+    private static final int BATCH_SIZE = 8;
+    private static final float MAX_ERROR = 1e-3f;
+
     static {
         // This is needed to trigger `blas_memory_alloc()` that causes:
         // 'Program is Terminated. Because you tried to allocate too many memory regions' error.
         assert (dim1 + dim2) * Float.BYTES > 2048;
     }
 
+    private final int defaultBlasConcurrencyLimit = NeuralNetworkNativeOps.getBlasConcurrencyLimit();
+    private final Random random = new Random(1);
+
+    private final FloatBuffer weights = randomAlignedFB(random, dim1 * dim2);
+    private final FloatBuffer biases = randomAlignedFB(random, dim2);
+    private final FloatBuffer input = randomAlignedFB(random, dim1 * BATCH_SIZE);
+
+    @After
+    public void restoreBlasConcurrencyLimit() {
+        NeuralNetworkNativeOps.setBlasConcurrencyLimit(defaultBlasConcurrencyLimit);
+    }
+
     static class GemvThread extends Thread {
         FloatBuffer matrix = matrixFB(new float[dim1 * dim2]);
         FloatBuffer vector1 = matrixFB(new float[dim1]);
@@ -52,4 +84,120 @@ public class ConcurrentGemvTest {
             threads[i].join();
         }
     }
+
+    @Test
+    public void shouldComputeSameResultsWithLibraryKernels() {
+        for (Trans trans : Trans.values()) {
+            // given
+            NeuralNetworkNativeOps.setBlasConcurrencyLimit(Integer.MAX_VALUE);
+            float[] expectedSingle = linearForward(trans);
+            float[] expectedBatch = linearBatchForward(trans);
+            long overflows = NeuralNetworkNativeOps.getBlasOverflowCount();
+
+            // when
+            NeuralNetworkNativeOps.setBlasConcurrencyLimit(0);
+            float[] single = linearForward(trans);
+            float[] batch = linearBatchForward(trans);
+
+            // then
+            assertArrayEquals(expectedSingle, single, MAX_ERROR);
+            assertArrayEquals(expectedBatch, batch, MAX_ERROR);
+            assertEquals(overflows + 2, NeuralNetworkNativeOps.getBlasOverflowCount());
+        }
+    }
+
+    @Test
+    public void testThousandsOfPlatformThreads() throws InterruptedException {
+        // given
+        float[] expected = linearBatchForward(Trans.TRANSPOSE);
+        AtomicInteger mismatches = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+
+        // when
+        for (int i = 0; i < STRESS_PLATFORM_THREADS; ++i) {
+            Thread thread = new Thread(stressTask(expected, start, mismatches));
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        // then
+        assertEquals(0, mismatches.get());
+    }
+
+    @Test
+    public void testThousandsOfVirtualThreads() throws Exception {
+        Method startVirtualThread;
+        try {
+            startVirtualThread = Thread.class.getMethod("startVirtualThread", Runnable.class);
+        } catch (NoSuchMethodException e) {
+            startVirtualThread = null;
+        }
+        assumeTrue("virtual threads need Java 21", startVirtualThread != null);
+
+        // given
+        float[] expected = linearBatchForward(Trans.TRANSPOSE);
+        AtomicInteger mismatches = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+
+        // when
+        for (int i = 0; i < STRESS_VIRTUAL_THREADS; ++i) {
+            threads.add((Thread) startVirtualThread.invoke(null, stressTask(expected, start, mismatches)));
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        // then
+        assertEquals(0, mismatches.get());
+    }
+
+    private Runnable stressTask(float[] expected, CountDownLatch start, AtomicInteger mismatches) {
+        return () -> {
+            FloatBuffer vector = FloatBufferPool.allocateAligned(dim2);
+            FloatBuffer output = FloatBufferPool.allocateAligned(dim2 * BATCH_SIZE);
+            try {
+                start.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            for (int i = 0; i < STRESS_ITERATIONS; ++i) {
+                NeuralNetworkNativeOps.gemv(weights, input, vector, dim1, dim2);
+                NeuralNetworkNativeOps.linearBatchForward(Trans.TRANSPOSE, weights, biases, input, output, dim1,
+                        dim2, BATCH_SIZE);
+                for (int j = 0; j < expected.length; ++j) {
+                    if (Math.abs(expected[j] - output.get(j)) > MAX_ERROR) {
+                        mismatches.incrementAndGet();
+                        break;
+                    }
+                }
+            }
+        };
+    }
+
+    private float[] linearForward(Trans trans) {
+        FloatBuffer output = FloatBufferPool.allocateAligned(dim2);
+        NeuralNetworkNativeOps.linearForward(trans, weights, biases, input, output, dim1, dim2);
+        return toArray(output);
+    }
+
+    private float[] linearBatchForward(Trans trans) {
+        FloatBuffer output = FloatBufferPool.allocateAligned(dim2 * BATCH_SIZE);
+        NeuralNetworkNativeOps.linearBatchForward(trans, weights, biases, input, output, dim1, dim2, BATCH_SIZE);
+        return toArray(output);
+    }
+
+    private static float[] toArray(FloatBuffer buffer) {
+        float[] array = new float[buffer.limit()];
+        buffer.get(array);
+        buffer.rewind();
+        return array;
+    }
 }
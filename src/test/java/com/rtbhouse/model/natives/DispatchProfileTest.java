@@ -0,0 +1,188 @@
+package com.rtbhouse.model.natives;
+
+import static com.rtbhouse.model.natives.NeuralNetworkNativeOps.Trans.NO_TRANSPOSE;
+import static com.rtbhouse.model.natives.NeuralNetworkNativeOps.Trans.TRANSPOSE;
+import static com.rtbhouse.model.natives.NeuralNetworkNativeOpsTest.randomAlignedFB;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.rtbhouse.model.natives.DispatchProfile.Implementation;
+import com.rtbhouse.model.natives.DispatchProfile.Shape;
+import com.rtbhouse.model.natives.NativeMlp.LayerSpec;
+import com.rtbhouse.model.natives.NeuralNetworkNativeOps.Activation;
+import com.rtbhouse.model.natives.OpMetrics.Op;
+
+public class DispatchProfileTest {
+    private static final float MAX_ERROR = 1e-4f;
+    private static final int INPUT_SIZE = 30;
+    private static final int OUTPUT_SIZE = 20;
+    private static final int BATCH_SIZE = 7;
+
+    private final Random random = new Random(1);
+    private final DispatchProfile defaultProfile = NeuralNetworkNativeOps.getDispatchProfile();
+
+    @After
+    public void restoreProfile() {
+        NeuralNetworkNativeOps.setDispatchProfile(defaultProfile);
+    }
+
+    @Test
+    public void shouldStoreAndLoadProfile() throws IOException {
+        // given
+        Map<Shape, Implementation> implementations = new LinkedHashMap<>();
+        implementations.put(Shape.of(Op.GEMV, NO_TRANSPOSE, 10, 20, 1), Implementation.JAVA);
+        implementations.put(Shape.of(Op.LINEAR_FORWARD, TRANSPOSE, 300, 150, 1), Implementation.NATIVE);
+        implementations.put(Shape.of(Op.LINEAR_BATCH_FORWARD, NO_TRANSPOSE, 30, 20, 64), Implementation.JAVA);
+        DispatchProfile profile = new DispatchProfile("AVX2", "mkl", "Intel(R) Xeon(R) Gold 6130 CPU @ 2.10GHz",
+                implementations);
+        Path path = Files.createTempFile("dispatch", ".properties");
+
+        // when
+        profile.store(path);
+        DispatchProfile loaded = DispatchProfile.load(path);
+
+        // then
+        assertEquals("AVX2", loaded.getNativeVariant());
+        assertEquals("mkl", loaded.getBlasBackend());
+        assertEquals("Intel(R) Xeon(R) Gold 6130 CPU @ 2.10GHz", loaded.getCpuModel());
+        assertEquals(implementations, loaded.getImplementations());
+        Files.delete(path);
+    }
+
+    @Test
+    public void shouldIgnoreMissingOrMalformedProfile() throws IOException {
+        // given
+        Path path = Files.createTempFile("dispatch", ".properties");
+        Files.write(path, Arrays.asList("nativeVariant=AVX2", "GEMV.SIDEWAYS.10.20.1=JAVA"));
+
+        // then
+        assertNull(DispatchProfile.loadIfUsable(path.toString()));
+        assertNull(DispatchProfile.loadIfUsable(path + ".missing"));
+        assertNull(DispatchProfile.loadIfUsable(null));
+        Files.delete(path);
+    }
+
+    @Test
+    public void shouldLookUpMeasuredShapesOnly() {
+        // given
+        DispatchProfile profile = new DispatchProfile("AVX2", "openblas", "unknown", Collections.singletonMap(
+                Shape.of(Op.LINEAR_FORWARD, TRANSPOSE, 300, 150, 1), Implementation.JAVA));
+
+        // then
+        assertSame(Implementation.JAVA, profile.implementationFor(Op.LINEAR_FORWARD, TRANSPOSE, 300, 150, 1));
+        assertNull(profile.implementationFor(Op.LINEAR_FORWARD, NO_TRANSPOSE, 300, 150, 1));
+        assertNull(profile.implementationFor(Op.LINEAR_FORWARD, TRANSPOSE, 150, 300, 1));
+        assertNull(profile.implementationFor(Op.GEMM, TRANSPOSE, 300, 150, 1));
+        assertNull(profile.implementationFor(Op.LINEAR_FORWARD, TRANSPOSE, DispatchProfile.MAX_SIZE + 1, 150, 1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectUnsupportedOp() {
+        Shape.of(Op.GEMM, NO_TRANSPOSE, 10, 10, 10);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectBatchOfSingleVectorOp() {
+        Shape.of(Op.LINEAR_FORWARD, NO_TRANSPOSE, 10, 10, 10);
+    }
+
+    @Test
+    public void shouldDeclareShapesOfLayers() {
+        // given
+        List<LayerSpec> layers = Arrays.asList(
+                new LayerSpec(TRANSPOSE, randomAlignedFB(random, INPUT_SIZE * OUTPUT_SIZE),
+                        randomAlignedFB(random, OUTPUT_SIZE), Activation.RELU),
+                new LayerSpec(NO_TRANSPOSE, randomAlignedFB(random, OUTPUT_SIZE * 5), randomAlignedFB(random, 5),
+                        Activation.IDENTITY));
+
+        // when
+        List<Shape> shapes = DispatchProfile.shapesOf(layers, 1, 64);
+
+        // then
+        assertEquals(Arrays.asList(
+                Shape.of(Op.LINEAR_FORWARD, TRANSPOSE, INPUT_SIZE, OUTPUT_SIZE, 1),
+                Shape.of(Op.LINEAR_BATCH_FORWARD, NO_TRANSPOSE, INPUT_SIZE, OUTPUT_SIZE, 64),
+                Shape.of(Op.LINEAR_FORWARD, NO_TRANSPOSE, OUTPUT_SIZE, 5, 1),
+                Shape.of(Op.LINEAR_BATCH_FORWARD, TRANSPOSE, OUTPUT_SIZE, 5, 64)), shapes);
+    }
+
+    @Test
+    public void shouldCalibrateEveryShape() {
+        // given
+        List<Shape> shapes = Arrays.asList(
+                Shape.of(Op.GEMV, NO_TRANSPOSE, INPUT_SIZE, OUTPUT_SIZE, 1),
+                Shape.of(Op.LINEAR_FORWARD, TRANSPOSE, INPUT_SIZE, OUTPUT_SIZE, 1),
+                Shape.of(Op.LINEAR_BATCH_FORWARD, TRANSPOSE, INPUT_SIZE, OUTPUT_SIZE, BATCH_SIZE));
+
+        // when
+        DispatchProfile profile = DispatchProfile.calibrate(shapes, 20);
+
+        // then
+        assertEquals(shapes, Arrays.asList(profile.getImplementations().keySet().toArray()));
+        assertEquals(NeuralNetworkNativeOps.getNativeVariant().name(), profile.getNativeVariant());
+        assertEquals(NeuralNetworkNativeOps.getBlasBackend().getName(), profile.getBlasBackend());
+        assertTrue(profile.isCompatible());
+    }
+
+    @Test
+    public void shouldComputeSameBatchInJavaAndNative() {
+        for (NeuralNetworkNativeOps.Trans trans : NeuralNetworkNativeOps.Trans.values()) {
+            // given
+            FloatBuffer weights = randomAlignedFB(random, INPUT_SIZE * OUTPUT_SIZE);
+            FloatBuffer biases = randomAlignedFB(random, OUTPUT_SIZE);
+            FloatBuffer input = randomAlignedFB(random, INPUT_SIZE * BATCH_SIZE);
+            FloatBuffer nativeOutput = FloatBufferPool.allocateAligned(OUTPUT_SIZE * BATCH_SIZE);
+            FloatBuffer javaOutput = FloatBufferPool.allocateAligned(OUTPUT_SIZE * BATCH_SIZE);
+
+            // when
+            NeuralNetworkNativeOps.setDispatchProfile(null);
+            NeuralNetworkNativeOps.linearBatchForward(trans, weights, biases, input, nativeOutput, INPUT_SIZE,
+                    OUTPUT_SIZE, BATCH_SIZE);
+            NeuralNetworkNativeOps.setDispatchProfile(new DispatchProfile("AVX2", "openblas", "unknown",
+                    Collections.singletonMap(
+                            Shape.of(Op.LINEAR_BATCH_FORWARD, trans, INPUT_SIZE, OUTPUT_SIZE, BATCH_SIZE),
+                            Implementation.JAVA)));
+            NeuralNetworkNativeOps.linearBatchForward(trans, weights, biases, input, javaOutput, INPUT_SIZE,
+                    OUTPUT_SIZE, BATCH_SIZE);
+
+            // then
+            assertArrayEquals(toArray(nativeOutput), toArray(javaOutput), MAX_ERROR);
+        }
+    }
+
+    @Test
+    public void shouldParseCpuModel() {
+        // given
+        List<String> cpuinfo = Arrays.asList("processor\t: 0", "vendor_id\t: AuthenticAMD",
+                "model name\t: AMD EPYC 7502P 32-Core Processor", "processor\t: 1",
+                "model name\t: AMD EPYC 7502P 32-Core Processor");
+
+        // then
+        assertEquals("AMD EPYC 7502P 32-Core Processor", DispatchProfile.parseCpuModel(cpuinfo));
+        assertEquals("unknown", DispatchProfile.parseCpuModel(Collections.<String> emptyList()));
+    }
+
+    private static float[] toArray(FloatBuffer buffer) {
+        float[] array = new float[buffer.limit()];
+        buffer.get(array);
+        buffer.rewind();
+        return array;
+    }
+}
@@ -0,0 +1,144 @@
+package com.rtbhouse.model.natives;
+
+import static com.rtbhouse.model.natives.NeuralNetworkNativeOps.Pooling.MAX;
+import static com.rtbhouse.model.natives.NeuralNetworkNativeOps.Pooling.MEAN;
+import static com.rtbhouse.model.natives.NeuralNetworkNativeOps.Pooling.SUM;
+import static com.rtbhouse.model.natives.NeuralNetworkNativeOps.embeddingBag;
+import static com.rtbhouse.model.natives.NeuralNetworkNativeOps.embeddingBagBatch;
+import static org.junit.Assert.assertArrayEquals;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+import com.rtbhouse.model.natives.NeuralNetworkNativeOps.Pooling;
+
+@RunWith(Parameterized.class)
+public class EmbeddingBagTest {
+    private static final float MAX_ERROR = 1e-6f;
+    private static final int EMBEDDING_SIZE = 3;
+
+    private final FloatBuffer table = FloatBuffer.wrap(new float[] {
+            1, 2, 3,
+            -1, 0, 4,
+            0.5f, -2, 1,
+            2, 2, -3 });
+
+    @Rule
+    public final JavaCrossoverSizeRule javaCrossoverSize;
+
+    /**
+     * Every op test runs twice: once forced to native code and once to pure Java.
+     */
+    @Parameters(name = "javaCrossoverSize={0}")
+    public static Collection<Object[]> javaCrossoverSizes() {
+        return Arrays.asList(new Object[][] { { 0 }, { Integer.MAX_VALUE } });
+    }
+
+    public EmbeddingBagTest(int javaCrossoverSize) {
+        this.javaCrossoverSize = new JavaCrossoverSizeRule(javaCrossoverSize);
+    }
+
+    @Test
+    public void shouldPoolBags() {
+        shouldPoolBags(SUM, new float[] { 0.5f, 0, 8, 2, 2, -3, 0, 0, 0 });
+        shouldPoolBags(MEAN, new float[] { 0.5f / 3, 0, 8f / 3, 2, 2, -3, 0, 0, 0 });
+        shouldPoolBags(MAX, new float[] { 1, 2, 4, 2, 2, -3, 0, 0, 0 });
+    }
+
+    @Test
+    public void shouldPoolWeightedBags() {
+        // given
+        IntBuffer indices = IntBuffer.wrap(new int[] { 0, 1, 3 });
+        IntBuffer offsets = IntBuffer.wrap(new int[] { 0, 2, 3 });
+        FloatBuffer weights = FloatBuffer.wrap(new float[] { 2, -1, 0.5f });
+        FloatBuffer sum = FloatBuffer.allocate(2 * EMBEDDING_SIZE);
+        FloatBuffer max = FloatBuffer.allocate(2 * EMBEDDING_SIZE);
+
+        // when
+        embeddingBag(SUM, table, indices, offsets, weights, sum, 0, EMBEDDING_SIZE, 2);
+        embeddingBag(MAX, table, indices, offsets, weights, max, 0, EMBEDDING_SIZE, 2);
+
+        // then
+        assertArrayEquals(new float[] { 3, 4, 2, 1, 1, -1.5f }, sum.array(), MAX_ERROR);
+        assertArrayEquals(new float[] { 2, 4, 6, 1, 1, -1.5f }, max.array(), MAX_ERROR);
+    }
+
+    @Test
+    public void shouldWriteOnlyFromOutputOffset() {
+        // given
+        float[] output = { 7, 7, 7, 7, 7, 7 };
+
+        // when
+        embeddingBag(SUM, table, IntBuffer.wrap(new int[] { 2 }), IntBuffer.wrap(new int[] { 0, 1 }), null,
+                FloatBuffer.wrap(output), 2, EMBEDDING_SIZE, 1);
+
+        // then
+        assertArrayEquals(new float[] { 7, 7, 0.5f, -2, 1, 7 }, output, 0);
+    }
+
+    @Test
+    public void shouldPoolBatchAsSingleRows() {
+        // given
+        IntBuffer indices = IntBuffer.wrap(new int[] { 0, 1, 3, 2, 2, 1, 0 });
+        int[] offsets = { 0, 2, 3, 3, 5, 7 };
+        int bagsPerRow = 1;
+        int batchSize = 5;
+        int outputRowSize = 1 + EMBEDDING_SIZE;
+        FloatBuffer output = FloatBuffer.allocate(outputRowSize * batchSize);
+        float[] expected = new float[outputRowSize * batchSize];
+
+        for (Pooling pooling : Pooling.values()) {
+            // when
+            embeddingBagBatch(pooling, table, indices, IntBuffer.wrap(offsets), null, output, 1, outputRowSize,
+                    EMBEDDING_SIZE, bagsPerRow, batchSize);
+            for (int b = 0; b < batchSize; b++) {
+                FloatBuffer row = FloatBuffer.allocate(outputRowSize);
+                embeddingBag(pooling, table, indices, IntBuffer.wrap(Arrays.copyOfRange(offsets, b, b + 2)), null,
+                        row, 1, EMBEDDING_SIZE, 1);
+                System.arraycopy(row.array(), 0, expected, b * outputRowSize, outputRowSize);
+            }
+
+            // then
+            assertArrayEquals(expected, output.array(), MAX_ERROR);
+        }
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void shouldIndexOutsideTableThrow() {
+        embeddingBag(SUM, table, IntBuffer.wrap(new int[] { 4 }), IntBuffer.wrap(new int[] { 0, 1 }),
+                FloatBuffer.allocate(EMBEDDING_SIZE), EMBEDDING_SIZE, 1);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void shouldDecreasingOffsetsThrow() {
+        embeddingBag(SUM, table, IntBuffer.wrap(new int[] { 0, 1 }), IntBuffer.wrap(new int[] { 0, 2, 1 }),
+                FloatBuffer.allocate(2 * EMBEDDING_SIZE), EMBEDDING_SIZE, 2);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void shouldBatchOutputOverflowThrow() {
+        embeddingBagBatch(SUM, table, IntBuffer.wrap(new int[] { 0, 1 }), IntBuffer.wrap(new int[] { 0, 1, 2 }),
+                null, FloatBuffer.allocate(2 * EMBEDDING_SIZE), 1, EMBEDDING_SIZE, EMBEDDING_SIZE, 1, 2);
+    }
+
+    private void shouldPoolBags(Pooling pooling, float[] expected) {
+        // given
+        IntBuffer indices = IntBuffer.wrap(new int[] { 0, 1, 2, 3 });
+        IntBuffer offsets = IntBuffer.wrap(new int[] { 0, 3, 4, 4 });
+        FloatBuffer output = FloatBuffer.allocate(3 * EMBEDDING_SIZE);
+
+        // when
+        embeddingBag(pooling, table, indices, offsets, output, EMBEDDING_SIZE, 3);
+
+        // then
+        assertArrayEquals(expected, output.array(), MAX_ERROR);
+    }
+}
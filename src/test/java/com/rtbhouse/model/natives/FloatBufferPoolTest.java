@@ -0,0 +1,107 @@
+package com.rtbhouse.model.natives;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.FloatBuffer;
+
+import org.junit.Test;
+
+public class FloatBufferPoolTest {
+
+    private final FloatBufferPool pool = new FloatBufferPool(4, true);
+
+    @Test
+    public void shouldAllocateAlignedBuffers() {
+        for (int size = 1; size < 100; size++) {
+            // when
+            FloatBuffer buffer = FloatBufferPool.allocateAligned(size);
+
+            // then
+            assertTrue(buffer.isDirect());
+            assertEquals(size, buffer.limit());
+            assertEquals(0, alignmentOffsetOf(buffer));
+        }
+    }
+
+    @Test
+    public void shouldAcquireBufferWithRequestedLimit() {
+        // when
+        FloatBuffer buffer = pool.acquire(100);
+
+        // then
+        assertEquals(0, buffer.position());
+        assertEquals(100, buffer.limit());
+        assertEquals(128, buffer.capacity());
+        assertEquals(0, alignmentOffsetOf(buffer));
+    }
+
+    @Test
+    public void shouldReuseReleasedBufferOfSameSizeClass() {
+        // given
+        FloatBuffer first = pool.acquire(100);
+        first.position(10);
+        pool.release(first);
+
+        // when
+        FloatBuffer second = pool.acquire(70);
+
+        // then
+        assertSame(first, second);
+        assertEquals(0, second.position());
+        assertEquals(70, second.limit());
+    }
+
+    @Test
+    public void shouldNotReuseBufferOfOtherSizeClass() {
+        // given
+        FloatBuffer first = pool.acquire(100);
+        pool.release(first);
+
+        // when
+        FloatBuffer second = pool.acquire(20);
+
+        // then
+        assertNotSame(first, second);
+    }
+
+    @Test
+    public void shouldTrackOutstandingBuffers() {
+        // given
+        FloatBuffer first = pool.acquire(10);
+        pool.acquire(1000);
+
+        // when
+        pool.release(first);
+
+        // then
+        assertEquals(1, pool.getOutstandingCount());
+        assertEquals(1, pool.getOutstandingAllocationSites().size());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void shouldDoubleReleaseThrow() {
+        FloatBuffer buffer = pool.acquire(10);
+        pool.release(buffer);
+        pool.release(buffer);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void shouldDoubleReleaseThrowWithoutLeakTracking() {
+        FloatBufferPool untracked = new FloatBufferPool();
+        FloatBuffer buffer = untracked.acquire(10);
+        untracked.release(buffer);
+        untracked.release(buffer);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void shouldReleaseOfForeignBufferThrow() {
+        pool.release(FloatBufferPool.allocateAligned(16));
+    }
+
+    private static int alignmentOffsetOf(FloatBuffer buffer) {
+        return NeuralNetworkNativeOps.nativeAlignmentOffset(buffer, FloatBufferPool.ALIGNMENT);
+    }
+}
@@ -0,0 +1,106 @@
+package com.rtbhouse.model.natives;
+
+import static com.rtbhouse.model.natives.NeuralNetworkNativeOps.Trans.NO_TRANSPOSE;
+import static com.rtbhouse.model.natives.NeuralNetworkNativeOps.Trans.TRANSPOSE;
+import static com.rtbhouse.model.natives.NeuralNetworkNativeOpsTest.MAX_ERROR;
+import static org.junit.Assert.assertArrayEquals;
+
+import java.nio.FloatBuffer;
+
+import org.junit.Test;
+
+public class FloatSegmentOpsTest {
+
+    private final FloatSegment arena = FloatSegment.allocate(32);
+    private final FloatSegment A = segmentOf(0, 1f / 3, 2, 3, 4, 2, 3);
+    private final FloatSegment x = segmentOf(6, -1, 3);
+    private final FloatSegment y = segmentOf(8, 3, 2, 1f / 3);
+    private final FloatSegment output = segmentOf(11, -1, -1, -1);
+
+    @Test
+    public void shouldReLUOnlyWithinSlice() {
+        // when
+        FloatSegmentOps.ReLU(x);
+        FloatSegmentOps.ReLU(output, 2);
+
+        // then
+        assertArrayEquals(new float[] { 0, 3, 3, 2, 1f / 3, 0, 0, -1 }, contentsOf(arena, 6, 8), 0);
+    }
+
+    @Test
+    public void shouldELU() {
+        // when
+        FloatSegmentOps.ELU(x, 2);
+
+        // then
+        assertArrayEquals(new float[] { 2 / (float) Math.E - 2, 3 }, contentsOf(x, 0, 2), MAX_ERROR);
+    }
+
+    @Test
+    public void shouldMultiplyMatrixByVector() {
+        // when
+        FloatSegmentOps.gemv(A, x, y);
+
+        // then
+        assertArrayEquals(new float[] { 8f + (2f / 3), 11, 7f + (1f / 3) }, contentsOf(y, 0, 3), MAX_ERROR);
+    }
+
+    @Test
+    public void shouldMultiplyTwoMatrices() {
+        // given
+        FloatSegment c = segmentOf(14, 0, 0, 0, 0);
+
+        // when
+        FloatSegmentOps.gemm(A, A.slice(0, 2), c, 2, 1, 2);
+
+        // then
+        assertArrayEquals(new float[] { 1f / 9 + 4, 9 }, contentsOf(c, 0, 2), MAX_ERROR);
+    }
+
+    @Test
+    public void shouldLinearForwardTransposed() {
+        // when
+        FloatSegmentOps.linearForward(TRANSPOSE, A, y, x, output);
+
+        // then
+        assertArrayEquals(new float[] { 14f + (2f / 3), 6, 6f + (1f / 3) }, contentsOf(output, 0, 3), MAX_ERROR);
+    }
+
+    @Test
+    public void shouldForwardLinearOnBatch() {
+        // when
+        FloatSegmentOps.linearBatchForward(NO_TRANSPOSE, A, y, x, output, 2, 3, 1);
+
+        // then
+        assertArrayEquals(new float[] { 14f + (2f / 3), 6, 6f + (1f / 3) }, contentsOf(output, 0, 3), MAX_ERROR);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void shouldLinearForwardOverflowThrow() {
+        FloatSegmentOps.linearForward(NO_TRANSPOSE, A, y, x, output, x.size() + 1, 0);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void shouldSliceOverflowThrow() {
+        arena.slice(30, 3);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldHeapBufferThrow() {
+        FloatSegment.of(FloatBuffer.allocate(3));
+    }
+
+    private FloatSegment segmentOf(int offset, float... values) {
+        FloatSegment segment = arena.slice(offset, values.length);
+        segment.asFloatBuffer().put(values);
+        return segment;
+    }
+
+    private static float[] contentsOf(FloatSegment segment, int offset, int size) {
+        float[] contents = new float[size];
+        FloatBuffer buffer = segment.asFloatBuffer();
+        buffer.position(offset);
+        buffer.get(contents);
+        return contents;
+    }
+}
@@ -0,0 +1,186 @@
+package com.rtbhouse.model.natives;
+
+import static com.rtbhouse.model.natives.NeuralNetworkNativeOps.HalfFloat.BF16;
+import static com.rtbhouse.model.natives.NeuralNetworkNativeOps.HalfFloat.FP16;
+import static com.rtbhouse.model.natives.NeuralNetworkNativeOps.Trans.NO_TRANSPOSE;
+import static com.rtbhouse.model.natives.NeuralNetworkNativeOps.Trans.TRANSPOSE;
+import static com.rtbhouse.model.natives.NeuralNetworkNativeOps.gemv;
+import static com.rtbhouse.model.natives.NeuralNetworkNativeOps.linearBatchForward;
+import static com.rtbhouse.model.natives.NeuralNetworkNativeOps.linearForward;
+import static com.rtbhouse.model.natives.NeuralNetworkNativeOpsTest.randomAlignedFB;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+import com.rtbhouse.model.natives.NeuralNetworkNativeOps.HalfFloat;
+import com.rtbhouse.model.natives.NeuralNetworkNativeOps.Trans;
+
+@RunWith(Parameterized.class)
+public class HalfFloatTest {
+    private static final float MAX_ERROR = 1e-4f;
+    private static final int INPUT_SIZE = 300;
+    private static final int OUTPUT_SIZE = 150;
+    private static final int BATCH_SIZE = 7;
+
+    private final Random random = new Random(42);
+    private final FloatBuffer biases = randomAlignedFB(random, OUTPUT_SIZE);
+
+    @Rule
+    public final JavaCrossoverSizeRule javaCrossoverSize;
+
+    /**
+     * Every op test runs twice: once forced to native code and once to pure Java.
+     */
+    @Parameters(name = "javaCrossoverSize={0}")
+    public static Collection<Object[]> javaCrossoverSizes() {
+        return Arrays.asList(new Object[][] { { 0 }, { Integer.MAX_VALUE } });
+    }
+
+    public HalfFloatTest(int javaCrossoverSize) {
+        this.javaCrossoverSize = new JavaCrossoverSizeRule(javaCrossoverSize);
+    }
+
+    @Test
+    public void shouldConvertFp16() {
+        assertEquals(0x3c00, FP16.fromFloat(1));
+        assertEquals(0xc000, FP16.fromFloat(-2) & 0xffff);
+        assertEquals(0x7bff, FP16.fromFloat(65504));
+        assertEquals(0x7c00, FP16.fromFloat(65520));
+        assertEquals(0x0001, FP16.fromFloat(0x1p-24f));
+        assertEquals(0x3555, FP16.fromFloat(1f / 3));
+        assertEquals(1f / 3, FP16.toFloat(FP16.fromFloat(1f / 3)), 0x1p-13f);
+        assertTrue(Float.isNaN(FP16.toFloat(FP16.fromFloat(Float.NaN))));
+    }
+
+    @Test
+    public void shouldConvertBf16() {
+        assertEquals(0x3f80, BF16.fromFloat(1));
+        assertEquals(0xc000, BF16.fromFloat(-2) & 0xffff);
+        assertEquals(0x3eab, BF16.fromFloat(1f / 3));
+        assertEquals(1f / 3, BF16.toFloat(BF16.fromFloat(1f / 3)), 0x1p-10f);
+        assertTrue(Float.isNaN(BF16.toFloat(BF16.fromFloat(Float.NaN))));
+    }
+
+    @Test
+    public void shouldRoundTripAllHalfValues() {
+        for (HalfFloat format : HalfFloat.values()) {
+            for (int bits = 0; bits <= 0xffff; bits++) {
+                float value = format.toFloat((short) bits);
+                if (!Float.isNaN(value)) {
+                    assertEquals(bits, format.fromFloat(value) & 0xffff);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void shouldGemvAsWidenedFloats() {
+        for (HalfFloat format : HalfFloat.values()) {
+            // given
+            ShortBuffer A = format.encode(randomAlignedFB(random, INPUT_SIZE * OUTPUT_SIZE));
+            FloatBuffer x = randomAlignedFB(random, INPUT_SIZE);
+            FloatBuffer y = randomAlignedFB(random, OUTPUT_SIZE);
+            FloatBuffer expected = FloatBuffer.wrap(toArray(y));
+
+            // when
+            gemv(format, A, x, y, INPUT_SIZE, OUTPUT_SIZE);
+            gemv(widen(format, A), x, expected, INPUT_SIZE, OUTPUT_SIZE);
+
+            // then
+            assertArrayEquals(expected.array(), toArray(y), MAX_ERROR);
+        }
+    }
+
+    @Test
+    public void shouldLinearForwardAsWidenedFloats() {
+        for (HalfFloat format : HalfFloat.values()) {
+            shouldLinearForwardAsWidenedFloats(format, NO_TRANSPOSE);
+            shouldLinearForwardAsWidenedFloats(format, TRANSPOSE);
+        }
+    }
+
+    @Test
+    public void shouldLinearBatchForwardAsWidenedFloats() {
+        for (HalfFloat format : HalfFloat.values()) {
+            shouldLinearBatchForwardAsWidenedFloats(format, NO_TRANSPOSE);
+            shouldLinearBatchForwardAsWidenedFloats(format, TRANSPOSE);
+        }
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void shouldGemvOverflowThrow() {
+        gemv(FP16, FP16.encode(randomAlignedFB(random, INPUT_SIZE * OUTPUT_SIZE)), randomAlignedFB(random, INPUT_SIZE),
+                randomAlignedFB(random, OUTPUT_SIZE), INPUT_SIZE, OUTPUT_SIZE + 1);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void shouldLinearForwardOverflowThrow() {
+        linearForward(NO_TRANSPOSE, BF16, BF16.encode(randomAlignedFB(random, INPUT_SIZE * OUTPUT_SIZE - 1)), biases,
+                randomAlignedFB(random, INPUT_SIZE), FloatBuffer.allocate(OUTPUT_SIZE), INPUT_SIZE, OUTPUT_SIZE);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void shouldLinearBatchForwardOverflowThrow() {
+        linearBatchForward(TRANSPOSE, FP16, FP16.encode(randomAlignedFB(random, INPUT_SIZE * OUTPUT_SIZE)), biases,
+                randomAlignedFB(random, INPUT_SIZE * BATCH_SIZE), FloatBuffer.allocate(OUTPUT_SIZE * BATCH_SIZE),
+                INPUT_SIZE, OUTPUT_SIZE, BATCH_SIZE + 1);
+    }
+
+    private void shouldLinearForwardAsWidenedFloats(HalfFloat format, Trans transposeWeights) {
+        // given
+        ShortBuffer weights = format.encode(randomAlignedFB(random, INPUT_SIZE * OUTPUT_SIZE));
+        FloatBuffer input = randomAlignedFB(random, INPUT_SIZE);
+        FloatBuffer output = FloatBuffer.allocate(OUTPUT_SIZE);
+        FloatBuffer expected = FloatBuffer.allocate(OUTPUT_SIZE);
+
+        // when
+        linearForward(transposeWeights, format, weights, biases, input, output, INPUT_SIZE, OUTPUT_SIZE);
+        linearForward(transposeWeights, widen(format, weights), biases, input, expected, INPUT_SIZE, OUTPUT_SIZE);
+
+        // then
+        assertArrayEquals(expected.array(), output.array(), MAX_ERROR);
+    }
+
+    private void shouldLinearBatchForwardAsWidenedFloats(HalfFloat format, Trans transposeWeights) {
+        // given
+        ShortBuffer weights = format.encode(randomAlignedFB(random, INPUT_SIZE * OUTPUT_SIZE));
+        FloatBuffer input = randomAlignedFB(random, INPUT_SIZE * BATCH_SIZE);
+        FloatBuffer output = FloatBuffer.allocate(OUTPUT_SIZE * BATCH_SIZE);
+        FloatBuffer expected = FloatBuffer.allocate(OUTPUT_SIZE * BATCH_SIZE);
+
+        // when
+        linearBatchForward(transposeWeights, format, weights, biases, input, output, INPUT_SIZE, OUTPUT_SIZE,
+                BATCH_SIZE);
+        linearBatchForward(transposeWeights, widen(format, weights), biases, input, expected, INPUT_SIZE,
+                OUTPUT_SIZE, BATCH_SIZE);
+
+        // then
+        assertArrayEquals(expected.array(), output.array(), MAX_ERROR);
+    }
+
+    private static FloatBuffer widen(HalfFloat format, ShortBuffer halves) {
+        FloatBuffer floats = FloatBufferPool.allocateAligned(halves.limit());
+        for (int i = 0; i < halves.limit(); i++) {
+            floats.put(i, format.toFloat(halves.get(i)));
+        }
+        return floats;
+    }
+
+    private static float[] toArray(FloatBuffer buffer) {
+        float[] array = new float[buffer.limit()];
+        buffer.duplicate().get(array);
+        return array;
+    }
+}
@@ -0,0 +1,31 @@
+package com.rtbhouse.model.natives;
+
+import org.junit.rules.ExternalResource;
+
+/**
+ * Sets the {@link NeuralNetworkNativeOps#setJavaCrossoverSize Java crossover size} before each test and restores the
+ * previous one afterwards, also when the test changed it.
+ */
+public final class JavaCrossoverSizeRule extends ExternalResource {
+    private final int javaCrossoverSize;
+    private int previousJavaCrossoverSize;
+
+    /**
+     * @param javaCrossoverSize
+     *            size to set, e.g. {@code 0} to run all ops natively or {@link Integer#MAX_VALUE} to run them in Java
+     */
+    public JavaCrossoverSizeRule(int javaCrossoverSize) {
+        this.javaCrossoverSize = javaCrossoverSize;
+    }
+
+    @Override
+    protected void before() {
+        previousJavaCrossoverSize = NeuralNetworkNativeOps.getJavaCrossoverSize();
+        NeuralNetworkNativeOps.setJavaCrossoverSize(javaCrossoverSize);
+    }
+
+    @Override
+    protected void after() {
+        NeuralNetworkNativeOps.setJavaCrossoverSize(previousJavaCrossoverSize);
+    }
+}
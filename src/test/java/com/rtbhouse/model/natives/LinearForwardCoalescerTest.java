@@ -0,0 +1,107 @@
+package com.rtbhouse.model.natives;
+
+import static com.rtbhouse.model.natives.NeuralNetworkNativeOps.Trans.NO_TRANSPOSE;
+import static com.rtbhouse.model.natives.NeuralNetworkNativeOps.Trans.TRANSPOSE;
+import static com.rtbhouse.model.natives.NeuralNetworkNativeOpsTest.randomAlignedFB;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.Test;
+
+import com.rtbhouse.model.natives.NeuralNetworkNativeOps.Trans;
+
+public class LinearForwardCoalescerTest {
+    private static final float MAX_ERROR = 1e-5f;
+    private static final int INPUT_SIZE = 30;
+    private static final int OUTPUT_SIZE = 20;
+    private static final int NUM_REQUESTS = 64;
+
+    private final Random random = new Random(42);
+    private final FloatBuffer weights = randomAlignedFB(random, INPUT_SIZE * OUTPUT_SIZE);
+    private final FloatBuffer biases = randomAlignedFB(random, OUTPUT_SIZE);
+
+    @Test
+    public void shouldComputeAsLinearForward() {
+        shouldComputeAsLinearForward(NO_TRANSPOSE);
+    }
+
+    @Test
+    public void shouldComputeAsLinearForwardTransposed() {
+        shouldComputeAsLinearForward(TRANSPOSE);
+    }
+
+    @Test
+    public void shouldCoalesceConcurrentRequests() {
+        // given
+        try (LinearForwardCoalescer coalescer = new LinearForwardCoalescer(NO_TRANSPOSE, weights, biases,
+                INPUT_SIZE, OUTPUT_SIZE, 16, 100_000)) {
+
+            // when
+            List<CompletableFuture<FloatBuffer>> futures = new ArrayList<>();
+            for (int i = 0; i < NUM_REQUESTS; i++) {
+                futures.add(coalescer.submit(randomAlignedFB(random, INPUT_SIZE), FloatBuffer.allocate(OUTPUT_SIZE)));
+            }
+            futures.forEach(CompletableFuture::join);
+
+            // then
+            assertEquals(NUM_REQUESTS, coalescer.getProcessedRows());
+            assertTrue(coalescer.getExecutedBatches() < NUM_REQUESTS);
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void shouldSubmitAfterCloseThrow() {
+        LinearForwardCoalescer coalescer = new LinearForwardCoalescer(NO_TRANSPOSE, weights, biases, INPUT_SIZE,
+                OUTPUT_SIZE, 16, 100);
+        coalescer.close();
+        coalescer.submit(randomAlignedFB(random, INPUT_SIZE), FloatBuffer.allocate(OUTPUT_SIZE));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void shouldSubmitOverflowThrow() {
+        try (LinearForwardCoalescer coalescer = new LinearForwardCoalescer(NO_TRANSPOSE, weights, biases,
+                INPUT_SIZE, OUTPUT_SIZE, 16, 100)) {
+            coalescer.submit(randomAlignedFB(random, INPUT_SIZE - 1), FloatBuffer.allocate(OUTPUT_SIZE));
+        }
+    }
+
+    private void shouldComputeAsLinearForward(Trans transposeWeights) {
+        // given
+        List<FloatBuffer> inputs = new ArrayList<>();
+        List<FloatBuffer> outputs = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+
+        try (LinearForwardCoalescer coalescer = new LinearForwardCoalescer(transposeWeights, weights, biases,
+                INPUT_SIZE, OUTPUT_SIZE, 8, 1000)) {
+            for (int i = 0; i < NUM_REQUESTS; i++) {
+                FloatBuffer input = randomAlignedFB(random, INPUT_SIZE);
+                FloatBuffer output = FloatBuffer.allocate(OUTPUT_SIZE);
+                inputs.add(input);
+                outputs.add(output);
+                threads.add(new Thread(() -> coalescer.linearForward(input, output)));
+            }
+
+            // when
+            threads.forEach(Thread::start);
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            throw new AssertionError(e);
+        }
+
+        // then
+        for (int i = 0; i < NUM_REQUESTS; i++) {
+            FloatBuffer expected = FloatBuffer.allocate(OUTPUT_SIZE);
+            NeuralNetworkNativeOps.linearForward(transposeWeights, weights, biases, inputs.get(i), expected);
+            assertArrayEquals(expected.array(), outputs.get(i).array(), MAX_ERROR);
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package com.rtbhouse.model.natives;
+
+import static com.rtbhouse.model.natives.NeuralNetworkNativeOps.Activation.ELU;
+import static com.rtbhouse.model.natives.NeuralNetworkNativeOps.Activation.IDENTITY;
+import static com.rtbhouse.model.natives.NeuralNetworkNativeOps.Activation.RELU;
+import static com.rtbhouse.model.natives.NeuralNetworkNativeOps.Trans.NO_TRANSPOSE;
+import static com.rtbhouse.model.natives.NeuralNetworkNativeOps.Trans.TRANSPOSE;
+import static com.rtbhouse.model.natives.NeuralNetworkNativeOps.linearBatchForwardActivation;
+import static com.rtbhouse.model.natives.NeuralNetworkNativeOps.linearForwardActivation;
+import static com.rtbhouse.model.natives.NeuralNetworkNativeOpsTest.randomAlignedFB;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.FloatBuffer;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import com.rtbhouse.model.natives.NativeMlp.LayerSpec;
+import com.rtbhouse.model.natives.NeuralNetworkNativeOps.Activation;
+import com.rtbhouse.model.natives.NeuralNetworkNativeOps.Trans;
+
+public class LinearLayerTest {
+    private static final int INPUT_SIZE = 30;
+    private static final int OUTPUT_SIZE = 20;
+    private static final int BATCH_SIZE = 7;
+
+    private final Random random = new Random(42);
+    private final FloatBuffer weights = randomAlignedFB(random, INPUT_SIZE * OUTPUT_SIZE);
+    private final FloatBuffer biases = randomAlignedFB(random, OUTPUT_SIZE);
+
+    // LinearLayer always runs natively, so the ops it is compared with must do the same
+    @Rule
+    public final JavaCrossoverSizeRule javaCrossoverSize = new JavaCrossoverSizeRule(0);
+
+    @Test
+    public void shouldForwardAsLinearForwardActivation() {
+        shouldForwardAsLinearForwardActivation(NO_TRANSPOSE, IDENTITY, 0);
+        shouldForwardAsLinearForwardActivation(TRANSPOSE, RELU, 0);
+        shouldForwardAsLinearForwardActivation(NO_TRANSPOSE, ELU, 0.7f);
+    }
+
+    @Test
+    public void shouldForwardBatchAsLinearBatchForwardActivation() {
+        shouldForwardBatchAsLinearBatchForwardActivation(NO_TRANSPOSE, IDENTITY, 0);
+        shouldForwardBatchAsLinearBatchForwardActivation(TRANSPOSE, RELU, 0);
+        shouldForwardBatchAsLinearBatchForwardActivation(TRANSPOSE, ELU, 0.7f);
+    }
+
+    @Test
+    public void shouldForwardSegmentsAsBuffers() {
+        // given
+        FloatSegment input = FloatSegment.of(randomAlignedFB(random, INPUT_SIZE * BATCH_SIZE));
+        FloatSegment output = FloatSegment.allocate(OUTPUT_SIZE * BATCH_SIZE);
+        FloatBuffer expected = FloatBuffer.allocate(OUTPUT_SIZE * BATCH_SIZE);
+
+        try (LinearLayer layer = new LinearLayer(new LayerSpec(TRANSPOSE, weights, biases, RELU))) {
+            // when
+            layer.forwardBatch(input, output, BATCH_SIZE);
+            layer.forwardBatch(input.asFloatBuffer(), expected, BATCH_SIZE);
+
+            // then
+            assertArrayEquals(expected.array(), toArray(output.asFloatBuffer()), 0);
+
+            // when
+            layer.forward(input, output);
+            layer.forward(input.asFloatBuffer(), expected);
+
+            // then
+            assertArrayEquals(expected.array(), toArray(output.asFloatBuffer()), 0);
+        }
+    }
+
+    @Test
+    public void shouldNotDependOnSourceBuffers() {
+        // given
+        FloatBuffer input = randomAlignedFB(random, INPUT_SIZE);
+        FloatBuffer expected = FloatBuffer.allocate(OUTPUT_SIZE);
+        FloatBuffer output = FloatBuffer.allocate(OUTPUT_SIZE);
+        FloatBuffer mutableWeights = randomAlignedFB(random, INPUT_SIZE * OUTPUT_SIZE);
+
+        try (LinearLayer layer = new LinearLayer(NO_TRANSPOSE, mutableWeights, biases, INPUT_SIZE, OUTPUT_SIZE)) {
+            layer.forward(input, expected);
+
+            // when
+            for (int i = 0; i < INPUT_SIZE * OUTPUT_SIZE; i++) {
+                mutableWeights.put(i, 0);
+            }
+            layer.forward(input, output);
+
+            // then
+            assertArrayEquals(expected.array(), output.array(), 0);
+        }
+    }
+
+    @Test
+    public void shouldCloseIdempotently() {
+        // given
+        LinearLayer layer = new LinearLayer(NO_TRANSPOSE, weights, biases, INPUT_SIZE, OUTPUT_SIZE);
+
+        // when
+        layer.close();
+        layer.close();
+
+        // then
+        assertTrue(layer.isClosed());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void shouldForwardAfterCloseThrow() {
+        LinearLayer layer = new LinearLayer(NO_TRANSPOSE, weights, biases, INPUT_SIZE, OUTPUT_SIZE);
+        layer.close();
+        layer.forward(randomAlignedFB(random, INPUT_SIZE), FloatBuffer.allocate(OUTPUT_SIZE));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void shouldCreateOverflowThrow() {
+        new LinearLayer(NO_TRANSPOSE, weights, biases, INPUT_SIZE + 1, OUTPUT_SIZE);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void shouldForwardBatchOverflowThrow() {
+        try (LinearLayer layer = new LinearLayer(NO_TRANSPOSE, weights, biases, INPUT_SIZE, OUTPUT_SIZE)) {
+            layer.forwardBatch(randomAlignedFB(random, INPUT_SIZE * BATCH_SIZE),
+                    FloatBuffer.allocate(OUTPUT_SIZE * BATCH_SIZE), BATCH_SIZE + 1);
+        }
+    }
+
+    private void shouldForwardAsLinearForwardActivation(Trans transposeWeights, Activation activation, float alpha) {
+        // given
+        FloatBuffer input = randomAlignedFB(random, INPUT_SIZE);
+        FloatBuffer expected = FloatBuffer.allocate(OUTPUT_SIZE);
+        FloatBuffer output = FloatBuffer.allocate(OUTPUT_SIZE);
+
+        try (LinearLayer layer = new LinearLayer(transposeWeights, activation, alpha, weights, biases, INPUT_SIZE,
+                OUTPUT_SIZE)) {
+            // when
+            layer.forward(input, output);
+            linearForwardActivation(transposeWeights, activation, alpha, weights, biases, input, expected,
+                    INPUT_SIZE, OUTPUT_SIZE);
+
+            // then
+            assertArrayEquals(expected.array(), output.array(), 0);
+        }
+    }
+
+    private void shouldForwardBatchAsLinearBatchForwardActivation(Trans transposeWeights, Activation activation,
+            float alpha) {
+        // given
+        FloatBuffer input = randomAlignedFB(random, INPUT_SIZE * BATCH_SIZE);
+        FloatBuffer expected = FloatBuffer.allocate(OUTPUT_SIZE * BATCH_SIZE);
+        FloatBuffer output = FloatBuffer.allocate(OUTPUT_SIZE * BATCH_SIZE);
+        // linearBatchForward uses the opposite transposition convention
+        Trans batchTransposeWeights = transposeWeights == TRANSPOSE ? NO_TRANSPOSE : TRANSPOSE;
+
+        try (LinearLayer layer = new LinearLayer(transposeWeights, activation, alpha, weights, biases, INPUT_SIZE,
+                OUTPUT_SIZE)) {
+            // when
+            layer.forwardBatch(input, output, BATCH_SIZE);
+            linearBatchForwardActivation(batchTransposeWeights, activation, alpha, weights, biases, input, expected,
+                    INPUT_SIZE, OUTPUT_SIZE, BATCH_SIZE);
+
+            // then
+            assertArrayEquals(expected.array(), output.array(), 0);
+        }
+    }
+
+    private static float[] toArray(FloatBuffer buffer) {
+        float[] array = new float[buffer.limit()];
+        buffer.duplicate().get(array);
+        return array;
+    }
+}
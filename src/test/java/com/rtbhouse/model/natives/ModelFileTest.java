@@ -0,0 +1,136 @@
+package com.rtbhouse.model.natives;
+
+import static com.rtbhouse.model.natives.NeuralNetworkNativeOps.Activation.ELU;
+import static com.rtbhouse.model.natives.NeuralNetworkNativeOps.Activation.IDENTITY;
+import static com.rtbhouse.model.natives.NeuralNetworkNativeOps.Activation.RELU;
+import static com.rtbhouse.model.natives.NeuralNetworkNativeOps.Trans.NO_TRANSPOSE;
+import static com.rtbhouse.model.natives.NeuralNetworkNativeOps.Trans.TRANSPOSE;
+import static com.rtbhouse.model.natives.NeuralNetworkNativeOpsTest.randomAlignedFB;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.rtbhouse.model.natives.NativeMlp.LayerSpec;
+
+public class ModelFileTest {
+
+    private final Random random = new Random(42);
+
+    private final List<LayerSpec> layers = Arrays.asList(
+            new LayerSpec(NO_TRANSPOSE, randomAlignedFB(random, 30 * 20), randomAlignedFB(random, 20), RELU),
+            new LayerSpec(TRANSPOSE, randomAlignedFB(random, 20 * 15), randomAlignedFB(random, 15), ELU, 0.7f),
+            new LayerSpec(NO_TRANSPOSE, randomAlignedFB(random, 15 * 5), randomAlignedFB(random, 5), IDENTITY));
+
+    private final Path path;
+
+    public ModelFileTest() throws IOException {
+        path = Files.createTempFile("nnno-model", ".bin");
+    }
+
+    @After
+    public void deleteFile() throws IOException {
+        Files.deleteIfExists(path);
+    }
+
+    @Test
+    public void shouldMapWrittenLayers() throws IOException {
+        // when
+        ModelFile.write(path, layers);
+        List<LayerSpec> mapped = ModelFile.map(path);
+
+        // then
+        assertEquals(layers.size(), mapped.size());
+        for (int i = 0; i < layers.size(); i++) {
+            LayerSpec expected = layers.get(i);
+            LayerSpec actual = mapped.get(i);
+            assertSame(expected.getTransposeWeights(), actual.getTransposeWeights());
+            assertSame(expected.getActivation(), actual.getActivation());
+            assertEquals(expected.getAlpha(), actual.getAlpha(), 0);
+            assertEquals(expected.getInputSize(), actual.getInputSize());
+            assertEquals(expected.getOutputSize(), actual.getOutputSize());
+            assertArrayEquals(toArray(expected.getWeights()), toArray(actual.getWeights()), 0);
+            assertArrayEquals(toArray(expected.getBiases()), toArray(actual.getBiases()), 0);
+        }
+    }
+
+    @Test
+    public void shouldMapAlignedDirectBuffers() throws IOException {
+        // when
+        ModelFile.write(path, layers);
+        List<LayerSpec> mapped = ModelFile.map(path);
+
+        // then
+        for (LayerSpec layer : mapped) {
+            assertTrue(layer.getWeights().isDirect());
+            assertEquals(0, NeuralNetworkNativeOps.nativeAlignmentOffset(layer.getWeights(),
+                    FloatBufferPool.ALIGNMENT));
+            assertEquals(0, NeuralNetworkNativeOps.nativeAlignmentOffset(layer.getBiases(),
+                    FloatBufferPool.ALIGNMENT));
+        }
+    }
+
+    @Test
+    public void shouldForwardMappedModelAsOriginal() throws IOException {
+        // given
+        ModelFile.write(path, layers);
+        NativeMlp original = new NativeMlp(layers);
+        NativeMlp mapped = new NativeMlp(ModelFile.map(path));
+        FloatBuffer input = randomAlignedFB(random, 30);
+        FloatBuffer expected = FloatBuffer.allocate(5);
+        FloatBuffer output = FloatBuffer.allocate(5);
+
+        // when
+        original.forward(input, expected);
+        mapped.forward(input, output);
+
+        // then
+        assertArrayEquals(expected.array(), output.array(), 0);
+    }
+
+    @Test(expected = IOException.class)
+    public void shouldMapOtherFileThrow() throws IOException {
+        Files.write(path, "definitely not a model file".getBytes("UTF-8"));
+        ModelFile.map(path);
+    }
+
+    @Test(expected = IOException.class)
+    public void shouldMapTruncatedFileThrow() throws IOException {
+        ModelFile.write(path, layers);
+        byte[] content = Files.readAllBytes(path);
+        Files.write(path, Arrays.copyOf(content, content.length - 1));
+        ModelFile.map(path);
+    }
+
+    @Test(expected = IOException.class)
+    public void shouldMapLayerWithOversizedShapeThrow() throws IOException {
+        // given
+        // 65536 x 16384 weights take 4 GiB, a byte size wrapping to 0 in int arithmetic
+        ModelFile.write(path, layers);
+        byte[] content = Files.readAllBytes(path);
+        ByteBuffer.wrap(content).order(ByteOrder.LITTLE_ENDIAN).putInt(28, 65536).putInt(32, 16384);
+        Files.write(path, content);
+
+        // when
+        ModelFile.map(path);
+    }
+
+    private static float[] toArray(FloatBuffer buffer) {
+        float[] array = new float[buffer.limit()];
+        buffer.duplicate().get(array);
+        return array;
+    }
+}
@@ -0,0 +1,175 @@
+package com.rtbhouse.model.natives;
+
+import static com.rtbhouse.model.natives.NeuralNetworkNativeOps.Trans.TRANSPOSE;
+import static com.rtbhouse.model.natives.NeuralNetworkNativeOpsTest.randomAlignedFB;
+
+import java.nio.FloatBuffer;
+import java.util.Random;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.rtbhouse.model.natives.NeuralNetworkNativeOps.Activation;
+import com.rtbhouse.model.natives.NeuralNetworkNativeOps.ExpPrecision;
+
+/**
+ * Batch counterpart of {@link NNNOBenchmark}: gemm, linearBatchForward (plain and fused with ELU) and batch
+ * activations over a range of batch sizes, for direct, heap, {@code float[]} and segment arguments. State is per
+ * thread, so runs with more threads (see {@link NNNOBenchmarkTest#threadScalingBenchmark()}) measure how the ops scale
+ * when every thread works on its own data.
+ */
+@State(Scope.Thread)
+public class NNNOBatchBenchmark {
+    private static final Random RANDOM = new Random();
+
+    @Param({ "1", "10", "50", "200", "1000" })
+    private int batchSize;
+    @Param({ "50", "200", "1000" })
+    private int inputSize;
+    @Param({ "50", "200", "1000" })
+    private int outputSize;
+
+    private FloatBuffer directWeights;
+    private FloatBuffer directBiases;
+    private FloatBuffer directInput;
+    private FloatBuffer directOutput;
+
+    private FloatBuffer heapWeights;
+    private FloatBuffer heapBiases;
+    private FloatBuffer heapInput;
+    private FloatBuffer heapOutput;
+
+    private float[] primitiveWeights;
+    private float[] primitiveBiases;
+    private float[] primitiveInput;
+    private float[] primitiveOutput;
+
+    private FloatSegment segmentWeights;
+    private FloatSegment segmentBiases;
+    private FloatSegment segmentInput;
+    private FloatSegment segmentOutput;
+
+    private FloatBuffer directActivations;
+
+    @Setup
+    public void init() {
+        directWeights = randomAlignedFB(RANDOM, inputSize * outputSize);
+        directBiases = randomAlignedFB(RANDOM, outputSize);
+        directInput = randomAlignedFB(RANDOM, batchSize * inputSize);
+        directOutput = randomAlignedFB(RANDOM, batchSize * outputSize);
+
+        heapWeights = FloatBuffer.wrap(randomArray(inputSize * outputSize));
+        heapBiases = FloatBuffer.wrap(randomArray(outputSize));
+        heapInput = FloatBuffer.wrap(randomArray(batchSize * inputSize));
+        heapOutput = FloatBuffer.wrap(randomArray(batchSize * outputSize));
+
+        primitiveWeights = randomArray(inputSize * outputSize);
+        primitiveBiases = randomArray(outputSize);
+        primitiveInput = randomArray(batchSize * inputSize);
+        primitiveOutput = randomArray(batchSize * outputSize);
+
+        segmentWeights = FloatSegment.of(directWeights);
+        segmentBiases = FloatSegment.of(directBiases);
+        segmentInput = FloatSegment.of(directInput);
+        segmentOutput = FloatSegment.of(directOutput);
+
+        // about half of the activation inputs are negative, as in real layer outputs
+        directActivations = randomAlignedFB(RANDOM, batchSize * outputSize);
+    }
+
+    @Benchmark
+    public void nativeDirectGemm() {
+        NeuralNetworkNativeOps.gemm(directInput, directWeights, directOutput, batchSize, outputSize, inputSize);
+    }
+
+    @Benchmark
+    public void nativePrimitiveGemm() {
+        NeuralNetworkNativeOps.gemm(primitiveInput, primitiveWeights, primitiveOutput, batchSize, outputSize,
+                inputSize);
+    }
+
+    @Benchmark
+    public void nativeSegmentGemm() {
+        FloatSegmentOps.gemm(segmentInput, segmentWeights, segmentOutput, batchSize, outputSize, inputSize);
+    }
+
+    @Benchmark
+    public void nativeDirectLinearBatchForward() {
+        NeuralNetworkNativeOps.linearBatchForward(TRANSPOSE, directWeights, directBiases, directInput, directOutput,
+                inputSize, outputSize, batchSize);
+    }
+
+    @Benchmark
+    public void nativeHeapLinearBatchForward() {
+        NeuralNetworkNativeOps.linearBatchForward(TRANSPOSE, heapWeights, heapBiases, heapInput, heapOutput,
+                inputSize, outputSize, batchSize);
+    }
+
+    @Benchmark
+    public void nativePrimitiveLinearBatchForward() {
+        NeuralNetworkNativeOps.linearBatchForward(TRANSPOSE, primitiveWeights, primitiveBiases, primitiveInput,
+                primitiveOutput, inputSize, outputSize, batchSize);
+    }
+
+    @Benchmark
+    public void nativeSegmentLinearBatchForward() {
+        FloatSegmentOps.linearBatchForward(TRANSPOSE, segmentWeights, segmentBiases, segmentInput, segmentOutput,
+                inputSize, outputSize, batchSize);
+    }
+
+    @Benchmark
+    public void pureJavaLinearBatchForward() {
+        pureJavaLinearBatchForward(primitiveWeights, primitiveBiases, primitiveInput, primitiveOutput, inputSize,
+                outputSize, batchSize);
+    }
+
+    @Benchmark
+    public void nativeDirectLinearBatchForwardELU() {
+        NeuralNetworkNativeOps.linearBatchForwardActivation(TRANSPOSE, Activation.ELU, 1, directWeights,
+                directBiases, directInput, directOutput, inputSize, outputSize, batchSize);
+    }
+
+    @Benchmark
+    public void nativeDirectReLUBatch() {
+        NeuralNetworkNativeOps.ReLU(directActivations, batchSize * outputSize);
+    }
+
+    @Benchmark
+    public void nativeDirectELUBatch() {
+        NeuralNetworkNativeOps.ELUBatch(directActivations, outputSize, batchSize, 1, ExpPrecision.EXACT);
+    }
+
+    @Benchmark
+    public void nativeDirectFastELUBatch() {
+        NeuralNetworkNativeOps.ELUBatch(directActivations, outputSize, batchSize, 1, ExpPrecision.FAST);
+    }
+
+    @Benchmark
+    public void nativeDirectSoftmaxBatch() {
+        NeuralNetworkNativeOps.softmaxBatch(directActivations, outputSize, batchSize);
+    }
+
+    static void pureJavaLinearBatchForward(float[] weights, float[] biases, float[] input, float[] output,
+            int inputSize, int outputSize, int batchSize) {
+        for (int b = 0; b < batchSize; b++) {
+            for (int r = 0; r < outputSize; r++) {
+                float sum = biases[r];
+                for (int c = 0; c < inputSize; c++) {
+                    sum += weights[r * inputSize + c] * input[b * inputSize + c];
+                }
+                output[b * outputSize + r] = sum;
+            }
+        }
+    }
+
+    private static float[] randomArray(int size) {
+        float[] array = new float[size];
+        for (int i = 0; i < size; i++) {
+            array[i] = RANDOM.nextFloat() - 0.5f;
+        }
+        return array;
+    }
+}
@@ -2,8 +2,6 @@ package com.rtbhouse.model.natives;
 
 import static com.rtbhouse.model.natives.NeuralNetworkNativeOps.Trans.NO_TRANSPOSE;
 
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
 import java.util.Random;
 
@@ -15,6 +13,7 @@ import org.openjdk.jmh.annotations.State;
 
 import com.github.fommil.netlib.BLAS;
 import com.github.fommil.netlib.NativeSystemBLAS;
+import com.rtbhouse.model.natives.NeuralNetworkNativeOps.ExpPrecision;
 
 @State(Scope.Thread)
 public class NNNOBenchmark {
@@ -25,11 +24,21 @@ public class NNNOBenchmark {
     private int inputSize;
     @Param({ "1", "10", "20", "50", "100", "200", "500", "1000", "2000" })
     private int outputSize;
+    /** Use {@code 0} to benchmark native code for all shapes. */
+    @Param({ "200" })
+    private int javaCrossoverSize;
+    /** Batch size of {@code nativeDirectLinearBatchForward} and {@code ELUBatch}, see {@link NNNOBatchBenchmark}. */
+    @Param({ "200" })
+    private int batchSize;
 
     private FloatBuffer directMatrix;
     private FloatBuffer directInput;
     private FloatBuffer directOutput;
 
+    private FloatSegment segmentMatrix;
+    private FloatSegment segmentInput;
+    private FloatSegment segmentOutput;
+
     private FloatBuffer heapMatrix;
     private FloatBuffer heapInput;
     private FloatBuffer heapOutput;
@@ -43,10 +52,15 @@ public class NNNOBenchmark {
     private FloatBuffer directMMOutput;
     private FloatBuffer directMMBias;
 
-    private int batchSize = 200;
+    private FloatBuffer directELUInput;
+    private FloatBuffer directELUBatchInput;
+    private float[] primitiveELUInput;
+
 
     @Setup
     public void init() {
+        NeuralNetworkNativeOps.setJavaCrossoverSize(javaCrossoverSize);
+
         directMatrix = allocateDirectFloatBufferOf(inputSize * outputSize);
         directInput = allocateDirectFloatBufferOf(inputSize);
         directOutput = allocateDirectFloatBufferOf(outputSize);
@@ -54,6 +68,10 @@ public class NNNOBenchmark {
         randomize(directInput);
         randomize(directOutput);
 
+        segmentMatrix = FloatSegment.of(directMatrix);
+        segmentInput = FloatSegment.of(directInput);
+        segmentOutput = FloatSegment.of(directOutput);
+
         heapMatrix = FloatBuffer.wrap(new float[inputSize * outputSize]);
         heapInput = FloatBuffer.wrap(new float[inputSize]);
         heapOutput = FloatBuffer.wrap(new float[outputSize]);
@@ -76,6 +94,14 @@ public class NNNOBenchmark {
         randomize(directMMInput);
         randomize(directMMOutput);
         randomize(directMMBias);
+
+        // about half of the ELU inputs are negative, as in real activations
+        directELUInput = allocateDirectFloatBufferOf(outputSize);
+        directELUBatchInput = allocateDirectFloatBufferOf(batchSize * outputSize);
+        primitiveELUInput = new float[outputSize];
+        randomizeCentered(directELUInput);
+        randomizeCentered(directELUBatchInput);
+        randomizeCentered(primitiveELUInput);
     }
 
     @Benchmark
@@ -83,21 +109,61 @@ public class NNNOBenchmark {
         NeuralNetworkNativeOps.ReLU(directInput);
     }
 
+    @Benchmark
+    public void nativeSegmentReLU() {
+        FloatSegmentOps.ReLU(segmentInput);
+    }
+
     @Benchmark
     public void nativeHeapReLU() {
         NeuralNetworkNativeOps.ReLU(heapInput);
     }
 
+    @Benchmark
+    public void nativePrimitiveReLU() {
+        NeuralNetworkNativeOps.ReLU(primitiveInput);
+    }
+
     @Benchmark
     public void pureJavaReLU() {
         pureJavaReLU(primitiveInput);
     }
 
+    @Benchmark
+    public void nativeDirectELU() {
+        NeuralNetworkNativeOps.ELU(directELUInput, directELUInput.limit(), 1, ExpPrecision.EXACT);
+    }
+
+    @Benchmark
+    public void nativeDirectFastELU() {
+        NeuralNetworkNativeOps.ELU(directELUInput, directELUInput.limit(), 1, ExpPrecision.FAST);
+    }
+
+    @Benchmark
+    public void nativeDirectELUBatch() {
+        NeuralNetworkNativeOps.ELUBatch(directELUBatchInput, outputSize, batchSize, 1, ExpPrecision.EXACT);
+    }
+
+    @Benchmark
+    public void nativeDirectFastELUBatch() {
+        NeuralNetworkNativeOps.ELUBatch(directELUBatchInput, outputSize, batchSize, 1, ExpPrecision.FAST);
+    }
+
+    @Benchmark
+    public void pureJavaELU() {
+        pureJavaELU(primitiveELUInput, 1);
+    }
+
     @Benchmark
     public void nativeDirectGemv() {
         NeuralNetworkNativeOps.gemv(directMatrix, directInput, directOutput);
     }
 
+    @Benchmark
+    public void nativeSegmentGemv() {
+        FloatSegmentOps.gemv(segmentMatrix, segmentInput, segmentOutput);
+    }
+
     @Benchmark
     public void nativeDirectLinearBatchForward() {
         NeuralNetworkNativeOps.linearBatchForward(
@@ -117,6 +183,11 @@ public class NNNOBenchmark {
         NeuralNetworkNativeOps.gemv(heapMatrix, heapInput, heapOutput);
     }
 
+    @Benchmark
+    public void nativePrimitiveGemv() {
+        NeuralNetworkNativeOps.gemv(primitiveMatrix, primitiveInput, primitiveOutput);
+    }
+
     @Benchmark
     public void pureJavaGemv() {
         pureJavaGemv(primitiveMatrix, primitiveInput, primitiveOutput);
@@ -133,12 +204,25 @@ public class NNNOBenchmark {
         NeuralNetworkNativeOps.linearForward(NO_TRANSPOSE, directMatrix, directOutput, directInput, directOutput);
     }
 
+    @Benchmark
+    public void nativeSegmentLinearForward() {
+        // second parameter simulates biases
+        FloatSegmentOps.linearForward(NO_TRANSPOSE, segmentMatrix, segmentOutput, segmentInput, segmentOutput);
+    }
+
     @Benchmark
     public void nativeHeapLinearForward() {
         // second parameter simulates biases
         NeuralNetworkNativeOps.linearForward(NO_TRANSPOSE, heapMatrix, heapOutput, heapInput, heapOutput);
     }
 
+    @Benchmark
+    public void nativePrimitiveLinearForward() {
+        // second parameter simulates biases
+        NeuralNetworkNativeOps.linearForward(NO_TRANSPOSE, primitiveMatrix, primitiveOutput, primitiveInput,
+                primitiveOutput);
+    }
+
     @Benchmark
     public void pureJavaLinearForward() {
         // second parameter simulates biases
@@ -146,10 +230,7 @@ public class NNNOBenchmark {
     }
 
     private static FloatBuffer allocateDirectFloatBufferOf(int capacity) {
-        return ByteBuffer
-                .allocateDirect(capacity * Float.BYTES)
-                .order(ByteOrder.nativeOrder())
-                .asFloatBuffer();
+        return FloatBufferPool.allocateAligned(capacity);
     }
 
     private static void randomize(FloatBuffer f) {
@@ -164,12 +245,30 @@ public class NNNOBenchmark {
         }
     }
 
+    private static void randomizeCentered(FloatBuffer f) {
+        for (int i = 0; i < f.capacity(); i++) {
+            f.put(i, RANDOM.nextFloat() - 0.5f);
+        }
+    }
+
+    private static void randomizeCentered(float[] f) {
+        for (int i = 0; i < f.length; i++) {
+            f[i] = RANDOM.nextFloat() - 0.5f;
+        }
+    }
+
     private static void pureJavaReLU(float[] x) {
         for (int c = 0; c < x.length; c++) {
             x[c] = x[c] < 0 ? 0 : x[c];
         }
     }
 
+    private static void pureJavaELU(float[] x, float alpha) {
+        for (int c = 0; c < x.length; c++) {
+            x[c] = x[c] < 0 ? ((float) Math.exp(x[c]) - 1) * alpha : x[c];
+        }
+    }
+
     static void pureJavaGemv(float[] A, float[] x, float[] y) {
         if (y.length * x.length != A.length) {
             System.out.println("incompatible matrix sizes");
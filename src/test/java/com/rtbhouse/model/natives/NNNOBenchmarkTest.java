@@ -2,9 +2,18 @@ package com.rtbhouse.model.natives;
 
 import static com.rtbhouse.model.natives.NeuralNetworkNativeOpsTest.MAX_ERROR;
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
 
 import org.junit.Test;
 import org.junit.experimental.categories.Category;
+import org.openjdk.jmh.results.format.ResultFormatType;
 import org.openjdk.jmh.runner.Runner;
 import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
 import org.openjdk.jmh.runner.options.Options;
@@ -12,10 +21,21 @@ import org.openjdk.jmh.runner.options.OptionsBuilder;
 import org.openjdk.jmh.runner.options.TimeValue;
 
 import com.rtbhouse.tests.Benchmark;
+import com.rtbhouse.tests.BenchmarkComparator;
+import com.rtbhouse.tests.BenchmarkComparator.Comparison;
 import com.rtbhouse.tests.ReleaseBenchmark;
 
+/**
+ * Runs the JMH benchmarks of the package. Every run writes JSON results to {@value #RESULTS_DIRECTORY}; the release
+ * run is also compared with the committed {@value #BASELINE_PATH} (see {@link BenchmarkComparator}), which should be
+ * refreshed from a release run on the reference machine whenever an expected performance change is merged.
+ */
 public class NNNOBenchmarkTest {
 
+    static final String RESULTS_DIRECTORY = "target/benchmarks";
+    static final String BASELINE_PATH = "benchmarks/baseline.json";
+    private static final int[] SCALING_THREADS = { 1, 2, 4, 8 };
+
     private final float[] A = new float[] { 1.1f, -1.02f, 1.003f, -1.0004f, 1.00005f, -1.000006f };
     private final float[] x = new float[] { 2, -1 };
     private final float[] y = new float[] { -1, 0, 1 };
@@ -51,7 +71,8 @@ public class NNNOBenchmarkTest {
     @Test
     @Category(Benchmark.class)
     public void allBenchmarksFor300x150() throws Exception {
-        Options opts = benchmarkGenericOptions
+        Options opts = withJsonResult(benchmarkGenericOptions, "all300x150")
+                .include(NNNOBenchmark.class.getSimpleName())
                 .param("inputSize", "300")
                 .param("outputSize", "150")
                 .build();
@@ -62,7 +83,7 @@ public class NNNOBenchmarkTest {
     @Test
     @Category(Benchmark.class)
     public void nativeVsPureJavaGemvBenchmark() throws Exception {
-        Options opts = benchmarkGenericOptions
+        Options opts = withJsonResult(benchmarkGenericOptions, "nativeVsPureJavaGemv")
                 .include("nativeDirectGemv")
                 .include("pureJavaGemv")
                 .build();
@@ -74,7 +95,7 @@ public class NNNOBenchmarkTest {
     @Test
     @Category(Benchmark.class)
     public void nativeVsNetlibJavaGemvBenchmark() throws Exception {
-        Options opts = benchmarkGenericOptions
+        Options opts = withJsonResult(benchmarkGenericOptions, "nativeVsNetlibJavaGemv")
                 .include("nativeDirectGemv")
                 .include("netlibJavaGemv")
                 .build();
@@ -85,7 +106,7 @@ public class NNNOBenchmarkTest {
     @Test
     @Category(Benchmark.class)
     public void nativeVsPureJavaLinearForwardBenchmarks() throws Exception {
-        Options opts = benchmarkGenericOptions
+        Options opts = withJsonResult(benchmarkGenericOptions, "nativeVsPureJavaLinearForward")
                 .include("nativeDirectLinearForward")
                 .include("pureJavaLinearForward")
                 .build();
@@ -93,17 +114,69 @@ public class NNNOBenchmarkTest {
         new Runner(opts).run();
     }
 
+    @Test
+    @Category(Benchmark.class)
+    public void batchBenchmarks() throws Exception {
+        Options opts = withJsonResult(benchmarkGenericOptions, "batch")
+                .include(NNNOBatchBenchmark.class.getSimpleName())
+                .build();
+
+        new Runner(opts).run();
+    }
+
+    @Test
+    @Category(Benchmark.class)
+    public void threadScalingBenchmark() throws Exception {
+        for (int threads : SCALING_THREADS) {
+            Options opts = withJsonResult(benchmarkGenericOptions, "threads" + threads)
+                    .include("NNNOBatchBenchmark\\.nativeDirect(Gemm|LinearBatchForward|ELUBatch)$")
+                    .include("NNNOBenchmark\\.nativeDirect(Gemv|LinearForward)$")
+                    .param("inputSize", "200")
+                    .param("outputSize", "200")
+                    .param("batchSize", "1", "50", "1000")
+                    .threads(threads)
+                    .build();
+
+            new Runner(opts).run();
+        }
+    }
+
     @Test
     @Category(ReleaseBenchmark.class)
     public void releaseBenchmark() throws Exception {
-        Options opts = benchmarkGenericOptions
-                .include("nativeDirectGemv")
-                .include("nativeDirectLinearBatchForward")
-                .include("pureJavaGemv")
+        Options opts = withJsonResult(benchmarkGenericOptions, "release")
+                .include("NNNOBenchmark\\.nativeDirectGemv$")
+                .include("NNNOBenchmark\\.nativeDirectLinearBatchForward$")
+                .include("NNNOBenchmark\\.pureJavaGemv$")
+                .include("NNNOBatchBenchmark\\.nativeDirect(Gemm|LinearBatchForward|FastELUBatch)$")
                 .param("inputSize", "300")
                 .param("outputSize", "150")
+                .param("batchSize", "10", "200")
                 .build();
 
         new Runner(opts).run();
+
+        Path baseline = Paths.get(BASELINE_PATH);
+        assumeTrue("no " + BASELINE_PATH + " to compare with", Files.exists(baseline));
+        List<Comparison> comparisons = BenchmarkComparator.compare(BenchmarkComparator.read(BASELINE_PATH),
+                BenchmarkComparator.read(resultPath("release")), BenchmarkComparator.DEFAULT_THRESHOLD);
+        boolean regressed = false;
+        for (Comparison comparison : comparisons) {
+            System.out.println(comparison);
+            regressed |= comparison.isRegression();
+        }
+        assertFalse("benchmarks regressed against " + BASELINE_PATH, regressed);
+    }
+
+    private static ChainedOptionsBuilder withJsonResult(ChainedOptionsBuilder options, String name)
+            throws IOException {
+        Files.createDirectories(Paths.get(RESULTS_DIRECTORY));
+        return options
+                .resultFormat(ResultFormatType.JSON)
+                .result(resultPath(name));
+    }
+
+    private static String resultPath(String name) {
+        return RESULTS_DIRECTORY + "/" + name + ".json";
     }
 }
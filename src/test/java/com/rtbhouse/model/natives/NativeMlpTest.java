@@ -0,0 +1,134 @@
+package com.rtbhouse.model.natives;
+
+import static com.rtbhouse.model.natives.NeuralNetworkNativeOps.Activation.ELU;
+import static com.rtbhouse.model.natives.NeuralNetworkNativeOps.Activation.IDENTITY;
+import static com.rtbhouse.model.natives.NeuralNetworkNativeOps.Activation.RELU;
+import static com.rtbhouse.model.natives.NeuralNetworkNativeOps.Trans.NO_TRANSPOSE;
+import static com.rtbhouse.model.natives.NeuralNetworkNativeOps.Trans.TRANSPOSE;
+import static com.rtbhouse.model.natives.NeuralNetworkNativeOps.linearBatchForward;
+import static com.rtbhouse.model.natives.NeuralNetworkNativeOps.linearForward;
+import static com.rtbhouse.model.natives.NeuralNetworkNativeOpsTest.randomAlignedFB;
+import static org.junit.Assert.assertArrayEquals;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import com.rtbhouse.model.natives.NativeMlp.LayerSpec;
+
+public class NativeMlpTest {
+    private static final int BATCH_SIZE = 7;
+
+    private final Random random = new Random(42);
+
+    private final FloatBuffer weights1 = randomAlignedFB(random, 30 * 20);
+    private final FloatBuffer biases1 = randomAlignedFB(random, 20);
+    private final FloatBuffer weights2 = randomHeap(20 * 15);
+    private final FloatBuffer biases2 = randomHeap(15);
+    private final FloatBuffer weights3 = randomAlignedFB(random, 15 * 5);
+    private final FloatBuffer biases3 = randomAlignedFB(random, 5);
+
+    private final NativeMlp mlp = new NativeMlp(Arrays.asList(
+            new LayerSpec(NO_TRANSPOSE, weights1, biases1, RELU),
+            new LayerSpec(TRANSPOSE, weights2, biases2, ELU, 0.7f),
+            new LayerSpec(NO_TRANSPOSE, weights3, biases3, IDENTITY)),
+            BATCH_SIZE);
+
+    // every layer native, so that the single JNI call path is tested
+    @Rule
+    public final JavaCrossoverSizeRule javaCrossoverSize = new JavaCrossoverSizeRule(0);
+
+    @Test
+    public void shouldForwardAsChainedOps() {
+        // given
+        FloatBuffer input = randomAlignedFB(random, 30);
+        FloatBuffer expected = chainedForward(input);
+        FloatBuffer output = FloatBuffer.allocate(5);
+
+        // when
+        mlp.forward(input, output);
+
+        // then
+        assertArrayEquals(expected.array(), output.array(), 0);
+    }
+
+    @Test
+    public void shouldForwardBatchAsChainedOps() {
+        // given
+        FloatBuffer input = randomAlignedFB(random, BATCH_SIZE * 30);
+        FloatBuffer expected = chainedForwardBatch(input);
+        FloatBuffer output = FloatBuffer.allocate(BATCH_SIZE * 5);
+
+        // when
+        mlp.forwardBatch(input, output, BATCH_SIZE);
+
+        // then
+        assertArrayEquals(expected.array(), output.array(), 0);
+    }
+
+    @Test
+    public void shouldForwardAsChainedOpsBelowJavaCrossover() {
+        // 400: first layer native, others in Java; 1000: all layers in Java
+        for (int javaCrossoverSize : new int[] { 400, 1000 }) {
+            // given
+            NeuralNetworkNativeOps.setJavaCrossoverSize(javaCrossoverSize);
+            FloatBuffer input = randomAlignedFB(random, 30);
+            FloatBuffer expected = chainedForward(input);
+            FloatBuffer output = FloatBuffer.allocate(5);
+
+            // when
+            mlp.forward(input, output);
+
+            // then
+            assertArrayEquals(expected.array(), output.array(), 0);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectMismatchedLayers() {
+        new NativeMlp(Arrays.asList(
+                new LayerSpec(NO_TRANSPOSE, weights1, biases1, RELU),
+                new LayerSpec(NO_TRANSPOSE, weights3, biases3, RELU)));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void shouldForwardBatchOverflowThrow() {
+        mlp.forwardBatch(randomAlignedFB(random, (BATCH_SIZE + 1) * 30), FloatBuffer.allocate((BATCH_SIZE + 1) * 5),
+                BATCH_SIZE + 1);
+    }
+
+    private FloatBuffer chainedForward(FloatBuffer input) {
+        FloatBuffer hidden1 = FloatBuffer.allocate(20);
+        FloatBuffer hidden2 = FloatBuffer.allocate(15);
+        FloatBuffer output = FloatBuffer.allocate(5);
+        linearForward(NO_TRANSPOSE, weights1, biases1, input, hidden1);
+        NeuralNetworkNativeOps.ReLU(hidden1);
+        linearForward(TRANSPOSE, weights2, biases2, hidden1, hidden2);
+        NeuralNetworkNativeOps.ELU(hidden2, 0.7f);
+        linearForward(NO_TRANSPOSE, weights3, biases3, hidden2, output);
+        return output;
+    }
+
+    private FloatBuffer chainedForwardBatch(FloatBuffer input) {
+        FloatBuffer hidden1 = FloatBuffer.allocate(BATCH_SIZE * 20);
+        FloatBuffer hidden2 = FloatBuffer.allocate(BATCH_SIZE * 15);
+        FloatBuffer output = FloatBuffer.allocate(BATCH_SIZE * 5);
+        linearBatchForward(TRANSPOSE, weights1, biases1, input, hidden1, 30, 20, BATCH_SIZE);
+        NeuralNetworkNativeOps.ReLU(hidden1);
+        linearBatchForward(NO_TRANSPOSE, weights2, biases2, hidden1, hidden2, 20, 15, BATCH_SIZE);
+        NeuralNetworkNativeOps.ELU(hidden2, 0.7f);
+        linearBatchForward(TRANSPOSE, weights3, biases3, hidden2, output, 15, 5, BATCH_SIZE);
+        return output;
+    }
+
+    private FloatBuffer randomHeap(int size) {
+        FloatBuffer buffer = FloatBuffer.allocate(size);
+        for (int i = 0; i < size; i++) {
+            buffer.put(i, random.nextFloat() - 0.5f);
+        }
+        return buffer;
+    }
+}
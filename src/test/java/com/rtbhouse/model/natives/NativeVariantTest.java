@@ -0,0 +1,71 @@
+package com.rtbhouse.model.natives;
+
+import static com.rtbhouse.model.natives.NativeVariant.AVX2;
+import static com.rtbhouse.model.natives.NativeVariant.AVX512;
+import static com.rtbhouse.model.natives.NativeVariant.DEFAULT;
+import static com.rtbhouse.model.natives.NativeVariant.SSE4;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class NativeVariantTest {
+
+    private static final Set<String> HASWELL_FLAGS = new HashSet<>(Arrays.asList(
+            "fpu", "sse", "sse2", "ssse3", "fma", "sse4_1", "sse4_2", "avx", "f16c", "avx2", "bmi2"));
+
+    @Test
+    public void shouldParseFlagsOfFirstProcessor() {
+        // when
+        Set<String> flags = NativeVariant.parseCpuFlags(Arrays.asList(
+                "processor\t: 0",
+                "model name\t: Intel(R) Core(TM) i5-4460  CPU @ 3.20GHz",
+                "flags\t\t: fpu sse4_2 avx2 fma",
+                "",
+                "processor\t: 1",
+                "flags\t\t: something else"));
+
+        // then
+        assertEquals(new HashSet<>(Arrays.asList("fpu", "sse4_2", "avx2", "fma")), flags);
+    }
+
+    @Test
+    public void shouldParseCpuinfoWithoutFlagsAsUnknown() {
+        assertNull(NativeVariant.parseCpuFlags(Arrays.asList("processor\t: 0", "Features\t: neon")));
+    }
+
+    @Test
+    public void shouldMatchRequiredFlags() {
+        assertFalse(AVX512.isSupportedBy(HASWELL_FLAGS));
+        assertTrue(AVX2.isSupportedBy(HASWELL_FLAGS));
+        assertTrue(SSE4.isSupportedBy(HASWELL_FLAGS));
+        assertTrue(DEFAULT.isSupportedBy(new HashSet<String>()));
+        assertFalse(AVX2.isSupportedBy(new HashSet<>(Arrays.asList("avx2", "fma", "f16c"))));
+    }
+
+    @Test
+    public void shouldSelectForcedVariant() {
+        assertSame(SSE4, NativeVariant.select(" sse4", HASWELL_FLAGS));
+        assertSame(AVX512, NativeVariant.select("AVX512", null));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldSelectUnknownForcedVariantThrow() {
+        NativeVariant.select("neon", HASWELL_FLAGS);
+    }
+
+    @Test
+    public void shouldLibraryPathsDiffer() {
+        assertEquals("com/rtbhouse/model/natives/avx2/libjniNeuralNetworkNativeOps.so", AVX2.libraryPath());
+        assertEquals("com/rtbhouse/model/natives/libjniNeuralNetworkNativeOps.so", DEFAULT.libraryPath());
+        assertEquals("com/rtbhouse/model/natives/mkl/avx2/libjniNeuralNetworkNativeOps.so",
+                AVX2.libraryPath(StandardBlasBackend.MKL.getLibraryDirectory()));
+    }
+}
@@ -1,24 +1,55 @@
 package com.rtbhouse.model.natives;
 
 import static com.rtbhouse.model.natives.NeuralNetworkNativeOps.ELU;
+import static com.rtbhouse.model.natives.NeuralNetworkNativeOps.ELUBatch;
+import static com.rtbhouse.model.natives.NeuralNetworkNativeOps.Activation.RELU;
+import static com.rtbhouse.model.natives.NeuralNetworkNativeOps.Activation.SIGMOID;
+import static com.rtbhouse.model.natives.NeuralNetworkNativeOps.ExpPrecision.EXACT;
+import static com.rtbhouse.model.natives.NeuralNetworkNativeOps.ExpPrecision.FAST;
 import static com.rtbhouse.model.natives.NeuralNetworkNativeOps.ReLU;
 import static com.rtbhouse.model.natives.NeuralNetworkNativeOps.Trans.NO_TRANSPOSE;
 import static com.rtbhouse.model.natives.NeuralNetworkNativeOps.Trans.TRANSPOSE;
 import static com.rtbhouse.model.natives.NeuralNetworkNativeOps.gemm;
 import static com.rtbhouse.model.natives.NeuralNetworkNativeOps.gemv;
+import static com.rtbhouse.model.natives.NeuralNetworkNativeOps.layerNorm;
+import static com.rtbhouse.model.natives.NeuralNetworkNativeOps.layerNormBatch;
 import static com.rtbhouse.model.natives.NeuralNetworkNativeOps.linearBatchForward;
+import static com.rtbhouse.model.natives.NeuralNetworkNativeOps.linearBatchForwardActivation;
+import static com.rtbhouse.model.natives.NeuralNetworkNativeOps.linearBatchForwardSparse;
 import static com.rtbhouse.model.natives.NeuralNetworkNativeOps.linearForward;
+import static com.rtbhouse.model.natives.NeuralNetworkNativeOps.linearForwardActivation;
+import static com.rtbhouse.model.natives.NeuralNetworkNativeOps.linearForwardSparse;
+import static com.rtbhouse.model.natives.NeuralNetworkNativeOps.logSoftmax;
+import static com.rtbhouse.model.natives.NeuralNetworkNativeOps.logSoftmaxBatch;
+import static com.rtbhouse.model.natives.NeuralNetworkNativeOps.softmax;
+import static com.rtbhouse.model.natives.NeuralNetworkNativeOps.softmaxBatch;
+import static com.rtbhouse.model.natives.NeuralNetworkNativeOps.tanh;
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Random;
 
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
 
+import com.rtbhouse.model.natives.NeuralNetworkNativeOps.ExpPrecision;
+
+@RunWith(Parameterized.class)
 public class NeuralNetworkNativeOpsTest {
     static final float MAX_ERROR = 1e-6f;
 
+    @Rule
+    public final JavaCrossoverSizeRule javaCrossoverSize;
+
     private final FloatBuffer heapA = matrixFB(1f / 3, 2, 3, 4, 2, 3);
     private final FloatBuffer heapX = matrixFB(-1, 3);
     private final FloatBuffer heapY = matrixFB(3, 2, 1f / 3);
@@ -37,6 +68,18 @@ public class NeuralNetworkNativeOpsTest {
     private final float[] expectedTransposedAbyXplusY = matrix(14f + (2f / 3), 6, 6f + (1f / 3));
     private final float[] expectedAbyFirstValXplusY = matrix(2f + (2f / 3), 0, -3 + (1f / 3));
 
+    /**
+     * All shapes below are tiny, so every test runs twice: once forced to native code and once to pure Java.
+     */
+    @Parameters(name = "javaCrossoverSize={0}")
+    public static Collection<Object[]> javaCrossoverSizes() {
+        return Arrays.asList(new Object[][] { { 0 }, { Integer.MAX_VALUE } });
+    }
+
+    public NeuralNetworkNativeOpsTest(int javaCrossoverSize) {
+        this.javaCrossoverSize = new JavaCrossoverSizeRule(javaCrossoverSize);
+    }
+
     private static FloatBuffer allocateDirectFloatBufferOf(float... src) {
         return ByteBuffer
                 .allocateDirect(src.length * Float.BYTES)
@@ -120,6 +163,186 @@ public class NeuralNetworkNativeOpsTest {
         ELU(heapX, heapX.limit() + 1, 0);
     }
 
+    @Test
+    public void shouldFastELUWithinDocumentedError() {
+        // given
+        FloatBuffer exact = FloatBufferPool.allocateAligned(1000);
+        for (int i = 0; i < exact.limit(); i++) {
+            exact.put(i, -90 + 0.1f * i);
+        }
+        FloatBuffer fast = FloatBufferPool.allocateAligned(1000).put(exact);
+        exact.rewind();
+        fast.rewind();
+
+        // when
+        ELU(exact, exact.limit(), 2, EXACT);
+        ELU(fast, fast.limit(), 2, FAST);
+
+        // then
+        assertArrayEquals(getArrayFrom(exact), getArrayFrom(fast), 2e-5f);
+    }
+
+    @Test
+    public void shouldELUOnBatch() {
+        // given
+        FloatBuffer exact = matrixFB(
+                -1, 3,
+                0, -0.5f);
+        FloatBuffer fast = matrixFB(
+                -1, 3,
+                0, -0.5f);
+
+        // when
+        ELUBatch(exact, 2, 2, 2, EXACT);
+        ELUBatch(fast, 2, 2, 2, FAST);
+
+        // then
+        float[] expected = matrix(
+                2 / (float) Math.E - 2, 3,
+                0, 2 * (float) Math.exp(-0.5) - 2);
+        assertArrayEquals(expected, exact.array(), MAX_ERROR);
+        assertArrayEquals(expected, fast.array(), 2e-5f);
+    }
+
+    @Test
+    public void shouldELUPassNaNThrough() {
+        // sizes below and above the Java crossover, so both the Java and the native code are checked
+        for (int size : new int[] { 10, 1000 }) {
+            for (ExpPrecision precision : ExpPrecision.values()) {
+                // given
+                FloatBuffer inOut = FloatBufferPool.allocateAligned(size);
+                for (int i = 0; i < size; i++) {
+                    inOut.put(i, i % 3 == 0 ? Float.NaN : i - size / 2f);
+                }
+
+                // when
+                ELU(inOut, size, 2, precision);
+
+                // then
+                for (int i = 0; i < size; i++) {
+                    assertEquals(i % 3 == 0, Float.isNaN(inOut.get(i)));
+                }
+            }
+        }
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void shouldELUBatchOverflowThrow() {
+        ELUBatch(heapY, 2, 2, 1, FAST);
+    }
+
+    @Test
+    public void shouldSigmoidWithHeapFloatBuffers() {
+        // when
+        NeuralNetworkNativeOps.sigmoid(heapY, 2);
+        // then
+        assertArrayEquals(matrix(sigmoid(3), sigmoid(2), 1f / 3), heapY.array(), MAX_ERROR);
+    }
+
+    @Test
+    public void shouldSigmoidWithDirectFloatBuffers() {
+        // when
+        NeuralNetworkNativeOps.sigmoid(directX);
+        // then
+        assertArrayEquals(matrix(sigmoid(-1), sigmoid(3)), getArrayFrom(directX), MAX_ERROR);
+    }
+
+    @Test
+    public void shouldTanhWithDirectFloatBuffers() {
+        // when
+        tanh(directX);
+        // then
+        assertArrayEquals(matrix((float) Math.tanh(-1), (float) Math.tanh(3)), getArrayFrom(directX), MAX_ERROR);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void shouldTanhOverflowThrow() {
+        tanh(heapX, heapX.limit() + 1);
+    }
+
+    @Test
+    public void shouldSoftmaxWithoutOverflow() {
+        // given
+        FloatBuffer inOut = allocateDirectFloatBufferOf(1000, 1001, 1002);
+        // when
+        softmax(inOut);
+        // then
+        assertArrayEquals(softmaxOf(0, 1, 2), getArrayFrom(inOut), MAX_ERROR);
+    }
+
+    @Test
+    public void shouldLogSoftmaxWhereSoftmaxUnderflows() {
+        // when
+        logSoftmax(heapOutput.put(0, -200).put(1, 0), 2);
+        // then
+        assertArrayEquals(matrix(-200, 0, -1), heapOutput.array(), MAX_ERROR);
+    }
+
+    @Test
+    public void shouldSoftmaxOnBatch() {
+        // given
+        FloatBuffer softmaxes = matrixFB(
+                1, 2, 3,
+                -1, 0, 1000);
+        FloatBuffer logSoftmaxes = matrixFB(
+                1, 2, 3,
+                -1, 0, 1000);
+        float[] expected = matrix(
+                softmaxOf(1, 2, 3)[0], softmaxOf(1, 2, 3)[1], softmaxOf(1, 2, 3)[2],
+                0, 0, 1);
+
+        // when
+        softmaxBatch(softmaxes, 3, 2);
+        logSoftmaxBatch(logSoftmaxes, 3, 2);
+
+        // then
+        assertArrayEquals(expected, softmaxes.array(), MAX_ERROR);
+        assertArrayEquals(
+                matrix((float) Math.log(expected[0]), (float) Math.log(expected[1]), (float) Math.log(expected[2]),
+                        -1001, -1000, 0),
+                logSoftmaxes.array(),
+                1e-4f);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void shouldSoftmaxBatchOverflowThrow() {
+        softmaxBatch(heapY, 2, 2);
+    }
+
+    @Test
+    public void shouldLayerNorm() {
+        // given
+        FloatBuffer inOut = allocateDirectFloatBufferOf(1, 2, 3, 6);
+        // when
+        layerNorm(inOut, matrixFB(1, 1, 2, 1), matrixFB(0, 0, 0, 1), 0, 4);
+        // then
+        float std = (float) Math.sqrt(3.5);
+        assertArrayEquals(matrix(-2 / std, -1 / std, 0, 3 / std + 1), getArrayFrom(inOut), MAX_ERROR);
+    }
+
+    @Test
+    public void shouldLayerNormOnBatch() {
+        // given
+        FloatBuffer inOut = matrixFB(
+                1, 3,
+                -5, 5,
+                7, 9.5f);
+        // when
+        layerNormBatch(inOut, matrixFB(2, 1), matrixFB(0.5f, 0), 0, 2, 3);
+        // then
+        assertArrayEquals(
+                matrix(-1.5f, 1,
+                        -1.5f, 1,
+                        -1.5f, 1),
+                inOut.array(),
+                MAX_ERROR);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void shouldLayerNormOverflowThrow() {
+        layerNorm(heapY, heapX, heapY, 0, heapY.limit());
+    }
+
     @Test
     public void shouldMultiplyMatrixByVectorWithHeapFloatBuffers() {
         // when
@@ -335,6 +558,263 @@ public class NeuralNetworkNativeOpsTest {
         linearBatchForward(NO_TRANSPOSE, heapA, heapY, heapX, heapY, heapA.limit() + 1, 1, 0);
     }
 
+    @Test
+    public void shouldLinearForwardSparse() {
+        // when
+        linearForwardSparse(NO_TRANSPOSE, heapA, heapY, IntBuffer.wrap(new int[] { 1, 0 }), matrixFB(3, -1), 2,
+                heapOutput, heapX.limit(), heapY.limit());
+        // then
+        assertArrayEquals(expectedAbyXplusY, heapOutput.array(), MAX_ERROR);
+    }
+
+    @Test
+    public void shouldLinearForwardSparseTransposedWithRepeatedIndices() {
+        // when
+        linearForwardSparse(TRANSPOSE, directA, directY, IntBuffer.wrap(new int[] { 0, 1, 1 }), matrixFB(-1, 1, 2),
+                3, directOutput, heapX.limit(), heapY.limit());
+        // then
+        assertArrayEquals(expectedTransposedAbyXplusY, getArrayFrom(directOutput), MAX_ERROR);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void shouldLinearForwardSparseIndexOverflowThrow() {
+        linearForwardSparse(NO_TRANSPOSE, heapA, heapY, IntBuffer.wrap(new int[] { 0, 2 }), matrixFB(-1, 3), 2,
+                heapOutput, heapX.limit(), heapY.limit());
+    }
+
+    @Test
+    public void shouldForwardLinearOnSparseBatch() {
+        // given
+        FloatBuffer weights = matrixFB(
+                1f / 3, 1, 3,
+                2, 4, 9);
+        FloatBuffer biases = matrixFB(0.1f, 0.2f, -0.3f);
+        IntBuffer rowOffsets = IntBuffer.wrap(new int[] { 0, 2, 4, 4 });
+        IntBuffer indices = IntBuffer.wrap(new int[] { 0, 1, 1, 0 });
+        FloatBuffer values = matrixFB(1f / 5, 1, 49, 7);
+        FloatBuffer output = matrixFB(new float[9]);
+
+        // when
+        linearBatchForwardSparse(NO_TRANSPOSE, weights, biases, rowOffsets, indices, values, output, 2, 3, 3);
+
+        // then
+        assertArrayEquals(
+                matrix(31f / 15 + 0.1f, 4.4f, 9.3f,
+                        301f / 3 + 0.1f, 203.2f, 461.7f,
+                        0.1f, 0.2f, -0.3f),
+                getArrayFrom(output),
+                MAX_ERROR);
+    }
+
+    @Test
+    public void shouldForwardLinearOnSparseBatchWithTranspose() {
+        // given
+        FloatBuffer weights = matrixFB(
+                1f / 3, 2,
+                1, 4,
+                3, 9);
+        FloatBuffer biases = matrixFB(0.1f, 0.2f, -0.3f);
+        IntBuffer rowOffsets = IntBuffer.wrap(new int[] { 0, 2, 4 });
+        IntBuffer indices = IntBuffer.wrap(new int[] { 0, 1, 0, 1 });
+        FloatBuffer values = matrixFB(1f / 5, 1, 7, 49);
+        FloatBuffer output = matrixFB(new float[6]);
+
+        // when
+        linearBatchForwardSparse(TRANSPOSE, weights, biases, rowOffsets, indices, values, output, 2, 3, 2);
+
+        // then
+        assertArrayEquals(
+                matrix(31f / 15 + 0.1f, 4.4f, 9.3f,
+                        301f / 3 + 0.1f, 203.2f, 461.7f),
+                getArrayFrom(output),
+                MAX_ERROR);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void shouldForwardLinearOnSparseBatchOffsetsOverflowThrow() {
+        linearBatchForwardSparse(NO_TRANSPOSE, heapA, heapY, IntBuffer.wrap(new int[] { 0, 3 }),
+                IntBuffer.wrap(new int[] { 0, 1 }), matrixFB(1, 1), heapOutput, 2, 3, 1);
+    }
+
+    @Test
+    public void shouldLinearForwardWithReLU() {
+        // given
+        FloatBuffer biases = matrixFB(-9, 3, -8);
+
+        // when
+        linearForwardActivation(NO_TRANSPOSE, RELU, 0, heapA, biases, heapX, heapOutput);
+
+        // then
+        assertArrayEquals(matrix(0, 12, 0), heapOutput.array(), MAX_ERROR);
+    }
+
+    @Test
+    public void shouldLinearForwardWithELUAsChainedOps() {
+        // given
+        FloatBuffer biases = allocateDirectFloatBufferOf(-9, 3, -8);
+        FloatBuffer expected = allocateDirectFloatBufferOf(0, 0, 0);
+        linearForward(TRANSPOSE, directA, biases, directX, expected);
+        ELU(expected, 0.5f);
+
+        // when
+        linearForwardActivation(TRANSPOSE, NeuralNetworkNativeOps.Activation.ELU, 0.5f,
+                directA, biases, directX, directOutput);
+
+        // then
+        assertArrayEquals(getArrayFrom(expected), getArrayFrom(directOutput), 0);
+    }
+
+    @Test
+    public void shouldLinearForwardWithSigmoid() {
+        // when
+        linearForwardActivation(NO_TRANSPOSE, SIGMOID, 0, heapA, heapY, heapX, heapOutput, 1, heapY.limit());
+
+        // then
+        assertArrayEquals(
+                matrix(sigmoid(2f + (2f / 3)), sigmoid(0), sigmoid(-3 + (1f / 3))),
+                heapOutput.array(),
+                MAX_ERROR);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void shouldLinearForwardActivationOverflowThrow() {
+        linearForwardActivation(NO_TRANSPOSE, RELU, 0, heapA, heapY, heapX, heapOutput, heapX.limit() + 1, 0);
+    }
+
+    @Test
+    public void shouldForwardLinearOnBatchWithReLU() {
+        // given
+        FloatBuffer weights = matrixFB(
+                1f / 3, -1, 3,
+                2, 4, -9);
+        FloatBuffer biases = matrixFB(0.1f, 0.2f, -0.3f);
+        FloatBuffer input = matrixFB(
+                1f / 5, 1,
+                -7, 49);
+        FloatBuffer output = matrixFB(
+                1, 2, 3,
+                3, 4, 5);
+
+        // when
+        linearBatchForwardActivation(NO_TRANSPOSE, RELU, 0, weights, biases, input, output, 2, 3, 2);
+
+        // then
+        assertArrayEquals(
+                matrix(31f / 15 + 0.1f, 4 - 1f / 5 + 0.2f, 0,
+                        98 - 7f / 3 + 0.1f, 203.2f, 0),
+                getArrayFrom(output),
+                MAX_ERROR);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void shouldForwardLinearOnBatchWithActivationOverflowThrow() {
+        linearBatchForwardActivation(NO_TRANSPOSE, RELU, 0, heapA, heapY, heapX, heapY, heapA.limit() + 1, 1, 0);
+    }
+
+    @Test
+    public void shouldReLUwithArray() {
+        // given
+        float[] inOut = matrix(-1, 3, -2);
+
+        // when
+        ReLU(inOut, 2);
+
+        // then
+        assertArrayEquals(matrix(0, 3, -2), inOut, MAX_ERROR);
+    }
+
+    @Test
+    public void shouldELUwithArray() {
+        // given
+        float[] inOut = matrix(-1, 3);
+
+        // when
+        ELU(inOut, 2);
+
+        // then
+        assertArrayEquals(expectedELUx2, inOut, MAX_ERROR);
+    }
+
+    @Test
+    public void shouldMultiplyMatrixByVectorWithArrays() {
+        // given
+        float[] y = heapY.array();
+
+        // when
+        gemv(heapA.array(), heapX.array(), y);
+
+        // then
+        assertArrayEquals(expectedAbyXplusY, y, MAX_ERROR);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void shouldGemvWithArraysOverflowThrow() {
+        gemv(heapA.array(), heapX.array(), heapY.array(), 1, heapY.limit() + 1);
+    }
+
+    @Test
+    public void shouldMultiplyTwoMatricesWithArrays() {
+        // given
+        float[] c = new float[4];
+
+        // when
+        gemm(matrix(1f / 3, 1, -1, 2, 4, -1), matrix(1f / 5, 1, 7, 49, -2, -3), c, 2, 2, 3);
+
+        // then
+        assertArrayEquals(matrix(9.06666666f, 52.33333333f, 30.4000f, 201.00000f), c, MAX_ERROR);
+    }
+
+    @Test
+    public void shouldArraysLinearForward() {
+        // given
+        float[] output = new float[3];
+
+        // when
+        linearForward(TRANSPOSE, heapA.array(), heapY.array(), heapX.array(), output);
+
+        // then
+        assertArrayEquals(expectedTransposedAbyXplusY, output, MAX_ERROR);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void shouldArraysLinearForwardOverflowThrow() {
+        linearForward(NO_TRANSPOSE, heapA.array(), heapY.array(), heapX.array(), heapOutput.array(),
+                heapX.limit() + 1, 0);
+    }
+
+    @Test
+    public void shouldForwardLinearOnBatchWithArrays() {
+        // given
+        float[] output = new float[6];
+
+        // when
+        linearBatchForward(NO_TRANSPOSE, matrix(1f / 3, 1, 3, 2, 4, 9), matrix(0.1f, 0.2f, -0.3f),
+                matrix(1f / 5, 1, 7, 49), output, 2, 3, 2);
+
+        // then
+        assertArrayEquals(
+                matrix(31f / 15 + 0.1f, 4.4f, 9.3f,
+                        301f / 3 + 0.1f, 203.2f, 461.7f),
+                output,
+                MAX_ERROR);
+    }
+
+    private static float sigmoid(float x) {
+        return (float) (1 / (1 + Math.exp(-x)));
+    }
+
+    private static float[] softmaxOf(float... x) {
+        double sum = 0;
+        for (float value : x) {
+            sum += Math.exp(value);
+        }
+        float[] softmax = new float[x.length];
+        for (int i = 0; i < x.length; i++) {
+            softmax[i] = (float) (Math.exp(x[i]) / sum);
+        }
+        return softmax;
+    }
+
     private float[] matrix(float... values) {
         return values;
     }
@@ -342,4 +822,15 @@ public class NeuralNetworkNativeOpsTest {
     static FloatBuffer matrixFB(float... values) {
         return FloatBuffer.wrap(values);
     }
+
+    /**
+     * Returns an aligned direct buffer filled with values uniformly distributed in [-0.5, 0.5).
+     */
+    static FloatBuffer randomAlignedFB(Random random, int size) {
+        FloatBuffer buffer = FloatBufferPool.allocateAligned(size);
+        for (int i = 0; i < size; i++) {
+            buffer.put(i, random.nextFloat() - 0.5f);
+        }
+        return buffer;
+    }
 }
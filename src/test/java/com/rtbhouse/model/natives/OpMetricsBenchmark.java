@@ -0,0 +1,64 @@
+package com.rtbhouse.model.natives;
+
+import static com.rtbhouse.model.natives.NeuralNetworkNativeOps.Trans.NO_TRANSPOSE;
+import static com.rtbhouse.model.natives.NeuralNetworkNativeOpsTest.randomAlignedFB;
+
+import java.nio.FloatBuffer;
+import java.util.Random;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Overhead of {@link OpMetrics} on small native calls, where it is most visible. With {@code enabled=false} the
+ * instrumentation is a single volatile read, so scores should match those of the same shapes before instrumentation
+ * within the benchmark noise; {@code enabled=true} shows the cost of recording.
+ */
+@State(Scope.Benchmark)
+public class OpMetricsBenchmark {
+    private static final Random RANDOM = new Random();
+
+    @Param({ "false", "true" })
+    private boolean enabled;
+    @Param({ "16", "100" })
+    private int size;
+
+    private final int defaultJavaCrossoverSize = NeuralNetworkNativeOps.getJavaCrossoverSize();
+
+    private FloatBuffer weights;
+    private FloatBuffer biases;
+    private FloatBuffer input;
+    private FloatBuffer output;
+
+    @Setup
+    public void init() {
+        OpMetrics.setEnabled(enabled);
+        NeuralNetworkNativeOps.setJavaCrossoverSize(0);
+
+        weights = randomAlignedFB(RANDOM, size * size);
+        biases = randomAlignedFB(RANDOM, size);
+        input = randomAlignedFB(RANDOM, size);
+        output = FloatBufferPool.allocateAligned(size);
+    }
+
+    @TearDown
+    public void restore() {
+        OpMetrics.setEnabled(false);
+        OpMetrics.reset();
+        NeuralNetworkNativeOps.setJavaCrossoverSize(defaultJavaCrossoverSize);
+    }
+
+    @Benchmark
+    public void linearForward() {
+        NeuralNetworkNativeOps.linearForward(NO_TRANSPOSE, weights, biases, input, output, size, size);
+    }
+
+    @Benchmark
+    public void linearBatchForward() {
+        NeuralNetworkNativeOps.linearBatchForward(NO_TRANSPOSE, weights, biases, input, output, size, size, 1);
+    }
+}
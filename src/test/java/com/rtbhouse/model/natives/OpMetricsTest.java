@@ -0,0 +1,143 @@
+package com.rtbhouse.model.natives;
+
+import static com.rtbhouse.model.natives.NeuralNetworkNativeOps.Trans.NO_TRANSPOSE;
+import static com.rtbhouse.model.natives.NeuralNetworkNativeOps.linearBatchForward;
+import static com.rtbhouse.model.natives.NeuralNetworkNativeOps.linearForward;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.nio.FloatBuffer;
+import java.util.List;
+
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.rtbhouse.model.natives.OpMetrics.Op;
+import com.rtbhouse.model.natives.OpMetrics.OpStats;
+
+public class OpMetricsTest {
+    private static final int INPUT_SIZE = 30;
+    private static final int OUTPUT_SIZE = 20;
+
+    private final FloatBuffer weights = FloatBufferPool.allocateAligned(INPUT_SIZE * OUTPUT_SIZE);
+    private final FloatBuffer biases = FloatBufferPool.allocateAligned(OUTPUT_SIZE);
+    private final FloatBuffer input = FloatBufferPool.allocateAligned(INPUT_SIZE * 5);
+    private final FloatBuffer output = FloatBufferPool.allocateAligned(OUTPUT_SIZE * 5);
+
+    private final boolean defaultEnabled = OpMetrics.isEnabled();
+
+    @Before
+    public void enableMetrics() {
+        OpMetrics.reset();
+        OpMetrics.setEnabled(true);
+    }
+
+    @After
+    public void restoreMetrics() {
+        OpMetrics.setEnabled(defaultEnabled);
+        OpMetrics.reset();
+    }
+
+    @Test
+    public void shouldRecordCallsPerShapeBucket() {
+        // when
+        linearForward(NO_TRANSPOSE, weights, biases, input, output, INPUT_SIZE, OUTPUT_SIZE);
+        linearForward(NO_TRANSPOSE, weights, biases, input, output, INPUT_SIZE - 2, OUTPUT_SIZE - 3);
+        linearBatchForward(NO_TRANSPOSE, weights, biases, input, output, INPUT_SIZE, OUTPUT_SIZE, 5);
+
+        // then
+        List<OpStats> stats = OpMetrics.snapshot();
+        assertEquals(2, stats.size());
+
+        OpStats single = stats.get(0);
+        assertEquals(Op.LINEAR_FORWARD, single.getOp());
+        assertEquals(32, single.getMaxInputSize());
+        assertEquals(32, single.getMaxOutputSize());
+        assertEquals(1, single.getMaxBatchSize());
+        assertEquals(2, single.getCalls());
+        assertEquals(2L * INPUT_SIZE * OUTPUT_SIZE + 2L * (INPUT_SIZE - 2) * (OUTPUT_SIZE - 3), single.getFlops());
+
+        OpStats batch = stats.get(1);
+        assertEquals(Op.LINEAR_BATCH_FORWARD, batch.getOp());
+        assertEquals(8, batch.getMaxBatchSize());
+        assertEquals(1, batch.getCalls());
+        assertEquals(2L * INPUT_SIZE * OUTPUT_SIZE * 5, batch.getFlops());
+        assertTrue(batch.getTotalNanos() > 0);
+        assertTrue(batch.getMedianNanos() > 0);
+    }
+
+    @Test
+    public void shouldNotRecordWhenDisabled() {
+        // given
+        OpMetrics.setEnabled(false);
+
+        // when
+        linearForward(NO_TRANSPOSE, weights, biases, input, output, INPUT_SIZE, OUTPUT_SIZE);
+
+        // then
+        assertTrue(OpMetrics.snapshot().isEmpty());
+    }
+
+    @Test
+    public void shouldDiscardStatsOnReset() {
+        // given
+        linearForward(NO_TRANSPOSE, weights, biases, input, output, INPUT_SIZE, OUTPUT_SIZE);
+
+        // when
+        OpMetrics.reset();
+
+        // then
+        assertTrue(OpMetrics.snapshot().isEmpty());
+    }
+
+    @Test
+    public void shouldComputeLatencyPercentilesFromHistogram() {
+        // given
+        long[] histogram = new long[OpMetrics.LATENCY_BUCKETS];
+        histogram[10] = 90;
+        histogram[20] = 10;
+
+        // when
+        OpStats stats = new OpStats(Op.GEMV, 1, 1, 1, 100, 1000, 200, histogram);
+
+        // then
+        assertEquals(1L << 11, stats.getMedianNanos());
+        assertEquals(1L << 21, stats.getP99Nanos());
+        assertEquals(1L << 11, stats.getLatencyNanos(0.9));
+        assertEquals(0.2, stats.getGflops(), 1e-9);
+    }
+
+    @Test
+    public void shouldBucketSizes() {
+        assertEquals(0, OpMetrics.sizeBucketOf(0));
+        assertEquals(0, OpMetrics.sizeBucketOf(1));
+        assertEquals(1, OpMetrics.sizeBucketOf(2));
+        assertEquals(2, OpMetrics.sizeBucketOf(3));
+        assertEquals(10, OpMetrics.sizeBucketOf(1024));
+        assertEquals(OpMetrics.SIZE_BUCKETS - 1, OpMetrics.sizeBucketOf(Integer.MAX_VALUE));
+        assertEquals(0, OpMetrics.latencyBucketOf(0));
+        assertEquals(OpMetrics.LATENCY_BUCKETS - 1, OpMetrics.latencyBucketOf(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void shouldExposeStatsOverJmx() throws Exception {
+        // given
+        OpMetrics.registerMBean();
+        OpMetrics.registerMBean();
+        linearForward(NO_TRANSPOSE, weights, biases, input, output, INPUT_SIZE, OUTPUT_SIZE);
+
+        // when
+        CompositeData[] stats = (CompositeData[]) ManagementFactory.getPlatformMBeanServer()
+                .getAttribute(new ObjectName(OpMetrics.OBJECT_NAME), "Stats");
+
+        // then
+        assertEquals(1, stats.length);
+        assertEquals(Op.LINEAR_FORWARD.name(), stats[0].get("op"));
+        assertEquals(1L, stats[0].get("calls"));
+    }
+}
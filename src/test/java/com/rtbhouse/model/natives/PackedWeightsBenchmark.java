@@ -0,0 +1,56 @@
+package com.rtbhouse.model.natives;
+
+import static com.rtbhouse.model.natives.NeuralNetworkNativeOps.Trans.NO_TRANSPOSE;
+import static com.rtbhouse.model.natives.NeuralNetworkNativeOps.Trans.TRANSPOSE;
+import static com.rtbhouse.model.natives.NeuralNetworkNativeOpsTest.randomAlignedFB;
+
+import java.nio.FloatBuffer;
+import java.util.Random;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * {@link NeuralNetworkNativeOps#linearBatchForward} with {@link PackedWeights} against plain sgemm on small and
+ * medium batches, where repacking the weights on every call is a large part of the sgemm cost.
+ */
+@State(Scope.Benchmark)
+public class PackedWeightsBenchmark {
+    private static final Random RANDOM = new Random();
+
+    @Param({ "1", "4", "16", "64" })
+    private int batchSize;
+    @Param({ "200", "1000" })
+    private int inputRowSize;
+    @Param({ "200", "1000" })
+    private int outputRowSize;
+
+    private FloatBuffer weights;
+    private PackedWeights packedWeights;
+    private FloatBuffer biases;
+    private FloatBuffer input;
+    private FloatBuffer output;
+
+    @Setup
+    public void init() {
+        weights = randomAlignedFB(RANDOM, inputRowSize * outputRowSize);
+        packedWeights = PackedWeights.pack(NO_TRANSPOSE, weights, inputRowSize, outputRowSize);
+        biases = randomAlignedFB(RANDOM, outputRowSize);
+        input = randomAlignedFB(RANDOM, batchSize * inputRowSize);
+        output = FloatBufferPool.allocateAligned(batchSize * outputRowSize);
+    }
+
+    @Benchmark
+    public void packedLinearBatchForward() {
+        NeuralNetworkNativeOps.linearBatchForward(packedWeights, biases, input, output, batchSize);
+    }
+
+    @Benchmark
+    public void linearBatchForward() {
+        NeuralNetworkNativeOps.linearBatchForward(TRANSPOSE, weights, biases, input, output, inputRowSize,
+                outputRowSize, batchSize);
+    }
+}
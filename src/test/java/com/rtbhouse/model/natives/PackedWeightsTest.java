@@ -0,0 +1,121 @@
+package com.rtbhouse.model.natives;
+
+import static com.rtbhouse.model.natives.NeuralNetworkNativeOps.Trans.NO_TRANSPOSE;
+import static com.rtbhouse.model.natives.NeuralNetworkNativeOps.Trans.TRANSPOSE;
+import static com.rtbhouse.model.natives.NeuralNetworkNativeOps.linearBatchForward;
+import static com.rtbhouse.model.natives.NeuralNetworkNativeOps.linearForward;
+import static com.rtbhouse.model.natives.NeuralNetworkNativeOpsTest.randomAlignedFB;
+import static org.junit.Assert.assertArrayEquals;
+
+import java.nio.FloatBuffer;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import com.rtbhouse.model.natives.NeuralNetworkNativeOps.Trans;
+
+public class PackedWeightsTest {
+    private static final float MAX_ERROR = 1e-4f;
+    private static final int INPUT_SIZE = 300;
+    private static final int OUTPUT_SIZE = 150;
+    private static final int BATCH_SIZE = 7;
+
+    private final Random random = new Random(42);
+    private final FloatBuffer weights = randomAlignedFB(random, INPUT_SIZE * OUTPUT_SIZE);
+    private final FloatBuffer biases = randomAlignedFB(random, OUTPUT_SIZE);
+
+    @Rule
+    public final JavaCrossoverSizeRule javaCrossoverSize = new JavaCrossoverSizeRule(0);
+
+    @Test
+    public void shouldLinearForwardAsUnpacked() {
+        shouldLinearForwardAsUnpacked(NO_TRANSPOSE);
+        shouldLinearForwardAsUnpacked(TRANSPOSE);
+    }
+
+    @Test
+    public void shouldLinearBatchForwardAsUnpacked() {
+        shouldLinearBatchForwardAsUnpacked(NO_TRANSPOSE);
+        shouldLinearBatchForwardAsUnpacked(TRANSPOSE);
+    }
+
+    @Test
+    public void shouldPackOutputSizeNotMultipleOfPanel() {
+        // given
+        FloatBuffer smallWeights = FloatBuffer.wrap(new float[] {
+                1, 2,
+                3, 4,
+                5, 6 });
+        PackedWeights packed = PackedWeights.pack(NO_TRANSPOSE, smallWeights, 2, 3);
+        FloatBuffer output = FloatBuffer.allocate(3 * 2);
+
+        // when
+        linearBatchForward(packed, FloatBuffer.wrap(new float[] { 1, 0, -1 }),
+                FloatBuffer.wrap(new float[] { 1, 1, 2, -1 }), output, 2);
+
+        // then
+        assertArrayEquals(new float[] { 4, 7, 10, 1, 2, 3 }, output.array(), 0);
+    }
+
+    @Test
+    public void shouldForwardEmptyBatch() {
+        // given
+        PackedWeights packed = PackedWeights.pack(NO_TRANSPOSE, weights, INPUT_SIZE, OUTPUT_SIZE);
+        float[] output = { 7 };
+
+        // when
+        linearBatchForward(packed, biases, FloatBuffer.allocate(0), FloatBuffer.wrap(output), 0);
+
+        // then
+        assertArrayEquals(new float[] { 7 }, output, 0);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void shouldPackOverflowThrow() {
+        PackedWeights.pack(NO_TRANSPOSE, weights, INPUT_SIZE + 1, OUTPUT_SIZE);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void shouldLinearBatchForwardOverflowThrow() {
+        PackedWeights packed = PackedWeights.pack(NO_TRANSPOSE, weights, INPUT_SIZE, OUTPUT_SIZE);
+        linearBatchForward(packed, biases, randomAlignedFB(random, INPUT_SIZE * BATCH_SIZE),
+                FloatBuffer.allocate(OUTPUT_SIZE * BATCH_SIZE), BATCH_SIZE + 1);
+    }
+
+    private void shouldLinearForwardAsUnpacked(Trans transposeWeights) {
+        // given
+        PackedWeights packed = PackedWeights.pack(transposeWeights, weights, INPUT_SIZE, OUTPUT_SIZE);
+        FloatBuffer input = randomAlignedFB(random, INPUT_SIZE);
+        FloatBuffer expected = FloatBuffer.allocate(OUTPUT_SIZE);
+        FloatBuffer output = FloatBuffer.allocate(OUTPUT_SIZE);
+
+        // when
+        linearForward(transposeWeights, weights, biases, input, expected);
+        linearForward(packed, biases, input, output);
+
+        // then
+        assertArrayEquals(expected.array(), output.array(), MAX_ERROR);
+    }
+
+    private void shouldLinearBatchForwardAsUnpacked(Trans transposeWeights) {
+        // given
+        PackedWeights packed = PackedWeights.pack(transposeWeights, weights, INPUT_SIZE, OUTPUT_SIZE);
+        FloatBuffer input = randomAlignedFB(random, INPUT_SIZE * BATCH_SIZE);
+        FloatBuffer output = FloatBuffer.allocate(OUTPUT_SIZE * BATCH_SIZE);
+        FloatBuffer expected = FloatBuffer.allocate(OUTPUT_SIZE * BATCH_SIZE);
+
+        // when
+        linearBatchForward(packed, biases, input, output, BATCH_SIZE);
+
+        // then
+        for (int b = 0; b < BATCH_SIZE; b++) {
+            input.limit((b + 1) * INPUT_SIZE).position(b * INPUT_SIZE);
+            // heap slices would be written at the start of the array, native calls ignore arrayOffset()
+            FloatBuffer row = FloatBuffer.allocate(OUTPUT_SIZE);
+            linearForward(transposeWeights, weights, biases, input.slice(), row);
+            expected.put(row.array());
+        }
+        assertArrayEquals(expected.array(), output.array(), MAX_ERROR);
+    }
+}
@@ -0,0 +1,68 @@
+package com.rtbhouse.model.natives;
+
+import static com.rtbhouse.model.natives.NeuralNetworkNativeOps.Trans.TRANSPOSE;
+import static com.rtbhouse.model.natives.NeuralNetworkNativeOpsTest.randomAlignedFB;
+
+import java.nio.FloatBuffer;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Scaling of {@link ParallelLinearOps#linearBatchForward} with the number of threads, against the single-threaded
+ * {@link NeuralNetworkNativeOps#linearBatchForward} on the same shapes.
+ */
+@State(Scope.Benchmark)
+public class ParallelLinearBenchmark {
+    private static final Random RANDOM = new Random();
+
+    @Param({ "1", "2", "4", "8" })
+    private int threads;
+    @Param({ "10000" })
+    private int batchSize;
+    @Param({ "200", "1000" })
+    private int inputRowSize;
+    @Param({ "200", "1000" })
+    private int outputRowSize;
+
+    private ForkJoinPool pool;
+    private ParallelLinearOps ops;
+
+    private FloatBuffer weights;
+    private FloatBuffer biases;
+    private FloatBuffer input;
+    private FloatBuffer output;
+
+    @Setup
+    public void init() {
+        pool = new ForkJoinPool(threads);
+        ops = new ParallelLinearOps(pool);
+
+        weights = randomAlignedFB(RANDOM, inputRowSize * outputRowSize);
+        biases = randomAlignedFB(RANDOM, outputRowSize);
+        input = randomAlignedFB(RANDOM, batchSize * inputRowSize);
+        output = FloatBufferPool.allocateAligned(batchSize * outputRowSize);
+    }
+
+    @TearDown
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public void parallelLinearBatchForward() {
+        ops.linearBatchForward(TRANSPOSE, weights, biases, input, output, inputRowSize, outputRowSize, batchSize);
+    }
+
+    @Benchmark
+    public void singleThreadedLinearBatchForward() {
+        NeuralNetworkNativeOps.linearBatchForward(TRANSPOSE, weights, biases, input, output, inputRowSize,
+                outputRowSize, batchSize);
+    }
+}
@@ -0,0 +1,93 @@
+package com.rtbhouse.model.natives;
+
+import static com.rtbhouse.model.natives.NeuralNetworkNativeOps.Trans.NO_TRANSPOSE;
+import static com.rtbhouse.model.natives.NeuralNetworkNativeOps.Trans.TRANSPOSE;
+import static com.rtbhouse.model.natives.NeuralNetworkNativeOps.linearBatchForward;
+import static com.rtbhouse.model.natives.NeuralNetworkNativeOpsTest.randomAlignedFB;
+import static org.junit.Assert.assertArrayEquals;
+
+import java.nio.FloatBuffer;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.rtbhouse.model.natives.NeuralNetworkNativeOps.Trans;
+
+public class ParallelLinearOpsTest {
+    private static final float MAX_ERROR = 1e-4f;
+    private static final int INPUT_ROW_SIZE = 70;
+    private static final int OUTPUT_ROW_SIZE = 150;
+
+    private final Random random = new Random(42);
+    private final ForkJoinPool pool = new ForkJoinPool(4);
+
+    @After
+    public void shutdownPool() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    public void shouldSplitBatchIntoRowTiles() {
+        // tiles of 4 rows
+        ParallelLinearOps ops = new ParallelLinearOps(pool, 4, 4 * Float.BYTES * (INPUT_ROW_SIZE + OUTPUT_ROW_SIZE));
+        shouldForwardAsSingleCall(ops, NO_TRANSPOSE, 101);
+        shouldForwardAsSingleCall(ops, TRANSPOSE, 101);
+    }
+
+    @Test
+    public void shouldSplitSmallBatchIntoColumnTiles() {
+        ParallelLinearOps ops = new ParallelLinearOps(pool);
+        shouldForwardAsSingleCall(ops, NO_TRANSPOSE, 1);
+        shouldForwardAsSingleCall(ops, TRANSPOSE, 2);
+    }
+
+    @Test
+    public void shouldRunOnCallerOnlyForSingleTile() {
+        ParallelLinearOps ops = new ParallelLinearOps(command -> {
+            throw new AssertionError("no tile expected on the executor");
+        }, 1, ParallelLinearOps.DEFAULT_TILE_BYTES);
+        shouldForwardAsSingleCall(ops, NO_TRANSPOSE, 5);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldHeapOutputThrow() {
+        new ParallelLinearOps(pool).linearBatchForward(NO_TRANSPOSE,
+                randomAlignedFB(random, INPUT_ROW_SIZE * OUTPUT_ROW_SIZE), randomAlignedFB(random, OUTPUT_ROW_SIZE),
+                randomAlignedFB(random, INPUT_ROW_SIZE), FloatBuffer.allocate(OUTPUT_ROW_SIZE), INPUT_ROW_SIZE,
+                OUTPUT_ROW_SIZE, 1);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void shouldBatchOverflowThrow() {
+        new ParallelLinearOps(pool).linearBatchForward(NO_TRANSPOSE,
+                randomAlignedFB(random, INPUT_ROW_SIZE * OUTPUT_ROW_SIZE), randomAlignedFB(random, OUTPUT_ROW_SIZE),
+                randomAlignedFB(random, INPUT_ROW_SIZE), randomAlignedFB(random, OUTPUT_ROW_SIZE), INPUT_ROW_SIZE,
+                OUTPUT_ROW_SIZE, 2);
+    }
+
+    private void shouldForwardAsSingleCall(ParallelLinearOps ops, Trans transposeWeights, int batchSize) {
+        // given
+        FloatBuffer weights = randomAlignedFB(random, INPUT_ROW_SIZE * OUTPUT_ROW_SIZE);
+        FloatBuffer biases = randomAlignedFB(random, OUTPUT_ROW_SIZE);
+        FloatBuffer input = randomAlignedFB(random, INPUT_ROW_SIZE * batchSize);
+        FloatBuffer output = FloatBufferPool.allocateAligned(OUTPUT_ROW_SIZE * batchSize);
+        FloatBuffer expected = FloatBufferPool.allocateAligned(OUTPUT_ROW_SIZE * batchSize);
+
+        // when
+        ops.linearBatchForward(transposeWeights, weights, biases, input, output, INPUT_ROW_SIZE, OUTPUT_ROW_SIZE,
+                batchSize);
+        linearBatchForward(transposeWeights, weights, biases, input, expected, INPUT_ROW_SIZE, OUTPUT_ROW_SIZE,
+                batchSize);
+
+        // then
+        assertArrayEquals(toArray(expected), toArray(output), MAX_ERROR);
+    }
+
+    private static float[] toArray(FloatBuffer buffer) {
+        float[] array = new float[buffer.limit()];
+        buffer.duplicate().get(array);
+        return array;
+    }
+}
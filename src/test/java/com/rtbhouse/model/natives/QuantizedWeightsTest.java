@@ -0,0 +1,164 @@
+package com.rtbhouse.model.natives;
+
+import static com.rtbhouse.model.natives.NeuralNetworkNativeOps.Trans.NO_TRANSPOSE;
+import static com.rtbhouse.model.natives.NeuralNetworkNativeOps.Trans.TRANSPOSE;
+import static com.rtbhouse.model.natives.NeuralNetworkNativeOps.linearBatchForward;
+import static com.rtbhouse.model.natives.NeuralNetworkNativeOps.linearForward;
+import static com.rtbhouse.model.natives.NeuralNetworkNativeOpsTest.randomAlignedFB;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.FloatBuffer;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import com.rtbhouse.model.natives.NeuralNetworkNativeOps.Trans;
+
+public class QuantizedWeightsTest {
+    private static final float MAX_ERROR = 1e-4f;
+    private static final int INPUT_SIZE = 300;
+    private static final int OUTPUT_SIZE = 150;
+    private static final int BATCH_SIZE = 7;
+
+    private final Random random = new Random(42);
+    private final FloatBuffer weights = randomAlignedFB(random, INPUT_SIZE * OUTPUT_SIZE);
+    private final FloatBuffer biases = randomAlignedFB(random, OUTPUT_SIZE);
+
+    @Rule
+    public final JavaCrossoverSizeRule javaCrossoverSize = new JavaCrossoverSizeRule(0);
+
+    @Test
+    public void shouldDequantizeWithinBound() {
+        shouldDequantizeWithinBound(NO_TRANSPOSE, false);
+        shouldDequantizeWithinBound(TRANSPOSE, false);
+        shouldDequantizeWithinBound(NO_TRANSPOSE, true);
+        shouldDequantizeWithinBound(TRANSPOSE, true);
+    }
+
+    @Test
+    public void shouldLinearForwardWithinBound() {
+        shouldLinearForwardWithinBound(NO_TRANSPOSE, false);
+        shouldLinearForwardWithinBound(TRANSPOSE, false);
+        shouldLinearForwardWithinBound(NO_TRANSPOSE, true);
+        shouldLinearForwardWithinBound(TRANSPOSE, true);
+    }
+
+    @Test
+    public void shouldLinearForwardInJavaAsNatively() {
+        // given
+        QuantizedWeights quantized = QuantizedWeights.quantize(NO_TRANSPOSE, weights, INPUT_SIZE, OUTPUT_SIZE, true);
+        FloatBuffer input = randomAlignedFB(random, INPUT_SIZE);
+        FloatBuffer nativeOutput = FloatBuffer.allocate(OUTPUT_SIZE);
+        FloatBuffer javaOutput = FloatBuffer.allocate(OUTPUT_SIZE);
+
+        // when
+        linearForward(quantized, biases, input, nativeOutput);
+        NeuralNetworkNativeOps.setJavaCrossoverSize(Integer.MAX_VALUE);
+        linearForward(quantized, biases, input, javaOutput);
+
+        // then
+        assertArrayEquals(nativeOutput.array(), javaOutput.array(), MAX_ERROR);
+    }
+
+    @Test
+    public void shouldForwardBatchAsSingleRows() {
+        shouldForwardBatchAsSingleRows(false);
+        shouldForwardBatchAsSingleRows(true);
+    }
+
+    @Test
+    public void shouldQuantizeZeroWeights() {
+        // given
+        QuantizedWeights quantized = QuantizedWeights.quantize(NO_TRANSPOSE, FloatBuffer.allocate(6), 3, 2, true);
+        FloatBuffer output = FloatBuffer.allocate(2);
+
+        // when
+        linearForward(quantized, FloatBuffer.wrap(new float[] { 1, 2 }), FloatBuffer.wrap(new float[] { 1, 2, 3 }),
+                output);
+
+        // then
+        assertArrayEquals(new float[] { 1, 2 }, output.array(), 0);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void shouldQuantizeOverflowThrow() {
+        QuantizedWeights.quantize(NO_TRANSPOSE, weights, INPUT_SIZE + 1, OUTPUT_SIZE);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void shouldLinearForwardOverflowThrow() {
+        QuantizedWeights quantized = QuantizedWeights.quantize(NO_TRANSPOSE, weights, INPUT_SIZE, OUTPUT_SIZE);
+        linearForward(quantized, biases, randomAlignedFB(random, INPUT_SIZE - 1), FloatBuffer.allocate(OUTPUT_SIZE));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void shouldLinearBatchForwardOverflowThrow() {
+        QuantizedWeights quantized = QuantizedWeights.quantize(NO_TRANSPOSE, weights, INPUT_SIZE, OUTPUT_SIZE);
+        linearBatchForward(quantized, biases, randomAlignedFB(random, INPUT_SIZE * BATCH_SIZE),
+                FloatBuffer.allocate(OUTPUT_SIZE * BATCH_SIZE), BATCH_SIZE + 1);
+    }
+
+    private void shouldDequantizeWithinBound(Trans transposeWeights, boolean withZeroPoints) {
+        // when
+        QuantizedWeights quantized = QuantizedWeights.quantize(transposeWeights, weights, INPUT_SIZE, OUTPUT_SIZE,
+                withZeroPoints);
+
+        // then
+        assertEquals(withZeroPoints, quantized.hasZeroPoints());
+        for (int r = 0; r < OUTPUT_SIZE; r++) {
+            for (int c = 0; c < INPUT_SIZE; c++) {
+                float expected = weights.get(transposeWeights == TRANSPOSE ? c * OUTPUT_SIZE + r : r * INPUT_SIZE + c);
+                assertEquals(expected, quantized.get(r, c), quantized.getMaxWeightError(r) + 1e-7f);
+            }
+        }
+    }
+
+    private void shouldLinearForwardWithinBound(Trans transposeWeights, boolean withZeroPoints) {
+        // given
+        QuantizedWeights quantized = QuantizedWeights.quantize(transposeWeights, weights, INPUT_SIZE, OUTPUT_SIZE,
+                withZeroPoints);
+        FloatBuffer input = randomAlignedFB(random, INPUT_SIZE);
+        FloatBuffer expected = FloatBuffer.allocate(OUTPUT_SIZE);
+        FloatBuffer output = FloatBuffer.allocate(OUTPUT_SIZE);
+
+        // when
+        linearForward(transposeWeights, weights, biases, input, expected);
+        linearForward(quantized, biases, input, output);
+
+        // then
+        float inputAbsSum = 0;
+        for (int c = 0; c < INPUT_SIZE; c++) {
+            inputAbsSum += Math.abs(input.get(c));
+        }
+        for (int r = 0; r < OUTPUT_SIZE; r++) {
+            float bound = quantized.getMaxWeightError(r) * inputAbsSum + MAX_ERROR;
+            float error = Math.abs(expected.get(r) - output.get(r));
+            assertTrue("error " + error + " exceeds bound " + bound + " in row " + r, error <= bound);
+        }
+    }
+
+    private void shouldForwardBatchAsSingleRows(boolean withZeroPoints) {
+        // given
+        QuantizedWeights quantized = QuantizedWeights.quantize(TRANSPOSE, weights, INPUT_SIZE, OUTPUT_SIZE,
+                withZeroPoints);
+        FloatBuffer input = randomAlignedFB(random, INPUT_SIZE * BATCH_SIZE);
+        FloatBuffer output = FloatBuffer.allocate(OUTPUT_SIZE * BATCH_SIZE);
+        FloatBuffer expected = FloatBuffer.allocate(OUTPUT_SIZE * BATCH_SIZE);
+
+        // when
+        linearBatchForward(quantized, biases, input, output, BATCH_SIZE);
+
+        // then
+        for (int b = 0; b < BATCH_SIZE; b++) {
+            input.limit((b + 1) * INPUT_SIZE).position(b * INPUT_SIZE);
+            // heap slices would be written at the start of the array, native calls ignore arrayOffset()
+            FloatBuffer row = FloatBuffer.allocate(OUTPUT_SIZE);
+            linearForward(quantized, biases, input.slice(), row);
+            expected.put(row.array());
+        }
+        assertArrayEquals(expected.array(), output.array(), MAX_ERROR);
+    }
+}
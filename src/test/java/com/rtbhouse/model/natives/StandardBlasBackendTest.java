@@ -0,0 +1,104 @@
+package com.rtbhouse.model.natives;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class StandardBlasBackendTest {
+    private static final float MAX_ERROR = 1e-5f;
+
+    private static final BlasBackend CUSTOM = new BlasBackend() {
+        @Override
+        public String getName() {
+            return "custom";
+        }
+
+        @Override
+        public String getLibraryDirectory() {
+            return "";
+        }
+    };
+
+    private static final BlasBackend MISSING = new BlasBackend() {
+        @Override
+        public String getName() {
+            return "missing";
+        }
+
+        @Override
+        public String getLibraryDirectory() {
+            return "missing/";
+        }
+    };
+
+    @Test
+    public void shouldSelectForcedBackend() {
+        assertSame(StandardBlasBackend.MKL, StandardBlasBackend.select(" MKL", Collections.<BlasBackend> emptyList()));
+        assertSame(StandardBlasBackend.JAVA, StandardBlasBackend.select("java", Collections.singletonList(CUSTOM)));
+        assertSame(MISSING, StandardBlasBackend.select("missing", Collections.singletonList(MISSING)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldSelectUnknownForcedBackendThrow() {
+        StandardBlasBackend.select("acml", Collections.<BlasBackend> emptyList());
+    }
+
+    @Test
+    public void shouldPreferBundledDiscoveredBackend() {
+        // given
+        List<BlasBackend> discovered = Arrays.asList(MISSING, CUSTOM);
+
+        // then
+        assertSame(CUSTOM, StandardBlasBackend.select(null, discovered));
+        assertSame(StandardBlasBackend.OPENBLAS,
+                StandardBlasBackend.select(null, Collections.singletonList(MISSING)));
+    }
+
+    @Test
+    public void shouldLoadNativeLibraryOfFirstBundledBackendForJava() {
+        assertEquals("", StandardBlasBackend.libraryDirectoryOf(StandardBlasBackend.JAVA));
+        assertEquals("mkl/", StandardBlasBackend.libraryDirectoryOf(StandardBlasBackend.MKL));
+    }
+
+    @Test
+    public void shouldComputeGemmInJava() {
+        // given
+        int m = 7;
+        int n = 20;
+        int k = 30;
+        Random random = new Random(1);
+        float[] a = new float[m * k];
+        float[] b = new float[k * n];
+        float[] y = new float[m * n];
+        for (int i = 0; i < a.length; i++) {
+            a[i] = random.nextFloat() - 0.5f;
+        }
+        for (int i = 0; i < b.length; i++) {
+            b[i] = random.nextFloat() - 0.5f;
+        }
+        for (int i = 0; i < y.length; i++) {
+            y[i] = random.nextFloat() - 0.5f;
+        }
+        float[] expected = y.clone();
+        for (int r = 0; r < m; r++) {
+            for (int c = 0; c < n; c++) {
+                for (int p = 0; p < k; p++) {
+                    expected[r * n + c] += a[r * k + p] * b[p * n + c];
+                }
+            }
+        }
+
+        // when
+        JavaNeuralNetworkOps.gemm(a, b, y, m, n, k);
+
+        // then
+        assertArrayEquals(expected, y, MAX_ERROR);
+    }
+}
@@ -0,0 +1,313 @@
+package com.rtbhouse.tests;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+/**
+ * <p>
+ * Compares two JMH result files written with {@code -rf json}: a committed baseline and a fresh run, e.g. of a new
+ * native build. A benchmark regressed when its score is worse than the baseline by more than the relative
+ * {@code threshold} and the difference exceeds the sum of both score errors (99.9% confidence intervals reported by
+ * JMH), so noisy benchmarks are not flagged. "Worse" is lower for throughput mode and higher for the time modes.
+ * </p>
+ * Benchmarks are matched by name, mode, thread count and parameters; those present in only one file are skipped.
+ *
+ * <pre>
+ * java -cp ... com.rtbhouse.tests.BenchmarkComparator baseline.json current.json [threshold]
+ * </pre>
+ *
+ * exits with status 1 if any benchmark regressed.
+ */
+public final class BenchmarkComparator {
+
+    /**
+     * Default relative score change treated as a regression.
+     */
+    public static final double DEFAULT_THRESHOLD = 0.1;
+
+    private static final String THROUGHPUT_MODE = "thrpt";
+    private static final Pattern JSON_NUMBER =
+            Pattern.compile("-?(0|[1-9][0-9]*)(\\.[0-9]+)?([eE][+-]?[0-9]+)?|NaN|-?Infinity");
+    private static final String ESCAPES = "\"\\/bfnrt";
+    private static final String UNESCAPED = "\"\\/\b\f\n\r\t";
+
+    /**
+     * Score of one benchmark in the baseline and in the current run.
+     */
+    public static final class Comparison {
+        private final String key;
+        private final String mode;
+        private final double baselineScore;
+        private final double baselineError;
+        private final double currentScore;
+        private final double currentError;
+        private final String unit;
+        private final boolean regression;
+
+        Comparison(String key, String mode, double baselineScore, double baselineError, double currentScore,
+                double currentError, String unit, double threshold) {
+            this.key = key;
+            this.mode = mode;
+            this.baselineScore = baselineScore;
+            this.baselineError = baselineError;
+            this.currentScore = currentScore;
+            this.currentError = currentError;
+            this.unit = unit;
+
+            double worsening = THROUGHPUT_MODE.equals(mode) ? baselineScore - currentScore
+                    : currentScore - baselineScore;
+            this.regression = worsening > threshold * baselineScore
+                    && worsening > orZero(baselineError) + orZero(currentError);
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        /**
+         * Returns {@code current / baseline} score.
+         */
+        public double getRatio() {
+            return currentScore / baselineScore;
+        }
+
+        public boolean isRegression() {
+            return regression;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%s %-70s %14.3f \u00b1 %-10.3f -> %14.3f \u00b1 %-10.3f %-8s (x%.3f)",
+                    regression ? "REGRESSION" : "ok        ", key, baselineScore, orZero(baselineError),
+                    currentScore, orZero(currentError), unit, getRatio());
+        }
+    }
+
+    private BenchmarkComparator() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2 || args.length > 3) {
+            System.err.println("usage: BenchmarkComparator baseline.json current.json [threshold]");
+            System.exit(2);
+        }
+        double threshold = args.length == 3 ? Double.parseDouble(args[2]) : DEFAULT_THRESHOLD;
+
+        List<Comparison> comparisons = compare(read(args[0]), read(args[1]), threshold);
+        boolean regressed = false;
+        for (Comparison comparison : comparisons) {
+            System.out.println(comparison);
+            regressed |= comparison.isRegression();
+        }
+        System.exit(regressed ? 1 : 0);
+    }
+
+    /**
+     * Reads a JMH JSON result file.
+     */
+    public static String read(String path) throws IOException {
+        return new String(Files.readAllBytes(Paths.get(path)), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Compares benchmarks present in both JMH JSON results, in the order of {@code currentJson}.
+     *
+     * @throws IllegalArgumentException
+     *             if either result is malformed or lacks a field used for the comparison
+     */
+    public static List<Comparison> compare(String baselineJson, String currentJson, double threshold) {
+        Map<String, Map<String, String>> baseline = index(baselineJson);
+        Map<String, Map<String, String>> current = index(currentJson);
+
+        List<Comparison> comparisons = new ArrayList<>();
+        for (Map.Entry<String, Map<String, String>> entry : current.entrySet()) {
+            Map<String, String> baselineResult = baseline.get(entry.getKey());
+            if (baselineResult == null) {
+                continue;
+            }
+            Map<String, String> baselineMetric = members(required(baselineResult, "primaryMetric"));
+            Map<String, String> currentMetric = members(required(entry.getValue(), "primaryMetric"));
+            comparisons.add(new Comparison(entry.getKey(), string(required(entry.getValue(), "mode")),
+                    number(required(baselineMetric, "score")), error(baselineMetric.get("scoreError")),
+                    number(required(currentMetric, "score")), error(currentMetric.get("scoreError")),
+                    string(required(currentMetric, "scoreUnit")), threshold));
+        }
+        return comparisons;
+    }
+
+    private static Map<String, Map<String, String>> index(String json) {
+        Map<String, Map<String, String>> results = new LinkedHashMap<>();
+        for (String element : elements(json, '[', ']')) {
+            Map<String, String> result = members(element);
+            StringBuilder key = new StringBuilder(shortName(string(required(result, "benchmark"))))
+                    .append(':').append(string(required(result, "mode")))
+                    .append(":t").append((int) number(required(result, "threads")));
+            String params = result.get("params");
+            if (params != null) {
+                Map<String, String> sorted = new TreeMap<>();
+                for (Map.Entry<String, String> param : members(params).entrySet()) {
+                    sorted.put(param.getKey(), string(param.getValue()));
+                }
+                key.append(sorted);
+            }
+            results.put(key.toString(), result);
+        }
+        return results;
+    }
+
+    private static String shortName(String benchmark) {
+        int method = benchmark.lastIndexOf('.');
+        int type = benchmark.lastIndexOf('.', method - 1);
+        return benchmark.substring(type + 1);
+    }
+
+    private static double orZero(double error) {
+        return Double.isNaN(error) ? 0 : error;
+    }
+
+    /*
+     * JMH results are read by splitting JSON arrays and objects into the raw text of their elements and converting
+     * only the few scalar fields used above, instead of parsing whole documents.
+     */
+
+    private static String required(Map<String, String> object, String name) {
+        String value = object.get(name);
+        if (value == null) {
+            throw new IllegalArgumentException("missing \"" + name + "\"");
+        }
+        return value;
+    }
+
+    /**
+     * Returns the members of a JSON object by name, as raw JSON text.
+     */
+    private static Map<String, String> members(String json) {
+        Map<String, String> members = new LinkedHashMap<>();
+        for (String member : elements(json, '{', '}')) {
+            int nameEnd = endOfString(member, 0);
+            String value = nameEnd < 0 ? "" : member.substring(nameEnd).trim();
+            if (!value.startsWith(":") || value.length() == 1) {
+                throw new IllegalArgumentException("invalid member " + member);
+            }
+            members.put(string(member.substring(0, nameEnd)), value.substring(1).trim());
+        }
+        return members;
+    }
+
+    /**
+     * Returns the elements of a JSON array, or members of a JSON object, as raw JSON text.
+     */
+    private static List<String> elements(String json, char open, char close) {
+        String text = json.trim();
+        if (text.length() < 2 || text.charAt(0) != open) {
+            throw new IllegalArgumentException("expected '" + open + "'");
+        }
+        List<String> elements = new ArrayList<>();
+        StringBuilder closers = new StringBuilder().append(close);
+        int start = 1;
+        int i = 1;
+        while (closers.length() > 0) {
+            if (i >= text.length()) {
+                throw new IllegalArgumentException("unexpected end of input");
+            }
+            char c = text.charAt(i);
+            if (c == '"') {
+                i = endOfString(text, i);
+                if (i < 0) {
+                    throw new IllegalArgumentException("unterminated string");
+                }
+                continue;
+            } else if (c == '[') {
+                closers.append(']');
+            } else if (c == '{') {
+                closers.append('}');
+            } else if (c == ']' || c == '}') {
+                if (c != closers.charAt(closers.length() - 1)) {
+                    throw new IllegalArgumentException("unexpected '" + c + "' at position " + i);
+                }
+                closers.setLength(closers.length() - 1);
+            }
+            if (closers.length() == 0 || c == ',' && closers.length() == 1) {
+                String element = text.substring(start, i).trim();
+                if (element.isEmpty() && (c == ',' || !elements.isEmpty())) {
+                    throw new IllegalArgumentException("missing element at position " + i);
+                }
+                if (!element.isEmpty()) {
+                    elements.add(element);
+                }
+                start = i + 1;
+            }
+            i++;
+        }
+        if (i != text.length()) {
+            throw new IllegalArgumentException("unexpected trailing content at position " + i);
+        }
+        return elements;
+    }
+
+    /**
+     * Returns the position after the JSON string starting at {@code start}, or {@code -1} if there is none.
+     */
+    private static int endOfString(String text, int start) {
+        if (start >= text.length() || text.charAt(start) != '"') {
+            return -1;
+        }
+        for (int i = start + 1; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (c == '"') {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    private static String string(String json) {
+        if (endOfString(json, 0) != json.length()) {
+            throw new IllegalArgumentException("expected string, got " + json);
+        }
+        StringBuilder string = new StringBuilder();
+        for (int i = 1; i < json.length() - 1; i++) {
+            char c = json.charAt(i);
+            if (c == '\\') {
+                c = json.charAt(++i);
+                int escape = ESCAPES.indexOf(c);
+                if (c == 'u' && i + 4 < json.length()) {
+                    c = (char) Integer.parseInt(json.substring(i + 1, i + 5), 16);
+                    i += 4;
+                } else if (escape >= 0) {
+                    c = UNESCAPED.charAt(escape);
+                } else {
+                    throw new IllegalArgumentException("invalid escape in " + json);
+                }
+            }
+            string.append(c);
+        }
+        return string.toString();
+    }
+
+    /**
+     * Parses a JSON number, also accepting {@code NaN} and {@code Infinity}, bare or quoted, as JMH may emit them.
+     */
+    private static double number(String json) {
+        String number = json.startsWith("\"") ? string(json) : json;
+        if (!JSON_NUMBER.matcher(number).matches()) {
+            throw new IllegalArgumentException("expected number, got " + json);
+        }
+        return Double.parseDouble(number);
+    }
+
+    private static double error(String json) {
+        return json == null ? Double.NaN : number(json);
+    }
+}
@@ -0,0 +1,161 @@
+package com.rtbhouse.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import com.rtbhouse.tests.BenchmarkComparator.Comparison;
+
+public class BenchmarkComparatorTest {
+
+    private static final double DELTA = 1e-9;
+
+    @Test
+    public void shouldFlagThroughputDrop() {
+        // given
+        String baseline = result("thrpt", 1000, 10, "1000");
+        String current = result("thrpt", 800, 10, "1000");
+
+        // when
+        List<Comparison> comparisons = BenchmarkComparator.compare(baseline, current, 0.1);
+
+        // then
+        assertEquals(1, comparisons.size());
+        assertTrue(comparisons.get(0).isRegression());
+        assertEquals(0.8, comparisons.get(0).getRatio(), DELTA);
+        assertEquals("NNNOBenchmark.nativeDirectGemv:thrpt:t1{batchSize=1000, inputSize=300}",
+                comparisons.get(0).getKey());
+    }
+
+    @Test
+    public void shouldFlagAverageTimeIncrease() {
+        // given
+        String baseline = result("avgt", 100, 1, "1000");
+        String current = result("avgt", 150, 1, "1000");
+
+        // when
+        List<Comparison> comparisons = BenchmarkComparator.compare(baseline, current, 0.1);
+
+        // then
+        assertTrue(comparisons.get(0).isRegression());
+    }
+
+    @Test
+    public void shouldNotFlagImprovement() {
+        // given
+        String baseline = result("avgt", 150, 1, "1000");
+        String current = result("avgt", 100, 1, "1000");
+
+        // when
+        List<Comparison> comparisons = BenchmarkComparator.compare(baseline, current, 0.1);
+
+        // then
+        assertFalse(comparisons.get(0).isRegression());
+    }
+
+    @Test
+    public void shouldNotFlagChangeWithinError() {
+        // given
+        String baseline = result("thrpt", 1000, 150, "1000");
+        String current = result("thrpt", 800, 150, "1000");
+
+        // when
+        List<Comparison> comparisons = BenchmarkComparator.compare(baseline, current, 0.1);
+
+        // then
+        assertFalse(comparisons.get(0).isRegression());
+    }
+
+    @Test
+    public void shouldTreatNaNErrorAsZero() {
+        // given
+        String baseline = result("thrpt", 1000, Double.NaN, "1000");
+        String current = result("thrpt", 800, Double.NaN, "1000");
+
+        // when
+        List<Comparison> comparisons = BenchmarkComparator.compare(baseline, current, 0.1);
+
+        // then
+        assertTrue(comparisons.get(0).isRegression());
+    }
+
+    @Test
+    public void shouldSkipBenchmarksWithDifferentParams() {
+        // given
+        String baseline = result("thrpt", 1000, 10, "1000");
+        String current = result("thrpt", 800, 10, "200");
+
+        // when
+        List<Comparison> comparisons = BenchmarkComparator.compare(baseline, current, 0.1);
+
+        // then
+        assertTrue(comparisons.isEmpty());
+    }
+
+    @Test
+    public void shouldIgnoreUnusedFieldsWithBracketsInStrings() {
+        // given
+        String baseline = result("thrpt", 1000, 10, "1000").replace("\"1.21\"", "\"{[\\\"]},\"");
+        String current = result("thrpt", 800, 10, "1000");
+
+        // when
+        List<Comparison> comparisons = BenchmarkComparator.compare(baseline, current, 0.1);
+
+        // then
+        assertEquals(1, comparisons.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldTruncatedResultThrow() {
+        String baseline = result("thrpt", 1000, 10, "1000");
+        BenchmarkComparator.compare(baseline.substring(0, baseline.length() / 2), baseline, 0.1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldMismatchedBracketsThrow() {
+        String baseline = result("thrpt", 1000, 10, "1000");
+        BenchmarkComparator.compare(baseline.replace("[ ]", "[ }"), baseline, 0.1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldMissingScoreThrow() {
+        String baseline = result("thrpt", 1000, 10, "1000");
+        BenchmarkComparator.compare(baseline.replace("\"score\"", "\"other\""), baseline, 0.1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldInvalidNumberThrow() {
+        String baseline = result("thrpt", 1000, 10, "1000");
+        BenchmarkComparator.compare(baseline.replace("1000.0", "1000.0.0"), baseline, 0.1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldTrailingContentThrow() {
+        String baseline = result("thrpt", 1000, 10, "1000");
+        BenchmarkComparator.compare(baseline + "]", baseline, 0.1);
+    }
+
+    private static String result(String mode, double score, double error, String batchSize) {
+        return "[ {\n"
+                + "  \"jmhVersion\" : \"1.21\",\n"
+                + "  \"benchmark\" : \"com.rtbhouse.model.natives.NNNOBenchmark.nativeDirectGemv\",\n"
+                + "  \"mode\" : \"" + mode + "\",\n"
+                + "  \"threads\" : 1,\n"
+                + "  \"forks\" : 5,\n"
+                + "  \"jvmArgs\" : [ ],\n"
+                + "  \"params\" : { \"inputSize\" : \"300\", \"batchSize\" : \"" + batchSize + "\" },\n"
+                + "  \"primaryMetric\" : {\n"
+                + "    \"score\" : " + score + ",\n"
+                + "    \"scoreError\" : " + (Double.isNaN(error) ? "\"NaN\"" : String.valueOf(error)) + ",\n"
+                + "    \"scoreConfidence\" : [ 0.0, 1.0E9 ],\n"
+                + "    \"scoreUnit\" : \"ops/s\",\n"
+                + "    \"rawData\" : [ [ 1.5, 2.5 ] ]\n"
+                + "  },\n"
+                + "  \"secondaryMetrics\" : { }\n"
+                + "} ]\n";
+    }
+}